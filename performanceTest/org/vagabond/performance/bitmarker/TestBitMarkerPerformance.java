@@ -17,6 +17,7 @@ import org.vagabond.mapping.scenarioToDB.DatabaseScenarioLoader.LoadMode;
 import org.vagabond.test.TestOptions;
 import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.GlobalResetter;
+import org.vagabond.util.ewah.IBitSet.BitsetType;
 
 public class TestBitMarkerPerformance {
 	static Logger log = Logger.getLogger(TestBitMarkerPerformance.class);
@@ -32,6 +33,12 @@ public class TestBitMarkerPerformance {
 	private static int[][] sizesForSetTests = new int[][] {{10,500, 50}, {100,500, 50}, 
 		{1000,500, 10}, {10000,500,5}, {25000,50,2}};
 	
+	/** marker set variants: MarkerSet and one BitMarkerSet per bitset type */
+	private static BitsetType[] bitTypes = new BitsetType[] {
+		BitsetType.EWAHBitSet, BitsetType.RoaringBitSet };
+	private static String[] variantNames = new String[] { 
+		"MARKER", "BITMARKER(EWAH)", "BITMARKER(ROARING)" }; 
+	
 	private static int maxRel = 3;
 	private static int maxAttr = 3;
 	private static int maxTid = 99999;
@@ -42,19 +49,21 @@ public class TestBitMarkerPerformance {
 		loadToDB("resource/exampleScenarios/performanceTest1.xml");
 		genTestSets();
 		
-		IMarkerSet markerset1 = MarkerFactory.newMarkerSet();
-		IMarkerSet bitset1 = MarkerFactory.newMarkerSet();
+		runTests();
+	}
+	
+	public static void runTests () throws Exception {
 		if (log.isDebugEnabled()) {log.debug("------ ADDING TEST ------");};
-		if (log.isDebugEnabled()) {log.debug("\t-- MARKER SET --");};
-		AddingTest(markerset1);
-		if (log.isDebugEnabled()) {log.debug("\t-- BIT MARKER SET --");};
-		AddingTest(bitset1);
+		for(int v = 0; v < variantNames.length; v++) {
+			if (log.isDebugEnabled()) {log.debug("\t-- " + variantNames[v] + " --");};
+			AddingTest(newSet(v));
+		}
 
 		if (log.isDebugEnabled()) {log.debug("------ CONTAINMENT TEST ------");};
-		if (log.isDebugEnabled()) {log.debug("\t-- MARKER SET --");};
-		ContainingTest(false);
-		if (log.isDebugEnabled()) {log.debug("\t-- BIT MARKER SET --");};
-		ContainingTest(true);
+		for(int v = 0; v < variantNames.length; v++) {
+			if (log.isDebugEnabled()) {log.debug("\t-- " + variantNames[v] + " --");};
+			ContainingTest(v);
+		}
 		
 		if (log.isDebugEnabled()) {log.debug("------ UNION TEST ------");};
 		UnionTest();
@@ -98,40 +107,25 @@ public class TestBitMarkerPerformance {
 		int sizePos = getPosForSize(size);
 		int numSets = sizesForSetTests[sizePos][2];
 
-		long sumM = 0;
-		long testStart = System.currentTimeMillis();
-		for(int i = 0; i < numIter; i+=2) {
-			long beforeC = System.currentTimeMillis();
-			set1 = testsets[sizePos][0][number.nextInt(numSets)].cloneSet();
-			set2 = testsets[sizePos][0][number.nextInt(numSets)];
-			long afterC = System.currentTimeMillis();
-			sumM -= (afterC - beforeC);
-			
-			doSetOp(oper, set1, set2);
-			
-		}
-		long testEnd = System.currentTimeMillis();
-		sumM += (testEnd - testStart);
-		
-		long sumB = 0;
-		testStart = System.currentTimeMillis();
-		for(int i = 0; i < numIter; i+=2) {
-			long beforeC = System.currentTimeMillis();
-			set1 = testsets[sizePos][1][number.nextInt(numSets)].cloneSet();
-			set2 = testsets[sizePos][1][number.nextInt(numSets)];
-			long afterC = System.currentTimeMillis();
-			sumB -= (afterC - beforeC);
+		if (log.isDebugEnabled()) {log.debug("------ SIZE " + size + " ------");};
+		for(int v = 0; v < variantNames.length; v++) {
+			long sum = 0;
+			long testStart = System.currentTimeMillis();
+			for(int i = 0; i < numIter; i+=2) {
+				long beforeC = System.currentTimeMillis();
+				set1 = testsets[sizePos][v][number.nextInt(numSets)].cloneSet();
+				set2 = testsets[sizePos][v][number.nextInt(numSets)];
+				long afterC = System.currentTimeMillis();
+				sum -= (afterC - beforeC);
+				
+				doSetOp(oper, set1, set2);
+			}
+			long testEnd = System.currentTimeMillis();
+			sum += (testEnd - testStart);
 			
-			doSetOp(oper, set1, set2);	
+			if (log.isDebugEnabled()) {log.debug(variantNames[v] + ": " + oper.toString() + " Between " + numIter
+					+ " Sets of " + size + " elements each time: " + sum);};
 		}
-		testEnd = System.currentTimeMillis();
-		sumB += (testEnd - testStart);
-		
-		if (log.isDebugEnabled()) {log.debug("------ SIZE " + size + " ------");};
-		if (log.isDebugEnabled()) {log.debug("MARKER: " + oper.toString() + " Between " + numIter
-				+ " Sets of " + size + " elements each time: " + sumM);};
-		if (log.isDebugEnabled()) {log.debug("BITMARKER: " + oper.toString() + " Between " + numIter 
-				+ " Sets of " + size + " elements each time: " + sumB);};
 	}
 	
 	private static void doSetOp(SetOps oper, IMarkerSet set1, IMarkerSet set2) {
@@ -162,40 +156,40 @@ public class TestBitMarkerPerformance {
 
 	
 	public static void genTestSets () throws Exception {
-		Random rand = new Random(0);
 		testsets = new IMarkerSet[sizesForSetTests.length][][];
 		
 		if (log.isDebugEnabled()) {log.debug("-------- GENERATE TEST SETS ----------");};
 		
 		for(int i = 0; i < sizesForSetTests.length; i++) {
 			int numSets = sizesForSetTests[i][2];
-			testsets[i] = new IMarkerSet[2][];
+			testsets[i] = new IMarkerSet[variantNames.length][];
 		
 			if (log.isDebugEnabled()) {log.debug("\t-- size: " + sizesForSetTests[i][0]);};
-			testsets[i][0] = genSets(false, numSets, sizesForSetTests[i][0], 
-					rand);
-			testsets[i][1] = genSets(true, numSets, sizesForSetTests[i][0], 
-					rand);
+			for(int v = 0; v < variantNames.length; v++)
+				testsets[i][v] = genSets(v, numSets, sizesForSetTests[i][0], 
+						new Random(i));
 		}
 		if (log.isDebugEnabled()) {log.debug("-------- DONE: GENERATE TEST SETS ----");};
 	}
 	
-	private static IMarkerSet[] genSets (boolean bit, int numSets, int card, 
+	private static IMarkerSet[] genSets (int variant, int numSets, int card, 
 			Random number) throws Exception {
 		IMarkerSet[] result = new IMarkerSet[numSets];
 		
 		for(int i = 0; i < numSets; i++) {
-			if (bit)
-				result[i] = MarkerFactory.newBitMarkerSet();
-			else
-				result[i] = MarkerFactory.newMarkerSet();
-
+			result[i] = newSet(variant);
 			populateSet(result[i], card, number);
 		}
 		
 		return result;
 	}
 	
+	private static IMarkerSet newSet (int variant) {
+		if (variant == 0)
+			return MarkerFactory.newMarkerSet();
+		return MarkerFactory.newBitMarkerSet(bitTypes[variant - 1]);
+	}
+	
 	public static void populateSet(IMarkerSet set1, int card, Random number) 
 			throws Exception{
 		for(int i = 0; i < card; i++)
@@ -204,9 +198,9 @@ public class TestBitMarkerPerformance {
 	
 	
 	
-	public static void  ContainingTest(boolean bit) throws Exception{
+	public static void  ContainingTest(int variant) throws Exception{
 		Random number = new Random(0);
-		int testsetOffset = bit ? 1 : 0;
+		int testsetOffset = variant;
 		
 		// for each size
 		for(int i = 0; i < sizesForSetTests.length; i++) {
@@ -0,0 +1,112 @@
+package org.vagabond.performance.dictionary;
+
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+import org.vagabond.util.CompactStringIdMap;
+import org.vagabond.util.IdMap;
+
+/**
+ * Compares memory footprint and lookup throughput of {@link IdMap} and
+ * {@link CompactStringIdMap} when used as tid dictionaries in the
+ * ScenarioDictionary.
+ */
+public class TestTidDictionaryPerformance {
+	static Logger log = Logger.getLogger(TestTidDictionaryPerformance.class);
+
+	private static int[] sizes = new int[] { 1000, 10000, 100000, 1000000 };
+	private static int numLookups = 1000000;
+
+	public static void main (String[] args) throws Exception {
+		PropertyConfigurator.configure("resource/test/perfLog4jproperties.txt");
+
+		for(int size: sizes) {
+			String[] tids = genTids(size);
+
+			if (log.isDebugEnabled()) {log.debug("------ SIZE " + size + " ------");};
+			MemoryTest(tids);
+			LookupTest(tids);
+		}
+	}
+
+	public static void MemoryTest (String[] tids) {
+		long before, after;
+		IdMap<String> idMap;
+		CompactStringIdMap compact;
+
+		before = usedMemory();
+		idMap = new IdMap<String> ();
+		for(String tid: tids)
+			idMap.put(tid);
+		after = usedMemory();
+		if (log.isDebugEnabled()) {log.debug("IDMAP: memory for " + tids.length
+				+ " tids: " + (after - before) + " bytes");};
+
+		before = usedMemory();
+		compact = new CompactStringIdMap();
+		for(String tid: tids)
+			compact.put(tid);
+		after = usedMemory();
+		if (log.isDebugEnabled()) {log.debug("COMPACT: memory for " + tids.length
+				+ " tids: " + (after - before) + " bytes (arrays: "
+				+ compact.getByteSize() + ")");};
+
+		// keep both maps reachable until after measuring
+		if (idMap.size() != compact.size())
+			log.error("maps differ in size");
+	}
+
+	public static void LookupTest (String[] tids) {
+		IdMap<String> idMap = new IdMap<String> ();
+		CompactStringIdMap compact = new CompactStringIdMap();
+		Random rand = new Random(0);
+		long checksum = 0;
+		long before, end;
+
+		for(String tid: tids) {
+			idMap.put(tid);
+			compact.put(tid);
+		}
+
+		before = System.currentTimeMillis();
+		for(int i = 0; i < numLookups; i++) {
+			String tid = idMap.get(rand.nextInt(tids.length));
+			checksum += idMap.getId(tid);
+		}
+		end = System.currentTimeMillis();
+		if (log.isDebugEnabled()) {log.debug("IDMAP: " + numLookups
+				+ " id->tid->id lookups in time: " + (end - before));};
+
+		rand = new Random(0);
+		before = System.currentTimeMillis();
+		for(int i = 0; i < numLookups; i++) {
+			String tid = compact.get(rand.nextInt(tids.length));
+			checksum -= compact.getId(tid);
+		}
+		end = System.currentTimeMillis();
+		if (log.isDebugEnabled()) {log.debug("COMPACT: " + numLookups
+				+ " id->tid->id lookups in time: " + (end - before));};
+
+		if (checksum != 0)
+			log.error("lookups returned different ids");
+	}
+
+	private static String[] genTids (int size) {
+		String[] result = new String[size];
+
+		for(int i = 0; i < size; i++)
+			result[i] = "" + (i + 1);
+
+		return result;
+	}
+
+	private static long usedMemory () {
+		Runtime rt = Runtime.getRuntime();
+
+		for(int i = 0; i < 3; i++)
+			System.gc();
+
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
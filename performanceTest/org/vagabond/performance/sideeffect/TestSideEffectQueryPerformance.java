@@ -0,0 +1,179 @@
+package org.vagabond.performance.sideeffect;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+import org.vagabond.explanation.generation.QueryHolder;
+import org.vagabond.explanation.generation.prov.AlterSourceProvenanceSideEffectGenerator;
+import org.vagabond.explanation.generation.prov.SourceProvenanceSideEffectGenerator;
+import org.vagabond.explanation.marker.IAttributeValueMarker;
+import org.vagabond.explanation.marker.IMarkerSet;
+import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.explanation.marker.ScenarioDictionary;
+import org.vagabond.mapping.model.ModelLoader;
+import org.vagabond.mapping.scenarioToDB.DatabaseScenarioLoader;
+import org.vagabond.mapping.scenarioToDB.DatabaseScenarioLoader.LoadMode;
+import org.vagabond.test.TestOptions;
+import org.vagabond.util.ConnectionManager;
+import org.vagabond.util.GlobalResetter;
+
+/**
+ * Compares the shapes of the source tid condition of side effect queries
+ * (chain of equalities, = ANY of an array bind parameter, IN a temp table)
+ * for different numbers of source side effect tuples. Reports the size of
+ * the SQL text and the time to compute the target side effects at info level
+ * and ends with a table of the average times and the fastest shape for each
+ * number of tuples. The sizes include the default thresholds of
+ * {@link SourceProvenanceSideEffectGenerator} to check where the shapes
+ * cross over.
+ */
+public class TestSideEffectQueryPerformance {
+	static Logger log = Logger.getLogger(TestSideEffectQueryPerformance.class);
+
+	public enum Shape {
+		OrChain,
+		Array,
+		TempTable
+	}
+
+	private static int[] sizes = new int[] { 10, 
+		SourceProvenanceSideEffectGenerator.DEFAULT_MAX_OR_CHAIN, 1000, 
+		SourceProvenanceSideEffectGenerator.DEFAULT_MAX_ARRAY, 100000 };
+	private static int numRepetitions = 3;
+	private static String sourceRel = "tramp";
+	private static String targetRel = "person";
+
+	public static void main (String[] args) throws Exception {
+		PropertyConfigurator.configure("resource/test/perfLog4jproperties.txt");
+		loadToDB("resource/exampleScenarios/TestHomeless_SL50_D100k.xml");
+
+		long[][] times = new long[sizes.length][Shape.values().length];
+
+		try {
+			for(int i = 0; i < sizes.length; i++) {
+				IMarkerSet sourceSE = getSourceTuples(sizes[i]);
+
+				if (log.isInfoEnabled()) {log.info("------ SIZE " + sizes[i] + " ------");};
+				for(Shape shape: Shape.values())
+					times[i][shape.ordinal()] = SideEffectTest(sourceSE, shape);
+			}
+			logSummary(times);
+		}
+		finally {
+			SourceProvenanceSideEffectGenerator.setMaxOrChain(
+					SourceProvenanceSideEffectGenerator.DEFAULT_MAX_OR_CHAIN);
+			SourceProvenanceSideEffectGenerator.setMaxArray(
+					SourceProvenanceSideEffectGenerator.DEFAULT_MAX_ARRAY);
+		}
+	}
+
+	/**
+	 * @return average time in ms to compute the side effects with the given
+	 * 		condition shape
+	 */
+	public static long SideEffectTest (IMarkerSet sourceSE, Shape shape)
+			throws Exception {
+		AlterSourceProvenanceSideEffectGenerator gen =
+				new AlterSourceProvenanceSideEffectGenerator();
+		IAttributeValueMarker error = MarkerFactory.newAttrMarker(targetRel,
+				"-1", 0);
+		Map<String, IMarkerSet> partSE;
+		SourceProvenanceSideEffectGenerator.SideEffectQueryParams params;
+		Set<String> rels;
+		long before, end, sqlSize;
+		int numSE = 0;
+
+		setShape(shape, sourceSE.getSize());
+
+		partSE = new HashMap<String, IMarkerSet> ();
+		partSE.put(sourceRel, sourceSE);
+		rels = new HashSet<String> ();
+		rels.add(sourceRel);
+		params = new SourceProvenanceSideEffectGenerator.SideEffectQueryParams();
+		sqlSize = gen.getSideEffectQuery(targetRel, rels, partSE, params).length();
+		for(String table: params.getTempTables())
+			ConnectionManager.getInstance().execUpdate("DROP TABLE " + table);
+
+		before = System.currentTimeMillis();
+		for(int i = 0; i < numRepetitions; i++)
+			numSE = gen.computeTargetSideEffects(sourceSE, error).getSize();
+		end = System.currentTimeMillis();
+
+		if (log.isInfoEnabled()) {log.info(shape + ": SQL size " + sqlSize
+				+ " bytes, " + numSE + " side effects, avg time: "
+				+ ((end - before) / numRepetitions) + " ms");};
+
+		return (end - before) / numRepetitions;
+	}
+
+	private static void logSummary (long[][] times) {
+		StringBuffer result = new StringBuffer();
+
+		result.append("tuples");
+		for(Shape shape: Shape.values())
+			result.append("\t" + shape + " (ms)");
+		result.append("\tfastest\n");
+
+		for(int i = 0; i < sizes.length; i++) {
+			Shape fastest = Shape.OrChain;
+
+			result.append(sizes[i]);
+			for(Shape shape: Shape.values()) {
+				result.append("\t" + times[i][shape.ordinal()]);
+				if (times[i][shape.ordinal()] < times[i][fastest.ordinal()])
+					fastest = shape;
+			}
+			result.append("\t" + fastest + "\n");
+		}
+
+		if (log.isInfoEnabled()) {log.info("average side effect computation times:\n" + result);};
+	}
+
+	private static void setShape (Shape shape, int size) {
+		switch(shape) {
+		case OrChain:
+			SourceProvenanceSideEffectGenerator.setMaxOrChain(size);
+			break;
+		case Array:
+			SourceProvenanceSideEffectGenerator.setMaxOrChain(0);
+			SourceProvenanceSideEffectGenerator.setMaxArray(size);
+			break;
+		case TempTable:
+			SourceProvenanceSideEffectGenerator.setMaxOrChain(0);
+			SourceProvenanceSideEffectGenerator.setMaxArray(0);
+			break;
+		}
+	}
+
+	private static IMarkerSet getSourceTuples (int size) throws Exception {
+		IMarkerSet result = MarkerFactory.newMarkerSet();
+		ResultSet rs;
+
+		rs = ConnectionManager.getInstance().execQuery("SELECT tid FROM source."
+				+ sourceRel + " ORDER BY tid LIMIT " + size);
+		while(rs.next())
+			result.add(MarkerFactory.newTupleMarker(sourceRel, rs.getString(1)));
+		ConnectionManager.getInstance().closeRs(rs);
+
+		return result;
+	}
+
+	public static void loadToDB (String fileName) throws Exception {
+		Connection con = TestOptions.getInstance().getConnection();
+
+		GlobalResetter.getInstance().reset();
+		QueryHolder.getInstance().loadFromDir(new File("resource/queries"));
+		ModelLoader.getInstance().loadToInst(fileName);
+		DatabaseScenarioLoader.getInstance().setOperationalMode(LoadMode.Lazy);
+		DatabaseScenarioLoader.getInstance().loadScenario(con);
+		ConnectionManager.getInstance().setConnection(con);
+		ScenarioDictionary.getInstance().initFromScenario();
+	}
+}
@@ -15,9 +15,15 @@ import org.apache.log4j.PropertyConfigurator;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.vagabond.explanation.generation.ExplanationSetGenerator;
+import org.vagabond.explanation.generation.prov.InMemoryProvenanceBackend;
+import org.vagabond.explanation.generation.prov.IndexedSideEffectGenerator;
+import org.vagabond.explanation.generation.prov.ProvenanceGenerator;
+import org.vagabond.explanation.generation.prov.ProvenanceMaterializer;
+import org.vagabond.explanation.generation.prov.SideEffectGenerator;
 import org.vagabond.explanation.generation.PartitionExplanationGenerator;
 import org.vagabond.explanation.generation.QueryHolder;
 import org.vagabond.explanation.marker.IMarkerSet;
+import org.vagabond.explanation.marker.MarkerFactory;
 import org.vagabond.explanation.marker.MarkerParser;
 import org.vagabond.explanation.marker.ScenarioDictionary;
 import org.vagabond.explanation.metrics.RankingMetricPrecisionRecall;
@@ -37,6 +43,7 @@ import org.vagabond.mapping.scenarioToDB.DatabaseScenarioLoader;
 import org.vagabond.mapping.scenarioToDB.DatabaseScenarioLoader.LoadMode;
 import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.LoggerUtil;
+import org.vagabond.util.QueryStatistics;
 import org.vagabond.util.xmlbeans.ExplanationAndErrorXMLLoader;
 
 public class CommandLineExplGen {
@@ -74,17 +81,62 @@ public class CommandLineExplGen {
 					+ "given (-f option)");
 		loadScenario(explOptions.getXmlDoc());
 		parseOptions(args);
+		MarkerFactory.setMarkerSetType(explOptions.getMarkerSetType());
+		ExplanationSetGenerator.setDefaultNumWorkers(explOptions.getNumWorkers());
+		ProvenanceGenerator.setVerifyDerivedSchema(explOptions.isVerifyProvSchema());
+		explGenerator.setNumWorkers(explOptions.getNumWorkers());
+		setupQueryStatistics();
 
-		// setup DB connection
-		ConnectionManager.getInstance().getConnection(explOptions.getDbURL(),
-				explOptions.getDbName(), explOptions.getDbUser(),
-				explOptions.getDbPassword(), explOptions.getPort());
-
-		if (explOptions.isLoadScen())
-			loadScenarioOnDB();
+		if (explOptions.isInMemory())
+			setupInMemoryBackend();
+		else {
+			// setup DB connection
+			ConnectionManager.getInstance().getConnection(explOptions.getDbURL(),
+					explOptions.getDbName(), explOptions.getDbUser(),
+					explOptions.getDbPassword(), explOptions.getPort());
+			ConnectionManager.getInstance().setFetchSize(explOptions.getFetchSize());
+	
+			if (explOptions.isLoadScen())
+				loadScenarioOnDB();
+		}
 		ScenarioDictionary.getInstance().initFromScenario();
+		if (explOptions.isMatProv() && !explOptions.isInMemory())
+			ProvenanceMaterializer.getInstance().enable();
+		if (explOptions.isProvIndex() || explOptions.isInMemory())
+			SideEffectGenerator.getInstance().setSideEffectImpl(
+					new IndexedSideEffectGenerator());
+	}
+	
+	/**
+	 * Load the scenario data into memory and compute provenance from it 
+	 * without a database. Side effects are computed from the in-memory 
+	 * provenance index.
+	 */
+	private void setupInMemoryBackend() throws Exception {
+		InMemoryProvenanceBackend backend = new InMemoryProvenanceBackend();
+		long startTime = System.nanoTime();
+		
+		backend.loadScenarioData(explOptions.getCsvLoadPath());
+		ProvenanceGenerator.getInstance().setBackend(backend);
+		printTime("LoadData", startTime);
 	}
 
+	private void setupQueryStatistics() {
+		QueryStatistics stats = QueryStatistics.getInstance();
+		
+		if (!explOptions.isQueryStats())
+			return;
+		stats.setEnabled(true);
+		stats.setSlowQueryThresholdMs(explOptions.getSlowQueryMs());
+		stats.setExplainSlowQueries(explOptions.isExplainSlow());
+		stats.registerMBean();
+	}
+	
+	private void printQueryStatistics(PrintStream out) {
+		if (explOptions.isQueryStats())
+			out.println(QueryStatistics.getInstance().toJSON());
+	}
+	
 	private void createExpls(PrintStream out) throws Exception {
 		if (explOptions.isUseRanker()){ 
 			rankExplanations();
@@ -108,6 +160,16 @@ public class CommandLineExplGen {
 		System.out.printf(section + ": %.2f secs\n", getTimeDifference(startTime));
 	}
 	
+	private static void printPartitionTimes(PartitionExplanationGenerator partGen, 
+			ExplPartition partition) {
+		long[] times = partGen.getPartitionTimes();
+		
+		for(int i = 0; i < times.length; i++)
+			System.out.printf("ExplGen partition %d (%d errors): %.2f secs\n", i, 
+					partition.getCol(i).getNumErrors(), 
+					((double) times[i]) / 1000000000.0);
+	}
+	
 	private void setIterator(){
 		switch(whichRanker){
 			case EXPLANATION_RANKER:
@@ -152,6 +214,7 @@ public class CommandLineExplGen {
 			long startTime = System.nanoTime();
 			ExplPartition partition = partGen.findExplanations(markers);
 			printTime("ExplGen", startTime);
+			printPartitionTimes(partGen, partition);
 			
 			if (explOptions.getSkylineRankers() != null) {
 				if (log.isDebugEnabled()) {log.debug("Create skyline ranker for scheme "
@@ -394,6 +457,7 @@ public class CommandLineExplGen {
 			parseOptionsAndLoadScenario(args);
 			loadMarkers();
 			createExpls(System.out);
+			printQueryStatistics(System.out);
 		}
 		catch (CmdLineException e) {
 			LoggerUtil.logException(e, log);
@@ -5,7 +5,9 @@ import java.io.File;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.StringArrayOptionHandler;
+import org.vagabond.explanation.marker.MarkerFactory.MarkerSetType;
 import org.vagabond.explanation.ranking.RankerFactory;
+import org.vagabond.util.ConnectionManager;
 import org.vagabond.xmlmodel.ConnectionInfoType;
 import org.vagabond.xmlmodel.MappingScenarioDocument.MappingScenario;
 
@@ -79,6 +81,36 @@ public class ExplGenOptions {
 	@Option(name = "-timeLimit", usage = "stops ranking after time limit (in sec) is reached")
 	private int timeLimit = -1;
 	
+	@Option(name = "-markerSet", usage = "marker set implementation {MarkerSet, PackedMarkerSet}")
+	private MarkerSetType markerSetType = MarkerSetType.MarkerSet;
+	
+	@Option(name = "-workers", usage = "number of threads (and database connections) used to generate explanations for errors or, when ranking with partitioning, for partitions")
+	private int numWorkers = 1;
+	
+	@Option(name = "-fetchSize", usage = "number of rows fetched at a time for large query results")
+	private int fetchSize = ConnectionManager.DEFAULT_FETCH_SIZE;
+	
+	@Option(name = "-matProv", usage = "materialize the provenance of target relations into indexed tables")
+	private boolean matProv = false;
+	
+	@Option(name = "-verifyProvSchema", usage = "check provenance schemas derived from the transformation code against the database")
+	private boolean verifyProvSchema = false;
+	
+	@Option(name = "-provIndex", usage = "compute side effects from an in-memory index of the provenance of target relations")
+	private boolean provIndex = false;
+	
+	@Option(name = "-inMemory", usage = "compute provenance by evaluating the mappings over the scenario data in memory instead of using the database")
+	private boolean inMemory = false;
+
+	@Option(name = "-queryStats", usage = "record execution statistics per query template and print them as JSON at the end")
+	private boolean queryStats = false;
+	
+	@Option(name = "-slowQueryMs", usage = "log queries running at least this many ms (requires -queryStats)")
+	private long slowQueryMs = -1;
+	
+	@Option(name = "-explainSlow", usage = "log the plan of slow queries")
+	private boolean explainSlow = false;
+	
 	@Option(name="-help", usage="show this help message")
 	private boolean showHelp = false;
 	
@@ -256,6 +288,86 @@ public class ExplGenOptions {
 		this.timeLimit = timeLimit;
 	}
 
+	public MarkerSetType getMarkerSetType() {
+		return markerSetType;
+	}
+
+	public void setMarkerSetType(MarkerSetType markerSetType) {
+		this.markerSetType = markerSetType;
+	}
+
+	public int getNumWorkers() {
+		return numWorkers;
+	}
+
+	public void setNumWorkers(int numWorkers) {
+		this.numWorkers = numWorkers;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	public boolean isMatProv() {
+		return matProv;
+	}
+
+	public void setMatProv(boolean matProv) {
+		this.matProv = matProv;
+	}
+
+	public boolean isVerifyProvSchema() {
+		return verifyProvSchema;
+	}
+
+	public void setVerifyProvSchema(boolean verifyProvSchema) {
+		this.verifyProvSchema = verifyProvSchema;
+	}
+
+	public boolean isProvIndex() {
+		return provIndex;
+	}
+
+	public void setProvIndex(boolean provIndex) {
+		this.provIndex = provIndex;
+	}
+
+	public boolean isInMemory() {
+		return inMemory;
+	}
+
+	public void setInMemory(boolean inMemory) {
+		this.inMemory = inMemory;
+	}
+
+	public boolean isQueryStats() {
+		return queryStats;
+	}
+
+	public void setQueryStats(boolean queryStats) {
+		this.queryStats = queryStats;
+	}
+
+	public long getSlowQueryMs() {
+		return slowQueryMs;
+	}
+
+	public void setSlowQueryMs(long slowQueryMs) {
+		this.slowQueryMs = slowQueryMs;
+	}
+
+	public boolean isExplainSlow() {
+		return explainSlow;
+	}
+
+	public void setExplainSlow(boolean explainSlow) {
+		this.explainSlow = explainSlow;
+	}
+
 	public boolean isShowHelp() {
 		return showHelp;
 	}
@@ -25,24 +25,21 @@ public class CopySourceExplanationGenerator
 
 	static Logger log = LogProviderHolder.getInstance().getLogger(CopySourceExplanationGenerator.class);
 	
-	private IAttributeValueMarker error;
-	private MapAndWLProvRepresentation prov;
-	protected CopySourceError expl;
-	
 	@Override
 	public IExplanationSet findExplanations(ISingleMarker errorMarker) throws Exception {
-		this.error = (IAttributeValueMarker) errorMarker;
-		
-		return getExplanationSets();
+		return getExplanationSets((IAttributeValueMarker) errorMarker);
 	}
 	
-	private IExplanationSet getExplanationSets() throws Exception {
+	private IExplanationSet getExplanationSets(IAttributeValueMarker error) 
+			throws Exception {
 		IExplanationSet result = ExplanationFactory.newExplanationSet();
+		MapAndWLProvRepresentation prov;
+		CopySourceError expl;
 		IMarkerSet sourceSE;
 		IMarkerSet targetSE;
 		
 		prov = ProvenanceGenerator.getInstance().computePIAndMapProv(error);
-		sourceSE = getRealCopyFromMappings();
+		sourceSE = getRealCopyFromMappings(error, prov);
 		
 		if (sourceSE.getSize() == 0)
 			return result;
@@ -63,14 +60,15 @@ public class CopySourceExplanationGenerator
 		return result;
 	}
 	
-	private IMarkerSet getRealCopyFromMappings() throws Exception {
+	private IMarkerSet getRealCopyFromMappings(IAttributeValueMarker error, 
+			MapAndWLProvRepresentation prov) throws Exception {
 		IMarkerSet result;
 		Map<String,int[][]> wlCopyAttrForMap;
 		Vector<ITupleMarker> wl;
 		MappingType m;
 		
 		result = MarkerFactory.newMarkerSet();
-		wlCopyAttrForMap = getCopyCSAttrsForBaseRels();
+		wlCopyAttrForMap = getCopyCSAttrsForBaseRels(error, prov);
 		
 		/* for each tid in each witness list: Determine from the
 		 * mappings from which attributes values are copied to the error
@@ -103,7 +101,8 @@ public class CopySourceExplanationGenerator
 		return result;
 	}
 	
-	private Map<String,int[][]> getCopyCSAttrsForBaseRels () throws Exception {
+	private Map<String,int[][]> getCopyCSAttrsForBaseRels (IAttributeValueMarker error, 
+			MapAndWLProvRepresentation prov) throws Exception {
 		Map<String,int[][]> result;
 		result = new HashMap<String,int[][]> ();
 		
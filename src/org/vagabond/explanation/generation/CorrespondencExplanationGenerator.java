@@ -1,67 +1,92 @@
 package org.vagabond.explanation.generation;
 
-import java.sql.ResultSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
 import org.apache.log4j.Logger;
+import org.vagabond.explanation.generation.prov.MappingProvenanceBitmaps;
 import org.vagabond.explanation.generation.prov.ProvenanceGenerator;
 import org.vagabond.explanation.marker.IAttributeValueMarker;
 import org.vagabond.explanation.marker.IMarkerSet;
 import org.vagabond.explanation.marker.ISingleMarker;
-import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.explanation.marker.ScenarioDictionary;
 import org.vagabond.explanation.model.ExplanationFactory;
 import org.vagabond.explanation.model.IExplanationSet;
 import org.vagabond.explanation.model.basic.CorrespondenceError;
 import org.vagabond.mapping.model.MapScenarioHolder;
-import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.LogProviderHolder;
 import org.vagabond.xmlmodel.CorrespondenceType;
 import org.vagabond.xmlmodel.MappingType;
 import org.vagabond.xmlmodel.RelAtomType;
 
 public class CorrespondencExplanationGenerator implements
-		ISingleExplanationGenerator {
+		ISharedExplanationGenerator {
 
 	static Logger log = LogProviderHolder.getInstance().getLogger(
 			CorrespondencExplanationGenerator.class);
 	
-	private CorrespondenceError expl;
-	private IAttributeValueMarker error;
 	private Map<Set<CorrespondenceType>,CorrespondenceError> explForCorr;
+	/** first registered error for correspondence sets without cached explanation */
+	private Map<Set<CorrespondenceType>,IAttributeValueMarker> firstErrorForCorr;
 	
 	public CorrespondencExplanationGenerator () {
 		explForCorr = new HashMap<Set<CorrespondenceType>,CorrespondenceError> ();
+		firstErrorForCorr = new HashMap<Set<CorrespondenceType>,IAttributeValueMarker> ();
+	}
+	
+	@Override
+	public void registerErrors (List<ISingleMarker> errors) throws Exception {
+		for(ISingleMarker errorMarker: errors) {
+			IAttributeValueMarker error = (IAttributeValueMarker) errorMarker;
+			Set<CorrespondenceType> corrs = findCorrespondences(error);
+			
+			synchronized (explForCorr) {
+				if (!explForCorr.containsKey(corrs) 
+						&& !firstErrorForCorr.containsKey(corrs))
+					firstErrorForCorr.put(corrs, error);
+			}
+		}
 	}
 	
 	@Override
 	public IExplanationSet findExplanations(ISingleMarker errorMarker)
 			throws Exception {
+		IAttributeValueMarker error = (IAttributeValueMarker) errorMarker;
 		IExplanationSet result;
 		Set<CorrespondenceType> corrs;
+		CorrespondenceError expl;
 		
-		this.error = (IAttributeValueMarker) errorMarker;
 		result = ExplanationFactory.newExplanationSet();
 		
-		corrs = findCorrespondences();
+		corrs = findCorrespondences(error);
 		
-		if (explForCorr.containsKey(corrs)) {
+		synchronized (explForCorr) {
 			expl = explForCorr.get(corrs);
+			if (firstErrorForCorr.containsKey(corrs))
+				error = firstErrorForCorr.get(corrs);
 		}
-		else {	
+		if (expl == null) {	
 			
-			expl = new CorrespondenceError(errorMarker);
+			expl = new CorrespondenceError(error);
 			expl.setCorrSE(corrs);
 			// did not find correspondence?
 			if (expl.getCorrSideEffectSize() == 0)
 				return result;
 			
-			computeSideEffects();
-			explForCorr.put(corrs, expl);
+			computeSideEffects(expl);
+			// another thread may have created the explanation in the meantime
+			synchronized (explForCorr) {
+				if (explForCorr.containsKey(corrs))
+					expl = explForCorr.get(corrs);
+				else
+					explForCorr.put(corrs, expl);
+				firstErrorForCorr.remove(corrs);
+			}
 		}
 		
 		result.addExplanation(expl);
@@ -69,7 +94,7 @@ public class CorrespondencExplanationGenerator implements
 		return result;
 	}
 
-	private void computeSideEffects() throws Exception {
+	private void computeSideEffects(CorrespondenceError expl) throws Exception {
 		Set<MappingType> affMaps;
 		Map<String, Set<String>> mapsPerTarget;
 		
@@ -89,45 +114,33 @@ public class CorrespondencExplanationGenerator implements
 				mapsPerTarget.keySet()));
 		
 		for(String target: mapsPerTarget.keySet()) {
-			runSideEffectQuery (target, mapsPerTarget.get(target));
+			computeSideEffects(expl, target, mapsPerTarget.get(target));
 		}
 		
 		expl.getTargetSideEffects().remove(expl.explains());
 	}
 	
-	private void runSideEffectQuery (String rel, Set<String> maps) throws Exception {
-		StringBuffer mapList;
-		String query;
+	/**
+	 * The error attribute of target tuples of rel produced by one of the 
+	 * mappings in maps are side effects.
+	 */
+	private void computeSideEffects (CorrespondenceError expl, String rel, 
+			Set<String> maps) throws Exception {
+		MappingProvenanceBitmaps mapProv;
 		IMarkerSet sideEff;
-		ResultSet rs;
 		String attrName;
 		
 		attrName = ((IAttributeValueMarker) expl.explains()).getAttrName();
 		sideEff = expl.getTargetSideEffects();
-		mapList = new StringBuffer();
 		
-		for(String mapName: maps) {
-			mapList.append("('" + mapName + "'),");
-		}
-		mapList.deleteCharAt(mapList.length() - 1);
+		mapProv = ProvenanceGenerator.getInstance().getMapProvBitmaps(rel);
 		
-		query = QueryHolder.getQuery("Correspondence.GetSideEffects")
-				.parameterize("target." + rel, mapList.toString());
-		
-		if (log.isDebugEnabled()) {log.debug("Run side effect query for <" + rel + "> with query <\n" 
-				+ query + ">");};
-		
-		rs = ConnectionManager.getInstance().execQuery(query);
-
-		while(rs.next())
-			sideEff.add(MarkerFactory.newAttrMarker(
-					rel, rs.getString(1), attrName));
-		
-		ConnectionManager.getInstance().closeRs(rs);
+		int relId = mapProv.getTargetRelId();
+		sideEff.addTids(relId, ScenarioDictionary.getInstance().getAttrId(
+				relId, attrName), 
+				MappingProvenanceBitmaps.toTidIds(mapProv.getProducedBy(maps)));
 	}
 	
-	
-
 	private Map<String, Set<String>> partitionMapsToTarget
 			(Set<MappingType> affMaps, Collection<CorrespondenceType> corrs) {
 		Map<String,Set<String>> mapsPerTarget;
@@ -159,7 +172,8 @@ public class CorrespondencExplanationGenerator implements
 		return mapsPerTarget;
 	}
 
-	private Set<CorrespondenceType> findCorrespondences () throws Exception {
+	private Set<CorrespondenceType> findCorrespondences (IAttributeValueMarker error) 
+			throws Exception {
 		Vector<String> mappings;
 		Set<CorrespondenceType> corrCandi;
 		MappingType map;
@@ -172,7 +186,7 @@ public class CorrespondencExplanationGenerator implements
 			map = MapScenarioHolder.getInstance().getMapping(mapName);
 			for(CorrespondenceType corr: MapScenarioHolder.getInstance()
 					.getCorrespondences(map)) {
-				if (corrMapsOnError(corr))
+				if (corrMapsOnError(error, corr))
 					corrCandi.add(corr);
 			}
 		}
@@ -181,7 +195,8 @@ public class CorrespondencExplanationGenerator implements
 		return corrCandi;
 	}
 	
-	private boolean corrMapsOnError (CorrespondenceType corr) {
+	private boolean corrMapsOnError (IAttributeValueMarker error, 
+			CorrespondenceType corr) {
 		if (!corr.getTo().getTableref().equals(error.getRel()))
 			return false;
 		for (String attrName: corr.getTo().getAttrArray()) {
@@ -2,8 +2,15 @@ package org.vagabond.explanation.generation;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
+import org.vagabond.explanation.generation.prov.ProvenanceGenerator;
+import org.vagabond.explanation.generation.prov.ProvenanceMaterializer;
 import org.vagabond.explanation.marker.IMarkerSet;
 import org.vagabond.explanation.marker.ISingleMarker;
 import org.vagabond.explanation.model.ExplanationCollection;
@@ -12,13 +19,17 @@ import org.vagabond.explanation.model.IExplanationSet;
 import org.vagabond.explanation.model.basic.IBasicExplanation;
 import org.vagabond.explanation.model.basic.IBasicExplanation.ExplanationType;
 import org.vagabond.explanation.ranking.DummyRanker;
+import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.LogProviderHolder;
 
 public class ExplanationSetGenerator {
 
 	static Logger log = LogProviderHolder.getInstance().getLogger(ExplanationSetGenerator.class);
 	
+	private static int defaultNumWorkers = 1;
+	
 	private List<ISingleExplanationGenerator> generators;
+	private int numWorkers = defaultNumWorkers;
 	
 	public ExplanationSetGenerator () {
 		generators = new ArrayList<ISingleExplanationGenerator> ();
@@ -31,13 +42,32 @@ public class ExplanationSetGenerator {
 	}
 	
 	public ExplanationCollection findExplanations (IMarkerSet errors) throws Exception {
+		// recompute materialized provenance if the source data has changed
+		ProvenanceMaterializer.getInstance().refresh();
+		return findExplanationsNoRefresh(errors);
+	}
+	
+	/**
+	 * Generate the explanations without checking whether the materialized
+	 * provenance is stale. Used by {@link PartitionExplanationGenerator}
+	 * which checks once for all partitions.
+	 */
+	ExplanationCollection findExplanationsNoRefresh (IMarkerSet errors) 
+			throws Exception {
 		ExplanationCollection result = new ExplanationCollection ();
 		IExplanationSet explsForOne;
 		
-		for(ISingleMarker error: errors.getElems()) {
-			explsForOne = findExplanations(error);
-			result.addExplSet(error, explsForOne);
+		// retrieve the provenance of all errors with few queries
+		ProvenanceGenerator.getInstance().prefetchProvenance(errors);
+		if (numWorkers > 1)
+			findExplanationsParallel(errors, result);
+		else {
+			for(ISingleMarker error: errors) {
+				explsForOne = findExplanations(error);
+				result.addExplSet(error, explsForOne);
+			}
 		}
+		if (log.isDebugEnabled()) {log.debug(ProvenanceGenerator.getInstance().getCache().getStatistics());};
 		
 		result.createRanker (new DummyRanker());
 		
@@ -72,6 +102,61 @@ public class ExplanationSetGenerator {
 		return result;
 	}
 	
+	/**
+	 * Generate the explanations for each error in a pool of worker threads.
+	 * Each worker uses its own database connection. The explanation sets are
+	 * added to the collection in the iteration order of the errors and
+	 * explanations that are shared by several errors explain the first of
+	 * these errors, so the result is the same as for the sequential
+	 * generation.
+	 */
+	private void findExplanationsParallel (IMarkerSet errors, 
+			ExplanationCollection result) throws Exception {
+		ExecutorService pool;
+		List<ISingleMarker> errorList = new ArrayList<ISingleMarker> ();
+		List<Future<IExplanationSet>> futures = 
+				new ArrayList<Future<IExplanationSet>> ();
+		
+		if (log.isDebugEnabled()) {log.debug("generate explanations for " + errors.getSize() + " errors with " + numWorkers + " workers");};
+		
+		for(ISingleMarker error: errors)
+			errorList.add(error);
+		for (ISingleExplanationGenerator gen: generators)
+			if (gen instanceof ISharedExplanationGenerator)
+				((ISharedExplanationGenerator) gen).registerErrors(errorList);
+		
+		pool = Executors.newFixedThreadPool(numWorkers);
+		try {
+			for(final ISingleMarker error: errorList) {
+				futures.add(pool.submit(new Callable<IExplanationSet> () {
+					public IExplanationSet call() throws Exception {
+						ConnectionManager.getInstance().acquireThreadConnection();
+						try {
+							return findExplanations(error);
+						}
+						finally {
+							ConnectionManager.getInstance().releaseThreadConnection();
+						}
+					}
+				}));
+			}
+			
+			for(int i = 0; i < errorList.size(); i++) {
+				try {
+					result.addExplSet(errorList.get(i), futures.get(i).get());
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception)
+						throw (Exception) e.getCause();
+					throw e;
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+	
 	private IExplanationSet findExplanations (ISingleMarker error) throws Exception {
 		IExplanationSet result;
 		
@@ -83,4 +168,23 @@ public class ExplanationSetGenerator {
 		
 		return result;
 	}
+
+	public static int getDefaultNumWorkers() {
+		return defaultNumWorkers;
+	}
+	
+	/**
+	 * Number of worker threads used by generators created afterwards.
+	 */
+	public static void setDefaultNumWorkers(int numWorkers) {
+		defaultNumWorkers = numWorkers;
+	}
+	
+	public int getNumWorkers() {
+		return numWorkers;
+	}
+	
+	public void setNumWorkers(int numWorkers) {
+		this.numWorkers = numWorkers;
+	}
 }
@@ -0,0 +1,26 @@
+package org.vagabond.explanation.generation;
+
+import java.util.List;
+
+import org.vagabond.explanation.marker.ISingleMarker;
+
+/**
+ * Generator that caches explanations and returns the same explanation for
+ * all errors that share, e.g., the same mappings. The cached explanation
+ * explains the first error it is created for. To get the same result as the
+ * sequential generation when errors are explained in parallel, the errors
+ * are registered in their iteration order before the workers start.
+ *
+ * @author lord_pretzel
+ *
+ */
+public interface ISharedExplanationGenerator extends ISingleExplanationGenerator {
+
+	/**
+	 * Record for each explanation that is not cached yet the first error of
+	 * errors it will be created for. The explanation explains this error
+	 * regardless of which error is explained first.
+	 */
+	public void registerErrors (List<ISingleMarker> errors) throws Exception;
+
+}
@@ -30,30 +30,30 @@ public class InfluenceSourceExplanationGenerator
 		extends SourceProvenanceSideEffectGenerator 
 		implements ISingleExplanationGenerator {
 
-	private InfluenceSourceError expl;
-	private IExplanationSet result;
-	
 	@Override
 	public IExplanationSet findExplanations(ISingleMarker errorMarker)
 			throws Exception {
+		IAttributeValueMarker error = (IAttributeValueMarker) errorMarker;
+		IExplanationSet result = ExplanationFactory.newExplanationSet();
 		MapAndWLProvRepresentation prov;
-		result = ExplanationFactory.newExplanationSet();
 		
-		this.error = (IAttributeValueMarker) errorMarker;
 		prov = ProvenanceGenerator.getInstance().computePIAndMapProv(error);
-		genExplsForProv(prov);
+		genExplsForProv(error, prov, result);
 		
 		return result;
 	}
 
-	private void genExplsForProv(MapAndWLProvRepresentation prov) throws Exception {
+	private void genExplsForProv(IAttributeValueMarker error, 
+			MapAndWLProvRepresentation prov, IExplanationSet result) 
+			throws Exception {
 		Set<MappingType> allMaps;
 		Map<String, Set<Pair<Integer,String>>> joinAttrMap;
 		Map<String, Vector<Integer>> atomWLPos;
+		InfluenceSourceError expl;
 		
 		allMaps = new HashSet<MappingType>(prov.getMapProv());
-		joinAttrMap = findJoinAttrsCandiForMaps (allMaps);
-		atomWLPos = getAtomsToWlPos();
+		joinAttrMap = findJoinAttrsCandiForMaps (error, allMaps);
+		atomWLPos = getAtomsToWlPos(error);
 		
 		// for each witness list get map prov and mark source join attributes
 		for(Pair<Vector<ITupleMarker>, MappingType> wlPlusMap
@@ -89,7 +89,8 @@ public class InfluenceSourceExplanationGenerator
 		}
 	}
 	
-	private Map<String, Vector<Integer>> getAtomsToWlPos () throws Exception {
+	private Map<String, Vector<Integer>> getAtomsToWlPos (IAttributeValueMarker error) 
+			throws Exception {
 		Map<String,Vector<Integer>> result;
 		int i;
 		result = new HashMap<String,Vector<Integer>> ();
@@ -114,7 +115,7 @@ public class InfluenceSourceExplanationGenerator
 	}
 	
 	private Map<String, Set<Pair<Integer,String>>> findJoinAttrsCandiForMaps 
-			(Set<MappingType> maps) throws Exception {
+			(IAttributeValueMarker error, Set<MappingType> maps) throws Exception {
 		int errorAttrId = ((AttrValueMarker) error).getAttrId();
 		Map<String, Set<Pair<Integer,String>>> mapsToJoinAttrs;
 		
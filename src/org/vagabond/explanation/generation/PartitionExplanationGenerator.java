@@ -1,15 +1,24 @@
 package org.vagabond.explanation.generation;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.vagabond.explanation.generation.partition.ErrorPartitionGraph;
 import org.vagabond.explanation.generation.partition.ErrorPartitioner;
+import org.vagabond.explanation.generation.prov.ProvenanceMaterializer;
 import org.vagabond.explanation.marker.IMarkerSet;
 import org.vagabond.explanation.marker.MarkerSummary;
 import org.vagabond.explanation.marker.PartitionedMarkerSet;
 import org.vagabond.explanation.model.ExplPartition;
 import org.vagabond.explanation.model.ExplanationCollection;
+import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.LogProviderHolder;
 import org.vagabond.util.Pair;
 
@@ -20,6 +29,9 @@ public class PartitionExplanationGenerator {
 	private ExplanationSetGenerator setGen;
 	private ErrorPartitioner partioner;
 	private ErrorPartitionGraph g;
+	private int numWorkers = ExplanationSetGenerator.getDefaultNumWorkers();
+	/** generation time in ns of each partition of the last call */
+	private long[] partitionTimes = new long[0];
 	
 	public PartitionExplanationGenerator () {
 		partioner = new ErrorPartitioner();
@@ -31,17 +43,108 @@ public class PartitionExplanationGenerator {
 	}
 	
 	public ExplPartition findExplanations (IMarkerSet errors) throws Exception {
-		PartitionedMarkerSet part = partioner.partitionMarkers(g, errors); 
-		ExplPartition result = new ExplPartition(part);
+		PartitionedMarkerSet part;
+		ExplPartition result;
 		
+		// recompute materialized provenance if the source data has changed,
+		// once for all partitions
+		ProvenanceMaterializer.getInstance().refresh();
+		part = partioner.partitionMarkers(g, errors); 
+		result = new ExplPartition(part);
+		
+		partitionTimes = new long[part.getNumParts()];
+		if (numWorkers > 1 && part.getNumParts() > 1) {
+			findExplanationsParallel(part, result);
+			return result;
+		}
+		
+		int j = 0;
 		for(Iterator<Pair<IMarkerSet,MarkerSummary>> i = part.pairIterator(); i.hasNext();) {
 			Pair<IMarkerSet,MarkerSummary> p = i.next();
 			ExplanationCollection col;
+			long before = System.nanoTime();
 			
-			col = setGen.findExplanations(p.getKey());
+			col = setGen.findExplanationsNoRefresh(p.getKey());
 			result.add(col);
+			partitionTimes[j++] = System.nanoTime() - before;
 		}
 		
 		return result;
 	}
+	
+	/**
+	 * Generate the explanations for each partition in a pool of worker
+	 * threads. Partitions share no attributes, so each worker uses its own
+	 * explanation generators and database connection. The collections are
+	 * added in partition order, so the result is the same as for the
+	 * sequential generation.
+	 */
+	private void findExplanationsParallel (PartitionedMarkerSet part,
+			ExplPartition result) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(
+				Math.min(numWorkers, part.getNumParts()));
+		List<Future<ExplanationCollection>> futures =
+				new ArrayList<Future<ExplanationCollection>> ();
+		
+		if (log.isDebugEnabled()) {log.debug("generate explanations for " + part.getNumParts() + " partitions with " + numWorkers + " workers");};
+		
+		try {
+			int j = 0;
+			for(Iterator<Pair<IMarkerSet,MarkerSummary>> i = part.pairIterator(); i.hasNext(); j++) {
+				final IMarkerSet errors = i.next().getKey();
+				final int partNum = j;
+				
+				futures.add(pool.submit(new Callable<ExplanationCollection> () {
+					public ExplanationCollection call() throws Exception {
+						ExplanationSetGenerator gen = new ExplanationSetGenerator();
+						long before = System.nanoTime();
+						
+						// partitions are the unit of parallelism
+						gen.setNumWorkers(1);
+						ConnectionManager.getInstance().acquireThreadConnection();
+						try {
+							return gen.findExplanationsNoRefresh(errors);
+						}
+						finally {
+							ConnectionManager.getInstance().releaseThreadConnection();
+							partitionTimes[partNum] = System.nanoTime() - before;
+						}
+					}
+				}));
+			}
+			
+			for(Future<ExplanationCollection> f: futures) {
+				try {
+					result.add(f.get());
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception)
+						throw (Exception) e.getCause();
+					throw e;
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * @return the time in ns spent on generating the explanations of each
+	 * 		partition during the last call of {@link #findExplanations(IMarkerSet)}
+	 */
+	public long[] getPartitionTimes() {
+		return partitionTimes;
+	}
+	
+	public int getNumWorkers() {
+		return numWorkers;
+	}
+	
+	/**
+	 * Number of partitions processed concurrently.
+	 */
+	public void setNumWorkers(int numWorkers) {
+		this.numWorkers = numWorkers;
+	}
 }
@@ -9,10 +9,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.InvalidPropertiesFormatException;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.vagabond.explanation.generation.prov.ProvenanceMaterializer;
 import org.vagabond.util.LogProviderHolder;
 import org.vagabond.util.PropertyWrapper;
 import org.vagabond.util.QueryTemplate;
@@ -25,6 +27,8 @@ public class QueryHolder {
 	private static QueryHolder instance = new QueryHolder();
 	
 	private PropertyWrapper queries;
+	/** parsed templates by query name */
+	private Map<String, QueryTemplate> templates = new HashMap<String, QueryTemplate> ();
 	
 	private QueryHolder () {
 		
@@ -35,7 +39,31 @@ public class QueryHolder {
 	}
 	
 	public static QueryTemplate getQuery (String name) {
-		return instance.queries.getQueryTemplate(name);
+		return instance.getTemplate(name);
+	}
+	
+	private synchronized QueryTemplate getTemplate (String name) {
+		QueryTemplate result = templates.get(name);
+		
+		if (result == null) {
+			result = queries.getQueryTemplate(name);
+			if (ProvenanceMaterializer.getInstance().isEnabled()
+					&& ProvenanceMaterializer.rewritesQuery(name)
+					&& result.getQueryText() != null)
+				result = new QueryTemplate(name, ProvenanceMaterializer.rewriteQuery(
+						result.getQueryText()));
+			templates.put(name, result);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Forget the parsed templates, e.g., because queries have been reloaded
+	 * or provenance materialization has been switched on or off.
+	 */
+	public synchronized void resetTemplates () {
+		templates.clear();
 	}
 	
 	public static boolean hasQuery (String name) {
@@ -59,6 +87,7 @@ public class QueryHolder {
 			useClassloader = true;
 		
 		if (useClassloader) {
+			resetTemplates();
 			queries = new PropertyWrapper();
 			BufferedReader fileList = new BufferedReader(new InputStreamReader(ClassLoader.getSystemResourceAsStream(queryListFile)));
 			while((line = fileList.readLine()) != null) {
@@ -74,6 +103,7 @@ public class QueryHolder {
 	public void loadFromDir (File dir) throws FileNotFoundException, IOException {
 		File[] files;
 		
+		resetTemplates();
 		queries = new PropertyWrapper ();
 		
 		files = dir.listFiles(new FilenameFilter () {
@@ -91,6 +121,7 @@ public class QueryHolder {
 	}
 
 	public void loadFromURLs (Map<String,URL> urlMap) throws InvalidPropertiesFormatException, IOException {
+		resetTemplates();
 		queries = new PropertyWrapper();
 		
 		for(String key: urlMap.keySet()) {
@@ -103,10 +134,12 @@ public class QueryHolder {
 	}
 
 	public void setQueries(PropertyWrapper queries) {
+		resetTemplates();
 		this.queries = queries;
 	}
 	
 	public void setPraefix (String prefix) {
+		resetTemplates();
 		this.queries.setPrefix(prefix);
 	}
 }
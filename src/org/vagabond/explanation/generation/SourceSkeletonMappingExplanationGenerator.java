@@ -1,13 +1,14 @@
 package org.vagabond.explanation.generation;
 
-import java.sql.ResultSet;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.vagabond.explanation.generation.prov.MappingProvenanceBitmaps;
 import org.vagabond.explanation.generation.prov.ProvenanceGenerator;
 import org.vagabond.explanation.marker.IAttributeValueMarker;
 import org.vagabond.explanation.marker.IMarkerSet;
@@ -19,40 +20,56 @@ import org.vagabond.explanation.model.IExplanationSet;
 import org.vagabond.explanation.model.basic.SourceSkeletonMappingError;
 import org.vagabond.explanation.model.basic.SuperflousMappingError;
 import org.vagabond.mapping.model.MapScenarioHolder;
-import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.LogProviderHolder;
 import org.vagabond.xmlmodel.MappingType;
 import org.vagabond.xmlmodel.RelAtomType;
 
 public class SourceSkeletonMappingExplanationGenerator implements
-		ISingleExplanationGenerator {
+		ISharedExplanationGenerator {
 
 	static Logger log = LogProviderHolder.getInstance().getLogger(SourceSkeletonMappingExplanationGenerator.class);
 	
-	private IAttributeValueMarker error;
-	private SourceSkeletonMappingError expl;
-	private Set<MappingType> maps;
 	private Map<Set<MappingType>,SourceSkeletonMappingError> explsForMap;
+	/** first registered error for mapping sets without cached explanation */
+	private Map<Set<MappingType>,IAttributeValueMarker> firstErrorForMap;
 
 	public SourceSkeletonMappingExplanationGenerator () {
 		explsForMap = new HashMap<Set<MappingType>,SourceSkeletonMappingError> ();
+		firstErrorForMap = new HashMap<Set<MappingType>,IAttributeValueMarker> ();
+	}
+	
+	@Override
+	public void registerErrors (List<ISingleMarker> errors) throws Exception {
+		for(ISingleMarker errorMarker: errors) {
+			IAttributeValueMarker error = (IAttributeValueMarker) errorMarker;
+			Set<MappingType> maps = ProvenanceGenerator.getInstance()
+					.computeMapProv(error);
+			
+			synchronized (explsForMap) {
+				if (!explsForMap.containsKey(maps) 
+						&& !firstErrorForMap.containsKey(maps))
+					firstErrorForMap.put(maps, error);
+			}
+		}
 	}
 	
 	@Override
 	public IExplanationSet findExplanations(ISingleMarker errorMarker)
 			throws Exception {
+		IAttributeValueMarker error = (IAttributeValueMarker) errorMarker;
 		IExplanationSet result;
+		Set<MappingType> maps;
 		
 		result = ExplanationFactory.newExplanationSet();
-		this.error = (IAttributeValueMarker) errorMarker;
 
 		maps = ProvenanceGenerator.getInstance().computeMapProv(error);
-		generateExplanation (result);
+		generateExplanation (error, maps, result);
 		
 		return result;
 	}
 	
-	private void generateExplanation (IExplanationSet result) throws Exception {
+	private void generateExplanation (IAttributeValueMarker error, 
+			Set<MappingType> maps, IExplanationSet result) throws Exception {
 		class RelAttrMapSet {
 			Set<String> attrSet;
 			Set<String> mapSet;
@@ -65,10 +82,15 @@ public class SourceSkeletonMappingExplanationGenerator implements
 		
 		Map<String, RelAttrMapSet> affRels = new HashMap<String, RelAttrMapSet>();
 		RelAttrMapSet relAttrMapSet;
+		SourceSkeletonMappingError expl;
 
 		// Cashing Results 
-		if (explsForMap.containsKey(maps)) {
+		synchronized (explsForMap) {
 			expl = explsForMap.get(maps);
+			if (firstErrorForMap.containsKey(maps))
+				error = firstErrorForMap.get(maps);
+		}
+		if (expl != null) {
 			if (expl.getMappingSideEffectSize() != 0) {
 				result.addExplanation(expl);
 			}			
@@ -140,58 +162,48 @@ public class SourceSkeletonMappingExplanationGenerator implements
 					affRels.keySet()));
 			
 			for (String affRel: affRels.keySet()) {
-				computeSideEffects(affRel, affRels.get(affRel).mapSet, 
+				computeSideEffects(expl, affRel, affRels.get(affRel).mapSet, 
 						affRels.get(affRel).attrSet);
 			}
 			expl.getTargetSideEffects().remove(error);
+			
+			// another thread may have created the explanation in the meantime
+			synchronized (explsForMap) {
+				if (explsForMap.containsKey(maps))
+					expl = explsForMap.get(maps);
+				else
+					explsForMap.put(maps, expl);
+				firstErrorForMap.remove(maps);
+			}
 	
 			// we found at least one mapping that may have joined incorrectly
 			if (expl.getMappingSideEffectSize() != 0) {
 				result.addExplanation(expl);
 			}
-			explsForMap.put(maps, expl);
 		}
 	}
 
-	private IMarkerSet computeSideEffects(String rel, Set<String> maps, Set<String> attrs) throws Exception {
-		IMarkerSet result;
-		String query;
-		ResultSet rs;
+	/**
+	 * Target tuples of rel are side effects if they are produced only by 
+	 * mappings in maps.
+	 */
+	private IMarkerSet computeSideEffects(SourceSkeletonMappingError expl, String rel, 
+			Set<String> maps, Set<String> attrs) throws Exception {
 		IMarkerSet sideEff = expl.getTargetSideEffects();
-		StringBuffer mapList = new StringBuffer();
-		StringBuffer attrList = new StringBuffer();
+		MappingProvenanceBitmaps mapProv;
+		int[] tids;
 		
-		for(String mapName: maps) {
-			mapList.append("('" + mapName + "'),");
-		}
-		mapList.deleteCharAt(mapList.length() - 1);
+		mapProv = ProvenanceGenerator.getInstance().getMapProvBitmaps(rel);
+		tids = MappingProvenanceBitmaps.toTidIds(mapProv.getProducedOnlyBy(maps));
+		if (log.isDebugEnabled()) {log.debug("tuples of <" + rel + "> only produced by " 
+				+ maps + ": " + tids.length);};
 		
-		//TODO why add attrs here
-		for(String attrName: attrs) {
-			attrList.append(attrName + ",");
-		}
-		attrList.deleteCharAt(attrList.length() - 1);
-
-		result = MarkerFactory.newMarkerSet();
-		
-		query = QueryHolder.getQuery("SuperMap.GetSideEffectsAlternative")
-				.parameterize(attrList.toString(), "target." + rel, mapList.toString());
-		if (log.isDebugEnabled()) {log.debug("Run side effect query for <" + rel + "> with query <\n" 
-				+ query + ">");};
+		int relId = mapProv.getTargetRelId();
+		for (String attr: attrs) 
+			sideEff.addTids(relId, ScenarioDictionary.getInstance()
+					.getAttrId(relId, attr), tids);
 		
-		rs = ConnectionManager.getInstance().execQuery(query);
-		
-		while(rs.next()) {
-			String tid = rs.getString(1);
-			
-			for (String attr: attrs) 
-				sideEff.add(MarkerFactory.newAttrMarker(
-						rel, tid, attr));
-		}
-		
-		ConnectionManager.getInstance().closeRs(rs);
-		
-		return result;
+		return MarkerFactory.newMarkerSet();
 	}
 
 }
@@ -1,64 +1,88 @@
 package org.vagabond.explanation.generation;
 
-import java.sql.ResultSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.vagabond.explanation.generation.prov.MappingProvenanceBitmaps;
 import org.vagabond.explanation.generation.prov.ProvenanceGenerator;
 import org.vagabond.explanation.marker.IAttributeValueMarker;
 import org.vagabond.explanation.marker.IMarkerSet;
 import org.vagabond.explanation.marker.ISingleMarker;
-import org.vagabond.explanation.marker.MarkerFactory;
 import org.vagabond.explanation.marker.ScenarioDictionary;
 import org.vagabond.explanation.model.ExplanationFactory;
 import org.vagabond.explanation.model.IExplanationSet;
 import org.vagabond.explanation.model.basic.SuperflousMappingError;
 import org.vagabond.mapping.model.MapScenarioHolder;
-import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.LogProviderHolder;
 import org.vagabond.xmlmodel.MappingType;
 import org.vagabond.xmlmodel.RelAtomType;
 
 public class SuperfluousMappingExplanationGenerator 
-		implements ISingleExplanationGenerator {
+		implements ISharedExplanationGenerator {
 
 	static Logger log = LogProviderHolder.getInstance().getLogger(SuperfluousMappingExplanationGenerator.class);
 	
-	private IAttributeValueMarker error;
-	private SuperflousMappingError expl;
-	private Set<MappingType> maps;
 	private Map<Set<MappingType>,SuperflousMappingError> explsForMap;
+	/** first registered error for mapping sets without cached explanation */
+	private Map<Set<MappingType>,IAttributeValueMarker> firstErrorForMap;
 	
 	public SuperfluousMappingExplanationGenerator () {
 		explsForMap = new HashMap<Set<MappingType>,SuperflousMappingError> ();
+		firstErrorForMap = new HashMap<Set<MappingType>,IAttributeValueMarker> ();
+	}
+	
+	@Override
+	public void registerErrors (List<ISingleMarker> errors) throws Exception {
+		for(ISingleMarker errorMarker: errors) {
+			IAttributeValueMarker error = (IAttributeValueMarker) errorMarker;
+			Set<MappingType> maps = ProvenanceGenerator.getInstance()
+					.computeMapProv(error);
+			
+			synchronized (explsForMap) {
+				if (!explsForMap.containsKey(maps) 
+						&& !firstErrorForMap.containsKey(maps))
+					firstErrorForMap.put(maps, error);
+			}
+		}
 	}
 	
 	@Override
 	public IExplanationSet findExplanations(ISingleMarker errorMarker)
 			throws Exception {
+		IAttributeValueMarker error = (IAttributeValueMarker) errorMarker;
 		IExplanationSet result;
+		Set<MappingType> maps;
 		
 		result = ExplanationFactory.newExplanationSet();
-		this.error = (IAttributeValueMarker) errorMarker;
 
 		maps = ProvenanceGenerator.getInstance().computeMapProv(error);
-		generateExplanation (result);
+		generateExplanation (error, maps, result);
 		
 		return result;
 	}
 
-	private void generateExplanation (IExplanationSet result) throws Exception {
+	private void generateExplanation (IAttributeValueMarker error, 
+			Set<MappingType> maps, IExplanationSet result) throws Exception {
 		Map<String, Set<String>> affRels;
 		Set<String> mapSet;
 		String relName;
+		SuperflousMappingError expl;
 
+		if (maps.isEmpty())
+			return;
+		
 		//Cashing Result
-		if (explsForMap.containsKey(maps))
-		{
+		synchronized (explsForMap) {
 			expl = explsForMap.get(maps);
+			if (firstErrorForMap.containsKey(maps))
+				error = firstErrorForMap.get(maps);
+		}
+		if (expl != null)
+		{
 			result.addExplanation(expl);
 		} else {
 			expl = new SuperflousMappingError(error);
@@ -80,45 +104,43 @@ public class SuperfluousMappingExplanationGenerator
 						affRels.keySet()));
 				
 				for (String affRel: affRels.keySet()) {
-					computeSideEffects(affRel, affRels.get(affRel));
+					computeSideEffects(expl, affRel, affRels.get(affRel));
 				}
 					
 				expl.getTargetSideEffects().remove(error);
-				
-				result.addExplanation(expl);
-				explsForMap.put(maps, expl);
-		
 			}
+			
+			// another thread may have created the explanation in the meantime
+			synchronized (explsForMap) {
+				if (explsForMap.containsKey(maps))
+					expl = explsForMap.get(maps);
+				else
+					explsForMap.put(maps, expl);
+				firstErrorForMap.remove(maps);
+			}
+			result.addExplanation(expl);
 		}
 	}
 
-	private IMarkerSet computeSideEffects(String rel, Set<String> maps) throws Exception {
-		String query;
-		ResultSet rs;
+	/**
+	 * Target tuples of rel are side effects if they are produced only by 
+	 * mappings in maps.
+	 */
+	private IMarkerSet computeSideEffects(SuperflousMappingError expl, String rel, 
+			Set<String> maps) throws Exception {
 		IMarkerSet sideEff = expl.getTargetSideEffects();
-		StringBuffer mapList;
+		MappingProvenanceBitmaps mapProv;
+		int[] tids;
 		
-		mapList = new StringBuffer();
+		mapProv = ProvenanceGenerator.getInstance().getMapProvBitmaps(rel);
+		tids = MappingProvenanceBitmaps.toTidIds(mapProv.getProducedOnlyBy(maps));
+		if (log.isDebugEnabled()) {log.debug("tuples of <" + rel + "> only produced by " 
+				+ maps + ": " + tids.length);};
 		
-		for(String mapName: maps) {
-			mapList.append("('" + mapName + "'),");
-		}
-		mapList.deleteCharAt(mapList.length() - 1);
-
-		query = QueryHolder.getQuery("SuperMap.GetSideEffects")
-				.parameterize("target." + rel, mapList.toString());
-		if (log.isDebugEnabled()) {log.debug("Run side effect query for <" + rel + "> with query <\n" 
-				+ query + ">");};
-		
-		rs = ConnectionManager.getInstance().execQuery(query);
-		
-		int relId = ScenarioDictionary.getInstance().getRelId(rel);
+		int relId = mapProv.getTargetRelId();
 		int numAtt = ScenarioDictionary.getInstance().getAttrCount(relId);
-		while(rs.next())
-			for(int attr = 0; attr < numAtt; attr++)
-				sideEff.add(MarkerFactory.newAttrMarker(rel, rs.getString(1), attr));
-		
-		ConnectionManager.getInstance().closeRs(rs);
+		for(int attr = 0; attr < numAtt; attr++)
+			sideEff.addTids(relId, attr, tids);
 		
 		return sideEff;
 	}
@@ -1,6 +1,5 @@
 package org.vagabond.explanation.generation;
 
-import java.sql.ResultSet;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -9,6 +8,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.vagabond.explanation.generation.prov.MappingProvenanceBitmaps;
 import org.vagabond.explanation.generation.prov.ProvenanceGenerator;
 import org.vagabond.explanation.marker.IAttributeValueMarker;
 import org.vagabond.explanation.marker.IMarkerSet;
@@ -19,7 +19,6 @@ import org.vagabond.explanation.model.ExplanationFactory;
 import org.vagabond.explanation.model.IExplanationSet;
 import org.vagabond.explanation.model.basic.TargetSkeletonMappingError;
 import org.vagabond.mapping.model.MapScenarioHolder;
-import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.LogProviderHolder;
 import org.vagabond.xmlmodel.ForeignKeyType;
 import org.vagabond.xmlmodel.MappingType;
@@ -30,25 +29,23 @@ public class TargetSkeletonMappingExplanationGenerator implements
 
 	static Logger log = LogProviderHolder.getInstance().getLogger(TargetSkeletonMappingExplanationGenerator.class);
 	
-	private IAttributeValueMarker error;
-	private TargetSkeletonMappingError expl;
-	private Set<MappingType> maps;
-
 	@Override
 	public IExplanationSet findExplanations(ISingleMarker errorMarker)
 			throws Exception {
+		IAttributeValueMarker error = (IAttributeValueMarker) errorMarker;
 		IExplanationSet result;
+		Set<MappingType> maps;
 		
 		result = ExplanationFactory.newExplanationSet();
-		this.error = (IAttributeValueMarker) errorMarker;
 
 		maps = ProvenanceGenerator.getInstance().computeMapProv(error);
-		generateExplanation (result);
+		generateExplanation (error, maps, result);
 		
 		return result;
 	}
 	
-	private void generateExplanation (IExplanationSet result) throws Exception {
+	private void generateExplanation (IAttributeValueMarker error, 
+			Set<MappingType> maps, IExplanationSet result) throws Exception {
 		class RelAttrMapSet {
 			Set<String> attrSet;
 			Set<String> mapSet;
@@ -62,6 +59,7 @@ public class TargetSkeletonMappingExplanationGenerator implements
 		//TODO this should consider not only foreign key joins but any join by mappings in the target
 		Map<String, RelAttrMapSet> affRels = new HashMap<String, RelAttrMapSet>();
 		RelAttrMapSet relAttrMapSet;
+		TargetSkeletonMappingError expl;
 		
 		expl = new TargetSkeletonMappingError(error);
 		
@@ -130,7 +128,7 @@ public class TargetSkeletonMappingExplanationGenerator implements
 				affRels.keySet()));
 		
 		for (String affRel: affRels.keySet()) {
-			computeSideEffects(affRel, affRels.get(affRel).mapSet, 
+			computeSideEffects(expl, affRel, affRels.get(affRel).mapSet, 
 					affRels.get(affRel).attrSet);
 		}
 		expl.getTargetSideEffects().remove(error);
@@ -139,44 +137,27 @@ public class TargetSkeletonMappingExplanationGenerator implements
 			result.addExplanation(expl);
 	}
 
-	private IMarkerSet computeSideEffects(String rel, Set<String> maps, Set<String> attrs) throws Exception {
-		IMarkerSet result;
-		String query;
-		ResultSet rs;
+	/**
+	 * Target tuples of rel are side effects if they are produced only by 
+	 * mappings in maps.
+	 */
+	private IMarkerSet computeSideEffects(TargetSkeletonMappingError expl, String rel, 
+			Set<String> maps, Set<String> attrs) throws Exception {
 		IMarkerSet sideEff = expl.getTargetSideEffects();
-		StringBuffer mapList = new StringBuffer();
-		StringBuffer attrList = new StringBuffer();
-		
-		for(String mapName: maps) {
-			mapList.append("('" + mapName + "'),");
-		}
-		mapList.deleteCharAt(mapList.length() - 1);
-		
-		for(String attrName: attrs) {
-			attrList.append(attrName + ",");
-		}
-		attrList.deleteCharAt(attrList.length() - 1);
-
-		result = MarkerFactory.newMarkerSet();
+		MappingProvenanceBitmaps mapProv;
+		int[] tids;
 		
-		query = QueryHolder.getQuery("SuperMap.GetSideEffects")
-				.parameterize("target." + rel, mapList.toString());
-		if (log.isDebugEnabled()) {log.debug("Run side effect query for <" + rel + "> with query <\n" 
-				+ query + ">");};
+		mapProv = ProvenanceGenerator.getInstance().getMapProvBitmaps(rel);
+		tids = MappingProvenanceBitmaps.toTidIds(mapProv.getProducedOnlyBy(maps));
+		if (log.isDebugEnabled()) {log.debug("tuples of <" + rel + "> only produced by " 
+				+ maps + ": " + tids.length);};
 		
-		rs = ConnectionManager.getInstance().execQuery(query);
+		int relId = mapProv.getTargetRelId();
+		for (String attr: attrs) 
+			sideEff.addTids(relId, ScenarioDictionary.getInstance()
+					.getAttrId(relId, attr), tids);
 		
-		while(rs.next()) {
-			String tid = rs.getString(1);
-			
-			for (String attr: attrs) 
-				sideEff.add(MarkerFactory.newAttrMarker(
-						rel, tid, attr));
-		}
-		
-		ConnectionManager.getInstance().closeRs(rs);
-		
-		return result;
+		return MarkerFactory.newMarkerSet();
 	}
 
 }
@@ -3,6 +3,7 @@ package org.vagabond.explanation.generation.partition;
 import java.util.List;
 
 import org.vagabond.explanation.marker.IMarkerSet;
+import org.vagabond.explanation.marker.MarkerSetUtil;
 import org.vagabond.explanation.marker.MarkerSummary;
 import org.vagabond.explanation.marker.PartitionedMarkerSet;
 
@@ -17,10 +18,12 @@ public class ErrorPartitioner {
 		
 		// partition attributes
 		List<MarkerSummary> attrParts = mapGraph.paritionAttrs(markers.getSummary());
+		List<IMarkerSet> errParts;
 		
-		// partition errors
-		for(MarkerSummary m: attrParts)
-			result.addPartition(markers.subset(m), m);
+		// partition errors in one pass over the markers
+		errParts = MarkerSetUtil.partitionOnSummaries(markers, attrParts);
+		for(int i = 0; i < attrParts.size(); i++)
+			result.addPartition(errParts.get(i), attrParts.get(i));
 		
 		return result;
 	}
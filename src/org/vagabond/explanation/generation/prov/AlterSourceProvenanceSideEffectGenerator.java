@@ -12,30 +12,21 @@ public class AlterSourceProvenanceSideEffectGenerator
 
 	@Override
 	public String getSideEffectQuery (String relName, Set<String> sourceRels, 
-			Map<String, IMarkerSet> sourceSE) {
-		StringBuffer conditions;
+			Map<String, IMarkerSet> sourceSE) throws Exception {
+		return getSideEffectQuery(relName, sourceRels, sourceSE, null);
+	}
+	
+	@Override
+	public String getSideEffectQuery (String relName, Set<String> sourceRels, 
+			Map<String, IMarkerSet> sourceSE, SideEffectQueryParams params) 
+			throws Exception {
+		String conditions;
 		String query;
-		String unnumSource;
-		
-		conditions = new StringBuffer();
 		
-		conditions.append("(");
-		for(String source: sourceRels) {
-			unnumSource = getUnNumRelName(source);
-			if (sourceSE.get(unnumSource) != null) {
-				for(ISingleMarker sourceErr: sourceSE.get(unnumSource).getElems()) {
-					conditions.append(
-							getSideEffectEqualityCond(source, 
-									 sourceErr)
-							+ " OR ");
-				}
-			}
-		}
-		conditions.delete(conditions.length() - 4, conditions.length() - 1);
-		conditions.append(")");
+		conditions = getSourceTidsCondition(sourceRels, sourceSE, params);
 		
 		query = QueryHolder.getQuery("ProvSE.GetSideEffectUsingAgg")
-				.parameterize("target." + relName, conditions.toString());
+				.parameterize("target." + relName, conditions);
 		
 		if (log.isDebugEnabled()) {log.debug("Compute side effect query for\nrelname <" + relName + 
 				">\nconditions <" + conditions + ">\nwith query:\n" + query);};
@@ -2,13 +2,13 @@ package org.vagabond.explanation.generation.prov;
 
 import java.sql.ResultSet;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
 import org.apache.log4j.Logger;
 import org.vagabond.explanation.generation.QueryHolder;
+import org.vagabond.explanation.marker.ColumnarMarkerSet;
 import org.vagabond.explanation.marker.IAttributeValueMarker;
 import org.vagabond.explanation.marker.IMarkerSet;
 import org.vagabond.explanation.marker.ISingleMarker;
@@ -21,6 +21,7 @@ import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.LogProviderHolder;
 import org.vagabond.util.Pair;
 import org.vagabond.util.ResultSetUtil;
+import org.vagabond.util.ewah.IntIterator;
 import org.vagabond.xmlmodel.MappingType;
 
 public class AttrGranularitySourceProvenanceSideEffectGenerator extends
@@ -30,7 +31,6 @@ public class AttrGranularitySourceProvenanceSideEffectGenerator extends
 			AttrGranularitySourceProvenanceSideEffectGenerator.class);
 	
 	private Map<Pair<String,String>, int[][][]> mapSourceToTarget;
-	private Map<String,Map<String,Vector<Integer>>> sourceSEtidToAttrs;
 	
 	public AttrGranularitySourceProvenanceSideEffectGenerator () {
 		super();
@@ -38,7 +38,7 @@ public class AttrGranularitySourceProvenanceSideEffectGenerator extends
 		reset();
 	}
 	
-	public void reset () {
+	public synchronized void reset () {
 		mapSourceToTarget = new HashMap<Pair<String,String>, int[][][]>();
 	}
 	
@@ -50,31 +50,40 @@ public class AttrGranularitySourceProvenanceSideEffectGenerator extends
 		IMarkerSet result = MarkerFactory.newMarkerSet();
 		Map<String, Set<String>> relsForAffTarget;
 		Map<String, IMarkerSet> partionedSE;
+		ColumnarMarkerSet sourceCols;
 		
-		sourceSEtidToAttrs = new HashMap<String,Map<String,Vector<Integer>>>();
-		this.sourceSE = sourceSE;
-		this.error = error;
-		
-		partionedSE = partitionSourceSE();
-		createSourceSEAttrMap(partionedSE);
+		sourceCols = toColumnar(sourceSE);
+		partionedSE = partitionSourceSE(sourceCols);
 		relsForAffTarget = getRelAffectedByRels(partionedSE.keySet());
 		
 		if (log.isDebugEnabled()) {log.debug("partioned source SE: " + partionedSE);};
 		if (log.isDebugEnabled()) {log.debug("rels affected by source SE rels are: " + relsForAffTarget);};
-		if (log.isDebugEnabled()) {log.debug("create sourceSE attr map: " + sourceSEtidToAttrs);};
 		//TODO self join problematic not talk about rels but atoms that are positional
 		//TODO change semantics
 		for(String targetRel: relsForAffTarget.keySet()) {
-			query = getSideEffectQuery(targetRel, 
-							relsForAffTarget.get(targetRel), 
-							partionedSE);
-			
-			if (log.isDebugEnabled()) {log.debug("Compute side effects for target relation <"
-					+ targetRel + "> using query:\n" + query);};
+			SideEffectQueryParams params = new SideEffectQueryParams();
 			
-			rs = ConnectionManager.getInstance().execQuery(query);
-			parseTargetSE(targetRel, rs, result);
-			ConnectionManager.getInstance().closeRs(rs);
+			// temp tables are created for the query
+			try {
+				query = getSideEffectQuery(targetRel, 
+								relsForAffTarget.get(targetRel), 
+								partionedSE, params);
+				
+				if (log.isDebugEnabled()) {log.debug("Compute side effects for target relation <"
+						+ targetRel + "> using query:\n" + query);};
+				
+				rs = ConnectionManager.getInstance().execPreparedStreaming(query, 
+						params.getBindParams());
+				try {
+					parseTargetSE(targetRel, rs, result, sourceCols);
+				}
+				finally {
+					ConnectionManager.getInstance().closeRs(rs);
+				}
+			}
+			finally {
+				dropTidTables(params);
+			}
 		}
 		
 		result.remove(error);
@@ -82,47 +91,23 @@ public class AttrGranularitySourceProvenanceSideEffectGenerator extends
 		return result;
 	}
 	
-	private void createSourceSEAttrMap (Map<String, IMarkerSet> partionedSE) {	
-		Map<String, Vector<Integer>> tidToAttrs;
-		IMarkerSet markers;
-		IAttributeValueMarker marker;
-		String tid;
-		
-		for(String rel: partionedSE.keySet()) {
-			markers = partionedSE.get(rel);
-			tidToAttrs = new HashMap<String, Vector<Integer>> ();
-		
-			for(Iterator<ISingleMarker> i = markers.iterator(); i.hasNext();) {
-				marker = (IAttributeValueMarker) i.next();
-				tid = marker.getTid();
-				
-				if (!tidToAttrs.containsKey(marker.getTid())) {
-					tidToAttrs.put(tid, new Vector<Integer> ());
-				}
-				tidToAttrs.get(tid).add(marker.getAttrId());
-			}
-			
-			sourceSEtidToAttrs.put(rel, tidToAttrs);
-		}
-	}
-	
-	protected void parseTargetSE(String rel, ResultSet rs, IMarkerSet sideEff)
-			throws Exception {
+	protected void parseTargetSE(String rel, ResultSet rs, IMarkerSet sideEff, 
+			ColumnarMarkerSet sourceCols) throws Exception {
 		SourceAndMapProvParser parser;
-		Vector<Pair<String,MapAndWLProvRepresentation>> parse;
+		Pair<String,MapAndWLProvRepresentation> parse;
 		MapAndWLProvRepresentation curProv;
 		Vector<ITupleMarker> wl;
 		MappingType m;
 		String tid;
-		String wRelName;
 		
-		parser = new SourceAndMapProvParser(rs, rel);
-		parse = parser.getAllProv();
+		// parse the provenance of one target tuple at a time
+		parser = new SourceAndMapProvParser(rs, rel, true);
 		
 		// for each affected target tid
-		for(int i = 0; i < parse.size(); i++) {
-			curProv = parse.get(i).getValue();
-			tid = parse.get(i).getKey();
+		while(parser.hasNext()) {
+			parse = parser.next();
+			curProv = parse.getValue();
+			tid = parse.getKey();
 			if (log.isDebugEnabled()) {log.debug("--------- for TID: " + tid);};
 			
 			// iterate through all witness lists wl for this target tuple
@@ -141,15 +126,14 @@ public class AttrGranularitySourceProvenanceSideEffectGenerator extends
 					if (wlElem != null) {
 						if (log.isDebugEnabled()) {log.debug("-- tup: " + wlElem);};
 						
-						wRelName = curProv.getRelNames().get(k);
 						int[][][] attrMap = getAttrMapping(rel, m.getId());
-						Vector<Integer> sourceAttrPos = getSourceAttrPos
-								(wRelName, wlElem.getTid()); 
+						IntIterator sourceAttrs = sourceCols.getAttrMask(
+								wlElem.getRelId(), wlElem.getTidId()).intIterator(); 
 						int atomPos = curProv.getMapToWlPos().get(m).indexOf(k);
 						
-						if (atomPos != -1 && sourceAttrPos != null) {
-							for(Integer sAttrPos: sourceAttrPos) {
-								int[] targetPos = attrMap[atomPos][sAttrPos];
+						if (atomPos != -1) {
+							while(sourceAttrs.hasNext()) {
+								int[] targetPos = attrMap[atomPos][sourceAttrs.next()];
 								
 								for(int tAttrPos: targetPos) {
 									ISingleMarker newMark = MarkerFactory
@@ -166,16 +150,7 @@ public class AttrGranularitySourceProvenanceSideEffectGenerator extends
 		
 	}
 	
-	private Vector<Integer> getSourceAttrPos (String relName, String tid) {
-		if (sourceSEtidToAttrs.containsKey(relName))
-			return sourceSEtidToAttrs.get(relName).get(tid);
-			
-		return null;
-	}
-	
-	
-	
-	private int[][][] getAttrMapping (String relation, String mapping) throws Exception {
+	private synchronized int[][][] getAttrMapping (String relation, String mapping) throws Exception {
 		Pair<String,String> key;
 		MappingGraph g;
 		
@@ -191,30 +166,20 @@ public class AttrGranularitySourceProvenanceSideEffectGenerator extends
 	@Override
 	public String getSideEffectQuery (String relName, Set<String> sourceRels, 
 			Map<String, IMarkerSet> sourceSE) throws Exception {
-		StringBuffer conditions;
+		return getSideEffectQuery(relName, sourceRels, sourceSE, null);
+	}
+	
+	@Override
+	public String getSideEffectQuery (String relName, Set<String> sourceRels, 
+			Map<String, IMarkerSet> sourceSE, SideEffectQueryParams params) 
+			throws Exception {
+		String conditions;
 		String query;
-		String unnumSource;
-		
-		conditions = new StringBuffer();
-		
-		conditions.append("(");
-		for(String source: sourceRels) {
-			unnumSource = getUnNumRelName(source);
-			if (sourceSE.get(unnumSource) != null) {
-				for(ISingleMarker sourceErr
-						: sourceSE.get(unnumSource).getElems()) {
-					conditions.append(
-							getSideEffectEqualityCond(source, 
-									 sourceErr)
-							+ " OR ");
-				}
-			}
-		}
-		conditions.delete(conditions.length() - 4, conditions.length() - 1);
-		conditions.append(")");
+		
+		conditions = getSourceTidsCondition(sourceRels, sourceSE, params);
 		
 		query = QueryHolder.getQuery("ProvSE.GetSideEffectUsingAggPlusCompleteProv")
-				.parameterize("target." + relName, conditions.toString(), 
+				.parameterize("target." + relName, conditions, 
 						getProvTidAttrs(relName));
 		
 		if (log.isDebugEnabled()) {log.debug("Compute side effect query for\nrelname <" + relName + 
@@ -0,0 +1,82 @@
+package org.vagabond.explanation.generation.prov;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.vagabond.explanation.marker.ITidSource;
+import org.vagabond.explanation.marker.ScenarioDictionary;
+import org.vagabond.explanation.model.prov.ProvWLRepresentation;
+import org.vagabond.util.Pair;
+import org.vagabond.xmlmodel.MappingType;
+
+/**
+ * Computes the data, provenance and mapping provenance of target relations
+ * for {@link ProvenanceGenerator}. Target relations are given without schema
+ * name. The witness lists of a target tuple have one position per base
+ * relation access (see {@link #getBaseRelAccessToMapping(String)}). The
+ * backend also provides the tids of {@link ScenarioDictionary}.
+ *
+ * @author lord_pretzel
+ *
+ */
+public interface IProvenanceBackend extends ITidSource {
+
+	/**
+	 * @return for each witness list position of targetRel the base relation
+	 * 		and the mappings that access it. Only called if the accesses
+	 * 		cannot be derived from the transformation code.
+	 */
+	public Vector<Pair<String,Set<MappingType>>> getBaseRelAccessToMapping
+			(String targetRel) throws Exception;
+
+	/**
+	 * @return the attributes of the provenance of targetRel. Only called if
+	 * 		the schema cannot be derived from the transformation code.
+	 */
+	public String[] getProvSchemaForTarget (String targetRel) throws Exception;
+
+	/**
+	 * @return the names of the mappings that produced a target tuple
+	 */
+	public Vector<String> computeMapProvAsStrings (String targetRel, String tid)
+			throws Exception;
+
+	/**
+	 * @return the names of the mappings that produced each target tuple. Tids
+	 * 		of tuples that do not exist may be missing.
+	 */
+	public Map<String, Vector<String>> computeMapProvAsStrings (String targetRel,
+			List<String> tids) throws Exception;
+
+	/**
+	 * @return the witness lists of a target tuple restricted to the tuples
+	 * 		the value of attr is copied from
+	 */
+	public ProvWLRepresentation computeCopyProvenance (String targetRel,
+			String tid, String attr) throws Exception;
+
+	public Map<String, ProvWLRepresentation> computeCopyProvenance (String targetRel,
+			List<String> tids, String attr) throws Exception;
+
+	/**
+	 * @return the witness lists of the tuples influencing attribute attr of a
+	 * 		target tuple
+	 */
+	public ProvWLRepresentation computePIProv (String targetRel, String tid,
+			String attr) throws Exception;
+
+	public Map<String, ProvWLRepresentation> computePIProv (String targetRel,
+			List<String> tids, String attr) throws Exception;
+
+	public MappingProvenanceBitmaps getMapProvBitmaps (String targetRel)
+			throws Exception;
+
+	public ProvenanceIndex getProvenanceIndex (String targetRel) throws Exception;
+
+	/**
+	 * Forget everything computed for the current mapping scenario.
+	 */
+	public void reset ();
+}
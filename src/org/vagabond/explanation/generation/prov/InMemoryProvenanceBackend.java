@@ -0,0 +1,917 @@
+package org.vagabond.explanation.generation.prov;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlString;
+import org.vagabond.explanation.marker.ITupleMarker;
+import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.explanation.marker.ScenarioDictionary;
+import org.vagabond.explanation.model.prov.ProvWLRepresentation;
+import org.vagabond.mapping.model.MapScenarioHolder;
+import org.vagabond.mapping.scenarioToDB.SchemaCodeGenerator;
+import org.vagabond.util.CompactStringIdMap;
+import org.vagabond.util.LogProviderHolder;
+import org.vagabond.util.Pair;
+import org.vagabond.xmlmodel.AttrDefType;
+import org.vagabond.xmlmodel.DataType;
+import org.vagabond.xmlmodel.MappingScenarioDocument.MappingScenario;
+import org.vagabond.xmlmodel.MappingType;
+import org.vagabond.xmlmodel.RelAtomType;
+import org.vagabond.xmlmodel.RelInstanceFileType;
+import org.vagabond.xmlmodel.RelInstanceType;
+import org.vagabond.xmlmodel.RelInstanceType.Row;
+
+/**
+ * Computes provenance without a database by evaluating the mappings of the
+ * scenario over source data held in memory. Source data is loaded from the
+ * instances and instance files of the scenario or set directly. The first
+ * value of each source row is its tid.
+ *
+ * The target relations are evaluated lazily with hash joins on the variables
+ * shared by the foreach atoms of a mapping. Like the transformations that
+ * implement the mappings, mappings that share a base relation access are
+ * outer joined: a result of a mapping is dropped if a mapping accessing more
+ * base relations produced a result with the same tuples for the shared
+ * accesses. Target tids are computed like in the transformation code if the
+ * code concatenates literals and source tids (see
+ * {@link ProvenanceSchemaDeriver#getTidExpressions(String)}). Otherwise the
+ * tid of a target tuple is the concatenation of the source tids of all
+ * accesses of its mappings separated by '|' (an empty string for accesses
+ * the tuple does not use). Existential variables, Skolem functions and
+ * functions produce null values.
+ *
+ * @author lord_pretzel
+ *
+ */
+public class InMemoryProvenanceBackend implements IProvenanceBackend {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(InMemoryProvenanceBackend.class);
+
+	public static final String NULL_VALUE = "NULL";
+	public static final String DEFAULT_DELIM = ",";
+	public static final String TID_SEP = "|";
+
+	private static final int VAR = 0;
+	private static final int CONST = 1;
+	private static final int OTHER = 2;
+
+	/** an argument of a mapping atom */
+	private static class AtomArg {
+		int kind;
+		String value;
+	}
+
+	private static class Atom {
+		String rel;
+		AtomArg[] args;
+	}
+
+	/** a mapping that produces tuples of the evaluated target relation */
+	private static class MapPlan {
+		MappingType map;
+		Atom[] foreach;
+		/** witness list position of each foreach atom */
+		int[] atomPos;
+		/** exists atoms on the target relation */
+		Atom[] exists;
+		/** witness list positions of mappings outer joined with this one */
+		int[] groupPos;
+		List<Witness> witnesses = new ArrayList<Witness> ();
+	}
+
+	private static class Witness {
+		MapPlan plan;
+		int exists;
+		/** source tid at each witness list position or null */
+		String[] tids;
+		String[] values;
+	}
+
+	private static class TargetTuple {
+		String tid;
+		String[] values;
+		List<Witness> witnesses = new ArrayList<Witness> ();
+	}
+
+	private static class TargetInstance {
+		List<String> relNames;
+		Map<String, Integer> attrPos;
+		/** tid expression per witness list position, may be null */
+		Vector<List<Object>> tidExprs;
+		Map<String, TargetTuple> tuples = new LinkedHashMap<String, TargetTuple> ();
+	}
+
+	/** rows of each source relation, the first value of a row is the tid */
+	private Map<String, List<String[]>> sourceData;
+	private Map<String, TargetInstance> targets;
+
+	public InMemoryProvenanceBackend () {
+		sourceData = new HashMap<String, List<String[]>> ();
+		targets = new HashMap<String, TargetInstance> ();
+	}
+
+	/**
+	 * Load the source data of the current mapping scenario.
+	 *
+	 * @param csvPath directory containing the instance files or null to use
+	 * 		the path of each instance file
+	 */
+	public void loadScenarioData (File csvPath) throws Exception {
+		MappingScenario scen = MapScenarioHolder.getInstance().getScenario();
+		DataType data;
+
+		if (!scen.isSetData())
+			throw new Exception("mapping scenario has no data");
+		data = scen.getData();
+
+		for(RelInstanceType inst: data.getInstanceArray()) {
+			List<String[]> rows = new ArrayList<String[]> ();
+
+			if (inst.isSetTargetRelation())
+				continue;
+			for(Row row: inst.getRowArray()) {
+				String[] values = row.getValueArray();
+
+				for(int i = 0; i < values.length; i++)
+					if (values[i].equals(NULL_VALUE))
+						values[i] = null;
+				rows.add(values);
+			}
+			setRelation(inst.getName(), rows);
+		}
+
+		for(RelInstanceFileType inst: data.getInstanceFileArray()) {
+			File file;
+
+			if (inst.isSetTargetRelation())
+				continue;
+			file = (csvPath == null) ? new File(inst.getPath(), inst.getFileName())
+					: new File(csvPath, inst.getFileName());
+			loadCSV(inst.getName(), file, inst.isSetColumnDelim() ?
+					inst.getColumnDelim() : DEFAULT_DELIM);
+		}
+	}
+
+	/**
+	 * Load a source relation from a CSV file in the format of the loader
+	 * (unquoted NULL is the null value, tid in the first column).
+	 */
+	public void loadCSV (String rel, File file, String delim) throws IOException {
+		List<String[]> rows = new ArrayList<String[]> ();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		long before = System.currentTimeMillis();
+		String line;
+
+		try {
+			while((line = in.readLine()) != null)
+				if (line.length() > 0)
+					rows.add(parseCSVLine(line, delim.charAt(0)));
+		}
+		finally {
+			in.close();
+		}
+
+		if (log.isDebugEnabled()) {log.debug("loaded " + rows.size() + " rows of <"
+				+ rel + "> from " + file + " in "
+				+ (System.currentTimeMillis() - before) + " ms");};
+
+		setRelation(rel, rows);
+	}
+
+	private String[] parseCSVLine (String line, char delim) {
+		List<String> values = new ArrayList<String> ();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		boolean wasQuoted = false;
+
+		for(int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"')
+					value.append(line.charAt(++i));
+				else if (c == '"')
+					quoted = false;
+				else
+					value.append(c);
+			}
+			else if (c == '"') {
+				quoted = true;
+				wasQuoted = true;
+			}
+			else if (c == delim) {
+				values.add(csvValue(value, wasQuoted));
+				value = new StringBuilder();
+				wasQuoted = false;
+			}
+			else
+				value.append(c);
+		}
+		values.add(csvValue(value, wasQuoted));
+
+		return values.toArray(new String[values.size()]);
+	}
+
+	private String csvValue (StringBuilder value, boolean wasQuoted) {
+		String result = value.toString();
+
+		return (!wasQuoted && result.equals(NULL_VALUE)) ? null : result;
+	}
+
+	/**
+	 * Set the rows of a source relation. The first value of each row is the
+	 * tid, null values are represented as null.
+	 */
+	public synchronized void setRelation (String rel, List<String[]> rows) {
+		sourceData.put(rel, rows);
+		targets.clear();
+	}
+
+	/**
+	 * @return the rows of the evaluated target relation, the first value of
+	 * 		each row is the tid
+	 */
+	public List<String[]> getTargetRows (String targetRel) throws Exception {
+		List<String[]> result = new ArrayList<String[]> ();
+
+		for(TargetTuple t: getTarget(targetRel).tuples.values()) {
+			String[] row = new String[t.values.length + 1];
+
+			row[0] = t.tid;
+			System.arraycopy(t.values, 0, row, 1, t.values.length);
+			result.add(row);
+		}
+
+		return result;
+	}
+
+	@Override
+	public void addTids (String schemaPlusRelName, CompactStringIdMap tids)
+			throws Exception {
+		String schema = schemaPlusRelName.substring(0,
+				schemaPlusRelName.indexOf('.'));
+		String rel = schemaPlusRelName.substring(
+				schemaPlusRelName.indexOf('.') + 1);
+
+		if (schema.equals(SchemaCodeGenerator.SOURCE_SCHEMA_NAME)) {
+			for(String[] row: getSourceRelation(rel))
+				tids.put(row[0]);
+		}
+		else {
+			for(String tid: getTarget(rel).tuples.keySet())
+				tids.put(tid);
+		}
+	}
+
+	/**
+	 * Without transformation code each mapping accesses its foreach atoms
+	 * in order and no access is shared by mappings.
+	 */
+	@Override
+	public Vector<Pair<String, Set<MappingType>>> getBaseRelAccessToMapping(
+			String targetRel) throws Exception {
+		Vector<Pair<String,Set<MappingType>>> result;
+
+		result = new Vector<Pair<String,Set<MappingType>>> ();
+		for(MappingType map: getMapsForTarget(targetRel))
+			for(RelAtomType atom: map.getForeach().getAtomArray()) {
+				Set<MappingType> maps = new HashSet<MappingType> ();
+
+				maps.add(map);
+				result.add(new Pair<String,Set<MappingType>> (
+						atom.getTableref(), maps));
+			}
+
+		if (log.isDebugEnabled()) {log.debug("base rel access to mapping map for <"
+				+ targetRel + "> from the mappings:\n" + result);};
+
+		return result;
+	}
+
+	@Override
+	public String[] getProvSchemaForTarget (String targetRel) throws Exception {
+		return ProvenanceSchemaDeriver.getProvSchema(targetRel,
+				ProvenanceGenerator.getInstance().getBaseRelAccessToMapping(targetRel));
+	}
+
+	@Override
+	public Vector<String> computeMapProvAsStrings (String targetRel, String tid)
+			throws Exception {
+		TargetTuple t = getTarget(targetRel).tuples.get(tid);
+
+		return (t == null) ? new Vector<String> () : getMapNames(t);
+	}
+
+	@Override
+	public Map<String, Vector<String>> computeMapProvAsStrings (
+			String targetRel, List<String> tids) throws Exception {
+		Map<String, Vector<String>> result;
+		TargetInstance target = getTarget(targetRel);
+
+		result = new HashMap<String, Vector<String>> ();
+		for(String tid: tids) {
+			TargetTuple t = target.tuples.get(tid);
+
+			if (t != null)
+				result.put(tid, getMapNames(t));
+		}
+
+		return result;
+	}
+
+	private Vector<String> getMapNames (TargetTuple t) {
+		Vector<String> result = new Vector<String> ();
+
+		for(Witness w: t.witnesses)
+			if (!result.contains(w.plan.map.getId()))
+				result.add(w.plan.map.getId());
+
+		return result;
+	}
+
+	@Override
+	public ProvWLRepresentation computeCopyProvenance (String targetRel,
+			String tid, String attr) throws Exception {
+		TargetInstance target = getTarget(targetRel);
+
+		return getProv(target, target.tuples.get(tid), getAttrPos(target, attr));
+	}
+
+	@Override
+	public Map<String, ProvWLRepresentation> computeCopyProvenance (
+			String targetRel, List<String> tids, String attr) throws Exception {
+		Map<String, ProvWLRepresentation> result;
+		TargetInstance target = getTarget(targetRel);
+		int attrPos = getAttrPos(target, attr);
+
+		result = new HashMap<String, ProvWLRepresentation> ();
+		for(String tid: tids)
+			result.put(tid, getProv(target, target.tuples.get(tid), attrPos));
+
+		return result;
+	}
+
+	/**
+	 * The mappings are SPJ queries, so all tuples of a witness list
+	 * influence every attribute of the target tuple.
+	 */
+	@Override
+	public ProvWLRepresentation computePIProv (String targetRel, String tid,
+			String attr) throws Exception {
+		TargetInstance target = getTarget(targetRel);
+
+		return getProv(target, target.tuples.get(tid), -1);
+	}
+
+	@Override
+	public Map<String, ProvWLRepresentation> computePIProv (String targetRel,
+			List<String> tids, String attr) throws Exception {
+		Map<String, ProvWLRepresentation> result;
+		TargetInstance target = getTarget(targetRel);
+
+		result = new HashMap<String, ProvWLRepresentation> ();
+		for(String tid: tids)
+			result.put(tid, getProv(target, target.tuples.get(tid), -1));
+
+		return result;
+	}
+
+	private int getAttrPos (TargetInstance target, String attr) throws Exception {
+		Integer result = target.attrPos.get(attr);
+
+		if (result == null)
+			throw new Exception("target relation has no attribute <" + attr + ">");
+
+		return result;
+	}
+
+	/**
+	 * @param attrPos if not -1 only keep the tuples the value of this target
+	 * 		attribute is copied from
+	 */
+	private ProvWLRepresentation getProv (TargetInstance target, TargetTuple t,
+			int attrPos) throws Exception {
+		ProvWLRepresentation result = new ProvWLRepresentation();
+
+		result.setRelNames(target.relNames);
+		if (t == null)
+			return result;
+
+		for(Witness w: t.witnesses) {
+			Vector<ITupleMarker> wl = new Vector<ITupleMarker> ();
+			boolean[] keep = (attrPos == -1) ? null : getCopyPositions(w, attrPos);
+
+			for(int k = 0; k < w.tids.length; k++) {
+				if (w.tids[k] != null && (keep == null || keep[k])) {
+					ITupleMarker tup = MarkerFactory.newTupleMarker(
+							target.relNames.get(k), w.tids[k]);
+
+					wl.add(tup);
+					result.addTupleInProv(tup);
+				}
+				else
+					wl.add(null);
+			}
+			result.addWitnessList(wl);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return the witness list positions that contain the variable of the
+	 * 		exists atom of w at attrPos
+	 */
+	private boolean[] getCopyPositions (Witness w, int attrPos) {
+		boolean[] result = new boolean[w.tids.length];
+		AtomArg arg = w.plan.exists[w.exists].args[attrPos];
+
+		if (arg.kind != VAR)
+			return result;
+
+		for(int i = 0; i < w.plan.foreach.length; i++)
+			for(AtomArg a: w.plan.foreach[i].args)
+				if (a.kind == VAR && a.value.equals(arg.value))
+					result[w.plan.atomPos[i]] = true;
+
+		return result;
+	}
+
+	@Override
+	public MappingProvenanceBitmaps getMapProvBitmaps (String targetRel)
+			throws Exception {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		int targetRelId = dict.getRelId(targetRel);
+		MappingProvenanceBitmaps result;
+		Map<String, List<Integer>> tids;
+
+		result = new MappingProvenanceBitmaps(targetRel, targetRelId);
+		tids = new HashMap<String, List<Integer>> ();
+		for(TargetTuple t: getTarget(targetRel).tuples.values()) {
+			int tid = dict.getKnownTidInt(t.tid, targetRelId);
+
+			for(String map: getMapNames(t)) {
+				if (!tids.containsKey(map))
+					tids.put(map, new ArrayList<Integer> ());
+				tids.get(map).add(tid);
+			}
+		}
+
+		for(String map: tids.keySet()) {
+			List<Integer> mapTids = tids.get(map);
+			int[] sorted = new int[mapTids.size()];
+
+			for(int i = 0; i < sorted.length; i++)
+				sorted[i] = mapTids.get(i);
+			Arrays.sort(sorted);
+			result.setTids(map, sorted);
+		}
+
+		return result;
+	}
+
+	@Override
+	public ProvenanceIndex getProvenanceIndex (String targetRel) throws Exception {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		int targetRelId = dict.getRelId(targetRel);
+		TargetInstance target = getTarget(targetRel);
+		int numPos = target.relNames.size();
+		int[] posRelId = new int[numPos];
+		int[] rowTarget;
+		int[] rowTids;
+		int numRows = 0;
+
+		for(int k = 0; k < numPos; k++)
+			posRelId[k] = dict.getRelId(target.relNames.get(k));
+
+		for(TargetTuple t: target.tuples.values())
+			numRows += t.witnesses.size();
+		rowTarget = new int[numRows];
+		rowTids = new int[numRows * numPos];
+
+		numRows = 0;
+		for(TargetTuple t: target.tuples.values()) {
+			int tid = dict.getKnownTidInt(t.tid, targetRelId);
+
+			for(Witness w: t.witnesses) {
+				rowTarget[numRows] = tid;
+				for(int k = 0; k < numPos; k++)
+					rowTids[numRows * numPos + k] = (w.tids[k] == null) ? -1
+							: dict.getKnownTidInt(w.tids[k], posRelId[k]);
+				numRows++;
+			}
+		}
+
+		return ProvenanceIndex.build(targetRel, rowTarget, rowTids, numRows);
+	}
+
+	/**
+	 * Forget the evaluated target relations. The source data is kept.
+	 */
+	@Override
+	public synchronized void reset () {
+		targets.clear();
+	}
+
+	private synchronized List<String[]> getSourceRelation (String rel)
+			throws Exception {
+		List<String[]> result = sourceData.get(rel);
+
+		if (result == null)
+			throw new Exception("no data for source relation <" + rel + ">");
+
+		return result;
+	}
+
+	private List<MappingType> getMapsForTarget (String targetRel) {
+		List<MappingType> result = new ArrayList<MappingType> ();
+
+		for(MappingType map: MapScenarioHolder.getInstance().getScenario()
+				.getMappings().getMappingArray()) {
+			boolean found = false;
+
+			for(RelAtomType atom: map.getExists().getAtomArray())
+				found |= atom.getTableref().equals(targetRel);
+			if (found)
+				result.add(map);
+		}
+
+		return result;
+	}
+
+	private TargetInstance getTarget (String targetRel) throws Exception {
+		Vector<Pair<String,Set<MappingType>>> accesses;
+		TargetInstance result;
+
+		synchronized (this) {
+			result = targets.get(targetRel);
+		}
+		if (result != null)
+			return result;
+
+		// get the accesses before locking the backend, because the
+		// provenance generator may call the backend while holding its lock
+		accesses = ProvenanceGenerator.getInstance()
+				.getBaseRelAccessToMapping(targetRel);
+
+		synchronized (this) {
+			result = targets.get(targetRel);
+			if (result == null) {
+				long before = System.currentTimeMillis();
+
+				result = evaluateTarget(targetRel, accesses);
+				targets.put(targetRel, result);
+
+				if (log.isDebugEnabled()) {log.debug("evaluated <" + targetRel
+						+ "> with " + result.tuples.size() + " tuples in "
+						+ (System.currentTimeMillis() - before) + " ms");};
+			}
+		}
+
+		return result;
+	}
+
+	private TargetInstance evaluateTarget (String targetRel,
+			Vector<Pair<String,Set<MappingType>>> accesses) throws Exception {
+		TargetInstance result = new TargetInstance();
+		List<MapPlan> plans = new ArrayList<MapPlan> ();
+		AttrDefType[] attrs;
+
+		result.relNames = Pair.pairVecToKeyVec(accesses);
+		result.tidExprs = ProvenanceSchemaDeriver.getTidExpressions(targetRel);
+		result.attrPos = new HashMap<String, Integer> ();
+		attrs = MapScenarioHolder.getInstance().getRelForName(targetRel, true)
+				.getAttrArray();
+		for(int i = 0; i < attrs.length; i++)
+			result.attrPos.put(attrs[i].getName(), i);
+
+		for(MappingType map: getMapsForTarget(targetRel))
+			plans.add(createPlan(map, targetRel, accesses));
+		setGroupPositions(plans, accesses.size());
+
+		for(MapPlan plan: plans)
+			evaluatePlan(plan, accesses.size());
+		removeSubsumed(plans);
+
+		for(MapPlan plan: plans)
+			for(Witness w: plan.witnesses)
+				addWitness(result, w);
+
+		return result;
+	}
+
+	/**
+	 * Assign each foreach atom of map to a witness list position of the
+	 * mapping in the order of the positions.
+	 */
+	private MapPlan createPlan (MappingType map, String targetRel,
+			Vector<Pair<String,Set<MappingType>>> accesses) throws Exception {
+		MapPlan plan = new MapPlan();
+		RelAtomType[] atoms = map.getForeach().getAtomArray();
+		List<Atom> exists = new ArrayList<Atom> ();
+		boolean[] used = new boolean[accesses.size()];
+
+		plan.map = map;
+		plan.foreach = new Atom[atoms.length];
+		plan.atomPos = new int[atoms.length];
+		for(int i = 0; i < atoms.length; i++) {
+			plan.foreach[i] = getAtom(atoms[i]);
+			plan.atomPos[i] = -1;
+
+			for(int k = 0; k < accesses.size() && plan.atomPos[i] == -1; k++)
+				if (!used[k] && accesses.get(k).getValue().contains(map)
+						&& accesses.get(k).getKey().equals(atoms[i].getTableref())) {
+					used[k] = true;
+					plan.atomPos[i] = k;
+				}
+
+			if (plan.atomPos[i] == -1)
+				throw new Exception("no base relation access of <" + targetRel
+						+ "> for atom " + i + " of mapping <" + map.getId() + ">");
+		}
+
+		for(RelAtomType atom: map.getExists().getAtomArray())
+			if (atom.getTableref().equals(targetRel))
+				exists.add(getAtom(atom));
+		plan.exists = exists.toArray(new Atom[exists.size()]);
+
+		return plan;
+	}
+
+	private Atom getAtom (RelAtomType atom) {
+		List<AtomArg> args = new ArrayList<AtomArg> ();
+		Atom result = new Atom();
+		XmlCursor c = atom.newCursor();
+
+		result.rel = atom.getTableref();
+		if (c.toFirstChild()) {
+			do {
+				XmlObject o = c.getObject();
+				String name = c.getName().getLocalPart();
+				AtomArg arg = new AtomArg();
+
+				if (name.equals("Var"))
+					arg.kind = VAR;
+				else if (name.equals("Constant"))
+					arg.kind = CONST;
+				else
+					arg.kind = OTHER;
+				if (arg.kind != OTHER)
+					arg.value = ((XmlString) o).getStringValue().trim();
+				args.add(arg);
+			} while (c.toNextSibling());
+		}
+		c.dispose();
+
+		result.args = args.toArray(new AtomArg[args.size()]);
+		return result;
+	}
+
+	/**
+	 * Mappings that share a witness list position are outer joined in the
+	 * same query. Compute the positions of each such group of mappings.
+	 */
+	private void setGroupPositions (List<MapPlan> plans, int numPos) {
+		int[] parent = new int[plans.size()];
+		int[] posOwner = new int[numPos];
+
+		Arrays.fill(posOwner, -1);
+		for(int i = 0; i < parent.length; i++)
+			parent[i] = i;
+
+		for(int i = 0; i < plans.size(); i++)
+			for(int k: plans.get(i).atomPos) {
+				if (posOwner[k] == -1)
+					posOwner[k] = i;
+				else
+					parent[find(parent, i)] = find(parent, posOwner[k]);
+			}
+
+		for(int i = 0; i < plans.size(); i++) {
+			List<Integer> pos = new ArrayList<Integer> ();
+
+			for(int k = 0; k < numPos; k++)
+				if (posOwner[k] != -1 && find(parent, posOwner[k]) == find(parent, i))
+					pos.add(k);
+			plans.get(i).groupPos = new int[pos.size()];
+			for(int j = 0; j < pos.size(); j++)
+				plans.get(i).groupPos[j] = pos.get(j);
+		}
+	}
+
+	private int find (int[] parent, int i) {
+		while (parent[i] != i)
+			i = parent[i] = parent[parent[i]];
+		return i;
+	}
+
+	/**
+	 * Join the foreach atoms of a mapping one at a time using a hash table
+	 * on the variables shared with the atoms joined so far.
+	 */
+	private void evaluatePlan (MapPlan plan, int numPos) throws Exception {
+		Map<String, int[]> bound = new HashMap<String, int[]> ();
+		List<String[][]> results = new ArrayList<String[][]> ();
+
+		results.add(new String[plan.foreach.length][]);
+		for(int i = 0; i < plan.foreach.length; i++) {
+			Atom atom = plan.foreach[i];
+			Map<String, Integer> local = new HashMap<String, Integer> ();
+			Map<List<String>, List<String[]>> table;
+			List<int[]> joinCols = new ArrayList<int[]> ();
+			List<int[]> localEq = new ArrayList<int[]> ();
+			List<String[][]> newResults = new ArrayList<String[][]> ();
+
+			// value 0 of a row is the tid
+			for(int j = 0; j < atom.args.length; j++) {
+				AtomArg arg = atom.args[j];
+
+				if (arg.kind != VAR)
+					continue;
+				if (bound.containsKey(arg.value))
+					joinCols.add(new int[] {j + 1, bound.get(arg.value)[0],
+							bound.get(arg.value)[1]});
+				else if (local.containsKey(arg.value))
+					localEq.add(new int[] {j + 1, local.get(arg.value)});
+				else
+					local.put(arg.value, j + 1);
+			}
+
+			table = new HashMap<List<String>, List<String[]>> ();
+			for(String[] row: getSourceRelation(atom.rel)) {
+				List<String> key = new ArrayList<String> (joinCols.size());
+
+				if (!matchesAtom(row, atom, localEq))
+					continue;
+				for(int[] col: joinCols)
+					key.add(row[col[0]]);
+				if (key.contains(null))
+					continue;
+
+				if (!table.containsKey(key))
+					table.put(key, new ArrayList<String[]> ());
+				table.get(key).add(row);
+			}
+
+			for(String[][] partial: results) {
+				List<String> key = new ArrayList<String> (joinCols.size());
+				List<String[]> matches;
+
+				for(int[] col: joinCols)
+					key.add(partial[col[1]][col[2]]);
+				matches = table.get(key);
+				if (matches == null)
+					continue;
+
+				for(String[] row: matches) {
+					String[][] result = partial.clone();
+
+					result[i] = row;
+					newResults.add(result);
+				}
+			}
+			results = newResults;
+
+			for(String var: local.keySet())
+				bound.put(var, new int[] {i, local.get(var)});
+		}
+
+		for(String[][] result: results)
+			for(int e = 0; e < plan.exists.length; e++) {
+				Witness w = new Witness();
+				AtomArg[] args = plan.exists[e].args;
+
+				w.plan = plan;
+				w.exists = e;
+				w.tids = new String[numPos];
+				for(int i = 0; i < result.length; i++)
+					w.tids[plan.atomPos[i]] = result[i][0];
+
+				w.values = new String[args.length];
+				for(int j = 0; j < args.length; j++) {
+					if (args[j].kind == CONST)
+						w.values[j] = args[j].value;
+					else if (args[j].kind == VAR && bound.containsKey(args[j].value)) {
+						int[] pos = bound.get(args[j].value);
+
+						w.values[j] = result[pos[0]][pos[1]];
+					}
+				}
+				plan.witnesses.add(w);
+			}
+
+		if (log.isDebugEnabled()) {log.debug("mapping <" + plan.map.getId()
+				+ "> produced " + plan.witnesses.size() + " witness lists");};
+	}
+
+	private boolean matchesAtom (String[] row, Atom atom, List<int[]> localEq) {
+		for(int j = 0; j < atom.args.length; j++)
+			if (atom.args[j].kind == CONST
+					&& !atom.args[j].value.equals(row[j + 1]))
+				return false;
+
+		for(int[] eq: localEq)
+			if (row[eq[0]] == null || !row[eq[0]].equals(row[eq[1]]))
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Remove the results of a mapping that are extended by a result of an
+	 * outer joined mapping with more base relation accesses.
+	 */
+	private void removeSubsumed (List<MapPlan> plans) {
+		for(MapPlan plan: plans)
+			for(MapPlan other: plans) {
+				Set<List<String>> covered;
+				List<Witness> kept;
+
+				if (other == plan || !isProperSubset(plan.atomPos, other.atomPos))
+					continue;
+
+				covered = new HashSet<List<String>> ();
+				for(Witness w: other.witnesses)
+					covered.add(project(w, plan.atomPos));
+
+				kept = new ArrayList<Witness> ();
+				for(Witness w: plan.witnesses)
+					if (!covered.contains(project(w, plan.atomPos)))
+						kept.add(w);
+				plan.witnesses = kept;
+			}
+	}
+
+	private boolean isProperSubset (int[] pos, int[] otherPos) {
+		Set<Integer> other = new HashSet<Integer> ();
+
+		for(int k: otherPos)
+			other.add(k);
+		for(int k: pos)
+			if (!other.contains(k))
+				return false;
+
+		return other.size() > pos.length;
+	}
+
+	private List<String> project (Witness w, int[] pos) {
+		List<String> result = new ArrayList<String> (pos.length);
+
+		for(int k: pos)
+			result.add(w.tids[k]);
+
+		return result;
+	}
+
+	private void addWitness (TargetInstance target, Witness w) {
+		StringBuilder tid = new StringBuilder();
+		List<Object> tidExpr = null;
+		TargetTuple t;
+
+		if (target.tidExprs != null && w.plan.atomPos.length > 0)
+			tidExpr = target.tidExprs.get(w.plan.atomPos[0]);
+
+		if (tidExpr != null) {
+			for(Object part: tidExpr) {
+				if (part instanceof String)
+					tid.append(part);
+				else if (w.tids[(Integer) part] != null)
+					tid.append(w.tids[(Integer) part]);
+			}
+		}
+		else {
+			for(int j = 0; j < w.plan.groupPos.length; j++) {
+				String posTid = w.tids[w.plan.groupPos[j]];
+
+				if (j > 0)
+					tid.append(TID_SEP);
+				if (posTid != null)
+					tid.append(posTid);
+			}
+		}
+
+		t = target.tuples.get(tid.toString());
+		if (t == null) {
+			t = new TargetTuple();
+			t.tid = tid.toString();
+			t.values = w.values;
+			target.tuples.put(t.tid, t);
+		}
+		t.witnesses.add(w);
+	}
+}
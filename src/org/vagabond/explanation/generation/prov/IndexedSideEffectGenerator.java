@@ -0,0 +1,178 @@
+package org.vagabond.explanation.generation.prov;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.vagabond.explanation.marker.ColumnarMarkerSet;
+import org.vagabond.explanation.marker.IAttributeValueMarker;
+import org.vagabond.explanation.marker.IMarkerSet;
+import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.explanation.marker.ScenarioDictionary;
+import org.vagabond.mapping.model.MapScenarioHolder;
+import org.vagabond.util.LogProviderHolder;
+import org.vagabond.util.Pair;
+import org.vagabond.util.ewah.IBitSet;
+import org.vagabond.util.ewah.IntIterator;
+import org.vagabond.util.ewah.JavaUtilBitSet;
+import org.vagabond.xmlmodel.MappingType;
+import org.vagabond.xmlmodel.RelAtomType;
+
+/**
+ * Computes the same side effects as
+ * {@link AttrGranularitySourceProvenanceSideEffectGenerator} from a
+ * {@link ProvenanceIndex} of each target relation instead of running a query
+ * per call. The index of a target relation is built the first time it is
+ * needed and kept until {@link #reset()}. A target tuple is a side effect if
+ * each of its witness lists contains one of the source side effect tuples.
+ * Candidates are found through the source to target index and checked
+ * against bitsets of the source side effect tids.
+ *
+ * @author lord_pretzel
+ *
+ */
+public class IndexedSideEffectGenerator extends SourceProvenanceSideEffectGenerator {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(
+			IndexedSideEffectGenerator.class);
+
+	private Map<String, ProvenanceIndex> indexes;
+	private Map<Pair<String,String>, int[][][]> mapSourceToTarget;
+
+	public IndexedSideEffectGenerator () {
+		reset();
+	}
+
+	@Override
+	public synchronized void reset () {
+		indexes = new HashMap<String, ProvenanceIndex> ();
+		mapSourceToTarget = new HashMap<Pair<String,String>, int[][][]>();
+	}
+
+	@Override
+	public IMarkerSet computeTargetSideEffects (IMarkerSet sourceSE,
+			IAttributeValueMarker error) throws Exception {
+		IMarkerSet result = MarkerFactory.newMarkerSet();
+		ColumnarMarkerSet sourceCols;
+		IBitSet[] sourceTids;
+		int[] sourceRelIds;
+
+		sourceCols = toColumnar(sourceSE);
+		sourceRelIds = sourceCols.getRelIds();
+		sourceTids = new IBitSet[ScenarioDictionary.getInstance().getRelCount()];
+		for(int relId: sourceRelIds)
+			sourceTids[relId] = sourceCols.getTids(relId);
+
+		for(String targetRel: getTargetRels(sourceRelIds)) {
+			ProvenanceIndex index = getIndex(targetRel);
+			IBitSet candidates = new JavaUtilBitSet();
+			IntIterator i;
+
+			for(int relId: sourceRelIds)
+				candidates.orInPlace(index.getTargetsForSources(relId,
+						sourceTids[relId]));
+
+			if (log.isDebugEnabled()) {log.debug("check " + candidates.cardinality() + " candidate side effects in <" + targetRel + ">");};
+
+			i = candidates.intIterator();
+			while(i.hasNext()) {
+				int t = i.next();
+
+				if (index.dependsOnlyOn(t, sourceTids))
+					addSideEffects(index, t, sourceCols, sourceTids, result);
+			}
+		}
+
+		result.remove(error);
+
+		return result;
+	}
+
+	/**
+	 * Add markers for the target attributes of target tuple t that are
+	 * copied from or influenced by the source side effects.
+	 */
+	private void addSideEffects (ProvenanceIndex index, int t,
+			ColumnarMarkerSet sourceCols, IBitSet[] sourceTids,
+			IMarkerSet sideEff) throws Exception {
+		int targetRelId = index.getTargetRelId();
+		int targetTid = index.getTargetTid(t);
+
+		for(int w = index.getWitnessListStart(t); w < index.getWitnessListEnd(t); w++) {
+			int[][][] attrMap = getAttrMapping(index.getTargetRel(),
+					index.getWitnessMapping(w).getId());
+
+			for(int k = 0; k < index.getNumPositions(); k++) {
+				int tid = index.getWitnessTid(w, k);
+				int relId = index.getPosRelId(k);
+				int atomPos = index.getAtomPos(w, k);
+				IntIterator sourceAttrs;
+
+				if (tid == -1 || atomPos == -1 || sourceTids[relId] == null
+						|| !sourceTids[relId].get(tid))
+					continue;
+
+				sourceAttrs = sourceCols.getAttrMask(relId, tid).intIterator();
+				while(sourceAttrs.hasNext()) {
+					for(int tAttrPos: attrMap[atomPos][sourceAttrs.next()])
+						sideEff.add(MarkerFactory.newAttrMarker(targetRelId,
+								targetTid, tAttrPos));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the target relations of mappings that read one of the source
+	 * 		relations
+	 */
+	private Set<String> getTargetRels (int[] sourceRelIds) {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		Set<String> sourceRels = new HashSet<String> ();
+		Set<String> result = new HashSet<String> ();
+
+		for(int relId: sourceRelIds)
+			sourceRels.add(dict.getRelName(relId));
+
+		for(MappingType map: MapScenarioHolder.getInstance().getScenario().
+				getMappings().getMappingArray()) {
+			for(RelAtomType atom: map.getForeach().getAtomArray()) {
+				if (sourceRels.contains(atom.getTableref())) {
+					for(RelAtomType affRel: map.getExists().getAtomArray())
+						result.add(affRel.getTableref());
+					break;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	public synchronized ProvenanceIndex getIndex (String targetRel) throws Exception {
+		ProvenanceIndex index = indexes.get(targetRel);
+
+		if (index == null) {
+			index = ProvenanceGenerator.getInstance().getBackend()
+					.getProvenanceIndex(targetRel);
+			indexes.put(targetRel, index);
+		}
+
+		return index;
+	}
+
+	private synchronized int[][][] getAttrMapping (String relation, String mapping)
+			throws Exception {
+		Pair<String,String> key = new Pair<String,String> (relation, mapping);
+		int[][][] result = mapSourceToTarget.get(key);
+
+		if (result == null) {
+			result = MapScenarioHolder.getInstance().getGraphForMapping(mapping)
+					.getAtomPosToTargetPosMap(relation);
+			mapSourceToTarget.put(key, result);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,170 @@
+package org.vagabond.explanation.generation.prov;
+
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.vagabond.explanation.generation.QueryHolder;
+import org.vagabond.explanation.marker.ScenarioDictionary;
+import org.vagabond.util.ConnectionManager;
+import org.vagabond.util.LogProviderHolder;
+import org.vagabond.util.ewah.BitsetFactory;
+import org.vagabond.util.ewah.IBitSet;
+import org.vagabond.util.ewah.IBitSet.BitsetType;
+import org.vagabond.util.ewah.IntIterator;
+
+/**
+ * Mapping provenance of one target relation stored as one EWAH bitmap per
+ * mapping. Bit i of the bitmap of mapping m is set if mapping m produced the
+ * target tuple with tid id i (see {@link ScenarioDictionary}).
+ *
+ * @author lord_pretzel
+ *
+ */
+public class MappingProvenanceBitmaps {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(MappingProvenanceBitmaps.class);
+
+	private static final IBitSet EMPTY = BitsetFactory.newBitset(BitsetType.EWAHBitSet);
+
+	private String targetRel;
+	private int targetRelId;
+	private Map<String, IBitSet> tidsPerMap;
+
+	public MappingProvenanceBitmaps (String targetRel) {
+		this.targetRel = targetRel;
+		this.tidsPerMap = new HashMap<String, IBitSet> ();
+	}
+
+	public MappingProvenanceBitmaps (String targetRel, int targetRelId) {
+		this(targetRel);
+		this.targetRelId = targetRelId;
+	}
+
+	/**
+	 * Read the mapping provenance of targetRel from the database.
+	 */
+	public static MappingProvenanceBitmaps load (String targetRel) throws Exception {
+		MappingProvenanceBitmaps result = new MappingProvenanceBitmaps(targetRel);
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		Map<String, int[]> tids = new HashMap<String, int[]> ();
+		Map<String, Integer> numTids = new HashMap<String, Integer> ();
+		long before = System.currentTimeMillis();
+		ResultSet rs;
+
+		result.targetRelId = dict.getRelId(targetRel);
+
+		rs = ConnectionManager.getInstance().execQueryStreaming(
+				QueryHolder.getQuery("MapAndTransProv.GetAllMapProv")
+				.parameterize("target." + targetRel));
+		try {
+			while(rs.next()) {
+				String map = rs.getString(2);
+				int[] mapTids = tids.get(map);
+				int num = numTids.containsKey(map) ? numTids.get(map) : 0;
+
+				if (mapTids == null || num == mapTids.length) {
+					mapTids = mapTids == null ? new int[64] : Arrays.copyOf(mapTids, num * 2);
+					tids.put(map, mapTids);
+				}
+				mapTids[num] = dict.getKnownTidInt(rs.getString(1), result.targetRelId);
+				numTids.put(map, num + 1);
+			}
+		}
+		finally {
+			ConnectionManager.getInstance().closeRs(rs);
+		}
+
+		// EWAH bitmaps are built fastest by setting bits in increasing order
+		for(String map: tids.keySet()) {
+			int[] mapTids = Arrays.copyOf(tids.get(map), numTids.get(map));
+
+			Arrays.sort(mapTids);
+			result.setTids(map, mapTids);
+		}
+
+		if (log.isDebugEnabled()) {log.debug("loaded mapping provenance of <"
+				+ targetRel + "> for " + tids.size() + " mappings in "
+				+ (System.currentTimeMillis() - before) + " ms");};
+
+		return result;
+	}
+
+	/**
+	 * @param tids the tid ids of the target tuples produced by mapping map in
+	 * 		increasing order
+	 */
+	public void setTids (String map, int[] tids) {
+		IBitSet bitmap = BitsetFactory.newBitset(BitsetType.EWAHBitSet);
+
+		for(int i = 0; i < tids.length; i++)
+			if (i == 0 || tids[i] != tids[i - 1])
+				bitmap.set(tids[i]);
+		tidsPerMap.put(map, bitmap);
+	}
+
+	/**
+	 * @return the target tuples produced by mapping map. Must not be
+	 * 		modified.
+	 */
+	public IBitSet getTids (String map) {
+		IBitSet result = tidsPerMap.get(map);
+
+		return result == null ? EMPTY : result;
+	}
+
+	/**
+	 * @return the target tuples produced by at least one of the mappings
+	 */
+	public IBitSet getProducedBy (Collection<String> maps) {
+		IBitSet result = BitsetFactory.newBitset(BitsetType.EWAHBitSet);
+
+		for(String map: maps)
+			result = result.or(getTids(map));
+
+		return result;
+	}
+
+	/**
+	 * @return the target tuples that are produced by one of the mappings and
+	 * 		not by any other mapping
+	 */
+	public IBitSet getProducedOnlyBy (Collection<String> maps) {
+		IBitSet result = getProducedBy(maps);
+
+		for(String map: tidsPerMap.keySet())
+			if (!maps.contains(map))
+				result = result.andNot(tidsPerMap.get(map));
+
+		return result;
+	}
+
+	/**
+	 * @return positions of the set bits in increasing order
+	 */
+	public static int[] toTidIds (IBitSet tids) {
+		int[] result = new int[tids.cardinality()];
+		IntIterator i = tids.intIterator();
+		int pos = 0;
+
+		while(i.hasNext())
+			result[pos++] = i.next();
+
+		return result;
+	}
+
+	public String getTargetRel () {
+		return targetRel;
+	}
+
+	public int getTargetRelId () {
+		return targetRelId;
+	}
+
+	public int getNumMappings () {
+		return tidsPerMap.size();
+	}
+}
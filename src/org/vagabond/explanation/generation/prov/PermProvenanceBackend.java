@@ -0,0 +1,258 @@
+package org.vagabond.explanation.generation.prov;
+
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+import org.vagabond.explanation.generation.QueryHolder;
+import org.vagabond.explanation.marker.DatabaseTidSource;
+import org.vagabond.explanation.model.prov.ProvWLRepresentation;
+import org.vagabond.mapping.model.MapScenarioHolder;
+import org.vagabond.util.CompactStringIdMap;
+import org.vagabond.util.ConnectionManager;
+import org.vagabond.util.LogProviderHolder;
+import org.vagabond.util.Pair;
+import org.vagabond.util.QueryTemplate;
+import org.vagabond.xmlmodel.MappingType;
+
+/**
+ * Retrieves provenance from a Perm database with the provenance queries of
+ * {@link QueryHolder}.
+ *
+ * @author lord_pretzel
+ *
+ */
+public class PermProvenanceBackend implements IProvenanceBackend {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(PermProvenanceBackend.class);
+
+	public PermProvenanceBackend () {
+	}
+
+	@Override
+	public void addTids (String schemaPlusRelName, CompactStringIdMap tids)
+			throws Exception {
+		DatabaseTidSource.getInstance().addTids(schemaPlusRelName, tids);
+	}
+
+	@Override
+	public Vector<Pair<String,Set<MappingType>>> getBaseRelAccessToMapping
+			(String targetRel) throws Exception {
+		Vector<Pair<String,Set<MappingType>>> result;
+		String query;
+		String parse;
+		ResultSet rs;
+
+		result = new Vector<Pair<String,Set<MappingType>>>();
+
+		query = QueryHolder.getQuery("MetaQ.GetMapsForBaseRelAccess")
+				.parameterize("target." + targetRel);
+
+		rs = ConnectionManager.getInstance().execQuery(query);
+
+		if (!rs.next())
+			throw new Exception("query returned zero tuples");
+
+		parse = rs.getString(1);
+
+		// parse the rel1:M1,M2|rel2:M3| ... format
+		for (String entry: parse.split("\\|")) {
+			String rel;
+			String maps;
+			Set<MappingType> value;
+
+			rel = entry.substring(entry.indexOf('.') + 1, entry.indexOf(':'));
+			maps = entry.substring(entry.indexOf(':') + 1);
+			value = new HashSet<MappingType> ();
+			result.add(new Pair<String,Set<MappingType>>(rel, value));
+
+			for (String map: maps.split(",")) {
+				value.add(MapScenarioHolder.getInstance().getMapping(map));
+			}
+		}
+
+		if (log.isDebugEnabled()) {log.debug("compute base rel access to mapping map for <" + targetRel + ">:\n"
+				+ result);};
+
+		ConnectionManager.getInstance().closeRs(rs);
+
+		return result;
+	}
+
+	@Override
+	public String[] getProvSchemaForTarget (String targetRel) throws Exception {
+		String query;
+		String resultStr;
+		ResultSet rs;
+
+		query = QueryHolder.getQuery("MetaQ.GetProvQueryResultAttrs")
+				.parameterize("target." + targetRel);
+
+		if (log.isDebugEnabled()) {log.debug("compute provenance schema for <" + targetRel
+				+ "> with query: <" + query + ">");};
+
+		rs = ConnectionManager.getInstance().execQuery(query);
+
+		rs.next();
+		resultStr = rs.getString(1).trim();
+		resultStr = resultStr.substring(1, resultStr.length() - 1);
+
+		ConnectionManager.getInstance().closeRs(rs);
+
+		return resultStr.split(",");
+	}
+
+	@Override
+	public Vector<String> computeMapProvAsStrings (String targetRel, String tid)
+			throws Exception {
+		QueryTemplate query;
+		ResultSet rs;
+		Vector<String> maps = new Vector<String>();
+
+		query = QueryHolder.getQuery("MapAndTransProv.GetMapProv");
+		if (log.isDebugEnabled()) {log.debug("Compute MapProv for <" + targetRel + "," + tid + "> with query:\n"
+				+ query.parameterize("target." + targetRel, tid));};
+
+		rs = ConnectionManager.getInstance().execPrepared(query,
+				"target." + targetRel, tid);
+
+		while(rs.next())
+			maps.add(rs.getString(1));
+
+		ConnectionManager.getInstance().closeRs(rs);
+
+		return maps;
+	}
+
+	@Override
+	public Map<String, Vector<String>> computeMapProvAsStrings (String targetRel,
+			List<String> tids) throws Exception {
+		Map<String, Vector<String>> tidMaps;
+		String query;
+		ResultSet rs;
+
+		tidMaps = new HashMap<String, Vector<String>> ();
+		query = QueryHolder.getQuery("MapAndTransProv.GetMapProvBatch")
+				.parameterize("target." + targetRel, getTidList(tids));
+		if (log.isDebugEnabled()) {log.debug("Compute MapProv for batch with query:\n" + query);};
+
+		rs = ConnectionManager.getInstance().execQueryStreaming(query);
+		try {
+			while(rs.next()) {
+				String tid = rs.getString(1);
+
+				if (!tidMaps.containsKey(tid))
+					tidMaps.put(tid, new Vector<String> ());
+				tidMaps.get(tid).add(rs.getString(2));
+			}
+		}
+		finally {
+			ConnectionManager.getInstance().closeRs(rs);
+		}
+
+		return tidMaps;
+	}
+
+	@Override
+	public ProvWLRepresentation computeCopyProvenance (String targetRel,
+			String tid, String attr) throws Exception {
+		QueryTemplate query;
+
+		query = QueryHolder.getQuery("CopyCS.GetProv");
+		if (log.isDebugEnabled()) {log.debug("Parameterized copy source explanation query for <"
+				+ targetRel + "," + tid + "," + attr + ">:\n"
+				+ query.parameterize("target." + targetRel, tid, attr));};
+
+		return computeProv(query, targetRel, tid, attr);
+	}
+
+	@Override
+	public Map<String, ProvWLRepresentation> computeCopyProvenance (String targetRel,
+			List<String> tids, String attr) throws Exception {
+		return computeProvBatch("CopyCS.GetProvBatch", targetRel, tids, attr);
+	}
+
+	@Override
+	public ProvWLRepresentation computePIProv (String targetRel, String tid,
+			String attr) throws Exception {
+		return computeProv(QueryHolder.getQuery("InfluenceCS.GetProv"),
+				targetRel, tid, attr);
+	}
+
+	@Override
+	public Map<String, ProvWLRepresentation> computePIProv (String targetRel,
+			List<String> tids, String attr) throws Exception {
+		return computeProvBatch("InfluenceCS.GetProvBatch", targetRel, tids, attr);
+	}
+
+	private ProvWLRepresentation computeProv (QueryTemplate query,
+			String targetRel, String tid, String attr) throws Exception {
+		ResultSet rs;
+		SourceProvParser parser;
+
+		rs = ConnectionManager.getInstance().execPrepared(query,
+				"target." + targetRel, tid, attr);
+		parser = new SourceProvParser(rs);
+		ConnectionManager.getInstance().closeRs(rs);
+
+		return parser.getAllProv();
+	}
+
+	private Map<String, ProvWLRepresentation> computeProvBatch (String queryName,
+			String targetRel, List<String> tids, String attr) throws Exception {
+		Map<String, ProvWLRepresentation> result;
+		SourceProvParser parser;
+		String query;
+		ResultSet rs;
+
+		query = QueryHolder.getQuery(queryName).parameterize(
+				"target." + targetRel, getTidList(tids), attr);
+		if (log.isDebugEnabled()) {log.debug("compute prov for batch with query:\n" + query);};
+
+		rs = ConnectionManager.getInstance().execQueryStreaming(query);
+		try {
+			parser = new SourceProvParser(rs, ProvenanceGenerator.BATCH_KEY_ATTR);
+		}
+		finally {
+			ConnectionManager.getInstance().closeRs(rs);
+		}
+
+		result = new HashMap<String, ProvWLRepresentation> ();
+		for(String tid: tids)
+			result.put(tid, parser.getProv(tid));
+
+		return result;
+	}
+
+	private String getTidList (List<String> tids) {
+		StringBuilder result = new StringBuilder();
+
+		for(String tid: tids) {
+			if (result.length() > 0)
+				result.append(',');
+			result.append("'" + tid.replace("'", "''") + "'");
+		}
+
+		return result.toString();
+	}
+
+	@Override
+	public MappingProvenanceBitmaps getMapProvBitmaps (String targetRel)
+			throws Exception {
+		return MappingProvenanceBitmaps.load(targetRel);
+	}
+
+	@Override
+	public ProvenanceIndex getProvenanceIndex (String targetRel) throws Exception {
+		return ProvenanceIndex.build(targetRel);
+	}
+
+	@Override
+	public void reset () {
+	}
+}
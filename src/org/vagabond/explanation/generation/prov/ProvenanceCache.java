@@ -0,0 +1,197 @@
+package org.vagabond.explanation.generation.prov;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.log4j.Logger;
+import org.vagabond.explanation.marker.IAttributeValueMarker;
+import org.vagabond.util.LogProviderHolder;
+
+/**
+ * Bounded LRU cache for the provenance of error markers. Entries are keyed by
+ * target relation, tid and the kind of provenance (granularity). Provenance
+ * computed for an attribute of a tuple is additionally keyed by the attribute.
+ * The memory bound is expressed as a weight, roughly the number of tids
+ * stored in the cached provenance.
+ *
+ * @author lord_pretzel
+ *
+ */
+public class ProvenanceCache {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(ProvenanceCache.class);
+
+	public static final long DEFAULT_MAX_WEIGHT = 1000000L;
+
+	public enum Granularity {
+		Mapping (false),
+		Influence (true),
+		Copy (true),
+		InfluenceAndMapping (true);
+
+		private final boolean perAttr;
+
+		private Granularity (boolean perAttr) {
+			this.perAttr = perAttr;
+		}
+
+		public boolean isPerAttr () {
+			return perAttr;
+		}
+	}
+
+	private static class CacheKey {
+		private final Granularity gran;
+		private final String rel;
+		private final String tid;
+		private final String attr;
+
+		public CacheKey (Granularity gran, IAttributeValueMarker error) {
+			this.gran = gran;
+			this.rel = error.getRel();
+			this.tid = error.getTid();
+			this.attr = gran.isPerAttr() ? error.getAttrName() : null;
+		}
+
+		@Override
+		public int hashCode () {
+			int hash = gran.hashCode();
+
+			hash = hash * 31 + rel.hashCode();
+			hash = hash * 31 + tid.hashCode();
+			if (attr != null)
+				hash = hash * 31 + attr.hashCode();
+
+			return hash;
+		}
+
+		@Override
+		public boolean equals (Object other) {
+			CacheKey o;
+
+			if (!(other instanceof CacheKey))
+				return false;
+			o = (CacheKey) other;
+
+			return gran == o.gran && rel.equals(o.rel) && tid.equals(o.tid)
+					&& (attr == null ? o.attr == null : attr.equals(o.attr));
+		}
+	}
+
+	private static class CacheEntry {
+		private final Object value;
+		private final long weight;
+
+		public CacheEntry (Object value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	private LinkedHashMap<CacheKey, CacheEntry> entries;
+	private long maxWeight = DEFAULT_MAX_WEIGHT;
+	private long weight = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public ProvenanceCache () {
+		entries = new LinkedHashMap<CacheKey, CacheEntry> (16, 0.75f, true);
+	}
+
+	/**
+	 * @return the cached provenance or null
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> T get (Granularity gran, IAttributeValueMarker error) {
+		CacheEntry e = entries.get(new CacheKey(gran, error));
+
+		if (e == null) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return (T) e.value;
+	}
+
+	/**
+	 * Check whether provenance is cached without counting a hit or miss and
+	 * without changing the LRU order.
+	 */
+	public synchronized boolean contains (Granularity gran, IAttributeValueMarker error) {
+		return entries.containsKey(new CacheKey(gran, error));
+	}
+
+	public synchronized void put (Granularity gran, IAttributeValueMarker error,
+			Object value, long valueWeight) {
+		CacheEntry old;
+
+		if (valueWeight > maxWeight)
+			return;
+
+		old = entries.put(new CacheKey(gran, error), new CacheEntry(value, valueWeight));
+		if (old != null)
+			weight -= old.weight;
+		weight += valueWeight;
+
+		evict();
+	}
+
+	private void evict () {
+		Iterator<CacheEntry> i = entries.values().iterator();
+
+		while(weight > maxWeight && i.hasNext()) {
+			weight -= i.next().weight;
+			i.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized void clear () {
+		entries.clear();
+		weight = 0;
+		if (log.isDebugEnabled()) {log.debug("cleared " + getStatistics());};
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public synchronized void setMaxWeight(long maxWeight) {
+		this.maxWeight = maxWeight;
+		evict();
+	}
+
+	public synchronized int size () {
+		return entries.size();
+	}
+
+	public synchronized long getWeight () {
+		return weight;
+	}
+
+	public long getNumHits() {
+		return hits;
+	}
+
+	public long getNumMisses() {
+		return misses;
+	}
+
+	public long getNumEvictions() {
+		return evictions;
+	}
+
+	public synchronized void resetStatistics () {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	public synchronized String getStatistics () {
+		return "provenance cache: " + entries.size() + " entries with weight "
+				+ weight + ", " + hits + " hits, " + misses + " misses, "
+				+ evictions + " evictions";
+	}
+}
@@ -1,21 +1,27 @@
 package org.vagabond.explanation.generation.prov;
 
-import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Vector;
 
 import org.apache.log4j.Logger;
-import org.vagabond.explanation.generation.QueryHolder;
+import org.vagabond.explanation.generation.prov.ProvenanceCache.Granularity;
 import org.vagabond.explanation.marker.IAttributeValueMarker;
+import org.vagabond.explanation.marker.ISingleMarker;
 import org.vagabond.explanation.marker.ITupleMarker;
+import org.vagabond.explanation.marker.ScenarioDictionary;
 import org.vagabond.explanation.model.prov.MapAndWLProvRepresentation;
 import org.vagabond.explanation.model.prov.ProvWLRepresentation;
 import org.vagabond.mapping.model.MapScenarioHolder;
 import org.vagabond.util.CollectionUtils;
-import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.LogProviderHolder;
 import org.vagabond.util.Pair;
 import org.vagabond.xmlmodel.MappingType;
@@ -30,10 +36,25 @@ public class ProvenanceGenerator {
 		instance = new ProvenanceGenerator();
 	}
 	
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final String BATCH_KEY_ATTR = "errtid";
+	
 	private Map<String,Vector<Pair<String,Set<MappingType>>>> targetToRelMapMap;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private ProvenanceCache cache;
+	private Map<String,MappingProvenanceBitmaps> mapProvBitmaps;
+	private Map<String,String[]> targetToProvSchema;
+	private IProvenanceBackend backend = new PermProvenanceBackend();
+	/** target relations whose base relation accesses were derived from the transformation code */
+	private Set<String> derivedTargets;
+	private static boolean verifyDerivedSchema = false;
 	
 	private ProvenanceGenerator () {
 		targetToRelMapMap = new HashMap<String,Vector<Pair<String,Set<MappingType>>>> ();
+		derivedTargets = new HashSet<String> ();
+		targetToProvSchema = new HashMap<String,String[]> ();
+		mapProvBitmaps = new HashMap<String,MappingProvenanceBitmaps> ();
+		cache = new ProvenanceCache();
 	}
 	
 	public static ProvenanceGenerator getInstance() {
@@ -42,33 +63,170 @@ public class ProvenanceGenerator {
 	
 	public void reset () {
 		targetToRelMapMap = new HashMap<String,Vector<Pair<String,Set<MappingType>>>> ();
+		synchronized (this) {
+			derivedTargets = new HashSet<String> ();
+			mapProvBitmaps = new HashMap<String,MappingProvenanceBitmaps> ();
+			targetToProvSchema = new HashMap<String,String[]> ();
+		}
+		cache.clear();
+		backend.reset();
 	}
 	
-	public Vector<String> computeMapProvAsStrings (IAttributeValueMarker error) 
+	public IProvenanceBackend getBackend() {
+		return backend;
+	}
+	
+	/**
+	 * Set the backend provenance is computed with and forget the provenance
+	 * computed by the previous backend. The backend also becomes the tid
+	 * source of {@link ScenarioDictionary}.
+	 */
+	public void setBackend(IProvenanceBackend backend) {
+		this.backend = backend;
+		ScenarioDictionary.getInstance().setTidSource(backend);
+		reset();
+	}
+	
+	/**
+	 * @return the mapping provenance of all tuples of a target relation. 
+	 * 		Loaded once per target relation.
+	 */
+	public synchronized MappingProvenanceBitmaps getMapProvBitmaps (String targetRel) 
 			throws Exception {
-		String query;
-		ResultSet rs;
-		Vector<String> maps;
+		MappingProvenanceBitmaps result = mapProvBitmaps.get(targetRel);
+		
+		if (result == null) {
+			result = backend.getMapProvBitmaps(targetRel);
+			mapProvBitmaps.put(targetRel, result);
+		}
 		
-		maps = new Vector<String>();
+		return result;
+	}
+	
+	public ProvenanceCache getCache() {
+		return cache;
+	}
+	
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Set the maximal number of target tuples whose provenance is retrieved 
+	 * with a single query.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * @return true if provenance schemas derived from the transformation code
+	 * 		are checked against the database. Always on in debug mode.
+	 */
+	public static boolean isVerifyDerivedSchema() {
+		return verifyDerivedSchema || log.isDebugEnabled();
+	}
+
+	/**
+	 * Check the provenance schema derived from the transformation code of
+	 * each target relation once against the schema computed by the database
+	 * and use the database's schema if they differ.
+	 */
+	public static void setVerifyDerivedSchema(boolean verifyDerivedSchema) {
+		ProvenanceGenerator.verifyDerivedSchema = verifyDerivedSchema;
+	}
+	
+	/**
+	 * Compute the influence and mapping provenance of all errors that are not
+	 * cached with one query per target relation (and attribute) and batch of
+	 * tids. The results are added to the provenance cache.
+	 */
+	public void prefetchProvenance (Collection<? extends ISingleMarker> errors) 
+			throws Exception {
+		List<IAttributeValueMarker> attrErrors;
+		
+		attrErrors = new ArrayList<IAttributeValueMarker> ();
+		for(ISingleMarker error: errors)
+			if (error instanceof IAttributeValueMarker)
+				attrErrors.add((IAttributeValueMarker) error);
+		
+		for(Entry<IAttributeValueMarker, ProvWLRepresentation> e: 
+				computePIProv(getUncached(attrErrors, Granularity.Influence)).entrySet())
+			cache.put(Granularity.Influence, e.getKey(), e.getValue(), 
+					getWeight(e.getValue()));
+		for(Entry<IAttributeValueMarker, Vector<String>> e: 
+				computeMapProvAsStrings(getUncached(attrErrors, Granularity.Mapping)).entrySet())
+			cache.put(Granularity.Mapping, e.getKey(), e.getValue(), 
+					e.getValue().size() + 1);
+	}
+	
+	private List<IAttributeValueMarker> getUncached (List<IAttributeValueMarker> errors, 
+			Granularity gran) {
+		List<IAttributeValueMarker> result = new ArrayList<IAttributeValueMarker> ();
 		
-		query = QueryHolder.getQuery("MapAndTransProv.GetMapProv")
-				.parameterize("target." + error.getRel(), error.getTid());
-		if (log.isDebugEnabled()) {log.debug("Compute MapProv for <" + error + "> with query:\n" + query);};
+		for(IAttributeValueMarker error: errors)
+			if (!cache.contains(gran, error))
+				result.add(error);
 		
-		rs = ConnectionManager.getInstance().execQuery(query);
+		return result;
+	}
+	
+	private long getWeight (ProvWLRepresentation prov) {
+		return 1 + (long) prov.getWitnessLists().size() * prov.getRelNames().size();
+	}
+	
+	public Vector<String> computeMapProvAsStrings (IAttributeValueMarker error) 
+			throws Exception {
+		Vector<String> maps;
 		
-		while(rs.next())
-			maps.add(rs.getString(1));
+		maps = cache.get(Granularity.Mapping, error);
+		if (maps != null)
+			return maps;
 		
-		ConnectionManager.getInstance().closeRs(rs);
+		maps = backend.computeMapProvAsStrings(error.getRel(), error.getTid());
 		
 		if (log.isDebugEnabled()) {log.debug("Get map strings provenance for <" + error 
 				+ "> returned <" + maps + ">");};
 		
+		cache.put(Granularity.Mapping, error, maps, maps.size() + 1);
+		
 		return maps;
 	}
 	
+	/**
+	 * Batched version of {@link #computeMapProvAsStrings(IAttributeValueMarker)}.
+	 * Runs one query per target relation and batch of tids.
+	 */
+	public Map<IAttributeValueMarker, Vector<String>> computeMapProvAsStrings 
+			(Collection<IAttributeValueMarker> errors) throws Exception {
+		Map<IAttributeValueMarker, Vector<String>> result;
+		Map<String, List<IAttributeValueMarker>> relErrors;
+		
+		result = new LinkedHashMap<IAttributeValueMarker, Vector<String>> ();
+		relErrors = groupErrors(errors, false);
+		
+		for(List<IAttributeValueMarker> group: relErrors.values()) {
+			String targetRel = group.get(0).getRel();
+			Map<String, List<IAttributeValueMarker>> tidErrors = groupOnTid(group);
+			
+			for(List<String> tids: getTidBatches(tidErrors.keySet())) {
+				Map<String, Vector<String>> tidMaps;
+				
+				tidMaps = backend.computeMapProvAsStrings(targetRel, tids);
+				
+				for(String tid: tids) {
+					Vector<String> maps = tidMaps.get(tid);
+					
+					for(IAttributeValueMarker error: tidErrors.get(tid))
+						result.put(error, maps == null ? new Vector<String> () 
+								: new Vector<String> (maps));
+				}
+			}
+		}
+		
+		return result;
+	}
+	
 	public Set<MappingType> computeMapProv (IAttributeValueMarker error) 
 			throws Exception {
 		Set<MappingType> maps;
@@ -86,56 +244,144 @@ public class ProvenanceGenerator {
 		return maps;
 	}
 	
+	/**
+	 * Batched version of {@link #computeCopyProvenance(IAttributeValueMarker)}.
+	 * Runs one query per target attribute and batch of tids. 
+	 */
+	public Map<IAttributeValueMarker, ProvWLRepresentation> computeCopyProvenance 
+			(Collection<IAttributeValueMarker> errors) throws Exception {
+		return computeProvBatched(errors, Granularity.Copy);
+	}
+	
 	public ProvWLRepresentation computeCopyProvenance (IAttributeValueMarker error) 
 			throws Exception {
-		ResultSet rs;
-		SourceProvParser parser;
-		String query;
+		ProvWLRepresentation prov;
 		
-		query = getCopyCSQuery(error);
-		if (log.isDebugEnabled()) {log.debug("Parameterized copy source explanation query for <" 
-				+ error + ">:\n" + query);};
+		prov = cache.get(Granularity.Copy, error);
+		if (prov != null)
+			return prov;
 		
-		rs = ConnectionManager.getInstance().execQuery(query);
-		parser = new SourceProvParser(rs);
-		ConnectionManager.getInstance().closeRs(rs);
+		prov = backend.computeCopyProvenance(error.getRel(), error.getTid(), 
+				error.getAttrName());
 		
-		return parser.getAllProv();
-	}
+		cache.put(Granularity.Copy, error, prov, getWeight(prov));
 		
+		return prov;
+	}
 		
-	private String getCopyCSQuery (IAttributeValueMarker error) {
-		String table = error.getRel();
-		String tid = error.getTid();
-		String attr = error.getAttrName();
-		
-		return QueryHolder.getQuery("CopyCS.GetProv").
-				parameterize("target." + table, tid, attr);
+	
+	/**
+	 * Batched version of {@link #computePIProv(IAttributeValueMarker)}.
+	 * Runs one query per target attribute and batch of tids. 
+	 */
+	public Map<IAttributeValueMarker, ProvWLRepresentation> computePIProv 
+			(Collection<IAttributeValueMarker> errors) throws Exception {
+		return computeProvBatched(errors, Granularity.Influence);
 	}
 	
 	public ProvWLRepresentation computePIProv (IAttributeValueMarker error)
 			throws Exception {
-		String query;
-		ResultSet rs;
-		SourceProvParser parser;
 		ProvWLRepresentation prov;
 		
-		query = QueryHolder.getQuery("InfluenceCS.GetProv")
-				.parameterize("target." + error.getRel(), error.getTid(), 
-						error.getAttrName());
-		
-		rs = ConnectionManager.getInstance().execQuery(query);
+		prov = cache.get(Granularity.Influence, error);
+		if (prov != null)
+			return prov;
 		
-		parser = new SourceProvParser(rs);
-		prov = parser.getAllProv();
+		prov = backend.computePIProv(error.getRel(), error.getTid(), 
+				error.getAttrName());
 		
 		if (log.isDebugEnabled()) {log.debug("compute prov for <" + error + ">:\n" + prov);};
 		
-		ConnectionManager.getInstance().closeRs(rs);
+		cache.put(Granularity.Influence, error, prov, getWeight(prov));
 		
 		return prov;
 	}
 	
+	private Map<IAttributeValueMarker, ProvWLRepresentation> computeProvBatched 
+			(Collection<IAttributeValueMarker> errors, Granularity gran) 
+			throws Exception {
+		Map<IAttributeValueMarker, ProvWLRepresentation> result;
+		Map<String, List<IAttributeValueMarker>> attrErrors;
+		
+		result = new LinkedHashMap<IAttributeValueMarker, ProvWLRepresentation> ();
+		attrErrors = groupErrors(errors, true);
+		
+		for(List<IAttributeValueMarker> group: attrErrors.values()) {
+			IAttributeValueMarker first = group.get(0);
+			Map<String, List<IAttributeValueMarker>> tidErrors = groupOnTid(group);
+			
+			for(List<String> tids: getTidBatches(tidErrors.keySet())) {
+				Map<String, ProvWLRepresentation> tidProv;
+				
+				if (gran == Granularity.Copy)
+					tidProv = backend.computeCopyProvenance(first.getRel(), 
+							tids, first.getAttrName());
+				else
+					tidProv = backend.computePIProv(first.getRel(), tids, 
+							first.getAttrName());
+				
+				for(String tid: tids)
+					for(IAttributeValueMarker error: tidErrors.get(tid))
+						result.put(error, tidProv.get(tid));
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Group errors on their target relation (and attribute if perAttr is
+	 * true) in the order the groups appear in errors.
+	 */
+	private Map<String, List<IAttributeValueMarker>> groupErrors 
+			(Collection<IAttributeValueMarker> errors, boolean perAttr) {
+		Map<String, List<IAttributeValueMarker>> result;
+		
+		result = new LinkedHashMap<String, List<IAttributeValueMarker>> ();
+		for(IAttributeValueMarker error: errors) {
+			String key = perAttr ? error.getRel() + "." + error.getAttrName() 
+					: error.getRel();
+			
+			if (!result.containsKey(key))
+				result.put(key, new ArrayList<IAttributeValueMarker> ());
+			result.get(key).add(error);
+		}
+		
+		return result;
+	}
+	
+	private Map<String, List<IAttributeValueMarker>> groupOnTid 
+			(List<IAttributeValueMarker> errors) {
+		Map<String, List<IAttributeValueMarker>> result;
+		
+		result = new LinkedHashMap<String, List<IAttributeValueMarker>> ();
+		for(IAttributeValueMarker error: errors) {
+			if (!result.containsKey(error.getTid()))
+				result.put(error.getTid(), new ArrayList<IAttributeValueMarker> ());
+			result.get(error.getTid()).add(error);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @return tids split into lists with at most batchSize elements 
+	 */
+	private List<List<String>> getTidBatches (Collection<String> tids) {
+		List<List<String>> result = new ArrayList<List<String>> ();
+		List<String> batch = null;
+		
+		for(String tid: tids) {
+			if (batch == null || batch.size() == batchSize) {
+				batch = new ArrayList<String> ();
+				result.add(batch);
+			}
+			batch.add(tid);
+		}
+		
+		return result;
+	}
+	
 	public Vector<Set<MappingType>> getWlPosToMapping (String targetRel) 
 			throws Exception {
 		return Pair.pairVecToValueVec(getBaseRelAccessToMapping(targetRel));
@@ -146,74 +392,88 @@ public class ProvenanceGenerator {
 		return Pair.pairVecToKeyVec(getBaseRelAccessToMapping(targetRel));
 	}
 	
-	public Vector<Pair<String,Set<MappingType>>> getBaseRelAccessToMapping 
+	/**
+	 * @return for each base relation access in the provenance of targetRel 
+	 * 		the relation and the mappings of the access. Derived from the 
+	 * 		transformation code if possible, otherwise computed by the 
+	 * 		backend. 
+	 */
+	public synchronized Vector<Pair<String,Set<MappingType>>> getBaseRelAccessToMapping 
 			(String targetRel) throws Exception {
 		Vector<Pair<String,Set<MappingType>>> result;
-		String query;
-		String parse;
-		ResultSet rs;
 		
 		if (targetToRelMapMap.containsKey(targetRel))
 			return targetToRelMapMap.get(targetRel); 
 		
-		result = new Vector<Pair<String,Set<MappingType>>>();
-		
-		query = QueryHolder.getQuery("MetaQ.GetMapsForBaseRelAccess")
-				.parameterize("target." + targetRel);
-		
-		rs = ConnectionManager.getInstance().execQuery(query);
-		
-		if (!rs.next())
-			throw new Exception("query returned zero tuples");
-		
-		parse = rs.getString(1);
-		
-		// parse the rel1:M1,M2|rel2:M3| ... format
-		for (String entry: parse.split("\\|")) {
-			String rel;
-			String maps;
-			Set<MappingType> value;
-			
-			rel = entry.substring(entry.indexOf('.') + 1, entry.indexOf(':'));
-			maps = entry.substring(entry.indexOf(':') + 1);
-			value = new HashSet<MappingType> ();
-			result.add(new Pair<String,Set<MappingType>>(rel, value));
-			
-			for (String map: maps.split(",")) {
-				value.add(MapScenarioHolder.getInstance().getMapping(map));
-			}
-		}
-		
-		if (log.isDebugEnabled()) {log.debug("compute base rel access to mapping map for <" + targetRel + ">:\n"
-				+ result);}; 
-		
-		ConnectionManager.getInstance().closeRs(rs);
+		result = ProvenanceSchemaDeriver.getBaseRelAccessToMapping(targetRel);
+		if (result != null && !checkDerivedSchema(targetRel, result))
+			result = null;
+		if (result == null)
+			result = backend.getBaseRelAccessToMapping(targetRel);
+		else
+			derivedTargets.add(targetRel);
 		
 		targetToRelMapMap.put(targetRel, result);
 		return result;
 	}
 	
+	/**
+	 * Compare the provenance schema derived from the transformation code 
+	 * with the one the database computes with the metaquery. Only done if
+	 * verification is switched on and provenance is computed by Perm, other
+	 * backends compute the schema from the accesses.
+	 * 
+	 * @return false if the schemas differ
+	 */
+	private boolean checkDerivedSchema (String targetRel, 
+			Vector<Pair<String,Set<MappingType>>> accesses) throws Exception {
+		String[] derived, actual;
+		
+		if (!isVerifyDerivedSchema() || !(backend instanceof PermProvenanceBackend))
+			return true;
+		
+		derived = ProvenanceSchemaDeriver.getProvSchema(targetRel, accesses);
+		actual = backend.getProvSchemaForTarget(targetRel);
+		if (Arrays.equals(derived, actual))
+			return true;
+		
+		log.warn("provenance schema derived for <" + targetRel + "> " 
+				+ Arrays.toString(derived) + " differs from the schema computed"
+				+ " by the database " + Arrays.toString(actual) 
+				+ ", use the database");
+		return false;
+	}
+	
+	/**
+	 * @return the attributes of the provenance of targetRel. Derived from the 
+	 * 		transformation code if possible, otherwise computed by the 
+	 * 		backend. 
+	 */
 	public String[] getProvSchemaForTarget (String targetRel) throws Exception {
-		String query;
-		String resultStr;
-		ResultSet rs;
+		String[] result;
 		
+		synchronized (this) {
+			result = targetToProvSchema.get(targetRel);
+		}
 		
-		query = QueryHolder.getQuery("MetaQ.GetProvQueryResultAttrs")
-				.parameterize("target." + targetRel);
-		
-		if (log.isDebugEnabled()) {log.debug("compute provenance schema for <" + targetRel 
-				+ "> with query: <" + query + ">");};
-		
-		rs = ConnectionManager.getInstance().execQuery(query);
-		
-		rs.next();
-		resultStr = rs.getString(1).trim();
-		resultStr = resultStr.substring(1, resultStr.length() - 1);
+		if (result == null) {
+			Vector<Pair<String,Set<MappingType>>> accesses;
+			boolean derived;
+			
+			accesses = getBaseRelAccessToMapping(targetRel);
+			synchronized (this) {
+				derived = derivedTargets.contains(targetRel);
+			}
+			if (derived)
+				result = ProvenanceSchemaDeriver.getProvSchema(targetRel, accesses);
+			else
+				result = backend.getProvSchemaForTarget(targetRel);
+			synchronized (this) {
+				targetToProvSchema.put(targetRel, result);
+			}
+		}
 		
-		ConnectionManager.getInstance().closeRs(rs);
-
-		return resultStr.split(",");
+		return result.clone();
 	}
 	
 	public MapAndWLProvRepresentation computePIAndMapProv 
@@ -223,6 +483,10 @@ public class ProvenanceGenerator {
 		Map<MappingType, Vector<Integer>> mapPos;
 		Set<MappingType> allMaps;
 		
+		result = cache.get(Granularity.InfluenceAndMapping, error);
+		if (result != null)
+			return result;
+		
 		result = new MapAndWLProvRepresentation(computePIProv(error));
 		relMapMap = getWlPosToMapping(error.getRel());
 		allMaps = CollectionUtils.<MappingType>unionSets(relMapMap);
@@ -240,6 +504,8 @@ public class ProvenanceGenerator {
 		}
 		result.setMapToWlPos(mapPos);
 		
+		cache.put(Granularity.InfluenceAndMapping, error, result, getWeight(result));
+		
 		return result;
 	}
 	
@@ -0,0 +1,467 @@
+package org.vagabond.explanation.generation.prov;
+
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+import org.vagabond.explanation.generation.QueryHolder;
+import org.vagabond.explanation.marker.ScenarioDictionary;
+import org.vagabond.util.CollectionUtils;
+import org.vagabond.util.ConnectionManager;
+import org.vagabond.util.LogProviderHolder;
+import org.vagabond.util.ResultSetUtil;
+import org.vagabond.util.ewah.IBitSet;
+import org.vagabond.util.ewah.IntIterator;
+import org.vagabond.util.ewah.JavaUtilBitSet;
+import org.vagabond.xmlmodel.MappingType;
+
+/**
+ * In-memory copy of the provenance of one target relation. All tuples are
+ * identified by their tid ids from {@link ScenarioDictionary}. The witness
+ * lists of target tuple i are the witness lists wlStart[i] to
+ * wlStart[i + 1] - 1. Witness list w was produced by mapping wlMap[w] and
+ * contains source tuple wlTids[w * numPos + k] at position k (-1 if the
+ * mapping does not access this position). The inverse index maps each source
+ * tuple to the target tuples with this source tuple in their provenance
+ * (compressed sparse rows per source relation).
+ *
+ * @author lord_pretzel
+ *
+ */
+public class ProvenanceIndex {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(ProvenanceIndex.class);
+
+	private String targetRel;
+	private int targetRelId;
+
+	/** witness list positions */
+	private int numPos;
+	private int[] posRelId;
+	private MappingType[] maps;
+	/** position of the foreach atom of mapping m at witness list position k
+	 * (mapAtomPos[m][k]) or -1 */
+	private int[][] mapAtomPos;
+
+	/** target tuples */
+	private int[] targetTids;
+	private int[] wlStart;
+	private int[] wlMap;
+	private int[] wlTids;
+
+	/** inverse index: srcTargets[relId][srcStart[relId][tid]] to
+	 * srcTargets[relId][srcStart[relId][tid + 1] - 1] */
+	private int[][] srcStart;
+	private int[][] srcTargets;
+
+	private ProvenanceIndex (String targetRel) {
+		this.targetRel = targetRel;
+	}
+
+	/**
+	 * Read the provenance of targetRel from the database and index it.
+	 */
+	public static ProvenanceIndex build (String targetRel) throws Exception {
+		ProvenanceIndex index = new ProvenanceIndex(targetRel);
+		long before = System.currentTimeMillis();
+
+		index.createPositions();
+		index.readProvenance();
+		index.createInverseIndex();
+
+		if (log.isDebugEnabled()) {log.debug("built provenance index for <"
+				+ targetRel + "> with " + index.getNumTargets() + " tuples and "
+				+ index.getNumWitnessLists() + " witness lists in "
+				+ (System.currentTimeMillis() - before) + " ms");};
+
+		return index;
+	}
+
+	/**
+	 * Index provenance computed without the database. Row i is a witness
+	 * list of target tuple rowTarget[i] with source tuple rowTids[i * numPos
+	 * + k] (-1 for null) at position k. All tuples are identified by their
+	 * tid ids.
+	 */
+	static ProvenanceIndex build (String targetRel, int[] rowTarget,
+			int[] rowTids, int numRows) throws Exception {
+		ProvenanceIndex index = new ProvenanceIndex(targetRel);
+
+		index.createPositions();
+		index.indexRows(rowTarget, rowTids, numRows);
+		index.createInverseIndex();
+
+		return index;
+	}
+
+	private void createPositions () throws Exception {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		Vector<Set<MappingType>> relMapMap;
+		Vector<String> baseRels;
+		Map<MappingType, Integer> mapIds;
+
+		targetRelId = dict.getRelId(targetRel);
+		relMapMap = ProvenanceGenerator.getInstance().getWlPosToMapping(targetRel);
+		baseRels = ProvenanceGenerator.getInstance().getWlPosToBaseRelName(targetRel);
+		numPos = baseRels.size();
+
+		posRelId = new int[numPos];
+		for(int k = 0; k < numPos; k++)
+			posRelId[k] = dict.getRelId(ResultSetUtil.getUnnumRelFromRel(
+					baseRels.get(k)));
+
+		maps = CollectionUtils.<MappingType>unionSets(relMapMap)
+				.toArray(new MappingType[0]);
+		mapIds = new HashMap<MappingType, Integer> ();
+		for(int m = 0; m < maps.length; m++)
+			mapIds.put(maps[m], m);
+
+		// same atom positions as SourceAndMapProvParser
+		mapAtomPos = new int[maps.length][numPos];
+		for(int[] atomPos: mapAtomPos)
+			Arrays.fill(atomPos, -1);
+		int[] numAtoms = new int[maps.length];
+		for(int k = 0; k < numPos; k++)
+			for(MappingType map: relMapMap.get(k)) {
+				int m = mapIds.get(map);
+				mapAtomPos[m][k] = numAtoms[m]++;
+			}
+	}
+
+	private void readProvenance () throws Exception {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		int[] rowTarget = new int[1024];
+		int[] rowTids = new int[1024 * Math.max(numPos, 1)];
+		int numRows = 0;
+		ResultSet rs;
+
+		rs = ConnectionManager.getInstance().execQueryStreaming(
+				QueryHolder.getQuery("ProvSE.GetCompleteProv").parameterize(
+						"target." + targetRel, getProvTidAttrs()));
+
+		try {
+			while(rs.next()) {
+				if (numRows == rowTarget.length) {
+					rowTarget = Arrays.copyOf(rowTarget, numRows * 2);
+					rowTids = Arrays.copyOf(rowTids, numRows * 2 * numPos);
+				}
+
+				// fail on unknown tids, -1 marks NULL witness list entries
+				rowTarget[numRows] = dict.getKnownTidInt(rs.getString(1), 
+						targetRelId);
+				for(int k = 0; k < numPos; k++) {
+					String tid = rs.getString(k + 2);
+
+					rowTids[numRows * numPos + k] = (tid == null) ? -1
+							: dict.getKnownTidInt(tid, posRelId[k]);
+				}
+				numRows++;
+			}
+		}
+		finally {
+			ConnectionManager.getInstance().closeRs(rs);
+		}
+
+		indexRows(rowTarget, rowTids, numRows);
+	}
+
+	/**
+	 * Determine the mapping of each witness list from the positions it
+	 * accesses and group the witness lists on the target tuple.
+	 */
+	private void indexRows (int[] rowTarget, int[] rowTids, int numRows)
+			throws Exception {
+		Map<BitSet, Integer> patternToMap = new HashMap<BitSet, Integer> ();
+		int[] rowMap = new int[numRows];
+
+		for(int i = 0; i < numRows; i++) {
+			BitSet pattern = new BitSet(numPos);
+
+			for(int k = 0; k < numPos; k++)
+				if (rowTids[i * numPos + k] != -1)
+					pattern.set(k);
+			rowMap[i] = getMapForPattern(pattern, patternToMap);
+		}
+
+		groupByTarget(rowTarget, rowMap, rowTids, numRows);
+	}
+
+	/**
+	 * @return the mapping that accesses exactly the witness list positions
+	 * 		that are set in pattern
+	 * @throws Exception if no mapping accesses these positions
+	 */
+	private int getMapForPattern (BitSet pattern, Map<BitSet, Integer> cache)
+			throws Exception {
+		Integer m = cache.get(pattern);
+
+		if (m == null) {
+			for(int i = 0; i < maps.length && m == null; i++) {
+				boolean match = true;
+
+				for(int k = 0; k < numPos && match; k++)
+					match = (mapAtomPos[i][k] != -1) == pattern.get(k);
+				if (match)
+					m = i;
+			}
+			if (m == null)
+				throw new Exception("no mapping of target relation <" 
+						+ targetRel + "> accesses the provenance positions " 
+						+ pattern + " of base relations " + getPatternRels(pattern));
+
+			cache.put(pattern, m);
+		}
+
+		return m;
+	}
+
+	private String getPatternRels (BitSet pattern) {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		StringBuffer result = new StringBuffer();
+
+		for(int k = pattern.nextSetBit(0); k >= 0; k = pattern.nextSetBit(k + 1))
+			result.append((result.length() == 0 ? "" : ", ") 
+					+ dict.getRelName(posRelId[k]));
+
+		return "(" + result + ")";
+	}
+
+	/**
+	 * Counting sort of the witness lists on the target tuple.
+	 */
+	private void groupByTarget (int[] rowTarget, int[] rowMap, int[] rowTids,
+			int numRows) {
+		Map<Integer, Integer> targetPos = new HashMap<Integer, Integer> ();
+		int[] count;
+		int[] next;
+
+		targetTids = new int[16];
+		for(int i = 0; i < numRows; i++) {
+			if (!targetPos.containsKey(rowTarget[i])) {
+				if (targetPos.size() == targetTids.length)
+					targetTids = Arrays.copyOf(targetTids, targetTids.length * 2);
+				targetTids[targetPos.size()] = rowTarget[i];
+				targetPos.put(rowTarget[i], targetPos.size());
+			}
+			rowTarget[i] = targetPos.get(rowTarget[i]);
+		}
+		targetTids = Arrays.copyOf(targetTids, targetPos.size());
+
+		count = new int[targetTids.length + 1];
+		for(int i = 0; i < numRows; i++)
+			count[rowTarget[i] + 1]++;
+		for(int i = 1; i < count.length; i++)
+			count[i] += count[i - 1];
+		wlStart = count;
+
+		next = Arrays.copyOf(wlStart, targetTids.length);
+		wlMap = new int[numRows];
+		wlTids = new int[numRows * numPos];
+		for(int i = 0; i < numRows; i++) {
+			int w = next[rowTarget[i]]++;
+
+			wlMap[w] = rowMap[i];
+			System.arraycopy(rowTids, i * numPos, wlTids, w * numPos, numPos);
+		}
+	}
+
+	private void createInverseIndex () {
+		int numRels = ScenarioDictionary.getInstance().getRelCount();
+		int[][] next;
+		int[][] lastTarget;
+
+		srcStart = new int[numRels][];
+		srcTargets = new int[numRels][];
+		lastTarget = new int[numRels][];
+
+		for(int relId: getSourceRelIds()) {
+			int maxTid = -1;
+			for(int w = 0; w < wlMap.length; w++)
+				for(int k = 0; k < numPos; k++)
+					if (posRelId[k] == relId)
+						maxTid = Math.max(maxTid, wlTids[w * numPos + k]);
+			srcStart[relId] = new int[maxTid + 2];
+			lastTarget[relId] = new int[maxTid + 1];
+		}
+
+		// count target tuples per source tuple
+		forEachSourceTuple(null, lastTarget);
+		for(int[] start: srcStart)
+			if (start != null)
+				for(int i = 1; i < start.length; i++)
+					start[i] += start[i - 1];
+
+		// fill the target tuples of each source tuple
+		next = new int[numRels][];
+		for(int relId = 0; relId < numRels; relId++)
+			if (srcStart[relId] != null) {
+				srcTargets[relId] = new int[srcStart[relId][srcStart[relId].length - 1]];
+				next[relId] = Arrays.copyOf(srcStart[relId], srcStart[relId].length - 1);
+			}
+		forEachSourceTuple(next, lastTarget);
+	}
+
+	/**
+	 * For each distinct source tuple in the provenance of each target tuple t
+	 * either count t (next is null) or add t at the next free position.
+	 */
+	private void forEachSourceTuple (int[][] next, int[][] lastTarget) {
+		for(int[] last: lastTarget)
+			if (last != null)
+				Arrays.fill(last, -1);
+
+		for(int t = 0; t < targetTids.length; t++)
+			for(int w = wlStart[t]; w < wlStart[t + 1]; w++)
+				for(int k = 0; k < numPos; k++) {
+					int tid = wlTids[w * numPos + k];
+					int relId = posRelId[k];
+
+					if (tid == -1 || lastTarget[relId][tid] == t)
+						continue;
+					lastTarget[relId][tid] = t;
+					if (next == null)
+						srcStart[relId][tid + 1]++;
+					else
+						srcTargets[relId][next[relId][tid]++] = t;
+				}
+	}
+
+	private Set<Integer> getSourceRelIds () {
+		Set<Integer> result = new HashSet<Integer> ();
+
+		for(int relId: posRelId)
+			result.add(relId);
+
+		return result;
+	}
+
+	private String getProvTidAttrs () throws Exception {
+		StringBuffer result = new StringBuffer ();
+
+		for(String attr: ResultSetUtil.getProvTidAttrsForProvSchema(
+				ProvenanceGenerator.getInstance().getProvSchemaForTarget(targetRel))) {
+			if (result.length() != 0)
+				result.append(',');
+			result.append(attr);
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * @return the target tuples (positions in {@link #getTargetTid(int)})
+	 * 		that have one of the source tuples in their provenance
+	 */
+	public IBitSet getTargetsForSources (int relId, IBitSet sourceTids) {
+		JavaUtilBitSet result = new JavaUtilBitSet();
+		IntIterator i;
+
+		if (relId >= srcStart.length || srcStart[relId] == null)
+			return result;
+
+		i = sourceTids.intIterator();
+		while(i.hasNext()) {
+			int tid = i.next();
+
+			if (tid + 1 >= srcStart[relId].length)
+				break;
+			for(int j = srcStart[relId][tid]; j < srcStart[relId][tid + 1]; j++)
+				result.set(srcTargets[relId][j]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return true if each witness list of target tuple t contains at least
+	 * 		one of the source tuples. sourceTids is indexed by relation id.
+	 */
+	public boolean dependsOnlyOn (int t, IBitSet[] sourceTids) {
+		for(int w = wlStart[t]; w < wlStart[t + 1]; w++)
+			if (getFirstMatch(w, sourceTids) == -1)
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * @return the first witness list position of witness list w that
+	 * 		contains one of the source tuples or -1
+	 */
+	private int getFirstMatch (int w, IBitSet[] sourceTids) {
+		for(int k = 0; k < numPos; k++) {
+			int tid = wlTids[w * numPos + k];
+			IBitSet rel = sourceTids[posRelId[k]];
+
+			if (tid != -1 && rel != null && rel.get(tid))
+				return k;
+		}
+
+		return -1;
+	}
+
+	public String getTargetRel () {
+		return targetRel;
+	}
+
+	public int getTargetRelId () {
+		return targetRelId;
+	}
+
+	public int getNumTargets () {
+		return targetTids.length;
+	}
+
+	/**
+	 * @return the tid id of the t-th target tuple
+	 */
+	public int getTargetTid (int t) {
+		return targetTids[t];
+	}
+
+	public int getNumWitnessLists () {
+		return wlMap.length;
+	}
+
+	public int getWitnessListStart (int t) {
+		return wlStart[t];
+	}
+
+	public int getWitnessListEnd (int t) {
+		return wlStart[t + 1];
+	}
+
+	public int getNumPositions () {
+		return numPos;
+	}
+
+	public int getPosRelId (int k) {
+		return posRelId[k];
+	}
+
+	/**
+	 * @return the tid id of the source tuple at position k of witness list w
+	 * 		or -1
+	 */
+	public int getWitnessTid (int w, int k) {
+		return wlTids[w * numPos + k];
+	}
+
+	public MappingType getWitnessMapping (int w) {
+		return maps[wlMap[w]];
+	}
+
+	/**
+	 * @return the position of the foreach atom of the mapping of witness
+	 * 		list w that corresponds to witness list position k or -1
+	 */
+	public int getAtomPos (int w, int k) {
+		return mapAtomPos[wlMap[w]][k];
+	}
+}
@@ -0,0 +1,281 @@
+package org.vagabond.explanation.generation.prov;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.vagabond.explanation.generation.QueryHolder;
+import org.vagabond.mapping.model.MapScenarioHolder;
+import org.vagabond.util.ConnectionManager;
+import org.vagabond.util.LogProviderHolder;
+import org.vagabond.util.LoggerUtil;
+import org.vagabond.util.ResultSetUtil;
+import org.vagabond.xmlmodel.RelationType;
+
+/**
+ * Opt-in materialization of the provenance (SELECT PROVENANCE *) and mapping
+ * provenance (SELECT MAPPROV *) of each target relation into tables
+ * <code>target.rel__prov</code> and <code>target.rel__mapprov</code>. The
+ * provenance tables are indexed on tid and on every provenance tid column.
+ * When enabled, the provenance, side effect and mapping provenance query
+ * templates are rewritten to read from these tables instead of recomputing
+ * provenance.
+ *
+ * The tables of a target relation are recomputed if the data of one of the
+ * source relations it is derived from has changed. A change is detected by
+ * comparing the number of tuples and the largest inserting transaction id
+ * of the source relation with the values at materialization time. The
+ * explanation generators check for changes once at the start of each run.
+ * This check does not detect every change: an update keeps the number of
+ * tuples and is only detected through the xmin of the new row versions,
+ * which after VACUUM FREEZE or a transaction id wraparound need not be
+ * larger than the old maximum. Call {@link #materialize(String)} or
+ * {@link #enable()} after such changes.
+ *
+ * @author lord_pretzel
+ *
+ */
+public class ProvenanceMaterializer {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(ProvenanceMaterializer.class);
+
+	public static final String PROV_SUFFIX = "__prov";
+	public static final String MAPPROV_SUFFIX = "__mapprov";
+
+	/** query files whose templates are rewritten. Influence provenance
+	 * (SELECT PROVENANCE attr) is restricted to the tuples contributing to
+	 * an attribute and cannot be answered from the materialized tables */
+	private static final String[] REWRITTEN_QUERY_FILES = { "ProvSE",
+			"SuperMap", "Correspondence", "MapAndTransProv" };
+
+	private static final Pattern PROV_ALL = Pattern.compile(
+			"SELECT\\s+PROVENANCE\\s+\\*\\s+FROM\\s+(\\$\\{\\d+\\})");
+	private static final Pattern MAPPROV_ALL = Pattern.compile(
+			"SELECT\\s+MAPPROV\\s+\\*\\s+FROM\\s+(\\$\\{\\d+\\})");
+
+	private static ProvenanceMaterializer instance;
+
+	private volatile boolean enabled = false;
+	/** fingerprint of each source relation when its dependent target relations were materialized */
+	private Map<String, String> fingerprints = new HashMap<String, String> ();
+	private Set<String> materialized = new HashSet<String> ();
+
+	private ProvenanceMaterializer () {
+	}
+
+	public static synchronized ProvenanceMaterializer getInstance () {
+		if (instance == null)
+			instance = new ProvenanceMaterializer();
+
+		return instance;
+	}
+
+	/**
+	 * Materialize the provenance of all target relations and let the query
+	 * templates read from the materialized tables.
+	 */
+	public synchronized void enable () throws Exception {
+		update();
+		enabled = true;
+		QueryHolder.getInstance().resetTemplates();
+	}
+
+	/**
+	 * Drop the materialized tables and compute provenance in each query.
+	 */
+	public synchronized void disable () {
+		dropAll();
+	}
+
+	public boolean isEnabled () {
+		return enabled;
+	}
+
+	/**
+	 * Switch materialization off and forget about the materialized tables,
+	 * e.g., before a new mapping scenario is loaded.
+	 */
+	public synchronized void reset () {
+		if (enabled) {
+			enabled = false;
+			QueryHolder.getInstance().resetTemplates();
+		}
+		materialized.clear();
+		fingerprints.clear();
+	}
+
+	/**
+	 * Materialize the provenance of target relations that have not been
+	 * materialized yet or whose source relations have changed. Called once
+	 * at the start of {@link org.vagabond.explanation.generation.ExplanationSetGenerator#findExplanations(org.vagabond.explanation.marker.IMarkerSet)}
+	 * and {@link org.vagabond.explanation.generation.PartitionExplanationGenerator#findExplanations(org.vagabond.explanation.marker.IMarkerSet)},
+	 * not per error partition.
+	 */
+	public synchronized void refresh () throws Exception {
+		if (enabled && isStale())
+			update();
+	}
+
+	private void update () throws Exception {
+		Map<String, String> current;
+		Set<String> changed;
+
+		current = computeFingerprints();
+		changed = new HashSet<String> ();
+		for(String source: current.keySet())
+			if (!current.get(source).equals(fingerprints.get(source)))
+				changed.add(source);
+
+		for(RelationType rel: MapScenarioHolder.getInstance().getScenario()
+				.getSchemas().getTargetSchema().getRelationArray()) {
+			String name = rel.getName();
+
+			if (!materialized.contains(name) || dependsOn(name, changed)) {
+				materialize(name);
+				materialized.add(name);
+			}
+		}
+
+		fingerprints = current;
+	}
+
+	/**
+	 * @return true if source data has changed since the provenance was
+	 * 		materialized
+	 */
+	public synchronized boolean isStale () throws Exception {
+		return !computeFingerprints().equals(fingerprints);
+	}
+
+	private boolean dependsOn (String targetRel, Set<String> sources) throws Exception {
+		if (sources.isEmpty())
+			return false;
+		for(String source: getSourceRels(targetRel))
+			if (sources.contains(source))
+				return true;
+
+		return false;
+	}
+
+	private List<String> getSourceRels (String targetRel) throws Exception {
+		return ResultSetUtil.getUniqueBaseRelsForProvSchema(ProvenanceGenerator
+				.getInstance().getProvSchemaForTarget(targetRel));
+	}
+
+	/**
+	 * @return number of tuples and the largest xmin of each source relation.
+	 * 		Misses in-place updates after VACUUM FREEZE or xid wraparound
+	 */
+	private Map<String, String> computeFingerprints () throws Exception {
+		Map<String, String> result = new HashMap<String, String> ();
+		StringBuffer query = new StringBuffer();
+		ResultSet rs;
+
+		for(RelationType rel: MapScenarioHolder.getInstance().getScenario()
+				.getSchemas().getSourceSchema().getRelationArray()) {
+			if (query.length() > 0)
+				query.append("\nUNION ALL\n");
+			query.append("SELECT '" + rel.getName() + "', count(*) || ':' || "
+					+ "coalesce(max(xmin::text::int8), 0) FROM source."
+					+ rel.getName());
+		}
+		if (query.length() == 0)
+			return result;
+
+		rs = ConnectionManager.getInstance().execQuery(query.toString());
+		while(rs.next())
+			result.put(rs.getString(1), rs.getString(2));
+		ConnectionManager.getInstance().closeRs(rs);
+
+		if (log.isDebugEnabled()) {log.debug("source fingerprints: " + result);};
+
+		return result;
+	}
+
+	/**
+	 * (Re)create the provenance and mapping provenance tables of a target
+	 * relation.
+	 */
+	public void materialize (String targetRel) throws Exception {
+		ConnectionManager con = ConnectionManager.getInstance();
+		String prov = "target." + targetRel + PROV_SUFFIX;
+		String mapProv = "target." + targetRel + MAPPROV_SUFFIX;
+		List<String> tidAttrs;
+		long before = System.currentTimeMillis();
+
+		tidAttrs = new ArrayList<String> (ResultSetUtil.getProvTidAttrsForProvSchema(
+				ProvenanceGenerator.getInstance().getProvSchemaForTarget(targetRel)));
+
+		con.execUpdate("DROP TABLE IF EXISTS " + prov);
+		con.execUpdate("CREATE TABLE " + prov + " AS SELECT * FROM "
+				+ "(SELECT PROVENANCE * FROM target." + targetRel + ") AS p");
+		con.execUpdate("CREATE INDEX " + targetRel + PROV_SUFFIX + "_tid ON "
+				+ prov + " (tid)");
+		for(int i = 0; i < tidAttrs.size(); i++)
+			con.execUpdate("CREATE INDEX " + targetRel + PROV_SUFFIX + "_" + i
+					+ " ON " + prov + " (" + tidAttrs.get(i) + ")");
+		con.execUpdate("ANALYZE " + prov);
+
+		con.execUpdate("DROP TABLE IF EXISTS " + mapProv);
+		con.execUpdate("CREATE TABLE " + mapProv + " AS SELECT * FROM "
+				+ "(SELECT MAPPROV * FROM target." + targetRel + ") AS p");
+		con.execUpdate("CREATE INDEX " + targetRel + MAPPROV_SUFFIX + "_tid ON "
+				+ mapProv + " (tid)");
+		con.execUpdate("CREATE INDEX " + targetRel + MAPPROV_SUFFIX + "_map ON "
+				+ mapProv + " (trans_prov)");
+		con.execUpdate("ANALYZE " + mapProv);
+
+		if (log.isDebugEnabled()) {log.debug("materialized provenance of " + targetRel + " in " + (System.currentTimeMillis() - before) + " ms");};
+	}
+
+	/**
+	 * Drop the provenance tables of all target relations and switch
+	 * materialization off.
+	 */
+	public synchronized void dropAll () {
+		try {
+			for(String rel: materialized) {
+				ConnectionManager.getInstance().execUpdate("DROP TABLE IF EXISTS target."
+						+ rel + PROV_SUFFIX);
+				ConnectionManager.getInstance().execUpdate("DROP TABLE IF EXISTS target."
+						+ rel + MAPPROV_SUFFIX);
+			}
+		}
+		catch (Exception e) {
+			LoggerUtil.logException(e, log);
+		}
+		reset();
+	}
+
+	/**
+	 * @return true if the query template with this name (file.key) reads
+	 * 		provenance that is materialized
+	 */
+	public static boolean rewritesQuery (String name) {
+		for(String file: REWRITTEN_QUERY_FILES)
+			if (name.startsWith(file + "."))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * @return the query with provenance and mapping provenance computations
+	 * 		over a target relation parameter replaced by scans of the
+	 * 		materialized tables
+	 */
+	public static String rewriteQuery (String query) {
+		String result;
+
+		result = PROV_ALL.matcher(query).replaceAll("SELECT * FROM $1" + PROV_SUFFIX);
+		result = MAPPROV_ALL.matcher(result).replaceAll("SELECT * FROM $1" + MAPPROV_SUFFIX);
+
+		return result;
+	}
+}
@@ -0,0 +1,352 @@
+package org.vagabond.explanation.generation.prov;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.vagabond.mapping.model.MapScenarioHolder;
+import org.vagabond.util.LogProviderHolder;
+import org.vagabond.util.Pair;
+import org.vagabond.xmlmodel.AttrDefType;
+import org.vagabond.xmlmodel.MappingScenarioDocument.MappingScenario;
+import org.vagabond.xmlmodel.MappingType;
+import org.vagabond.xmlmodel.RelationType;
+import org.vagabond.xmlmodel.TransformationType;
+
+/**
+ * Derives the provenance schema of a target relation and the mappings that
+ * access each base relation in its provenance from the code of the
+ * transformations creating the relation. Each base relation access of the
+ * code has to be annotated with the mappings it belongs to, e.g.,
+ * <code>source.person ANNOT('M1','M2') p</code>. The accesses appear in the
+ * provenance in the order they appear in the code. Comments and string
+ * literals are ignored. If the code contains relation accesses without
+ * annotation, accesses to target relations or quoted relation names, or if
+ * the target relation is a union with loaded target data, nothing is
+ * derived and the provenance schema has to be retrieved from the database.
+ * {@link ProvenanceGenerator} can check the derived schema against the
+ * database.
+ *
+ * @author lord_pretzel
+ *
+ */
+public class ProvenanceSchemaDeriver {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(ProvenanceSchemaDeriver.class);
+
+	public static final String SOURCE_SCHEMA = "source";
+
+	private static final Pattern REL_ACCESS = Pattern.compile(
+			"\\b(source|target)\\.(\\w+)\\b(\\s+ANNOT\\s*\\(([^)]*)\\))?",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern QUOTED_REL_ACCESS = Pattern.compile(
+			"\\b(source|target)\\s*\\.\\s*\"", Pattern.CASE_INSENSITIVE);
+	private static final Pattern COMMENT_OR_LITERAL = Pattern.compile(
+			"'(?:[^']|'')*'|--[^\\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+	private static final Pattern ANNOT_VALUE = Pattern.compile("'([^']*)'");
+	private static final Pattern SELECT = Pattern.compile("\\bSELECT\\b",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern TID_ITEM = Pattern.compile(
+			"SELECT\\b(.*?)\\bAS\\s+tid\\b",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern ALIAS = Pattern.compile("\\s+(?:AS\\s+)?(\\w+)",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern TID_LITERAL = Pattern.compile(
+			"'((?:[^']|'')*)'(?:::\\w+)?");
+	private static final Pattern TID_REF = Pattern.compile(
+			"(?:COALESCE\\s*\\(\\s*)?(\\w+)\\.tid(?:::\\w+)?"
+			+ "(?:\\s*,\\s*''(?:::\\w+)?\\s*\\))?", Pattern.CASE_INSENSITIVE);
+	private static final Set<String> SQL_KEYWORDS = new HashSet<String> (
+			Arrays.asList("JOIN", "LEFT", "RIGHT", "FULL", "INNER", "OUTER",
+					"CROSS", "NATURAL", "ON", "WHERE", "GROUP", "ORDER", "UNION",
+					"HAVING", "LIMIT"));
+
+	/**
+	 * @return for each base relation access in the provenance of targetRel
+	 * 		the unnumbered relation name and the mappings of the access or null
+	 * 		if the accesses cannot be derived from the transformation code
+	 */
+	public static Vector<Pair<String,Set<MappingType>>> getBaseRelAccessToMapping
+			(String targetRel) throws Exception {
+		Vector<Pair<String,Set<MappingType>>> result;
+		List<TransformationType> transes;
+
+		if (hasLoadedTargetData())
+			return null;
+
+		transes = MapScenarioHolder.getInstance().getTransCreatingRel(targetRel);
+		if (transes.isEmpty())
+			return null;
+
+		result = new Vector<Pair<String,Set<MappingType>>> ();
+		for(TransformationType trans: transes)
+			if (!parseAccesses(getCode(trans), result))
+				return null;
+		if (result.isEmpty())
+			return null;
+
+		if (log.isDebugEnabled()) {log.debug("derived base rel access to mapping map for <"
+				+ targetRel + ">:\n" + result);};
+
+		return result;
+	}
+
+	/**
+	 * @return the attribute names of the result of
+	 * 		<code>SELECT PROVENANCE * FROM target.targetRel</code> or null if
+	 * 		the base relation accesses cannot be derived
+	 */
+	public static String[] getProvSchemaForTarget (String targetRel)
+			throws Exception {
+		Vector<Pair<String,Set<MappingType>>> accesses;
+
+		accesses = getBaseRelAccessToMapping(targetRel);
+		if (accesses == null)
+			return null;
+
+		return getProvSchema(targetRel, accesses);
+	}
+
+	/**
+	 * @return the attribute names of the provenance of targetRel with the
+	 * 		given base relation accesses
+	 */
+	public static String[] getProvSchema (String targetRel,
+			Vector<Pair<String,Set<MappingType>>> accesses) throws Exception {
+		List<String> result;
+		Map<String, Integer> numAccesses;
+		RelationType target;
+
+		result = new ArrayList<String> ();
+		numAccesses = new HashMap<String, Integer> ();
+
+		target = MapScenarioHolder.getInstance().getRelForName(targetRel, true);
+		result.add("tid");
+		for(AttrDefType attr: target.getAttrArray())
+			result.add(attr.getName());
+
+		for(Pair<String,Set<MappingType>> access: accesses) {
+			String rel = access.getKey();
+			int num = numAccesses.containsKey(rel) ? numAccesses.get(rel) : 0;
+			String prefix;
+
+			numAccesses.put(rel, num + 1);
+			prefix = "prov_" + escape(SOURCE_SCHEMA) + "_" + escape(rel)
+					+ (num == 0 ? "" : "_" + num) + "_";
+
+			result.add(prefix + "tid");
+			for(AttrDefType attr: MapScenarioHolder.getInstance()
+					.getRelForName(rel, false).getAttrArray())
+				result.add(prefix + escape(attr.getName()));
+		}
+
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * @return for each base relation access of targetRel the expression the
+	 * 		query block of the access computes the target tid with: a list of
+	 * 		string literals and positions of accesses whose tids are
+	 * 		concatenated. The expression of an access is null if the tid is
+	 * 		not computed by such a concatenation. Returns null if the
+	 * 		accesses cannot be derived.
+	 */
+	public static Vector<List<Object>> getTidExpressions (String targetRel)
+			throws Exception {
+		Vector<Pair<String,Set<MappingType>>> accesses;
+		Vector<List<Object>> result;
+
+		accesses = getBaseRelAccessToMapping(targetRel);
+		if (accesses == null)
+			return null;
+
+		result = new Vector<List<Object>> ();
+		for(TransformationType trans: MapScenarioHolder.getInstance()
+				.getTransCreatingRel(targetRel)) {
+			String code = getCode(trans);
+			List<Integer> starts = new ArrayList<Integer> ();
+			Matcher select = SELECT.matcher(code);
+
+			while(select.find())
+				if (!inLiteral(code, select.start()))
+					starts.add(select.start());
+			for(int i = 0; i < starts.size(); i++)
+				parseTidExpression(code.substring(starts.get(i),
+						(i + 1 < starts.size()) ? starts.get(i + 1) : code.length()),
+						result);
+		}
+
+		// accesses outside of a SELECT
+		if (result.size() != accesses.size())
+			return null;
+
+		return result;
+	}
+
+	/**
+	 * Add the tid expression of a query block for each access of the block to
+	 * exprs.
+	 */
+	private static void parseTidExpression (String block,
+			Vector<List<Object>> exprs) {
+		Map<String, Integer> aliases = new HashMap<String, Integer> ();
+		Matcher m = REL_ACCESS.matcher(block);
+		Matcher item = TID_ITEM.matcher(block);
+		int first = exprs.size();
+		List<Object> expr;
+
+		while(m.find()) {
+			Matcher alias = ALIAS.matcher(block);
+
+			if (inLiteral(block, m.start()))
+				continue;
+			alias.region(m.end(), block.length());
+			if (!aliases.containsKey(m.group(2).toLowerCase()))
+				aliases.put(m.group(2).toLowerCase(), exprs.size());
+			if (alias.lookingAt() && !SQL_KEYWORDS.contains(
+					alias.group(1).toUpperCase()))
+				aliases.put(alias.group(1).toLowerCase(), exprs.size());
+			exprs.add(null);
+		}
+
+		expr = item.lookingAt() ? parseTidConcat(item.group(1), aliases) : null;
+		for(int i = first; i < exprs.size(); i++)
+			exprs.set(i, expr);
+	}
+
+	private static List<Object> parseTidConcat (String expr,
+			Map<String, Integer> aliases) {
+		List<Object> result = new ArrayList<Object> ();
+
+		for(String part: expr.split("\\|\\|")) {
+			String p = stripParens(part.trim());
+			Matcher literal = TID_LITERAL.matcher(p);
+			Matcher ref = TID_REF.matcher(p);
+
+			if (literal.matches())
+				result.add(literal.group(1).replace("''", "'"));
+			else if (ref.matches() && aliases.containsKey(ref.group(1).toLowerCase()))
+				result.add(aliases.get(ref.group(1).toLowerCase()));
+			else
+				return null;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Remove the unbalanced parentheses of a part of a nested concatenation.
+	 */
+	private static String stripParens (String part) {
+		while(part.startsWith("(") && count(part, '(') > count(part, ')'))
+			part = part.substring(1).trim();
+		while(part.endsWith(")") && count(part, ')') > count(part, '('))
+			part = part.substring(0, part.length() - 1).trim();
+
+		return part;
+	}
+
+	private static int count (String s, char c) {
+		int result = 0;
+
+		for(int i = 0; i < s.length(); i++)
+			if (s.charAt(i) == c)
+				result++;
+
+		return result;
+	}
+
+	/**
+	 * Add the annotated accesses of the code to accesses.
+	 *
+	 * @return false if the code contains an access that is not an annotated
+	 * 		access to a source relation
+	 */
+	private static boolean parseAccesses (String code,
+			Vector<Pair<String,Set<MappingType>>> accesses) throws Exception {
+		Matcher m = REL_ACCESS.matcher(code);
+		Matcher quoted = QUOTED_REL_ACCESS.matcher(code);
+
+		while(quoted.find())
+			if (!inLiteral(code, quoted.start()))
+				return false;
+
+		while(m.find()) {
+			Set<MappingType> maps;
+			Matcher annot;
+
+			if (inLiteral(code, m.start()))
+				continue;
+			if (!m.group(1).equalsIgnoreCase(SOURCE_SCHEMA) || m.group(3) == null)
+				return false;
+
+			maps = new HashSet<MappingType> ();
+			annot = ANNOT_VALUE.matcher(m.group(4));
+			while(annot.find())
+				maps.add(MapScenarioHolder.getInstance().getMapping(annot.group(1)));
+			if (maps.isEmpty())
+				return false;
+
+			accesses.add(new Pair<String,Set<MappingType>> (m.group(2), maps));
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the code of the transformation with comments replaced by 
+	 * 		whitespace
+	 */
+	private static String getCode (TransformationType trans) {
+		String code = trans.getCode();
+		StringBuffer result = new StringBuffer(code.length());
+		Matcher m = COMMENT_OR_LITERAL.matcher(code);
+		int last = 0;
+
+		while(m.find()) {
+			result.append(code, last, m.start());
+			// string literals are kept
+			result.append(m.group().startsWith("'") ? m.group() : " ");
+			last = m.end();
+		}
+		result.append(code, last, code.length());
+
+		return result.toString();
+	}
+
+	/**
+	 * @return true if pos of code (without comments) is inside a string 
+	 * 		literal
+	 */
+	private static boolean inLiteral (String code, int pos) {
+		boolean result = false;
+
+		for(int i = 0; i < pos; i++)
+			if (code.charAt(i) == '\'')
+				result = !result;
+
+		return result;
+	}
+
+	private static boolean hasLoadedTargetData () {
+		MappingScenario scen = MapScenarioHolder.getInstance().getScenario();
+
+		return scen.isSetData() && scen.getData().isSetLoadTargetData()
+				&& scen.getData().isSetExchangeData();
+	}
+
+	/**
+	 * Underscores in names are doubled in provenance attribute names.
+	 */
+	private static String escape (String name) {
+		return name.replace("_", "__");
+	}
+}
@@ -1,9 +1,11 @@
 package org.vagabond.explanation.generation.prov;
 
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Vector;
 
@@ -17,6 +19,14 @@ import org.vagabond.util.Pair;
 import org.vagabond.util.ResultSetUtil;
 import org.vagabond.xmlmodel.MappingType;
 
+/**
+ * Parses the provenance of target tuples (ordered on the target tid) into
+ * witness lists and the mapping that produced each witness list. Either all
+ * tuples are parsed when the parser is created or, in incremental mode, one 
+ * target tuple is parsed for each call of {@link #next()}. The latter only 
+ * keeps the provenance of the current tuple in memory, e.g., when the result
+ * set is streamed from the database.
+ */
 public class SourceAndMapProvParser {
 	
 	static Logger log = LogProviderHolder.getInstance().getLogger(SourceAndMapProvParser.class);
@@ -26,66 +36,103 @@ public class SourceAndMapProvParser {
 	private Vector<Set<MappingType>> relMapMap;
 	private List<String> baseRels;
 	private Vector<String> unnumRels;
+	private Set<MappingType> allMaps;
+	private Map<MappingType, Vector<Integer>> mapPos;
+	private int numCols;
+	/** dbResult is positioned on a row that has not been parsed yet */
+	private boolean rowPending = false;
+	private boolean done = false;
 	
 	public SourceAndMapProvParser (ResultSet result, String targetRel) throws Exception {
+		this(result, targetRel, false);
+	}
+	
+	public SourceAndMapProvParser (ResultSet result, String targetRel, 
+			boolean incremental) throws Exception {
 		this.dbResult = result;
 		allProv = new Vector<Pair<String, MapAndWLProvRepresentation>>();
 		relMapMap = ProvenanceGenerator.getInstance()
 				.getWlPosToMapping(targetRel);
 		baseRels = ProvenanceGenerator.getInstance()
 				.getWlPosToBaseRelName(targetRel);
+		numCols = dbResult.getMetaData().getColumnCount();
 		
 		unnumRels = new Vector<String> ();
 		for(int i = 0; i < baseRels.size(); i++)
 			unnumRels.add(i,ResultSetUtil.getUnnumRelFromRel(baseRels.get(i)));
 		
-		createTupleAndWLSet();
-		createMapProv (targetRel);
+		createMapPos();
+		
+		if (!incremental) {
+			while(hasNext())
+				allProv.add(next());
+		}
+	}
+	
+	/**
+	 * @return true if the result contains the provenance of another target 
+	 * 		tuple 
+	 */
+	public boolean hasNext () throws SQLException {
+		if (!rowPending && !done) {
+			rowPending = dbResult.next();
+			done = !rowPending;
+		}
+		return rowPending;
 	}
 	
-	private void createTupleAndWLSet () throws Exception {
+	/**
+	 * @return the tid and provenance of the next target tuple
+	 */
+	public Pair<String,MapAndWLProvRepresentation> next () throws Exception {
+		MapAndWLProvRepresentation curProv;
+		String curTid;
+		
+		if (!hasNext())
+			throw new NoSuchElementException();
+		
+		curTid = dbResult.getString(1);
+		curProv = new MapAndWLProvRepresentation();
+		curProv.setRelNames(baseRels);
+		
+		// parse rows until the target tid changes
+		do {
+			addWitnessList(curProv);
+			rowPending = dbResult.next();
+		} while (rowPending && curTid.equals(dbResult.getString(1)));
+		done = !rowPending;
+		
+		createMapProv(curProv);
+		
+		return new Pair<String, MapAndWLProvRepresentation> (curTid, curProv);
+	}
+	
+	private void addWitnessList (MapAndWLProvRepresentation curProv) throws Exception {
 		Vector<ITupleMarker> witList;
 		ITupleMarker tup;
-		String curTid = null;
 		String pTid;
-		MapAndWLProvRepresentation curProv = null;
 		
-		while(dbResult.next()) {
-			witList = new Vector<ITupleMarker> ();
-			// new target tuple, create new ProvRep
-			if (!dbResult.getString(1).equals(curTid)) {
-				curTid = dbResult.getString(1);
-				curProv = new MapAndWLProvRepresentation();
-				curProv.setRelNames(baseRels);
-				allProv.add(new Pair<String, MapAndWLProvRepresentation>
-						(curTid, curProv));
-			}
+		witList = new Vector<ITupleMarker> ();
+		
+		for (int i = 2; i <= numCols; i++) {
+			pTid = dbResult.getString(i);
+			if (log.isDebugEnabled()) {log.debug("parsed tid <" + pTid + ">");};
 			
-			// add to current prov rep
-			for (int i = 2; i <= dbResult.getMetaData().getColumnCount(); i++) {
-				pTid = dbResult.getString(i);
-				if (log.isDebugEnabled()) {log.debug("parsed tid <" + pTid + ">");};
-				
-				if (pTid != null) {
-					tup = MarkerFactory.newTupleMarker(unnumRels.get(i - 2), pTid);
-					if (log.isDebugEnabled()) {log.debug("add tuple marker " + tup);};
-					witList.add(tup);	
-					curProv.addTupleInProv(tup);
-				}
-				else
-					witList.add(null);
+			if (pTid != null) {
+				tup = MarkerFactory.newTupleMarker(unnumRels.get(i - 2), pTid);
+				if (log.isDebugEnabled()) {log.debug("add tuple marker " + tup);};
+				witList.add(tup);	
+				curProv.addTupleInProv(tup);
 			}
-			
-			if (log.isDebugEnabled()) {log.debug("created witness list " + witList);};
-			curProv.addWitnessList(witList);
+			else
+				witList.add(null);
 		}
+		
+		if (log.isDebugEnabled()) {log.debug("created witness list " + witList);};
+		curProv.addWitnessList(witList);
 	}
-
-	private void createMapProv (String targetRel) throws Exception {
-		MapAndWLProvRepresentation prov;
-		Set<MappingType> allMaps;
-		Map<MappingType, Vector<Integer>> mapPos;
 	
+	private void createMapPos () {
 		allMaps = CollectionUtils.<MappingType>unionSets(relMapMap);	
 		
 		mapPos = new HashMap<MappingType, Vector<Integer>> ();
@@ -96,21 +143,21 @@ public class SourceAndMapProvParser {
 				mapPos.get(map).add(i);
 			}
 		}
+	}
+
+	private void createMapProv (MapAndWLProvRepresentation prov) throws Exception {
+		prov.setMapToWlPos(mapPos);
 		
-		for(int i = 0; i < allProv.size(); i++) {
-			prov = allProv.get(i).getValue();
-			prov.setMapToWlPos(mapPos);
-			
-			for(Vector<ITupleMarker> wl: prov.getWitnessLists()) {
-				MappingType map = ProvenanceGenerator.getInstance()
-						.computMapProvFromWL(wl, relMapMap, allMaps);
-				prov.addMapProv(map);
-			}
+		for(Vector<ITupleMarker> wl: prov.getWitnessLists()) {
+			MappingType map = ProvenanceGenerator.getInstance()
+					.computMapProvFromWL(wl, relMapMap, allMaps);
+			prov.addMapProv(map);
 		}
 	}
 	
-	
-	
+	/**
+	 * @return the provenance of all target tuples. Empty in incremental mode.
+	 */
 	public Vector<Pair<String,MapAndWLProvRepresentation>> getAllProv() {
 		return allProv;
 	}
@@ -5,7 +5,9 @@ import static org.vagabond.util.LoggerUtil.logArray;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import org.apache.log4j.Logger;
@@ -23,12 +25,26 @@ public class SourceProvParser {
 	private ProvWLRepresentation allProv;
 	private List<Integer> tidAttrPos;
 	private List<String> relNames;
+	private String keyAttr;
+	private int keyAttrPos = -1;
+	private Map<String, ProvWLRepresentation> provPerKey;
 	
 	public SourceProvParser (ResultSet result) throws Exception {
+		this(result, null);
+	}
+	
+	/**
+	 * Parse the provenance of several target tuples at once. The witness
+	 * lists are split on the value of result attribute keyAttr. Only the 
+	 * provenance per key is kept, {@link #getAllProv()} has no witness lists.
+	 */
+	public SourceProvParser (ResultSet result, String keyAttr) throws Exception {
 		this.dbResult = result;
+		this.keyAttr = keyAttr;
 		allProv = new ProvWLRepresentation();
 		tidAttrPos = new ArrayList<Integer> ();
 		relNames = new ArrayList<String> ();
+		provPerKey = new LinkedHashMap<String, ProvWLRepresentation> ();
 		
 		parse();
 	}
@@ -49,7 +65,9 @@ public class SourceProvParser {
 		
 		for(int i = 0; i < colNames.length; i++) {
 			colName = colNames[i];
-			if (isTidProvAttr(colName)) {
+			if (keyAttr != null && colName.equalsIgnoreCase(keyAttr))
+				keyAttrPos = i + 1;
+			else if (isTidProvAttr(colName)) {
 				relName = ResultSetUtil.getRelFromProvName(colName);
 				relNames.add(relName);
 				tidAttrPos.add(i + 1);
@@ -68,8 +86,11 @@ public class SourceProvParser {
 		Vector<ITupleMarker> witList;
 		ITupleMarker tup;
 		String tid;
+		ProvWLRepresentation keyProv = null;
 		
 		while(dbResult.next()) {
+			if (keyAttrPos != -1)
+				keyProv = getProvForKey(dbResult.getString(keyAttrPos));
 			witList = new Vector<ITupleMarker> ();
 			for (int i = 0; i < relNames.size(); i++) {
 				tid = dbResult.getString(tidAttrPos.get(i));
@@ -79,17 +100,35 @@ public class SourceProvParser {
 					tup = MarkerFactory.newTupleMarker(relNames.get(i), tid);
 					if (log.isDebugEnabled()) {log.debug("add tuple marker " + tup);};
 					witList.add(tup);	
-					allProv.addTupleInProv(tup);
+					if (keyProv != null)
+						keyProv.addTupleInProv(tup);
+					else
+						allProv.addTupleInProv(tup);
 				}
 				else
 					witList.add(null);
 			}
 			
 			if (log.isDebugEnabled()) {log.debug("created witness list " + witList);};
-			allProv.addWitnessList(witList);
+			if (keyProv != null)
+				keyProv.addWitnessList(witList);
+			else
+				allProv.addWitnessList(witList);
 		}
 	}
 	
+	private ProvWLRepresentation getProvForKey (String key) {
+		ProvWLRepresentation prov = provPerKey.get(key);
+		
+		if (prov == null) {
+			prov = new ProvWLRepresentation();
+			prov.setRelNames(relNames);
+			provPerKey.put(key, prov);
+		}
+		
+		return prov;
+	}
+	
 	private boolean isTidProvAttr (String name) {
 		return ResultSetUtil.isProvAttr(name) 
 				&& ResultSetUtil.getAttrFromProvName(name).equals("tid");
@@ -98,4 +137,16 @@ public class SourceProvParser {
 	public ProvWLRepresentation getAllProv() {
 		return allProv;
 	}
+	
+	/**
+	 * @return the provenance for a value of the key attribute. The 
+	 * 		representation is empty if the result has no rows for key.
+	 */
+	public ProvWLRepresentation getProv (String key) {
+		return getProvForKey(key);
+	}
+
+	public Map<String, ProvWLRepresentation> getProvPerKey() {
+		return provPerKey;
+	}
 }
@@ -1,6 +1,8 @@
 package org.vagabond.explanation.generation.prov;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -10,10 +12,12 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.vagabond.explanation.generation.QueryHolder;
+import org.vagabond.explanation.marker.ColumnarMarkerSet;
 import org.vagabond.explanation.marker.IAttributeValueMarker;
 import org.vagabond.explanation.marker.IMarkerSet;
 import org.vagabond.explanation.marker.ISingleMarker;
 import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.explanation.marker.MarkerSetUtil;
 import org.vagabond.mapping.model.MapScenarioHolder;
 import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.LogProviderHolder;
@@ -27,8 +31,39 @@ public class SourceProvenanceSideEffectGenerator implements ISideEffectGenerator
 	public static Logger log = LogProviderHolder.getInstance().getLogger(
 			SourceProvenanceSideEffectGenerator.class);
 	
-	protected IAttributeValueMarker error;
-	protected IMarkerSet sourceSE;
+	public static final int DEFAULT_MAX_OR_CHAIN = 16;
+	public static final int DEFAULT_MAX_ARRAY = 10000;
+	public static final String TID_TABLE_PREFIX = "setids";
+	
+	/** 
+	 * Sets of source tids are compared with a chain of equality conditions 
+	 * up to this size, up to maxArray they are passed as an array, and larger
+	 * sets are stored in a temp table. An equality chain keeps small queries
+	 * unchanged but its SQL text and planning time grow with every tid. An
+	 * array is a single bind parameter, but the planner has no statistics
+	 * for it. A temp table has to be filled and analyzed first, which only
+	 * pays off for large sets. TestSideEffectQueryPerformance (performanceTest)
+	 * measures the three shapes at and around the default thresholds.
+	 */
+	private static int maxOrChain = DEFAULT_MAX_OR_CHAIN;
+	private static int maxArray = DEFAULT_MAX_ARRAY;
+	private static int maxTidTableId = 0;
+	
+	/**
+	 * Bind parameters and temp tables of a side effect query. 
+	 */
+	public static class SideEffectQueryParams {
+		private List<Object> bindParams = new ArrayList<Object> ();
+		private List<String> tempTables = new ArrayList<String> ();
+		
+		public Object[] getBindParams () {
+			return bindParams.toArray();
+		}
+		
+		public List<String> getTempTables () {
+			return tempTables;
+		}
+	}
 	
 	@Override
 	public void reset () {
@@ -43,26 +78,38 @@ public class SourceProvenanceSideEffectGenerator implements ISideEffectGenerator
 		IMarkerSet result = MarkerFactory.newMarkerSet();
 		Map<String, Set<String>> relsForAffTarget;
 		Map<String, IMarkerSet> partionedSE;
+		ColumnarMarkerSet sourceCols;
 		
-		this.sourceSE = sourceSE;
-		this.error = error;
-		
-		partionedSE = partitionSourceSE();
+		sourceCols = toColumnar(sourceSE);
+		partionedSE = partitionSourceSE(sourceCols);
 		if (log.isDebugEnabled()) {log.debug("partioned source SE: " + partionedSE);};
 		relsForAffTarget = getRelAffectedByRels(partionedSE.keySet());
 		if (log.isDebugEnabled()) {log.debug("rels affected by source SE rels are: " + relsForAffTarget);};
 		
 		for(String targetRel: relsForAffTarget.keySet()) {
-			query = getSideEffectQuery(targetRel, 
-					relsForAffTarget.get(targetRel), 
-					partionedSE);
+			SideEffectQueryParams params = new SideEffectQueryParams();
 			
-			if (log.isDebugEnabled()) {log.debug("Compute side effects for target relation <"
-					+ targetRel + "> using query:\n" + query);};
-			
-			rs = ConnectionManager.getInstance().execQuery(query);
-			parseTargetSE(targetRel, rs, result);
-			ConnectionManager.getInstance().closeRs(rs);
+			// temp tables are created for the query
+			try {
+				query = getSideEffectQuery(targetRel, 
+						relsForAffTarget.get(targetRel), 
+						partionedSE, params);
+				
+				if (log.isDebugEnabled()) {log.debug("Compute side effects for target relation <"
+						+ targetRel + "> using query:\n" + query);};
+				
+				rs = ConnectionManager.getInstance().execPreparedStreaming(query, 
+						params.getBindParams());
+				try {
+					parseTargetSE(targetRel, rs, result, sourceCols);
+				}
+				finally {
+					ConnectionManager.getInstance().closeRs(rs);
+				}
+			}
+			finally {
+				dropTidTables(params);
+			}
 		}
 		
 		result.remove(error);
@@ -79,8 +126,8 @@ public class SourceProvenanceSideEffectGenerator implements ISideEffectGenerator
 		return new HashSet<String> (rels);
 	}
 
-	protected void parseTargetSE(String rel, ResultSet rs, IMarkerSet sideEff)
-			throws Exception {
+	protected void parseTargetSE(String rel, ResultSet rs, IMarkerSet sideEff, 
+			ColumnarMarkerSet sourceCols) throws Exception {
 		while(rs.next()) {
 			sideEff.add(MarkerFactory.newTupleMarker(rel, 
 					rs.getString(1)));
@@ -115,26 +162,39 @@ public class SourceProvenanceSideEffectGenerator implements ISideEffectGenerator
 		return result;
 	}
 	
-	protected Map<String, IMarkerSet> partitionSourceSE () {
+	/**
+	 * @return the source side effects stored column-wise
+	 */
+	protected ColumnarMarkerSet toColumnar (IMarkerSet sourceSE) {
+		if (sourceSE instanceof ColumnarMarkerSet)
+			return (ColumnarMarkerSet) sourceSE;
+		return MarkerFactory.newColumnarMarkerSet(sourceSE);
+	}
+	
+	/**
+	 * Group the source side effects by relation. The partitions are views on
+	 * the columns of sourceCols.
+	 */
+	protected Map<String, IMarkerSet> partitionSourceSE (ColumnarMarkerSet sourceCols) {
 		Map<String, IMarkerSet> parts;
-		IMarkerSet mSet;
-		String relName;
-		
-		parts = new HashMap<String, IMarkerSet> ();
-		for(ISingleMarker marker: sourceSE) {
-			relName = marker.getRel();
-			mSet = parts.get(relName);
-			if (mSet == null) {
-				mSet = MarkerFactory.newMarkerSet();
-				parts.put(relName, mSet);
-			}
-			mSet.add(marker);
-		}
+		
+		parts = MarkerSetUtil.partitionOnRelation(sourceCols);
 		
 		if (log.isDebugEnabled()) {log.debug("paritioned source side effects into:\n" + parts);};
 		
 		return parts;
 	}
+	
+	/**
+	 * @return one marker per source tuple of a partition returned by 
+	 * 		{@link #partitionSourceSE(ColumnarMarkerSet)}
+	 */
+	protected Collection<? extends ISingleMarker> getSourceTuples (
+			IMarkerSet relSE) {
+		if (relSE instanceof ColumnarMarkerSet)
+			return ((ColumnarMarkerSet) relSE).getTupleMarkers();
+		return relSE;
+	}
 
 	public String getSideEffectQuery (String relName, Set<String> sourceRels, 
 			Map<String, IMarkerSet> sourceSE) throws Exception {
@@ -149,7 +209,7 @@ public class SourceProvenanceSideEffectGenerator implements ISideEffectGenerator
 			unnumSource = getUnNumRelName(source);
 			if (sourceSE.get(unnumSource) != null) {
 				for(ISingleMarker sourceErr
-						: sourceSE.get(unnumSource).getElems()) {//CHECK ok to use unnumSource???
+						: getSourceTuples(sourceSE.get(unnumSource))) {//CHECK ok to use unnumSource???
 					conditions.append(
 							getSideEffectEqualityCond(source, 
 									 sourceErr)
@@ -169,6 +229,164 @@ public class SourceProvenanceSideEffectGenerator implements ISideEffectGenerator
 		return query;
 	}
 	
+	/**
+	 * Side effect query that may use bind parameters and temp tables for 
+	 * large sets of source tids. These are recorded in params. 
+	 */
+	public String getSideEffectQuery (String relName, Set<String> sourceRels, 
+			Map<String, IMarkerSet> sourceSE, SideEffectQueryParams params) 
+			throws Exception {
+		return getSideEffectQuery(relName, sourceRels, sourceSE);
+	}
+	
+	/**
+	 * @return a disjunction of conditions that hold if the provenance of a 
+	 * 		target tuple contains one of the source tuples in sourceSE. The 
+	 * 		shape of the condition for a source relation depends on the number
+	 * 		of its tuples: a chain of equalities, = ANY of an array or IN a
+	 * 		temp table. Arrays are passed as bind parameters and temp tables 
+	 * 		are created only if params is not null, otherwise the array is 
+	 * 		given as a literal.
+	 */
+	protected String getSourceTidsCondition (Set<String> sourceRels, 
+			Map<String, IMarkerSet> sourceSE, SideEffectQueryParams params) 
+			throws Exception {
+		StringBuffer conditions;
+		String unnumSource;
+		
+		conditions = new StringBuffer();
+		
+		for(String source: sourceRels) {
+			unnumSource = getUnNumRelName(source);
+			if (sourceSE.get(unnumSource) != null) {
+				Collection<? extends ISingleMarker> tuples = 
+						getSourceTuples(sourceSE.get(unnumSource));
+				String tidAttr = "prov_source_" + source + "_tid";
+				
+				if (tuples.size() <= maxOrChain) {
+					for(ISingleMarker sourceErr: tuples)
+						conditions.append(getSideEffectEqualityCond(source, 
+								sourceErr) + " OR ");
+				}
+				else {
+					long[] tids = getTids(tuples);
+					
+					if (params == null)
+						conditions.append(tidAttr + " = ANY('" + getArrayLiteral(tids) 
+								+ "'::int8[])");
+					else if (tids.length <= maxArray) {
+						params.bindParams.add(tids);
+						conditions.append(tidAttr + " = ANY(?::int8[])");
+					}
+					else {
+						String table = createTidTable(tids);
+						
+						params.tempTables.add(table);
+						conditions.append(tidAttr + " IN (SELECT tid FROM " 
+								+ table + ")");
+					}
+					conditions.append(" OR ");
+				}
+			}
+		}
+		
+		if (conditions.length() == 0)
+			return "(false)";
+		conditions.insert(0, '(');
+		conditions.delete(conditions.length() - 4, conditions.length() - 1);
+		conditions.append(")");
+		
+		return conditions.toString();
+	}
+	
+	private long[] getTids (Collection<? extends ISingleMarker> tuples) {
+		long[] result = new long[tuples.size()];
+		int i = 0;
+		
+		for(ISingleMarker tup: tuples)
+			result[i++] = Long.parseLong(tup.getTid());
+		
+		return result;
+	}
+	
+	private String getArrayLiteral (long[] tids) {
+		StringBuffer result = new StringBuffer(tids.length * 8);
+		
+		result.append('{');
+		for(int i = 0; i < tids.length; i++) {
+			if (i != 0)
+				result.append(',');
+			result.append(tids[i]);
+		}
+		result.append('}');
+		
+		return result.toString();
+	}
+	
+	/**
+	 * Store tids in a new temp table of the connection of the current thread.
+	 * If filling the table fails, it is dropped again.
+	 * 
+	 * @return the name of the table
+	 */
+	protected String createTidTable (long[] tids) throws Exception {
+		ConnectionManager con = ConnectionManager.getInstance();
+		PreparedStatement st = null;
+		String table;
+		boolean filled = false;
+		
+		synchronized (SourceProvenanceSideEffectGenerator.class) {
+			table = TID_TABLE_PREFIX + (++maxTidTableId);
+		}
+		
+		con.execUpdate("CREATE TEMP TABLE " + table + " (tid int8)");
+		try {
+			st = con.getConnection().prepareStatement("INSERT INTO " + table 
+					+ " VALUES (?)");
+			for(int i = 0; i < tids.length; i++) {
+				st.setLong(1, tids[i]);
+				st.addBatch();
+				if ((i + 1) % 1000 == 0)
+					st.executeBatch();
+			}
+			st.executeBatch();
+			filled = true;
+		}
+		finally {
+			if (st != null)
+				st.close();
+			if (!filled)
+				con.execUpdate("DROP TABLE IF EXISTS " + table);
+		}
+		con.execUpdate("ANALYZE " + table);
+		
+		if (log.isDebugEnabled()) {log.debug("created temp table " + table + " with " + tids.length + " tids");};
+		
+		return table;
+	}
+	
+	protected void dropTidTables (SideEffectQueryParams params) throws Exception {
+		for(String table: params.tempTables)
+			ConnectionManager.getInstance().execUpdate("DROP TABLE IF EXISTS " + table);
+		params.tempTables.clear();
+	}
+	
+	public static int getMaxOrChain() {
+		return maxOrChain;
+	}
+
+	public static void setMaxOrChain(int maxOrChain) {
+		SourceProvenanceSideEffectGenerator.maxOrChain = maxOrChain;
+	}
+
+	public static int getMaxArray() {
+		return maxArray;
+	}
+
+	public static void setMaxArray(int maxArray) {
+		SourceProvenanceSideEffectGenerator.maxArray = maxArray;
+	}
+
 	protected String getUnNumRelName(String source) {
 		if (!source.contains("_"))
 			return source;
@@ -1,8 +1,8 @@
 package org.vagabond.explanation.marker;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -13,6 +13,7 @@ import org.apache.log4j.Logger;
 import org.vagabond.util.LogProviderHolder;
 import org.vagabond.util.LoggerUtil;
 import org.vagabond.util.ewah.BitsetFactory;
+import org.vagabond.util.ewah.EWAHCompressedBitmap;
 import org.vagabond.util.ewah.IBitSet;
 import org.vagabond.util.ewah.IBitSet.BitsetType;
 import org.vagabond.util.ewah.IntIterator;
@@ -22,22 +23,76 @@ public class BitMarkerSet implements IMarkerSet {
 	static Logger log = LogProviderHolder.getInstance().getLogger(
 			BitMarkerSet.class);
 
+	private static BitsetType defaultType = BitsetType.EWAHBitSet;
+
 	private MarkerSummary sum;
 	private int hash = -1;
+	/** cached cardinality of markers or -1 if it has to be recounted */
+	private int size = -1;
+	private final BitsetType type;
 	private IBitSet markers;
 
 	public BitMarkerSet() {
+		this(defaultType);
+	}
+
+	public BitMarkerSet(BitsetType type) {
+		this.type = type;
 		init();
 	}
 
 	private void init() {
-		markers = BitsetFactory.newBitset(BitsetType.EWAHBitSet);
+		markers = BitsetFactory.newBitset(type);
 		sum = null;
+		size = 0;
+	}
+
+	/**
+	 * @return the bitset implementation used by new BitMarkerSets
+	 */
+	public static BitsetType getDefaultBitsetType() {
+		return defaultType;
+	}
+
+	public static void setDefaultBitsetType(BitsetType type) {
+		defaultType = type;
 	}
 
+	public BitsetType getBitsetType() {
+		return type;
+	}
+
+	/**
+	 * Set operations between bitsets are only supported if both sides use the
+	 * same implementation. Otherwise we have to fall back to adding markers
+	 * one at a time.
+	 */
+	private boolean sameType(IMarkerSet other) {
+		return other instanceof BitMarkerSet
+				&& ((BitMarkerSet) other).type == type;
+	}
+
+	/**
+	 * Called after bulk operations on the bitset. The size is recounted on
+	 * the next access.
+	 */
 	private void resetLazyFields() {
 		sum = null;
 		hash = -1;
+		size = -1;
+	}
+
+	/**
+	 * @return the number of set bits. Single marker adds and removes keep
+	 *         the cached value up to date, so the bitset is only counted
+	 *         after bulk algebra.
+	 */
+	private int cardinality() {
+		if (size == -1) {
+			size = markers.cardinality();
+			MarkerSetUtil.recordSizeRecount();
+		}
+		return size;
 	}
 
 	public boolean equals(Object other) {
@@ -69,36 +124,34 @@ public class BitMarkerSet implements IMarkerSet {
 		return false;
 	}
 
+	/**
+	 * Hashes the bit positions, because equal sets with different bitset
+	 * implementations have to get the same hash code.
+	 */
 	public int hashCode() {
 		if (hash == -1) {
-			hash = markers.hashCode();
+			IntIterator i = markers.intIterator();
+			int h = 0;
+
+			while (i.hasNext())
+				h = 31 * h + i.next();
+			hash = h;
 		}
 		return hash;
 	}
 
 	public int getSize() {
-		return markers.cardinality();
+		return cardinality();
 	}
 
 	public int getNumElem() {
-		return markers.cardinality();
+		return cardinality();
 	}
 
 	public Set<ISingleMarker> getElems() {
 		Set<ISingleMarker> result = new HashSet<ISingleMarker>();
-		IntIterator intiterator = markers.intIterator();
-		while (intiterator.hasNext()) {
-			int temp_index = intiterator.next();
-			try {
-				ISingleMarker tempMarker =
-						ScenarioDictionary.getInstance()
-								.getAttrValueMarkerByIBitSet(temp_index);
-				result.add(tempMarker);
-			}
-			catch (Exception e) {
-				LoggerUtil.logException(e, log);
-			}
-		}
+		for (ISingleMarker m : this)
+			result.add(m);
 		return result;
 	}
 
@@ -107,13 +160,16 @@ public class BitMarkerSet implements IMarkerSet {
 	}
 
 	public List<ISingleMarker> getElemList() {
-		return new ArrayList<ISingleMarker>(getElems());
+		List<ISingleMarker> result = new ArrayList<ISingleMarker>();
+		for (ISingleMarker m : this)
+			result.add(m);
+		return result;
 	}
 
 	@Override
 	public IMarkerSet union(IMarkerSet other) {
-		if (other instanceof BitMarkerSet) {
-			markers = markers.or(((BitMarkerSet) other).markers);
+		if (sameType(other)) {
+			markers.orInPlace(((BitMarkerSet) other).markers);
 		}
 		else {
 			for (ISingleMarker m : other)
@@ -123,31 +179,110 @@ public class BitMarkerSet implements IMarkerSet {
 		return this;
 	}
 
+	/**
+	 * If all other sets are BitMarkerSets of the same type, EWAH bitsets are
+	 * merged in a single n-way pass and other bitsets are updated in place.
+	 */
+	@Override
+	public IMarkerSet unionAll(Collection<? extends IMarkerSet> others) {
+		IBitSet[] bitsets = getSameTypeBitsets(others);
+
+		if (bitsets == null)
+			return MarkerSetUtil.unionAll(this, others);
+
+		if (type == BitsetType.EWAHBitSet && bitsets.length > 2)
+			markers = EWAHCompressedBitmap.or(toEWAH(bitsets));
+		else
+			for (int i = 1; i < bitsets.length; i++)
+				markers.orInPlace(bitsets[i]);
+
+		resetLazyFields();
+		return this;
+	}
+
+	/**
+	 * For EWAH bitsets the size of the union is counted while merging the
+	 * bitsets without materializing the result.
+	 */
+	@Override
+	public int unionSize(Collection<? extends IMarkerSet> others) {
+		IBitSet[] bitsets = getSameTypeBitsets(others);
+		IBitSet result;
+
+		if (bitsets == null)
+			return MarkerSetUtil.unionSize(this, others);
+		if (bitsets.length == 1)
+			return getSize();
+
+		if (markers instanceof EWAHCompressedBitmap)
+			return EWAHCompressedBitmap.orCardinality(toEWAH(bitsets));
+
+		result = (IBitSet) markers.clone();
+		for (int i = 1; i < bitsets.length; i++)
+			result.orInPlace(bitsets[i]);
+		return result.cardinality();
+	}
+
+	/**
+	 * @return the bitsets of this set and others (this set first) or null if
+	 *         one of the others is not a BitMarkerSet of the same type
+	 */
+	private IBitSet[] getSameTypeBitsets(
+			Collection<? extends IMarkerSet> others) {
+		IBitSet[] result = new IBitSet[others.size() + 1];
+		int i = 1;
+
+		result[0] = markers;
+		for (IMarkerSet other : others) {
+			if (!sameType(other))
+				return null;
+			result[i++] = ((BitMarkerSet) other).markers;
+		}
+
+		return result;
+	}
+
+	private static EWAHCompressedBitmap[] toEWAH(IBitSet[] bitsets) {
+		EWAHCompressedBitmap[] result =
+				new EWAHCompressedBitmap[bitsets.length];
+
+		for (int i = 0; i < bitsets.length; i++)
+			result[i] = (EWAHCompressedBitmap) bitsets[i];
+
+		return result;
+	}
+
 	@Override
 	public boolean retainAll(Collection<?> arg0) {
-		if (arg0 instanceof BitMarkerSet)
+		List<ISingleMarker> notRetained = new ArrayList<ISingleMarker>();
+		boolean changed = false;
+
+		if (arg0 instanceof BitMarkerSet && sameType((BitMarkerSet) arg0))
 			return intersect((BitMarkerSet) arg0);
 
-		Iterator<ISingleMarker> it = iterator();
-		while (it.hasNext()) {
-			it.next();
-		}
+		// the iterator does not support remove
+		for (ISingleMarker m : this)
+			if (!arg0.contains(m))
+				notRetained.add(m);
+		for (ISingleMarker m : notRetained)
+			changed |= remove(m);
 
-		return false;
+		return changed;
 	}
 
 	private boolean intersect(BitMarkerSet other) {
-		IBitSet oldMarkers = markers;
-		markers = markers.and(((BitMarkerSet) other).markers);
-		return markers.equals(oldMarkers);
+		int oldSize = cardinality();
+		markers.andInPlace(other.markers);
+		resetLazyFields();
+		return cardinality() != oldSize;
 	}
 
 	@Override
 	public IMarkerSet intersect(IMarkerSet other) {
-		if (other instanceof BitMarkerSet)
-			markers = markers.and(((BitMarkerSet) other).markers);
+		if (sameType(other))
+			markers.andInPlace(((BitMarkerSet) other).markers);
 		else {
-			BitMarkerSet newresult = new BitMarkerSet();
+			BitMarkerSet newresult = new BitMarkerSet(type);
 			for (ISingleMarker m : other) {
 				try {
 					if (this.contains(m))
@@ -190,7 +325,7 @@ public class BitMarkerSet implements IMarkerSet {
 	}
 
 	public IMarkerSet diff(IMarkerSet other) {
-		if (other instanceof BitMarkerSet)
+		if (sameType(other))
 			this.markers = this.markers.andNot(((BitMarkerSet) other).markers);
 		else {
 			for (ISingleMarker m : other)
@@ -208,27 +343,15 @@ public class BitMarkerSet implements IMarkerSet {
 		StringBuffer result = new StringBuffer();
 		result.append("MarkerSet: {");
 
-		IntIterator iterator = markers.intIterator();
-		int tempIndex;
-		while (iterator.hasNext()) {
-			tempIndex = iterator.next();
-			AttrValueMarker tempMarker;
-			try {
-				tempMarker =
-						ScenarioDictionary.getInstance()
-								.getAttrValueMarkerByIBitSet(tempIndex);
-				String tempString =
-						"('" + tempMarker.getRel() + "'("
-								+ tempMarker.getRelId() + "),"
-								+ tempMarker.getTid() + ",'"
-								+ tempMarker.getAttrName() + "'("
-								+ tempMarker.getAttrId() + ")),";
-				result.append(tempString);
-
-			}
-			catch (Exception e) {
-				LoggerUtil.logException(e, log);
-			}
+		for (ISingleMarker m : this) {
+			AttrValueMarker tempMarker = (AttrValueMarker) m;
+			String tempString =
+					"('" + tempMarker.getRel() + "'("
+							+ tempMarker.getRelId() + "),"
+							+ tempMarker.getTid() + ",'"
+							+ tempMarker.getAttrName() + "'("
+							+ tempMarker.getAttrId() + ")),";
+			result.append(tempString);
 		}
 
 		result.deleteCharAt(result.length() - 1);
@@ -242,27 +365,7 @@ public class BitMarkerSet implements IMarkerSet {
 		StringBuffer result = new StringBuffer();
 
 		Map<String, IMarkerSet> markerPerRel =
-				new HashMap<String, IMarkerSet>();
-
-		IntIterator iterator = markers.intIterator();
-		int tempIndex;
-		while (iterator.hasNext()) {
-			tempIndex = iterator.next();
-			AttrValueMarker tempMarker;
-			try {
-				tempMarker =
-						ScenarioDictionary.getInstance()
-								.getAttrValueMarkerByIBitSet(tempIndex);
-				String rel = tempMarker.getRel();
-				if (!markerPerRel.containsKey(rel)) {
-					markerPerRel.put(rel, MarkerFactory.newMarkerSet());
-				}
-				markerPerRel.get(rel).add(tempMarker);
-			}
-			catch (Exception e) {
-				LoggerUtil.logException(e, log);
-			}
-		}
+				MarkerSetUtil.partitionOnRelation(this);
 
 		for (String rel : markerPerRel.keySet()) {
 			result.append(" relation " + rel + " (");
@@ -278,9 +381,10 @@ public class BitMarkerSet implements IMarkerSet {
 	}
 
 	public IMarkerSet cloneSet() {
-		BitMarkerSet cloneSet = new BitMarkerSet();
+		BitMarkerSet cloneSet = new BitMarkerSet(type);
 		cloneSet.markers = (IBitSet) this.markers.clone();
 		cloneSet.resetLazyFields();
+		cloneSet.size = size;
 
 		return cloneSet;
 	}
@@ -292,30 +396,19 @@ public class BitMarkerSet implements IMarkerSet {
 	}
 
 	public IMarkerSet subset(MarkerSummary sum) {
-		BitMarkerSet result = new BitMarkerSet();
+		BitMarkerSet result = new BitMarkerSet(type);
 		result.resetLazyFields();
-		IntIterator iterator = markers.intIterator();
-		int tempIndex;
-		while (iterator.hasNext()) {
-			tempIndex = iterator.next();
-			AttrValueMarker tempMarker;
-			try {
-				tempMarker =
-						ScenarioDictionary.getInstance()
-								.getAttrValueMarkerByIBitSet(tempIndex);
-				if (sum.hasAttr(tempMarker))
-					result.add(tempMarker);
-			}
-			catch (Exception e) {
-				LoggerUtil.logException(e, log);
-			}
+		for (ISingleMarker tempMarker : this) {
+			if (sum.hasAttr(tempMarker))
+				result.add(tempMarker);
 		}
 		return result;
 	}
 
 	@Override
 	public boolean addAll(Collection<? extends ISingleMarker> arg0) {
-		resetLazyFields();
+		sum = null;
+		hash = -1;
 		Iterator<? extends ISingleMarker> iterator = arg0.iterator();
 		boolean result = true;
 		while (iterator.hasNext()) {
@@ -327,9 +420,10 @@ public class BitMarkerSet implements IMarkerSet {
 
 	@Override
 	public void clear() {
-		sum = null;
-		IBitSet empty = BitsetFactory.newBitset(BitsetType.EWAHBitSet);
+		resetLazyFields();
+		IBitSet empty = BitsetFactory.newBitset(type);
 		markers = empty;
+		size = 0;
 	}
 
 	@Override
@@ -356,18 +450,24 @@ public class BitMarkerSet implements IMarkerSet {
 
 	@Override
 	public boolean isEmpty() {
-		boolean result = true;
-		IntIterator iterator = markers.intIterator();
-		while (iterator.hasNext())
-			result = false;
-		return result;
+		if (size != -1)
+			return size == 0;
+		return !markers.intIterator().hasNext();
 	}
 
+	/**
+	 * Lazily decodes the set bits into markers. Bits are visited in increasing
+	 * order, so the (relation, attribute) segment of the previous bit is
+	 * reused until the iterator leaves it.
+	 */
 	@Override
 	public Iterator<ISingleMarker> iterator() {
 		return new Iterator<ISingleMarker>() {
 
 			private IntIterator in = markers.intIterator();
+			private ScenarioDictionary dict = ScenarioDictionary.getInstance();
+			private int seg = -1;
+			private int segEnd = -1;
 
 			@Override
 			public boolean hasNext() {
@@ -376,14 +476,16 @@ public class BitMarkerSet implements IMarkerSet {
 
 			@Override
 			public ISingleMarker next() {
-				try {
-					return ScenarioDictionary.getInstance()
-							.getAttrValueMarkerByIBitSet(in.next());
-				}
-				catch (Exception e) {
-					LoggerUtil.logException(e, log);
+				int pos = in.next();
+
+				if (seg == -1 || pos >= segEnd) {
+					seg = dict.getSegmentForBitPos(pos);
+					if (seg == -1)
+						return null;
+					segEnd = dict.getSegmentEnd(seg);
 				}
-				return null;
+
+				return dict.getAttrValueMarkerForSegment(seg, pos);
 			}
 
 			@Override
@@ -395,7 +497,6 @@ public class BitMarkerSet implements IMarkerSet {
 
 	@Override
 	public boolean remove(Object arg0) {
-		resetLazyFields();
 		boolean result = false;
 
 		if ((ISingleMarker) arg0 instanceof IAttributeValueMarker) {
@@ -433,12 +534,17 @@ public class BitMarkerSet implements IMarkerSet {
 	}
 
 	public void removeSingleBit(int bitpos) {
-		resetLazyFields();
+		if (!markers.get(bitpos))
+			return;
+		sum = null;
+		hash = -1;
+		if (size != -1)
+			size--;
 		IntIterator iteratorStart = this.markers.intIterator(0, bitpos);
 		IntIterator iteratorEnd =
 				this.markers.intIterator(bitpos + 1,
-						this.markers.getByteSize() * 8);
-		IBitSet new_markers = BitsetFactory.newBitset(BitsetType.EWAHBitSet);
+						this.markers.sizeInBits());
+		IBitSet new_markers = BitsetFactory.newBitset(type);
 		while (iteratorStart.hasNext())
 			new_markers.set(iteratorStart.next());
 		while (iteratorEnd.hasNext())
@@ -448,7 +554,8 @@ public class BitMarkerSet implements IMarkerSet {
 
 	@Override
 	public boolean removeAll(Collection<?> arg0) {
-		resetLazyFields();
+		sum = null;
+		hash = -1;
 		Iterator<?> iterator = arg0.iterator();
 		while (iterator.hasNext()) {
 			if (!this.remove(iterator.next()))
@@ -459,7 +566,7 @@ public class BitMarkerSet implements IMarkerSet {
 
 	@Override
 	public int size() {
-		return markers.cardinality();
+		return cardinality();
 	}
 
 	//
@@ -472,30 +579,14 @@ public class BitMarkerSet implements IMarkerSet {
 	public <T> T[] toArray(T[] arg0) {
 		if (arg0.length < size()) {
 			List<T> list = new ArrayList<T>(size());
-			IntIterator iterator = markers.intIterator();
-			while (iterator.hasNext())
-				try {
-					list.add((T) ScenarioDictionary.getInstance()
-							.getAttrValueMarkerByIBitSet(iterator.next()));
-				}
-				catch (Exception e) {
-					LoggerUtil.logException(e, log);
-				}
+			for (ISingleMarker m : this)
+				list.add((T) m);
 			return (T[]) list.toArray();
 		}
 		else {
-			IntIterator iterator = markers.intIterator();
 			int counter = 0;
-			while (iterator.hasNext())
-				try {
-					arg0[counter++] =
-							(T) ScenarioDictionary.getInstance()
-									.getAttrValueMarkerByIBitSet(
-											iterator.next());
-				}
-				catch (Exception e) {
-					LoggerUtil.logException(e, log);
-				}
+			for (ISingleMarker m : this)
+				arg0[counter++] = (T) m;
 			return arg0;
 		}
 	}
@@ -507,10 +598,7 @@ public class BitMarkerSet implements IMarkerSet {
 			int bitPos =
 					ScenarioDictionary.getInstance().attrMarkerToBitPos(
 							(IAttributeValueMarker) marker);
-			if (markers.get(bitPos))
-				return false;
-			markers.set(bitPos);
-			return true;
+			return setSingleBit(bitPos);
 		}
 		if (marker instanceof TupleMarker) {
 			TupleMarker t = (TupleMarker) marker;
@@ -524,9 +612,8 @@ public class BitMarkerSet implements IMarkerSet {
 					bitPos =
 							ScenarioDictionary.getInstance().getOffset(
 									t.getRelId(), i, t.getTid());
-					if (markers.get(bitPos))
+					if (!setSingleBit(bitPos))
 						hasSet = false;
-					markers.set(bitPos);
 				}
 				catch (Exception e) {
 					LoggerUtil.logException(e, log);
@@ -541,9 +628,72 @@ public class BitMarkerSet implements IMarkerSet {
 	public boolean add(int relId, int attrId, int tidId) {
 		int bitPos = ScenarioDictionary.getInstance().getOffset(relId, attrId, tidId);
 		
+		hash = -1;
+		return setSingleBit(bitPos);
+	}
+
+	/**
+	 * The bits of a tuple are in different (relation, attribute) segments,
+	 * but in increasing order, so appending to EWAH bitsets stays cheap.
+	 */
+	@Override
+	public void addTuple(int relId, int tidId) {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		int numAttr = dict.getTupleSize(relId);
+
+		hash = -1;
+		for (int i = 0; i < numAttr; i++)
+			setSingleBit(dict.getOffset(relId, i, tidId));
+	}
+
+	/**
+	 * The tids are sorted so that their bits are set in increasing order.
+	 * Runs of consecutive tids are set with a single range write.
+	 * 
+	 * @throws IllegalArgumentException if one of the tid ids is negative
+	 */
+	@Override
+	public void addTids(int relId, int attrId, int[] tidIds) {
+		int base = ScenarioDictionary.getInstance().getOffsetForRelAttr(
+				relId, attrId);
+		int[] sorted = tidIds.clone();
+
+		Arrays.sort(sorted);
+		// ids outside of the relation's tids would set bits in the segment of
+		// the previous or next attribute
+		if (sorted.length > 0 && sorted[0] < 0)
+			throw new IllegalArgumentException("invalid tid id <" + sorted[0]
+					+ "> for relation <" + relId + "> attribute <" + attrId + ">");
+		if (sorted.length > 0 && sorted[sorted.length - 1] 
+				>= ScenarioDictionary.getInstance().getTidCount(relId))
+			throw new IllegalArgumentException("invalid tid id <" 
+					+ sorted[sorted.length - 1] + "> for relation <" + relId 
+					+ "> attribute <" + attrId + ">");
+		for (int i = 0; i < sorted.length;) {
+			int j = i + 1;
+			while (j < sorted.length && sorted[j] <= sorted[j - 1] + 1)
+				j++;
+			if (j - i == 1)
+				markers.set(base + sorted[i]);
+			else
+				markers.setRange(base + sorted[i], base + sorted[j - 1] + 1);
+			i = j;
+		}
+		resetLazyFields();
+	}
+
+	@Override
+	public void addBitRange(int start, int end) {
+		markers.setRange(start, end);
+		resetLazyFields();
+	}
+
+	private boolean setSingleBit(int bitPos) {
 		if (markers.get(bitPos))
 			return false;
 		markers.set(bitPos);
+		if (size != -1)
+			size++;
 		return true;
 	}
 
@@ -0,0 +1,789 @@
+package org.vagabond.explanation.marker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.vagabond.util.LogProviderHolder;
+import org.vagabond.util.ewah.IBitSet;
+import org.vagabond.util.ewah.JavaUtilBitSet;
+
+/**
+ * Marker set that stores markers column-wise: one bitset of tid ids per
+ * (relation, attribute). Like {@link BitMarkerSet} tuple markers are expanded
+ * into the markers for all attributes of the tuple. Markers are iterated in
+ * relation, attribute, tid order.
+ *
+ * Grouping by relation and tid is cheap: {@link #getRelationView(int)} and
+ * {@link #getAttrTids(int, int)} return the stored columns without copying
+ * and {@link #getAttrMask(int, int)} returns the attributes of a tuple that
+ * are in the set as a bitset. Relation views are backed by this set and
+ * are read-only.
+ *
+ * @author lord_pretzel
+ *
+ */
+public class ColumnarMarkerSet implements IMarkerSet {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(
+			ColumnarMarkerSet.class);
+
+	private JavaUtilBitSet[][] cols;
+	/** cached number of markers or -1 if it has to be recounted */
+	private int size;
+	private MarkerSummary sum;
+	private int hash = -1;
+	/** relation id if this is a view on a single relation or -1 */
+	private final int viewRelId;
+
+	public ColumnarMarkerSet () {
+		cols = new JavaUtilBitSet[ScenarioDictionary.getInstance()
+				.getRelCount()][];
+		size = 0;
+		viewRelId = -1;
+	}
+
+	public ColumnarMarkerSet (Collection<? extends ISingleMarker> markers) {
+		this();
+		for(ISingleMarker m: markers)
+			add(m);
+	}
+
+	private ColumnarMarkerSet (ColumnarMarkerSet parent, int relId) {
+		cols = new JavaUtilBitSet[Math.max(parent.cols.length, relId + 1)][];
+		// a view of another relation's view stays empty
+		if (parent.viewRelId == -1)
+			cols[relId] = parent.getRelCols(relId);
+		else if (parent.viewRelId == relId)
+			cols[relId] = parent.cols[relId];
+		size = -1;
+		viewRelId = relId;
+	}
+
+	/**
+	 * @return read-only view on the markers of relation relId. Changes to
+	 *         this set are visible in the view.
+	 */
+	public ColumnarMarkerSet getRelationView (int relId) {
+		if (viewRelId == -1 && relId >= cols.length)
+			cols = Arrays.copyOf(cols, ScenarioDictionary.getInstance()
+					.getRelCount());
+		return new ColumnarMarkerSet(this, relId);
+	}
+
+	/**
+	 * @return ids of the relations that have at least one marker in this set
+	 */
+	public int[] getRelIds () {
+		int[] result = new int[cols.length];
+		int numRels = 0;
+
+		for(int i = 0; i < cols.length; i++)
+			if (hasRel(i))
+				result[numRels++] = i;
+
+		return Arrays.copyOf(result, numRels);
+	}
+
+	public boolean hasRel (int relId) {
+		if (relId >= cols.length || cols[relId] == null)
+			return false;
+		for(JavaUtilBitSet col: cols[relId])
+			if (col != null && !col.isEmpty())
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return the tid ids of the attribute value markers for (relId, attrId).
+	 *         The returned bitset is the one stored in this set and must not
+	 *         be modified. If there are no such markers a new empty bitset
+	 *         is returned.
+	 */
+	public IBitSet getAttrTids (int relId, int attrId) {
+		JavaUtilBitSet col = getCol(relId, attrId);
+
+		return col == null ? new JavaUtilBitSet() : col;
+	}
+
+	/**
+	 * @return bit i is set if the set contains the marker for attribute i of
+	 *         tuple tidId of relation relId
+	 */
+	public IBitSet getAttrMask (int relId, int tidId) {
+		JavaUtilBitSet mask = new JavaUtilBitSet();
+		JavaUtilBitSet[] rel;
+
+		if (relId >= cols.length || cols[relId] == null)
+			return mask;
+
+		rel = cols[relId];
+		for(int i = 0; i < rel.length; i++)
+			if (rel[i] != null && rel[i].get(tidId))
+				mask.set(i);
+
+		return mask;
+	}
+
+	/**
+	 * @return the tid ids of relation relId that have at least one marker in
+	 *         this set
+	 */
+	public IBitSet getTids (int relId) {
+		JavaUtilBitSet result = new JavaUtilBitSet();
+
+		if (relId >= cols.length || cols[relId] == null)
+			return result;
+		for(JavaUtilBitSet col: cols[relId])
+			if (col != null)
+				result.orInPlace(col);
+
+		return result;
+	}
+
+	/**
+	 * @return the tuple markers for the tuples of relation relId that have at
+	 *         least one marker in this set
+	 */
+	public List<ITupleMarker> getTupleMarkers (int relId) {
+		IBitSet tids = getTids(relId);
+		List<ITupleMarker> result = new ArrayList<ITupleMarker> (
+				tids.cardinality());
+
+		for(int tid: tids.getPositions())
+			result.add(MarkerFactory.newTupleMarker(relId, tid));
+
+		return result;
+	}
+
+	/**
+	 * @return the tuple markers for all tuples that have at least one marker
+	 *         in this set in relation, tid order
+	 */
+	public List<ITupleMarker> getTupleMarkers () {
+		List<ITupleMarker> result = new ArrayList<ITupleMarker> ();
+
+		for(int relId: getRelIds())
+			result.addAll(getTupleMarkers(relId));
+
+		return result;
+	}
+
+	private JavaUtilBitSet getCol (int relId, int attrId) {
+		if (relId >= cols.length || cols[relId] == null
+				|| attrId >= cols[relId].length)
+			return null;
+		return cols[relId][attrId];
+	}
+
+	private JavaUtilBitSet[] getRelCols (int relId) {
+		if (cols[relId] == null)
+			cols[relId] = new JavaUtilBitSet[ScenarioDictionary.getInstance()
+					.getTupleSize(relId)];
+		return cols[relId];
+	}
+
+	private JavaUtilBitSet getOrCreateCol (int relId, int attrId) {
+		JavaUtilBitSet[] rel;
+
+		checkWritable();
+		if (relId >= cols.length)
+			cols = Arrays.copyOf(cols, ScenarioDictionary.getInstance()
+					.getRelCount());
+		rel = getRelCols(relId);
+		if (rel[attrId] == null)
+			rel[attrId] = new JavaUtilBitSet();
+
+		return rel[attrId];
+	}
+
+	private void checkWritable () {
+		if (viewRelId != -1)
+			throw new UnsupportedOperationException("relation views are read-only");
+	}
+
+	private void resetLazyFields () {
+		sum = null;
+		hash = -1;
+		size = -1;
+	}
+
+	private boolean setBit (int relId, int attrId, int tidId) {
+		JavaUtilBitSet col = getOrCreateCol(relId, attrId);
+
+		if (col.get(tidId))
+			return false;
+		col.set(tidId);
+		sum = null;
+		hash = -1;
+		if (size != -1)
+			size++;
+		return true;
+	}
+
+	private boolean clearBit (int relId, int attrId, int tidId) {
+		JavaUtilBitSet col = getCol(relId, attrId);
+
+		checkWritable();
+		if (col == null || !col.get(tidId))
+			return false;
+		col.clear(tidId);
+		sum = null;
+		hash = -1;
+		if (size != -1)
+			size--;
+		return true;
+	}
+
+	private boolean hasBit (int relId, int attrId, int tidId) {
+		JavaUtilBitSet col = getCol(relId, attrId);
+
+		return col != null && col.get(tidId);
+	}
+
+	private int cardinality () {
+		if (size == -1) {
+			int count = 0;
+
+			for(JavaUtilBitSet[] rel: cols)
+				if (rel != null)
+					for(JavaUtilBitSet col: rel)
+						if (col != null)
+							count += col.cardinality();
+
+			// views cannot cache their size, because the parent may change
+			if (viewRelId != -1)
+				return count;
+			size = count;
+			MarkerSetUtil.recordSizeRecount();
+		}
+		return size;
+	}
+
+	@Override
+	public boolean equals (Object other) {
+		if (other == null)
+			return false;
+
+		if (other == this)
+			return true;
+
+		if (other instanceof ColumnarMarkerSet) {
+			ColumnarMarkerSet o = (ColumnarMarkerSet) other;
+			int numRels = Math.max(cols.length, o.cols.length);
+
+			if (getSize() != o.getSize())
+				return false;
+
+			for(int i = 0; i < numRels; i++) {
+				int numAttrs = ScenarioDictionary.getInstance().getTupleSize(i);
+
+				for(int j = 0; j < numAttrs; j++)
+					if (!getAttrTids(i, j).equals(o.getAttrTids(i, j)))
+						return false;
+			}
+
+			return true;
+		}
+
+		if (other instanceof IMarkerSet) {
+			IMarkerSet o = (IMarkerSet) other;
+
+			if (getSize() != o.getSize())
+				return false;
+			return getElems().equals(o.getElems());
+		}
+
+		return false;
+	}
+
+	@Override
+	public int hashCode () {
+		if (hash == -1 || viewRelId != -1) {
+			int h = 0;
+
+			for(ISingleMarker m: this)
+				h += m.hashCode();
+			if (viewRelId != -1)
+				return h;
+			hash = h;
+		}
+		return hash;
+	}
+
+	@Override
+	public int getSize() {
+		return cardinality();
+	}
+
+	@Override
+	public int getNumElem() {
+		return cardinality();
+	}
+
+	@Override
+	public Set<ISingleMarker> getElems() {
+		Set<ISingleMarker> result = new HashSet<ISingleMarker> ();
+
+		for(ISingleMarker m: this)
+			result.add(m);
+
+		return result;
+	}
+
+	@Override
+	public List<ISingleMarker> getElemList() {
+		List<ISingleMarker> result = new ArrayList<ISingleMarker> (size());
+
+		for(ISingleMarker m: this)
+			result.add(m);
+
+		return result;
+	}
+
+	@Override
+	public IMarkerSet union(IMarkerSet other) {
+		checkWritable();
+		if (other instanceof ColumnarMarkerSet) {
+			ColumnarMarkerSet o = (ColumnarMarkerSet) other;
+
+			for(int i = 0; i < o.cols.length; i++) {
+				if (o.cols[i] == null)
+					continue;
+				for(int j = 0; j < o.cols[i].length; j++)
+					if (o.cols[i][j] != null && !o.cols[i][j].isEmpty())
+						getOrCreateCol(i, j).orInPlace(o.cols[i][j]);
+			}
+			resetLazyFields();
+		}
+		else
+			for(ISingleMarker m: other)
+				add(m);
+
+		return this;
+	}
+
+	@Override
+	public IMarkerSet intersect(IMarkerSet other) {
+		checkWritable();
+		if (other instanceof ColumnarMarkerSet) {
+			ColumnarMarkerSet o = (ColumnarMarkerSet) other;
+
+			for(int i = 0; i < cols.length; i++) {
+				if (cols[i] == null)
+					continue;
+				for(int j = 0; j < cols[i].length; j++) {
+					JavaUtilBitSet oCol = o.getCol(i, j);
+
+					if (cols[i][j] == null)
+						continue;
+					if (oCol == null)
+						cols[i][j].clear();
+					else
+						cols[i][j].andInPlace(oCol);
+				}
+			}
+			resetLazyFields();
+		}
+		else
+			retainAll(other);
+
+		return this;
+	}
+
+	@Override
+	public IMarkerSet diff(IMarkerSet other) {
+		checkWritable();
+		if (other instanceof ColumnarMarkerSet) {
+			ColumnarMarkerSet o = (ColumnarMarkerSet) other;
+
+			for(int i = 0; i < cols.length; i++) {
+				if (cols[i] == null)
+					continue;
+				for(int j = 0; j < cols[i].length; j++) {
+					JavaUtilBitSet oCol = o.getCol(i, j);
+
+					if (cols[i][j] != null && oCol != null)
+						cols[i][j].andNot((java.util.BitSet) oCol);
+				}
+			}
+			resetLazyFields();
+		}
+		else
+			removeAll(other);
+
+		return this;
+	}
+
+	@Override
+	public IMarkerSet unionAll(Collection<? extends IMarkerSet> others) {
+		return MarkerSetUtil.unionAll(this, others);
+	}
+
+	@Override
+	public int unionSize(Collection<? extends IMarkerSet> others) {
+		return MarkerSetUtil.unionSize(this, others);
+	}
+
+	@Override
+	public boolean add(ISingleMarker marker) {
+		if (marker instanceof IAttributeValueMarker)
+			return setBit(marker.getRelId(),
+					((IAttributeValueMarker) marker).getAttrId(),
+					marker.getTidId());
+
+		if (marker instanceof ITupleMarker) {
+			int relId = marker.getRelId();
+			int numAttr = ScenarioDictionary.getInstance().getTupleSize(relId);
+			boolean changed = false;
+
+			for(int i = 0; i < numAttr; i++)
+				changed |= setBit(relId, i, marker.getTidId());
+
+			return changed;
+		}
+
+		return false;
+	}
+
+	@Override
+	public boolean add(int relId, int attrId, int tidId) {
+		return setBit(relId, attrId, tidId);
+	}
+
+	@Override
+	public void addTuple(int relId, int tidId) {
+		int numAttr = ScenarioDictionary.getInstance().getTupleSize(relId);
+
+		for(int i = 0; i < numAttr; i++)
+			setBit(relId, i, tidId);
+	}
+
+	@Override
+	public void addTids(int relId, int attrId, int[] tidIds) {
+		JavaUtilBitSet col = getOrCreateCol(relId, attrId);
+
+		for(int tidId: tidIds)
+			col.set(tidId);
+		resetLazyFields();
+	}
+
+	/**
+	 * Each (relation, attribute) segment of the bit range is a consecutive
+	 * range of tid ids in one column.
+	 */
+	@Override
+	public void addBitRange(int start, int end) {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		int pos = start;
+
+		while (pos < end) {
+			int seg = dict.getSegmentForBitPos(pos);
+			int segStart, segEnd;
+
+			if (seg == -1)
+				break;
+			segStart = dict.getSegmentStart(seg);
+			segEnd = Math.min(end, dict.getSegmentEnd(seg));
+			getOrCreateCol(dict.getSegmentRelId(seg), dict.getSegmentAttrId(seg))
+					.setRange(pos - segStart, segEnd - segStart);
+			pos = segEnd;
+		}
+		resetLazyFields();
+	}
+
+	@Override
+	public boolean contains(String relName, String tid) throws Exception {
+		return contains(MarkerFactory.newTupleMarker(relName, tid));
+	}
+
+	@Override
+	public String toString () {
+		StringBuffer result = new StringBuffer();
+
+		result.append("MarkerSet: {");
+		for(ISingleMarker m: this)
+			result.append(m.toString() + ",");
+		if (!isEmpty())
+			result.deleteCharAt(result.length() - 1);
+		result.append("}");
+
+		return result.toString();
+	}
+
+	@Override
+	public String toUserString() {
+		StringBuffer result = new StringBuffer();
+		Map<String,IMarkerSet> markerPerRel = MarkerSetUtil.partitionOnRelation(this);
+
+		for(String rel: markerPerRel.keySet()) {
+			result.append(" relation " + rel + " (");
+			for(ISingleMarker marker: markerPerRel.get(rel)) {
+				result.append(marker.toUserStringNoRel());
+				result.append(", ");
+			}
+			result.delete(result.length() - 2, result.length());
+			result.append(')');
+		}
+
+		return result.toString();
+	}
+
+	@Override
+	public IMarkerSet cloneSet() {
+		ColumnarMarkerSet clone = new ColumnarMarkerSet();
+
+		clone.cols = new JavaUtilBitSet[cols.length][];
+		for(int i = 0; i < cols.length; i++) {
+			if (cols[i] == null)
+				continue;
+			clone.cols[i] = new JavaUtilBitSet[cols[i].length];
+			for(int j = 0; j < cols[i].length; j++)
+				if (cols[i][j] != null)
+					clone.cols[i][j] = (JavaUtilBitSet) cols[i][j].clone();
+		}
+		clone.size = viewRelId == -1 ? size : -1;
+		clone.sum = sum;
+
+		return clone;
+	}
+
+	@Override
+	public MarkerSummary getSummary() {
+		if (sum == null || viewRelId != -1) {
+			MarkerSummary result = MarkerFactory.newMarkerSummary();
+
+			for(int i = 0; i < cols.length; i++) {
+				if (cols[i] == null)
+					continue;
+				for(int j = 0; j < cols[i].length; j++)
+					if (cols[i][j] != null && !cols[i][j].isEmpty())
+						result.add(MarkerFactory.newSchemaMarker(i, j));
+			}
+			if (viewRelId != -1)
+				return result;
+			sum = result;
+		}
+		return sum;
+	}
+
+	/**
+	 * Whole columns are copied for the attributes in sum.
+	 */
+	@Override
+	public IMarkerSet subset(MarkerSummary sum) {
+		ColumnarMarkerSet result = new ColumnarMarkerSet();
+
+		for(ISchemaMarker m: sum) {
+			JavaUtilBitSet col = getCol(m.getRelId(), m.getAttrId());
+
+			if (col != null && !col.isEmpty())
+				result.getOrCreateCol(m.getRelId(), m.getAttrId()).orInPlace(col);
+		}
+		result.resetLazyFields();
+
+		return result;
+	}
+
+	@Override
+	public int size() {
+		return cardinality();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		if (size != -1)
+			return size == 0;
+		for(int i = 0; i < cols.length; i++)
+			if (hasRel(i))
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (o instanceof IAttributeValueMarker) {
+			IAttributeValueMarker m = (IAttributeValueMarker) o;
+			return hasBit(m.getRelId(), m.getAttrId(), m.getTidId());
+		}
+
+		if (o instanceof ITupleMarker) {
+			ITupleMarker m = (ITupleMarker) o;
+			int numAttr = ScenarioDictionary.getInstance().getTupleSize(
+					m.getRelId());
+
+			for(int i = 0; i < numAttr; i++)
+				if (!hasBit(m.getRelId(), i, m.getTidId()))
+					return false;
+			return true;
+		}
+
+		return false;
+	}
+
+	@Override
+	public Iterator<ISingleMarker> iterator() {
+		return new Iterator<ISingleMarker> () {
+
+			private int rel = 0;
+			private int attr = 0;
+			private int tid = -1;
+			private int lastRel, lastAttr, lastTid = -1;
+
+			{
+				advance();
+			}
+
+			private void advance () {
+				tid++;
+				for(; rel < cols.length; rel++, attr = 0, tid = 0) {
+					if (cols[rel] == null)
+						continue;
+					for(; attr < cols[rel].length; attr++, tid = 0) {
+						if (cols[rel][attr] == null)
+							continue;
+						tid = cols[rel][attr].nextSetBit(tid);
+						if (tid >= 0)
+							return;
+					}
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return rel < cols.length;
+			}
+
+			@Override
+			public ISingleMarker next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				lastRel = rel;
+				lastAttr = attr;
+				lastTid = tid;
+				advance();
+				return MarkerFactory.newAttrMarker(lastRel, lastTid, lastAttr);
+			}
+
+			@Override
+			public void remove() {
+				if (lastTid == -1)
+					throw new IllegalStateException();
+				clearBit(lastRel, lastAttr, lastTid);
+				lastTid = -1;
+			}
+		};
+	}
+
+	@Override
+	public Object[] toArray() {
+		return getElemList().toArray();
+	}
+
+	@Override
+	public <T> T[] toArray(T[] a) {
+		return getElemList().toArray(a);
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (o instanceof IAttributeValueMarker) {
+			IAttributeValueMarker m = (IAttributeValueMarker) o;
+			return clearBit(m.getRelId(), m.getAttrId(), m.getTidId());
+		}
+
+		if (o instanceof ITupleMarker) {
+			ITupleMarker m = (ITupleMarker) o;
+			int numAttr = ScenarioDictionary.getInstance().getTupleSize(
+					m.getRelId());
+			boolean changed = false;
+
+			for(int i = 0; i < numAttr; i++)
+				changed |= clearBit(m.getRelId(), i, m.getTidId());
+			return changed;
+		}
+
+		return false;
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		for(Object o: c)
+			if (!contains(o))
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends ISingleMarker> c) {
+		int oldSize = cardinality();
+
+		if (c instanceof IMarkerSet)
+			union((IMarkerSet) c);
+		else
+			for(ISingleMarker m: c)
+				add(m);
+
+		return oldSize != cardinality();
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		Iterator<ISingleMarker> iter = iterator();
+		boolean changed = false;
+
+		if (c instanceof ColumnarMarkerSet) {
+			int oldSize = cardinality();
+			intersect((ColumnarMarkerSet) c);
+			return oldSize != cardinality();
+		}
+
+		while(iter.hasNext()) {
+			ISingleMarker m = iter.next();
+
+			if (!c.contains(m) && !c.contains(MarkerFactory.newTupleMarker(
+					m.getRelId(), m.getTidId()))) {
+				iter.remove();
+				changed = true;
+			}
+		}
+
+		return changed;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		boolean changed = false;
+
+		if (c instanceof ColumnarMarkerSet) {
+			int oldSize = cardinality();
+			diff((ColumnarMarkerSet) c);
+			return oldSize != cardinality();
+		}
+
+		for(Object o: c)
+			changed |= remove(o);
+
+		return changed;
+	}
+
+	@Override
+	public void clear() {
+		checkWritable();
+		for(JavaUtilBitSet[] rel: cols)
+			if (rel != null)
+				for(JavaUtilBitSet col: rel)
+					if (col != null)
+						col.clear();
+		sum = null;
+		hash = -1;
+		size = 0;
+	}
+}
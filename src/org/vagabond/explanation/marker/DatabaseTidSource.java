@@ -0,0 +1,48 @@
+package org.vagabond.explanation.marker;
+
+import java.sql.ResultSet;
+
+import org.apache.log4j.Logger;
+import org.vagabond.util.CompactStringIdMap;
+import org.vagabond.util.ConnectionManager;
+import org.vagabond.util.LogProviderHolder;
+
+/**
+ * Reads the tids of a relation from the database. Default tid source of
+ * {@link ScenarioDictionary}.
+ * 
+ * @author lord_pretzel
+ *
+ */
+public class DatabaseTidSource implements ITidSource {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(DatabaseTidSource.class);
+	
+	private static DatabaseTidSource instance = new DatabaseTidSource();
+	
+	private DatabaseTidSource () {
+	}
+	
+	public static DatabaseTidSource getInstance () {
+		return instance;
+	}
+	
+	@Override
+	public void addTids (String schemaPlusRelName, CompactStringIdMap tids)
+			throws Exception {
+		ResultSet rs;
+		String query = "SELECT tid FROM " + schemaPlusRelName;
+
+		if (log.isDebugEnabled()) {log.debug("get tids for <" + schemaPlusRelName + "> using query:\n" + query);};
+
+		rs = ConnectionManager.getInstance().execQuery(query);
+		try {
+			while(rs.next())
+				tids.put(rs.getString("tid"));
+		}
+		finally {
+			ConnectionManager.getInstance().closeRs(rs);
+		}
+	}
+
+}
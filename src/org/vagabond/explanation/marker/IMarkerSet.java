@@ -1,5 +1,6 @@
 package org.vagabond.explanation.marker;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -12,8 +13,33 @@ public interface IMarkerSet extends Set<ISingleMarker> {
 	public IMarkerSet union (IMarkerSet other);
 	public IMarkerSet intersect (IMarkerSet other);
 	public IMarkerSet diff (IMarkerSet other);
+	/**
+	 * Union with all sets in others at once. Like {@link #union(IMarkerSet)}
+	 * the result has to be taken from the return value.
+	 */
+	public IMarkerSet unionAll (Collection<? extends IMarkerSet> others);
+	/**
+	 * @return size of the union of this set and others without modifying this
+	 *         set
+	 */
+	public int unionSize (Collection<? extends IMarkerSet> others);
 	public boolean add (ISingleMarker marker);
 	public boolean add (int relId, int attrId, int tidId);
+	/**
+	 * Add attribute value markers for all attributes of the tuple tidId of
+	 * relation relId.
+	 */
+	public void addTuple (int relId, int tidId);
+	/**
+	 * Add attribute value markers (relId, attrId, tid) for each tid id in
+	 * tidIds.
+	 */
+	public void addTids (int relId, int attrId, int[] tidIds);
+	/**
+	 * Add the attribute value markers for the bit positions in [start, end)
+	 * as assigned by {@link ScenarioDictionary#getOffset(int, int, int)}.
+	 */
+	public void addBitRange (int start, int end);
 	public boolean contains (String relName, String tid) throws Exception;
 	public String toUserString();
 	public IMarkerSet cloneSet();
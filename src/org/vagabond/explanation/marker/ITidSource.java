@@ -0,0 +1,22 @@
+package org.vagabond.explanation.marker;
+
+import org.vagabond.util.CompactStringIdMap;
+
+/**
+ * Provides the tids of the relations of a mapping scenario to
+ * {@link ScenarioDictionary}. Provenance backends that do not read the data
+ * from the database register themselves as the tid source with 
+ * {@link ScenarioDictionary#setTidSource(ITidSource)}.
+ * 
+ * @author lord_pretzel
+ *
+ */
+public interface ITidSource {
+
+	/**
+	 * Add the tids of a relation (e.g., <code>source.person</code>) to tids.
+	 */
+	public void addTids (String schemaPlusRelName, CompactStringIdMap tids)
+			throws Exception;
+
+}
@@ -9,13 +9,24 @@ import org.vagabond.util.CollectionUtils;
 import org.vagabond.util.LogProviderHolder;
 import org.vagabond.util.LoggerUtil;
 import org.vagabond.util.Pair;
+import org.vagabond.util.ewah.IBitSet.BitsetType;
 
 public class MarkerFactory {
 
 	static Logger log = LogProviderHolder.getInstance().getLogger(MarkerFactory.class);
 	
+	/**
+	 * Implementations that are returned by {@link #newMarkerSet()}.
+	 */
+	public enum MarkerSetType {
+		MarkerSet,
+		PackedMarkerSet
+	}
+	
 	private static MarkerFactory instance = new MarkerFactory();
 	
+	private static MarkerSetType markerSetType = MarkerSetType.MarkerSet;
+	
 	private static ArrayList<ArrayList<ISchemaMarker>> schemaMConsts;
 	
 	static {
@@ -26,8 +37,28 @@ public class MarkerFactory {
 		
 	}
 	
+	public static MarkerSetType getMarkerSetType () {
+		return markerSetType;
+	}
+	
+	/**
+	 * Set the implementation used by the newMarkerSet methods. 
+	 */
+	public static void setMarkerSetType (MarkerSetType type) {
+		markerSetType = type;
+	}
+	
 	public static IMarkerSet newMarkerSet () {
-		return new MarkerSet();
+		switch(markerSetType) {
+		case PackedMarkerSet:
+			return new PackedMarkerSet();
+		default:
+			return new MarkerSet();
+		}
+	}
+	
+	public static IMarkerSet newPackedMarkerSet () {
+		return new PackedMarkerSet();
 	}
 	
 	
@@ -35,10 +66,14 @@ public class MarkerFactory {
 		return new BitMarkerSet();
 	}
 	
+	public static IMarkerSet newBitMarkerSet(BitsetType type){
+		return new BitMarkerSet(type);
+	}
+	
 	public static IMarkerSet newMarkerSet (ISingleMarker ... markers) {
-		 MarkerSet result;
+		 IMarkerSet result;
 		 
-		 result = new MarkerSet();
+		 result = newMarkerSet();
 		 
 		 for (ISingleMarker marker: markers) {
 			 result.add(marker);
@@ -57,9 +92,9 @@ public class MarkerFactory {
 	}
 	
 	public static IMarkerSet newMarkerSet (Collection<ISingleMarker> markers) {
-		MarkerSet result;
+		IMarkerSet result;
 		
-		result = new MarkerSet();
+		result = newMarkerSet();
 		
 		for (ISingleMarker marker: markers)
 			result.add(marker);
@@ -76,6 +111,15 @@ public class MarkerFactory {
 		return result;
 	}
 	
+	public static ColumnarMarkerSet newColumnarMarkerSet () {
+		return new ColumnarMarkerSet();
+	}
+	
+	public static ColumnarMarkerSet newColumnarMarkerSet (
+			Collection<? extends ISingleMarker> markers) {
+		return new ColumnarMarkerSet(markers);
+	}
+	
 	public static IAttributeValueMarker newAttrMarker 
 			(String relName, String tid, String attrName) throws Exception {
 		return new AttrValueMarker(relName, tid, attrName);
@@ -127,7 +171,7 @@ public class MarkerFactory {
 		return new TupleMarker(values.getKey(), values.getValue());
 	}
 
-	public static ISchemaMarker newSchemaMarker (int relId, int attrId) {
+	public static synchronized ISchemaMarker newSchemaMarker (int relId, int attrId) {
 		ArrayList<ISchemaMarker> attrs;
 		ISchemaMarker result;
 		
@@ -186,9 +230,8 @@ public class MarkerFactory {
 		
 		result = new MarkerSummary();
 		
-		for (ISingleMarker marker: set) {
-			result.addAll(newSchemaMarker(marker));
-		}
+		for (ISingleMarker marker: set)
+			result.addMarker(marker);
 		
 		return result;
 	}
@@ -18,6 +18,8 @@ public class MarkerSet implements IMarkerSet {
 	protected Set<ISingleMarker> markers;
 	private MarkerSummary sum;
 	private int hash = -1;
+	/** cached sum of the marker sizes or -1 if it has to be recounted */
+	private int size = -1;
 	
 	public MarkerSet () {
 		markers = new HashSet<ISingleMarker> ();
@@ -50,10 +52,12 @@ public class MarkerSet implements IMarkerSet {
 	
 	@Override
 	public int getSize() {
-		int size = 0;
-		
-		for (ISingleMarker marker: markers)
-			size += marker.getSize();
+		if (size == -1) {
+			size = 0;
+			for (ISingleMarker marker: markers)
+				size += marker.getSize();
+			MarkerSetUtil.recordSizeRecount();
+		}
 		
 		return size;
 	}
@@ -78,13 +82,29 @@ public class MarkerSet implements IMarkerSet {
 		if (other.getElems() != null)
 			this.markers.addAll(other.getElems());
 		sum = null;
+		hash = -1;
+		size = -1;
 		return this;
 	}
 
+	@Override
+	public IMarkerSet unionAll(Collection<? extends IMarkerSet> others) {
+		return MarkerSetUtil.unionAll(this, others);
+	}
+	
+	@Override
+	public int unionSize(Collection<? extends IMarkerSet> others) {
+		return MarkerSetUtil.unionSize(this, others);
+	}
+
 	@Override
 	public boolean add(ISingleMarker marker) {
 		hash = -1;
-		return markers.add(marker);
+		if (!markers.add(marker))
+			return false;
+		if (size != -1)
+			size += marker.getSize();
+		return true;
 	}
 
 	@Override
@@ -124,6 +144,7 @@ public class MarkerSet implements IMarkerSet {
 	public boolean addAll(Collection<? extends ISingleMarker> arg0) {
 		sum = null;
 		hash = -1;
+		size = -1;
 		return markers.addAll(arg0);
 	}
 
@@ -131,6 +152,8 @@ public class MarkerSet implements IMarkerSet {
 	public void clear() {
 		markers.clear();
 		sum = null;
+		hash = -1;
+		size = 0;
 	}
 
 	@Override
@@ -150,25 +173,54 @@ public class MarkerSet implements IMarkerSet {
 
 	@Override
 	public Iterator<ISingleMarker> iterator() {
-		return markers.iterator();
+		final Iterator<ISingleMarker> it = markers.iterator();
+		
+		return new Iterator<ISingleMarker> () {
+
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public ISingleMarker next() {
+				return it.next();
+			}
+
+			@Override
+			public void remove() {
+				it.remove();
+				sum = null;
+				hash = -1;
+				size = -1;
+			}
+		};
 	}
 
 	@Override
 	public boolean remove(Object arg0) {
 		sum = null;
 		hash = -1;
-		return markers.remove(arg0); //TODO check semantics
+		if (!markers.remove(arg0)) //TODO check semantics
+			return false;
+		if (size != -1)
+			size -= ((ISingleMarker) arg0).getSize();
+		return true;
 	}
 
 	@Override
 	public boolean removeAll(Collection<?> arg0) {
 		sum = null;
 		hash = -1;
+		size = -1;
 		return markers.removeAll(arg0);
 	}
 
 	@Override
 	public boolean retainAll(Collection<?> arg0) {
+		sum = null;
+		hash = -1;
+		size = -1;
 		return markers.retainAll(arg0);
 	}
 
@@ -207,6 +259,7 @@ public class MarkerSet implements IMarkerSet {
 		
 		if (sum != null)
 			clone.sum = sum;
+		clone.size = size;
 		
 		return clone;
 	}
@@ -242,5 +295,20 @@ public class MarkerSet implements IMarkerSet {
 	public boolean add(int relId, int attrId, int tidId) {
 		return add(MarkerFactory.newAttrMarker(relId, tidId, attrId));
 	}
+
+	@Override
+	public void addTuple(int relId, int tidId) {
+		MarkerSetUtil.addTuple(this, relId, tidId);
+	}
+
+	@Override
+	public void addTids(int relId, int attrId, int[] tidIds) {
+		MarkerSetUtil.addTids(this, relId, attrId, tidIds);
+	}
+
+	@Override
+	public void addBitRange(int start, int end) {
+		MarkerSetUtil.addBitRange(this, start, end);
+	}
 	
 }
@@ -20,6 +20,13 @@ public class MarkerSetFlattenedView extends MarkerSet {
 
 	static Logger log = LogProviderHolder.getInstance().getLogger(MarkerSetFlattenedView.class);
 	
+	/** number of attribute markers in the att bit masks of a marker query */
+	private static final String BIT_COUNT_EXPR = 
+			"COALESCE(SUM(length(replace(att::text, '0', ''))), 0)";
+	private static final String EMPTY_QUERY = 
+			"SELECT NULL::text AS rel, NULL::text AS tid, NULL::bit varying AS att " +
+			"WHERE false";
+	
 	private MarkerSummary sum;
 	private String query;
 	private String relName;  // NULL if not materialized
@@ -51,39 +58,96 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		return relName;
 	}
 	
-	public void materialize() {
-		MaterializedViewsBroker instance = MaterializedViewsBroker.getInstance();
-		compose(instance.getViewHandler(this));
+	/**
+	 * @return query returning the markers of this view. Materialized views 
+	 * 		read from their table.
+	 */
+	public String getSelectQuery() {
+		if (isMaterialized())
+			return "SELECT rel, tid, att FROM " + relName;
+		return query;
+	}
+	
+	private static String composeQuery (String left, String op, String right) {
+		return "(" + left + ") " + op + " (" + right + ")";
+	}
+	
+	/**
+	 * @return query returning the markers of other (the query of a view or a
+	 * 		VALUES list) or null if other is empty
+	 */
+	private String getQueryForSet (IMarkerSet other) {
+		StringBuffer values;
+		
+		if (other instanceof MarkerSetFlattenedView)
+			return ((MarkerSetFlattenedView) other).query;
+		if (other.isEmpty())
+			return null;
+		
+		values = new StringBuffer();
+		for (ISingleMarker marker : other)
+			values.append(singleMarkerQueryString(marker) + ",");
+		values.deleteCharAt(values.length() - 1);
+		
+		return "SELECT * FROM (VALUES " + values + ") AS v(rel, tid, att)";
+	}
+	
+	/**
+	 * Called when the query of a view that is not materialized changes.
+	 */
+	private void resetCounts() {
+		sum = null;
+		if (!isMaterialized()) {
+			size = -1;
+			numElem = -1;
+		}
 	}
 	
-	public void compose(int viewId) {
-		relName = "errmarkers" + viewId;
-		String qDrop = "DROP TABLE IF EXISTS " + relName;
-		String qCreate = "CREATE TABLE " + relName + " AS " + query;
+	/**
+	 * Store the result of the query in a table managed by the
+	 * {@link MaterializedViewsBroker}. Views with the same query share a table.
+	 */
+	public void materialize() {
+		if (isMaterialized())
+			return;
 		
 		try {
-			ConnectionManager.getInstance().execUpdate(qDrop);
-			ConnectionManager.getInstance().execUpdate(qCreate);
+			relName = MaterializedViewsBroker.getInstance().acquire(this);
 		} catch (Exception e) {
-			;
+			LoggerUtil.logException(e, log);
+			return;
 		}
 
 		// Update size and numElem
 		size = getMaterializedSize();
-		numElem = getMaterializedSize();
+		numElem = getQueryResultCount(getSelectQuery());
 	}
 	
 	public void decompose() {
+		String table = relName;
+		
 		query = null;
 		size = -1;
 		numElem = -1;
-		String qDrop = "DROP TABLE IF EXISTS " + relName;
+		relName = null;
+		if (table != null)
+			MaterializedViewsBroker.getInstance().release(this, table);
+	}
+	
+	/**
+	 * Called before the table of a materialized view is modified. The view
+	 * gets its own table if the table is shared with other views.
+	 */
+	private void prepareTableUpdate() {
 		try {
-			ConnectionManager.getInstance().execUpdate(qDrop);
+			relName = MaterializedViewsBroker.getInstance().prepareUpdate(this, relName);
 		} catch (Exception e) {
-			;
+			LoggerUtil.logException(e, log);
 		}
-		relName = null;
+	}
+	
+	private void tableRowsChanged(int delta) {
+		MaterializedViewsBroker.getInstance().updateNumRows(relName, delta);
 	}
 	
 	@Override
@@ -105,11 +169,7 @@ public class MarkerSetFlattenedView extends MarkerSet {
 			if (this.getSize() != ov.getSize())
 				return false;
 			
-			if (!isMaterialized()) materialize();
-
-			if (!ov.isMaterialized()) ov.materialize();
-
-			return markerSetsEqualOnDBSide(relName, ov.getRelName());
+			return markerSetsEqualOnDBSide(getSelectQuery(), ov.getSelectQuery());
 			
 		}
 		
@@ -121,44 +181,29 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		return markers.equals(o);
 	}
 	
-	private boolean markerSetsEqualOnDBSide(String relName1, String relName2) {
-		String query1 = "SELECT COUNT(*) FROM ( "+
-						" SELECT * FROM " + relName1 +
-						" EXCEPT " +
-						" SELECT * FROM " + relName2 +
-						" ) AS A";
-		String query2 = "SELECT COUNT(*) FROM ( "+
-						" SELECT * FROM " + relName2 +
-						" EXCEPT " +
-						" SELECT * FROM " + relName1 +
-						" ) AS A";
-
-		int size1 = -1;
-		int size2 = -1;;
+	/**
+	 * Compare the results of two marker queries with a single query without
+	 * materializing them.
+	 */
+	private boolean markerSetsEqualOnDBSide(String query1, String query2) {
+		String q = "SELECT NOT EXISTS (" + composeQuery(query1, "EXCEPT", query2) 
+				+ ") AND NOT EXISTS (" + composeQuery(query2, "EXCEPT", query1) 
+				+ ")";
+		boolean result = false;
 		ResultSet rs;
 
 		if (log.isDebugEnabled()) {log.debug("Check if markers for query:\n" + query1 + "\n and query: \n" + query2 +"\n are the same.");};
 
 		try {
-			rs = ConnectionManager.getInstance().execQuery(query1);
-			while(rs.next()) {
-				size1 = rs.getInt(1);
-			}
-			
-			if (size1 != 0)
-				return false;
-
-			rs = ConnectionManager.getInstance().execQuery(query2);
-			while(rs.next()) {
-				size2 = rs.getInt(1);
-			}
-
+			rs = ConnectionManager.getInstance().execQuery(q);
+			if (rs.next())
+				result = rs.getBoolean(1);
 			ConnectionManager.getInstance().closeRs(rs);
 		} catch (Exception e) {
-			;
+			LoggerUtil.logException(e, log);
 		}
 		
-		return size2==0;
+		return result;
 	}
 	
 	public int getMaterializedSize() {
@@ -176,47 +221,48 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		
 	}
 	
+	/**
+	 * The size is computed by the database and cached until the query of the
+	 * view changes.
+	 */
 	@Override
 	public int getSize() {
-		if (isMaterialized())
+		if (isMaterialized() || size != -1)
 			return size;
 		
 		if (log.isDebugEnabled()) {log.debug("Get the size of markers for query:\n" + query);};
 
-		size = getQueryResultCount(query);
+		size = querySize(query);
 		
 		return size;
 	}
 	
+	/**
+	 * @return number of attribute markers returned by q. The bits are counted
+	 * 		by the database.
+	 */
 	private int querySize(String q) {
 		ResultSet rs;
+		String sizeQuery = "SELECT " + BIT_COUNT_EXPR + " AS num " + 
+				"FROM (" + q + ") AS A";
 		int s = 0;
 		try {
-			rs = ConnectionManager.getInstance().execQuery(q);
-
-			while(rs.next()) {
-				String attBits = rs.getString(3);
-
-				for (int i=0; i < attBits.length(); i++) {
-					if (attBits.charAt(i) == '1') {
-						s ++;
-					}
-				}
-
-			}
-
+			rs = ConnectionManager.getInstance().execQuery(sizeQuery);
+			if (rs.next())
+				s = rs.getInt(1);
 			ConnectionManager.getInstance().closeRs(rs);
 		} catch (Exception e) {
-			;
+			LoggerUtil.logException(e, log);
 		}
 		return s;
 	}
 
 	@Override
 	public int getNumElem() {
-		if (isMaterialized()) return numElem;
+		if (isMaterialized() || numElem != -1) return numElem;
 		
-		return getQueryResultCount(query);
+		numElem = getQueryResultCount(query);
+		return numElem;
 	}
 	
 	public int getQueryResultCount (String q) {
@@ -280,20 +326,74 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		Set<ISingleMarker> markers = getElems();
 		return new ArrayList<ISingleMarker> (markers);
 	}
+	
+	/**
+	 * Read the markers of this view into a new {@link BitMarkerSet} in a 
+	 * single streaming pass over the query result without creating marker
+	 * objects.
+	 */
+	public BitMarkerSet toBitMarkerSet() {
+		BitMarkerSet result = new BitMarkerSet();
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		String lastRel = null;
+		int relId = -1;
+		String q = getSelectQuery();
+		ResultSet rs;
+		
+		if (log.isDebugEnabled()) {log.debug("Read markers for query:\n" + q);};
+
+		try {
+			rs = ConnectionManager.getInstance().execQueryStreaming(q);
+
+			try {
+				while(rs.next()) {
+					String rel = rs.getString(1);
+					String attBits = rs.getString(3);
+					int tidId;
+					
+					if (!rel.equals(lastRel)) {
+						relId = dict.getRelId(rel);
+						lastRel = rel;
+					}
+					tidId = dict.getTidInt(rs.getString(2), relId);
+					if (tidId == -1)
+						throw new Exception ("Did not find tid <" + rs.getString(2)
+								+ "> for relation <" + rel + ">");
+					
+					for (int i=0; i < attBits.length(); i++)
+						if (attBits.charAt(i) == '1')
+							result.add(relId, i, tidId);
+				}
+			}
+			finally {
+				ConnectionManager.getInstance().closeRs(rs);
+			}
+		} catch (Exception e) {
+			LoggerUtil.logException(e, log);
+		}
+		
+		return result;
+	}
 
+	/**
+	 * The union is computed by the database. Returns a new view.
+	 */
 	@Override
 	public IMarkerSet union(IMarkerSet other) {
-		if (other instanceof MarkerSetFlattenedView) {
-			MarkerSetFlattenedView ov = (MarkerSetFlattenedView)other;
-			return new MarkerSetFlattenedView(query + " UNION " + ov.query);
-		}
+		String otherQuery = getQueryForSet(other);
 		
-		String newQuery = query + " UNION VALUES ";
-		for (ISingleMarker marker : other) {
-			newQuery +=  addSingleMarkerQueryString(marker)+",";
-		}
-		newQuery = removeLastComma(newQuery); // remove the last comma
-		return new MarkerSetFlattenedView(newQuery);
+		if (otherQuery == null)
+			return cloneSet();
+		return new MarkerSetFlattenedView(composeQuery(query, "UNION", otherQuery));
+	}
+	
+	/**
+	 * Union creates a new view, so the size of the union can be computed by
+	 * the database without changing this view.
+	 */
+	@Override
+	public int unionSize(Collection<? extends IMarkerSet> others) {
+		return unionAll(others).getSize();
 	}
 	
 	private String addSingleMarkerQueryString(ISingleMarker marker) {
@@ -337,14 +437,11 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		String tid = marker.getTid();
 		String singleMarkerStr;
 		try {
-			for (String attrName : ScenarioDictionary.getInstance().getAttrNameList(relName)) {
+			int numAttr = ScenarioDictionary.getInstance().getAttrNameList(relName).size();
+			for (int i = 0; i < numAttr; i++) {
 				singleMarkerStr = " ('" + relName + "','";
 				singleMarkerStr += tid + "',";
-				try {
-					singleMarkerStr += getPostBitConst((IAttributeValueMarker) marker);
-				} catch (Exception e) {
-					LoggerUtil.logException(e, log);
-				}
+				singleMarkerStr += "B'" + getMarkerAtt(relName, i) + "'::bit varying";
 				singleMarkerStr += ")";
 				attrValueMarkerSet.add(singleMarkerStr);
 			}
@@ -360,6 +457,7 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		}
 		
 		query += " UNION VALUES " + addSingleMarkerQueryString(marker);
+		resetCounts();
 		if (isMaterialized()) insertSingleMarker(marker);
 		
 		return query;
@@ -368,9 +466,10 @@ public class MarkerSetFlattenedView extends MarkerSet {
 	
 	private void insertSingleMarker(ISingleMarker marker) {
 		String s = singleMarkerQueryString(marker);
+		prepareTableUpdate();
 		String q = "INSERT INTO " + relName + " VALUES " + s;
 		try {
-			ConnectionManager.getInstance().execUpdate(q);
+			tableRowsChanged(ConnectionManager.getInstance().execUpdate(q));
 		} catch (Exception e) {
 			;
 		}
@@ -435,13 +534,13 @@ public class MarkerSetFlattenedView extends MarkerSet {
 
 	@Override
 	public void clear() {
+		if (isMaterialized()) decompose();
 		query = null;
 		relName = null;
 		size = -1;
 		numElem = -1;
 		super.clear();
 		sum = null;
-		if (isMaterialized()) decompose();
 	}
 
 	@Override
@@ -505,14 +604,12 @@ public class MarkerSetFlattenedView extends MarkerSet {
 
 	@Override
 	public boolean isEmpty() {
-		return getSize()>0;
+		return getSize() == 0;
 	}
 
 	@Override
 	public Iterator<ISingleMarker> iterator() {
-		Set<ISingleMarker> markers = getElems();
-
-		return markers.iterator();
+		return toBitMarkerSet().iterator();
 	}
 	
 	private String getPostBitConst (IAttributeValueMarker m) throws Exception {
@@ -530,10 +627,10 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		if (!this.contains((ISingleMarker)arg0)) { //TODO check semantics (half contained tuple marker)
 			return false;
 		}
-		sum = null;
 		String exceptStr = " EXCEPT VALUES ";
 		exceptStr += singleMarkerQueryString((ISingleMarker)arg0);
 		query += exceptStr;
+		resetCounts();
 		
 		if (isMaterialized()) deleteSingleMarker((ISingleMarker)arg0); // TODO: run delete on the db side.
 		
@@ -556,9 +653,11 @@ public class MarkerSetFlattenedView extends MarkerSet {
 //			numElem -= changedSize;
 //		}
 		
+		prepareTableUpdate();
 		String q = "DELETE FROM " + relName + " WHERE (rel, tid, att) IN ( VALUES " + s + " )";
 		try {
 			int changedSize = ConnectionManager.getInstance().execUpdate(q);
+			tableRowsChanged(-changedSize);
 			size -= changedSize;
 			numElem -= changedSize;
 		} catch (Exception e) {
@@ -581,6 +680,7 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		if (arg0 instanceof MarkerSetFlattenedView) {
 			MarkerSetFlattenedView msv = (MarkerSetFlattenedView)arg0;
 			query += " EXCEPT ( " + msv.query + " )";
+			resetCounts();
 			if (isMaterialized()) changed = deleteFromQuery(msv.query);
 		} else if (arg0 instanceof IMarkerSet) {
 			IMarkerSet ms = (IMarkerSet)arg0;
@@ -591,6 +691,7 @@ public class MarkerSetFlattenedView extends MarkerSet {
 			}
 			values = removeLastComma(values);
 			query += exceptStr + values;
+			resetCounts();
 			try {
 				if (isMaterialized()) changed = deleteMultipleMarkers(values);
 			} catch (Exception e) {
@@ -605,9 +706,11 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		// Only to be called if the view has been materialized
 //		String sizeq = "SELECT * FROM " + relName + " WHERE (rel, tid, att) IN ( VALUES " + values + " )";
 //		int changedNum = querySize(sizeq);
+		prepareTableUpdate();
 		String q = "DELETE FROM " + relName + " WHERE (rel, tid, att) IN ( VALUES " + values + " )";
 		try {
 			int changedNum  = ConnectionManager.getInstance().execUpdate(q);
+			tableRowsChanged(-changedNum);
 			size -= changedNum;
 			numElem -= changedNum;
 			return changedNum>0;
@@ -618,6 +721,7 @@ public class MarkerSetFlattenedView extends MarkerSet {
 	}
 	
 	private boolean deleteFromQuery(String q) {
+		prepareTableUpdate();
 		String sizeq = "SELECT * FROM " + relName + " WHERE (rel, tid, att) IN ( SELECT * FROM ( " + q + " ) AS A)";
 		int changedNum = querySize(sizeq);
 		size -= changedNum;
@@ -625,7 +729,7 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		
 		String q1 = "DELETE FROM " + relName + " WHERE (rel, tid, att) IN (SELECT * FROM ( " + q + " ) AS A)";
 		try {
-			ConnectionManager.getInstance().execUpdate(q1);
+			tableRowsChanged(-ConnectionManager.getInstance().execUpdate(q1));
 		} catch (Exception e) {
 			;
 		}
@@ -640,6 +744,7 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		if (arg0 instanceof MarkerSetFlattenedView) {
 			MarkerSetFlattenedView msv = (MarkerSetFlattenedView)arg0;
 			query = "( " + query + " ) INTERSECT ( " + msv.query + " )";
+			resetCounts();
 			changed = (tempSize != getSize());
 			if (isMaterialized()) changed = keepQuery(msv.query);
 		} else if (arg0 instanceof IMarkerSet) { // INTERSECT VALUES()
@@ -650,6 +755,8 @@ public class MarkerSetFlattenedView extends MarkerSet {
 			}
 			values = removeLastComma(values);
 			query = "( " + query + " ) INTERSECT ( VALUES " + values + " )";
+			resetCounts();
+			changed = (tempSize != getSize());
 			if (isMaterialized()) changed = keepMultipleMarkers(values);
 		}
 
@@ -660,9 +767,11 @@ public class MarkerSetFlattenedView extends MarkerSet {
 //		String sizeq = "SELECT * FROM " + relName + " WHERE (rel, tid, att) NOT IN ( SELECT * FROM ( " + q + " ) AS A)";
 //		int changedNum = querySize(sizeq);
 		
+		prepareTableUpdate();
 		String q1 = "DELETE FROM " + relName + " WHERE (rel, tid, att) NOT IN (SELECT * FROM ( " + q + " ) AS A)";
 		try {
 			int changedNum = ConnectionManager.getInstance().execUpdate(q1);
+			tableRowsChanged(-changedNum);
 			size -= changedNum;
 			numElem -= changedNum;
 			return changedNum>0;
@@ -676,9 +785,11 @@ public class MarkerSetFlattenedView extends MarkerSet {
 	private boolean keepMultipleMarkers(String values) {
 		// Only to be called if the view has been materialized
 //		String sizeq = "SELECT * FROM " + relName + " WHERE (rel, tid, att) NOT IN ( VALUES " + values + " )";		
+		prepareTableUpdate();
 		String q = "DELETE FROM " + relName + " WHERE (rel, tid, att) NOT IN ( VALUES " + values + " )";
 		try {
 			int changedNum = ConnectionManager.getInstance().execUpdate(q);
+			tableRowsChanged(-changedNum);
 			size -= changedNum;
 			numElem -= changedNum;
 			return changedNum>0;	
@@ -691,7 +802,7 @@ public class MarkerSetFlattenedView extends MarkerSet {
 
 	@Override
 	public int size() {
-		return size;
+		return getSize();
 	}
 
 	@Override
@@ -713,10 +824,16 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		return this.contains(MarkerFactory.newTupleMarker(relName, tid));
 	}
 
+	/**
+	 * The intersection is computed by the database. Returns a new view.
+	 */
 	@Override
 	public IMarkerSet intersect(IMarkerSet other) {
-		retainAll(other);
-		return this;
+		String otherQuery = getQueryForSet(other);
+		
+		if (otherQuery == null)
+			return new MarkerSetFlattenedView(EMPTY_QUERY);
+		return new MarkerSetFlattenedView(composeQuery(query, "INTERSECT", otherQuery));
 	}
 	
 	@Override
@@ -725,14 +842,23 @@ public class MarkerSetFlattenedView extends MarkerSet {
 		
 		if (sum != null)
 			clone.sum = sum;
+		// shares the table of this view until one of them is modified
+		if (isMaterialized())
+			clone.materialize();
 		
 		return clone;
 	}
 
+	/**
+	 * The difference is computed by the database. Returns a new view.
+	 */
 	@Override
 	public IMarkerSet diff(IMarkerSet other) {
-		this.removeAll(other);
-		return this;
+		String otherQuery = getQueryForSet(other);
+		
+		if (otherQuery == null)
+			return cloneSet();
+		return new MarkerSetFlattenedView(composeQuery(query, "EXCEPT", otherQuery));
 	}
 	
 	@Override
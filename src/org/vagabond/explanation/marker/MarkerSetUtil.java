@@ -1,13 +1,52 @@
 package org.vagabond.explanation.marker;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MarkerSetUtil {
 
+	private static final int MAX_SETS_FOR_COUNTING = 8;
+
+	/** number of times a marker set had to recount its size from scratch */
+	private static final AtomicLong sizeRecounts = new AtomicLong();
+
+	/**
+	 * Called by marker sets whenever their cached size is invalid and has to
+	 * be recomputed over all elements.
+	 */
+	static void recordSizeRecount () {
+		sizeRecounts.incrementAndGet();
+	}
+
+	/**
+	 * @return number of full size recounts of marker sets since the last
+	 *         call of {@link #resetSizeRecounts()}. Rankers use the
+	 *         difference before and after a ranking run.
+	 */
+	public static long getNumSizeRecounts () {
+		return sizeRecounts.get();
+	}
+
+	public static void resetSizeRecounts () {
+		sizeRecounts.set(0);
+	}
+
 	public static Map<String, IMarkerSet> partitionOnRelation (IMarkerSet set) {
 		Map<String, IMarkerSet> result;
 		
+		if (set instanceof ColumnarMarkerSet)
+			return partitionOnRelation((ColumnarMarkerSet) set);
+		// bit marker sets store attribute markers only, so the columnar
+		// layout has the same elements
+		if (set instanceof BitMarkerSet)
+			return partitionOnRelation(new ColumnarMarkerSet(set));
+		
 		result = new HashMap<String, IMarkerSet> ();
 		for(ISingleMarker marker : set) {
 			String rel = marker.getRel();
@@ -21,4 +60,168 @@ public class MarkerSetUtil {
 		return result;
  	}
 	
+	/**
+	 * @return read-only views on the relations of set in relation id order.
+	 *         Nothing is copied.
+	 */
+	public static Map<String, IMarkerSet> partitionOnRelation (
+			ColumnarMarkerSet set) {
+		Map<String, IMarkerSet> result = new LinkedHashMap<String, IMarkerSet> ();
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		
+		for(int relId: set.getRelIds())
+			result.put(dict.getRelName(relId), set.getRelationView(relId));
+		
+		return result;
+	}
+	
+	/**
+	 * Split set according to a list of disjoint attribute partitions in a
+	 * single pass over the markers. The i-th result contains the markers of
+	 * set that are covered by parts[i] (same semantics as 
+	 * {@link IMarkerSet#subset(MarkerSummary)}). A tuple marker is only
+	 * assigned if all attributes of its relation belong to the same partition.
+	 */
+	public static List<IMarkerSet> partitionOnSummaries (IMarkerSet set, 
+			List<MarkerSummary> parts) {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		List<IMarkerSet> result = new ArrayList<IMarkerSet> (parts.size());
+		int[] attrPart = new int[dict.getTotalAttrCount()];
+		int[] tuplePart = new int[dict.getRelCount()];
+		
+		Arrays.fill(attrPart, -1);
+		for(int i = 0; i < parts.size(); i++) {
+			for(ISchemaMarker m: parts.get(i))
+				attrPart[dict.getGlobalAttrId(m.getRelId(), m.getAttrId())] = i;
+			result.add(newEmptySet(set));
+		}
+		
+		// partition of a relation if all its attributes are in the same one
+		for(int i = 0; i < tuplePart.length; i++) {
+			int start = dict.getGlobalAttrStart(i);
+			int end = start + dict.getAttrCount(i);
+			
+			tuplePart[i] = attrPart[start];
+			for(int j = start + 1; j < end && tuplePart[i] != -1; j++)
+				if (attrPart[j] != tuplePart[i])
+					tuplePart[i] = -1;
+		}
+		
+		for(ISingleMarker m: set) {
+			int part;
+			
+			if (m instanceof IAttributeValueMarker)
+				part = attrPart[dict.getGlobalAttrId(m.getRelId(), 
+						((IAttributeValueMarker) m).getAttrId())];
+			else
+				part = tuplePart[m.getRelId()];
+			
+			if (part != -1)
+				result.get(part).add(m);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @return an empty marker set of the same implementation as set
+	 */
+	public static IMarkerSet newEmptySet (IMarkerSet set) {
+		if (set instanceof BitMarkerSet)
+			return new BitMarkerSet(((BitMarkerSet) set).getBitsetType());
+		if (set instanceof PackedMarkerSet)
+			return new PackedMarkerSet();
+		if (set instanceof ColumnarMarkerSet)
+			return new ColumnarMarkerSet();
+		return MarkerFactory.newMarkerSet();
+	}
+	
+	/**
+	 * Add the markers for all attributes of a tuple one at a time. Used by
+	 * marker sets that have no specialized bulk insertion.
+	 */
+	public static void addTuple (IMarkerSet set, int relId, int tidId) {
+		int numAttr = ScenarioDictionary.getInstance().getTupleSize(relId);
+		
+		for(int i = 0; i < numAttr; i++)
+			set.add(relId, i, tidId);
+	}
+	
+	public static void addTids (IMarkerSet set, int relId, int attrId, 
+			int[] tidIds) {
+		for(int tidId: tidIds)
+			set.add(relId, attrId, tidId);
+	}
+	
+	public static void addBitRange (IMarkerSet set, int start, int end) {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		int pos = start;
+		
+		while (pos < end) {
+			int seg = dict.getSegmentForBitPos(pos);
+			int segEnd;
+			
+			if (seg == -1)
+				return;
+			segEnd = Math.min(end, dict.getSegmentEnd(seg));
+			for(; pos < segEnd; pos++)
+				set.add(dict.getAttrValueMarkerForSegment(seg, pos));
+		}
+	}
+	
+	/**
+	 * Union set with all sets in others one at a time. Used by marker sets
+	 * that have no specialized n-way union.
+	 */
+	public static IMarkerSet unionAll (IMarkerSet set, 
+			Collection<? extends IMarkerSet> others) {
+		IMarkerSet result = set;
+		
+		for(IMarkerSet other: others)
+			result = result.union(other);
+		
+		return result;
+	}
+	
+	/**
+	 * Compute the size of the union of set and others. For a few sets the
+	 * union is not materialized: a marker of others[i] is counted if neither
+	 * set nor one of others[0] to others[i-1] contain it. This is quadratic in
+	 * the number of sets, so for more sets we union a copy of set instead.
+	 */
+	public static int unionSize (IMarkerSet set, 
+			Collection<? extends IMarkerSet> others) {
+		IMarkerSet[] o;
+		int size;
+		
+		if (others.size() > MAX_SETS_FOR_COUNTING)
+			return set.cloneSet().unionAll(others).getSize();
+		
+		o = others.toArray(new IMarkerSet[others.size()]);
+		size = set.getSize();
+		
+		for(int i = 0; i < o.length; i++) {
+			for(ISingleMarker m: o[i]) {
+				boolean seen = set.contains(m);
+				
+				for(int j = 0; !seen && j < i; j++)
+					seen = o[j].contains(m);
+				if (!seen)
+					size += m.getSize();
+			}
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * @return size of the union of all sets
+	 */
+	public static int unionSize (List<? extends IMarkerSet> sets) {
+		if (sets.isEmpty())
+			return 0;
+		
+		return sets.get(0).unionSize(sets.subList(1, sets.size()));
+	}
+	
 }
@@ -1,89 +1,243 @@
 package org.vagabond.explanation.marker;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import org.vagabond.util.ewah.JavaUtilBitSet;
+
+/**
+ * Set of schema markers (relation, attribute) stored as a bitset over the
+ * global attribute ids of the {@link ScenarioDictionary}. Membership tests
+ * for attribute and tuple markers do not allocate.
+ */
 public class MarkerSummary implements Set<ISchemaMarker> {
 
-	protected Set<ISchemaMarker> schemaMarkers;
+	protected JavaUtilBitSet attrs;
 	
 	public MarkerSummary () {
-		schemaMarkers = new HashSet<ISchemaMarker> ();
+		attrs = new JavaUtilBitSet();
 	}
 	
 	public boolean hasAttr (ISingleMarker attr) {
-		return schemaMarkers.containsAll(MarkerFactory.newSchemaMarker(attr));
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		int relId = attr.getRelId();
+		int start;
+		
+		if (attr instanceof IAttributeValueMarker)
+			return attrs.get(dict.getGlobalAttrId(relId, 
+					((IAttributeValueMarker) attr).getAttrId()));
+		
+		// tuple marker: all attributes of the relation have to be present
+		start = dict.getGlobalAttrStart(relId);
+		return attrs.nextClearBit(start) >= start + dict.getAttrCount(relId);
+	}
+	
+	public boolean hasAttr (int globalAttrId) {
+		return attrs.get(globalAttrId);
+	}
+	
+	/**
+	 * Add the attributes covered by a single marker (one attribute or all
+	 * attributes of a relation for tuple markers).
+	 */
+	public void addMarker (ISingleMarker marker) {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		int relId = marker.getRelId();
+		int start;
+		
+		if (marker instanceof IAttributeValueMarker) {
+			attrs.set(dict.getGlobalAttrId(relId, 
+					((IAttributeValueMarker) marker).getAttrId()));
+			return;
+		}
+		
+		start = dict.getGlobalAttrStart(relId);
+		attrs.setRange(start, start + dict.getAttrCount(relId));
 	}
 	
 	public boolean add (ISchemaMarker newMarker) {
-		return schemaMarkers.add(newMarker);
+		int pos = getPos(newMarker);
+		
+		if (attrs.get(pos))
+			return false;
+		attrs.set(pos);
+		return true;
 	}
 
 	@Override
 	public boolean addAll(Collection<? extends ISchemaMarker> c) {
-		return schemaMarkers.addAll(c);
+		int oldSize;
+		boolean changed = false;
+		
+		if (c instanceof MarkerSummary) {
+			oldSize = size();
+			attrs.orInPlace(((MarkerSummary) c).attrs);
+			return oldSize != size();
+		}
+		
+		for(ISchemaMarker m: c)
+			changed |= add(m);
+		
+		return changed;
 	}
 
 	@Override
 	public void clear() {
-		schemaMarkers.clear();
+		attrs.clear();
 	}
 
 	@Override
 	public boolean contains(Object o) {
-		return schemaMarkers.contains(o);
+		if (!(o instanceof ISchemaMarker))
+			return false;
+		return attrs.get(getPos((ISchemaMarker) o));
 	}
 
 	@Override
 	public boolean containsAll(Collection<?> c) {
-		return schemaMarkers.containsAll(c);
+		if (c instanceof MarkerSummary) {
+			BitSet other = ((MarkerSummary) c).attrs;
+			for(int i = other.nextSetBit(0); i >= 0; i = other.nextSetBit(i + 1))
+				if (!attrs.get(i))
+					return false;
+			return true;
+		}
+		
+		for(Object o: c)
+			if (!contains(o))
+				return false;
+		
+		return true;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return schemaMarkers.isEmpty();
+		return attrs.isEmpty();
 	}
 
 	@Override
 	public Iterator<ISchemaMarker> iterator() {
-		return schemaMarkers.iterator();
+		return new Iterator<ISchemaMarker> () {
+			
+			private int next = attrs.nextSetBit(0);
+			private int last = -1;
+			
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public ISchemaMarker next() {
+				if (next < 0)
+					throw new NoSuchElementException();
+				last = next;
+				next = attrs.nextSetBit(next + 1);
+				return getMarker(last);
+			}
+
+			@Override
+			public void remove() {
+				if (last < 0)
+					throw new IllegalStateException();
+				attrs.clear(last);
+				last = -1;
+			}
+		};
 	}
 
 	@Override
 	public boolean remove(Object o) {
-		return schemaMarkers.remove(o);
+		int pos;
+		
+		if (!(o instanceof ISchemaMarker))
+			return false;
+		pos = getPos((ISchemaMarker) o);
+		if (!attrs.get(pos))
+			return false;
+		attrs.clear(pos);
+		return true;
 	}
 
 	@Override
 	public boolean removeAll(Collection<?> c) {
-		return schemaMarkers.removeAll(c);
+		int oldSize;
+		boolean changed = false;
+		
+		if (c instanceof MarkerSummary) {
+			oldSize = size();
+			attrs.andNot((BitSet) ((MarkerSummary) c).attrs);
+			return oldSize != size();
+		}
+		
+		for(Object o: c)
+			changed |= remove(o);
+		
+		return changed;
 	}
 
 	@Override
 	public boolean retainAll(Collection<?> c) {
-		return retainAll(c);
+		int oldSize = size();
+		Iterator<ISchemaMarker> iter;
+		
+		if (c instanceof MarkerSummary) {
+			attrs.andInPlace(((MarkerSummary) c).attrs);
+			return oldSize != size();
+		}
+		
+		iter = iterator();
+		while(iter.hasNext())
+			if (!c.contains(iter.next()))
+				iter.remove();
+		
+		return oldSize != size();
 	}
 
 	@Override
 	public int size() {
-		return schemaMarkers.size();
+		return attrs.cardinality();
 	}
 
 	@Override
 	public Object[] toArray() {
-		return schemaMarkers.toArray();
+		return getMarkerList().toArray();
 	}
 
 	@Override
 	public <T> T[] toArray(T[] a) {
-		return schemaMarkers.toArray(a);
+		return getMarkerList().toArray(a);
+	}
+	
+	private List<ISchemaMarker> getMarkerList () {
+		List<ISchemaMarker> result = new ArrayList<ISchemaMarker> (size());
+		
+		for(ISchemaMarker m: this)
+			result.add(m);
+		
+		return result;
+	}
+	
+	private int getPos (ISchemaMarker m) {
+		return ScenarioDictionary.getInstance().getGlobalAttrId(m.getRelId(), 
+				m.getAttrId());
+	}
+	
+	private ISchemaMarker getMarker (int pos) {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		
+		return MarkerFactory.newSchemaMarker(dict.getRelIdForGlobalAttr(pos), 
+				dict.getAttrIdForGlobalAttr(pos));
 	}
 	
 	@Override
 	public String toString () {
-		return schemaMarkers.toString();
+		return getMarkerList().toString();
 	}
 	
 	@Override
@@ -96,9 +250,14 @@ public class MarkerSummary implements Set<ISchemaMarker> {
 		
 		if (other instanceof MarkerSummary) {
 			MarkerSummary s = (MarkerSummary) other;
-			return schemaMarkers.equals(s.schemaMarkers);
+			return attrs.equals(s.attrs);
 		}
 		
 		return false;
 	}
+	
+	@Override
+	public int hashCode () {
+		return attrs.hashCode();
+	}
 }
@@ -0,0 +1,564 @@
+package org.vagabond.explanation.marker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.vagabond.util.LogProviderHolder;
+
+/**
+ * Marker set that stores each marker as a single long (relId, attrId, tidId)
+ * in an open addressing hash table with linear probing. Tuple markers use a
+ * reserved attribute id. Unlike {@link MarkerSet} there are no per-element
+ * objects: marker objects are only created when the set is iterated or
+ * {@link #getElems()} is called. Unlike {@link BitMarkerSet} tuple markers
+ * are kept as single elements, so the set behaves like a {@link MarkerSet}.
+ *
+ * Removed elements are replaced by tombstones so that iterators stay valid
+ * while removing. Tombstones are dropped when the table is rehashed.
+ *
+ * @author lord_pretzel
+ *
+ */
+public class PackedMarkerSet implements IMarkerSet {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(PackedMarkerSet.class);
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final long EMPTY = -1L;
+	private static final long DELETED = -2L;
+
+	private static final int TID_BITS = 32;
+	private static final int ATTR_BITS = 16;
+	private static final long TID_MASK = (1L << TID_BITS) - 1;
+	private static final int ATTR_MASK = (1 << ATTR_BITS) - 1;
+	/** attribute id used to encode tuple markers */
+	private static final int TUPLE_ATTR = ATTR_MASK;
+	/** relation ids have to leave the sign bit unset */
+	private static final int MAX_REL_ID = (1 << (63 - TID_BITS - ATTR_BITS)) - 1;
+
+	/** hash table of encoded markers, EMPTY or DELETED for unused slots */
+	private long[] table;
+	private int numElem;
+	/** number of slots that are used by an element or a tombstone */
+	private int usedSlots;
+	/** sum of the marker sizes */
+	private int size;
+	private MarkerSummary sum;
+	private int hash = -1;
+
+	public PackedMarkerSet () {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public PackedMarkerSet (int expectedSize) {
+		table = new long[tableSizeFor(expectedSize)];
+		Arrays.fill(table, EMPTY);
+		numElem = 0;
+		usedSlots = 0;
+		size = 0;
+	}
+
+	private static int tableSizeFor (int expectedSize) {
+		int cap = DEFAULT_CAPACITY;
+
+		while (cap < expectedSize * 2)
+			cap <<= 1;
+
+		return cap;
+	}
+
+	/**
+	 * @return the long encoding of an attribute value marker
+	 */
+	public static long encode (int relId, int attrId, int tidId) {
+		assert(relId >= 0 && relId <= MAX_REL_ID);
+		assert(attrId >= 0 && attrId < TUPLE_ATTR);
+		return ((long) relId << (TID_BITS + ATTR_BITS))
+				| ((long) attrId << TID_BITS) | (tidId & TID_MASK);
+	}
+
+	private static long encodeTuple (int relId, int tidId) {
+		assert(relId >= 0 && relId <= MAX_REL_ID);
+		return ((long) relId << (TID_BITS + ATTR_BITS))
+				| ((long) TUPLE_ATTR << TID_BITS) | (tidId & TID_MASK);
+	}
+
+	private static long encode (ISingleMarker marker) {
+		if (marker instanceof IAttributeValueMarker)
+			return encode(marker.getRelId(),
+					((IAttributeValueMarker) marker).getAttrId(),
+					marker.getTidId());
+		if (marker instanceof ITupleMarker)
+			return encodeTuple(marker.getRelId(), marker.getTidId());
+		throw new IllegalArgumentException("cannot store marker " + marker);
+	}
+
+	private static int relId (long code) {
+		return (int) (code >>> (TID_BITS + ATTR_BITS));
+	}
+
+	private static int attrId (long code) {
+		return (int) (code >>> TID_BITS) & ATTR_MASK;
+	}
+
+	private static int tidId (long code) {
+		return (int) (code & TID_MASK);
+	}
+
+	private static ISingleMarker decode (long code) {
+		int attr = attrId(code);
+
+		if (attr == TUPLE_ATTR)
+			return MarkerFactory.newTupleMarker(relId(code), tidId(code));
+		return MarkerFactory.newAttrMarker(relId(code), tidId(code), attr);
+	}
+
+	private static int markerSize (long code) {
+		if (attrId(code) == TUPLE_ATTR)
+			return ScenarioDictionary.getInstance().getTupleSize(relId(code));
+		return 1;
+	}
+
+	private static int hash (long code) {
+		code ^= code >>> 33;
+		code *= 0xff51afd7ed558ccdL;
+		code ^= code >>> 33;
+		return (int) code;
+	}
+
+	/**
+	 * @return the slot storing code or -1 if code is not in the table
+	 */
+	private int findSlot (long code) {
+		int mask = table.length - 1;
+		int slot = hash(code) & mask;
+
+		while (table[slot] != EMPTY) {
+			if (table[slot] == code)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	public boolean containsCode (long code) {
+		return findSlot(code) != -1;
+	}
+
+	public boolean addCode (long code) {
+		int mask = table.length - 1;
+		int slot = hash(code) & mask;
+		int free = -1;
+
+		while (table[slot] != EMPTY) {
+			if (table[slot] == code)
+				return false;
+			if (free == -1 && table[slot] == DELETED)
+				free = slot;
+			slot = (slot + 1) & mask;
+		}
+
+		if (free == -1) {
+			free = slot;
+			usedSlots++;
+		}
+		table[free] = code;
+		numElem++;
+		size += markerSize(code);
+		hash = -1;
+		sum = null;
+
+		if (usedSlots * 2 > table.length)
+			rehash(numElem * 4 > table.length ? table.length * 2 : table.length);
+
+		return true;
+	}
+
+	public boolean removeCode (long code) {
+		int slot = findSlot(code);
+
+		if (slot == -1)
+			return false;
+
+		table[slot] = DELETED;
+		numElem--;
+		size -= markerSize(code);
+		hash = -1;
+		sum = null;
+
+		return true;
+	}
+
+	private void rehash (int newSize) {
+		long[] old = table;
+		int mask = newSize - 1;
+
+		table = new long[newSize];
+		Arrays.fill(table, EMPTY);
+		for(long code: old) {
+			if (code < 0)
+				continue;
+			int slot = hash(code) & mask;
+			while (table[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			table[slot] = code;
+		}
+		usedSlots = numElem;
+	}
+
+	@Override
+	public boolean equals (Object other) {
+		if (other == null)
+			return false;
+
+		if (other == this)
+			return true;
+
+		if (other instanceof PackedMarkerSet) {
+			PackedMarkerSet oMarker = (PackedMarkerSet) other;
+
+			if (numElem != oMarker.numElem)
+				return false;
+			for(long code: table)
+				if (code >= 0 && !oMarker.containsCode(code))
+					return false;
+			return true;
+		}
+
+		// compare elements like MarkerSet.equals does to keep equals symmetric
+		if (other instanceof IMarkerSet) {
+			IMarkerSet oMarker = (IMarkerSet) other;
+
+			return oMarker.getElems().equals(getElems());
+		}
+
+		return false;
+	}
+
+	@Override
+	public int hashCode () {
+		if (hash == -1) {
+			int h = 0;
+			for(long code: table)
+				if (code >= 0)
+					h += decode(code).hashCode();
+			hash = h;
+		}
+		return hash;
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public int getNumElem() {
+		return numElem;
+	}
+
+	@Override
+	public Set<ISingleMarker> getElems() {
+		Set<ISingleMarker> result = new HashSet<ISingleMarker> ();
+
+		for(long code: table)
+			if (code >= 0)
+				result.add(decode(code));
+
+		return result;
+	}
+
+	@Override
+	public List<ISingleMarker> getElemList() {
+		List<ISingleMarker> result = new ArrayList<ISingleMarker> (numElem);
+
+		for(long code: table)
+			if (code >= 0)
+				result.add(decode(code));
+
+		return result;
+	}
+
+	@Override
+	public IMarkerSet union(IMarkerSet other) {
+		if (other instanceof PackedMarkerSet) {
+			for(long code: ((PackedMarkerSet) other).table)
+				if (code >= 0)
+					addCode(code);
+		}
+		else {
+			for(ISingleMarker m: other)
+				addCode(encode(m));
+		}
+		sum = null;
+		return this;
+	}
+
+	@Override
+	public IMarkerSet intersect(IMarkerSet other) {
+		retainAll(other);
+		return this;
+	}
+
+	@Override
+	public IMarkerSet diff(IMarkerSet other) {
+		removeAll(other);
+		return this;
+	}
+
+	@Override
+	public IMarkerSet unionAll(Collection<? extends IMarkerSet> others) {
+		return MarkerSetUtil.unionAll(this, others);
+	}
+
+	@Override
+	public int unionSize(Collection<? extends IMarkerSet> others) {
+		return MarkerSetUtil.unionSize(this, others);
+	}
+
+	@Override
+	public boolean add(ISingleMarker marker) {
+		return addCode(encode(marker));
+	}
+
+	@Override
+	public boolean add(int relId, int attrId, int tidId) {
+		return addCode(encode(relId, attrId, tidId));
+	}
+
+	@Override
+	public void addTuple(int relId, int tidId) {
+		int numAttr = ScenarioDictionary.getInstance().getTupleSize(relId);
+
+		for(int i = 0; i < numAttr; i++)
+			addCode(encode(relId, i, tidId));
+	}
+
+	@Override
+	public void addTids(int relId, int attrId, int[] tidIds) {
+		for(int tidId: tidIds)
+			addCode(encode(relId, attrId, tidId));
+	}
+
+	@Override
+	public void addBitRange(int start, int end) {
+		MarkerSetUtil.addBitRange(this, start, end);
+	}
+
+	@Override
+	public boolean contains(String relName, String tid) throws Exception {
+		return this.contains(MarkerFactory.newTupleMarker(relName, tid));
+	}
+
+	@Override
+	public String toString () {
+		StringBuffer result = new StringBuffer();
+		result.append("MarkerSet: {");
+
+		for (ISingleMarker marker: this) {
+			result.append(marker.toString() + ",");
+		}
+		result.deleteCharAt(result.length() - 1);
+
+		result.append("}");
+
+		return result.toString();
+	}
+
+	@Override
+	public String toUserString() {
+		StringBuffer result = new StringBuffer();
+
+		Map<String,IMarkerSet> markerPerRel = MarkerSetUtil.partitionOnRelation(this);
+
+		for(String rel: markerPerRel.keySet()) {
+			result.append(" relation " + rel + " (");
+			for(ISingleMarker marker: markerPerRel.get(rel)) {
+				result.append(marker.toUserStringNoRel());
+				result.append(", ");
+			}
+			result.delete(result.length() - 2, result.length());
+			result.append(')');
+		}
+
+		return result.toString();
+	}
+
+	@Override
+	public IMarkerSet cloneSet() {
+		PackedMarkerSet clone = new PackedMarkerSet();
+
+		clone.table = table.clone();
+		clone.numElem = numElem;
+		clone.usedSlots = usedSlots;
+		clone.size = size;
+		clone.sum = sum;
+		clone.hash = hash;
+
+		return clone;
+	}
+
+	@Override
+	public MarkerSummary getSummary() {
+		if (sum == null)
+			this.sum = MarkerFactory.newMarkerSummary(this);
+		return sum;
+	}
+
+	@Override
+	public IMarkerSet subset(MarkerSummary sum) {
+		PackedMarkerSet result = new PackedMarkerSet(numElem);
+
+		for(long code: table) {
+			if (code >= 0 && sum.hasAttr(decode(code)))
+				result.addCode(code);
+		}
+
+		return result;
+	}
+
+	@Override
+	public int size() {
+		return numElem;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return numElem == 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (o instanceof IAttributeValueMarker || o instanceof ITupleMarker)
+			return containsCode(encode((ISingleMarker) o));
+		return false;
+	}
+
+	/**
+	 * Iterates over the table and decodes each element into a new marker.
+	 */
+	@Override
+	public Iterator<ISingleMarker> iterator() {
+		return new Iterator<ISingleMarker> () {
+
+			private int pos = advance(0);
+			private int last = -1;
+
+			private int advance (int from) {
+				while (from < table.length && table[from] < 0)
+					from++;
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return pos < table.length;
+			}
+
+			@Override
+			public ISingleMarker next() {
+				if (pos >= table.length)
+					throw new NoSuchElementException();
+				last = pos;
+				pos = advance(pos + 1);
+				return decode(table[last]);
+			}
+
+			@Override
+			public void remove() {
+				if (last == -1 || table[last] < 0)
+					throw new IllegalStateException();
+				removeCode(table[last]);
+			}
+		};
+	}
+
+	@Override
+	public Object[] toArray() {
+		return getElemList().toArray();
+	}
+
+	@Override
+	public <T> T[] toArray(T[] a) {
+		return getElemList().toArray(a);
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (o instanceof IAttributeValueMarker || o instanceof ITupleMarker)
+			return removeCode(encode((ISingleMarker) o));
+		return false;
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		for(Object o: c)
+			if (!contains(o))
+				return false;
+		return true;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends ISingleMarker> c) {
+		boolean changed = false;
+
+		for(ISingleMarker m: c)
+			changed |= add(m);
+		sum = null;
+
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		PackedMarkerSet other = (c instanceof PackedMarkerSet)
+				? (PackedMarkerSet) c : null;
+		boolean changed = false;
+
+		for(long code: table) {
+			if (code < 0)
+				continue;
+			if (other != null ? !other.containsCode(code) : !c.contains(decode(code)))
+				changed |= removeCode(code);
+		}
+
+		return changed;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		boolean changed = false;
+
+		if (c instanceof PackedMarkerSet) {
+			for(long code: ((PackedMarkerSet) c).table)
+				if (code >= 0)
+					changed |= removeCode(code);
+		}
+		else {
+			for(Object o: c)
+				changed |= remove(o);
+		}
+
+		return changed;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(table, EMPTY);
+		numElem = 0;
+		usedSlots = 0;
+		size = 0;
+		sum = null;
+		hash = -1;
+	}
+
+}
@@ -1,14 +1,13 @@
 package org.vagabond.explanation.marker;
 
 import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.vagabond.mapping.model.MapScenarioHolder;
-import org.vagabond.util.ConnectionManager;
-import org.vagabond.util.IdMap;
+import org.vagabond.util.CompactStringIdMap;
 import org.vagabond.util.LogProviderHolder;
 import org.vagabond.util.LoggerUtil;
 import org.vagabond.xmlmodel.AttrDefType;
@@ -29,16 +28,23 @@ public class ScenarioDictionary {
 	private List<RelationType> rels;
 	private SchemaType sourceSchema;
 	private SchemaType targetSchema;
-	private int totalAttrCount = -1;
+	private volatile int totalAttrCount = -1;
 	private int totalVarCount = -1;
-	private List<IdMap<String>> TidMapping;
+	/** global attribute ids, lazily created and only published when filled */
+	private volatile int[] relAttrStarts;
+	private volatile int[] globalAttrRelIds;
+	private List<CompactStringIdMap> TidMapping;
 	private int[][] offsets;
+	private int[] segStarts;
+	private int[] segRelIds;
+	private int[] segAttrIds;
+	private ITidSource tidSource = DatabaseTidSource.getInstance();
 	
 	private ScenarioDictionary () {
 		rels = new ArrayList<RelationType> ();
 		maps = new ArrayList<MappingType> ();
 		varNames = new ArrayList<ArrayList<String>> ();
-		TidMapping = new ArrayList<IdMap<String>>();
+		TidMapping = new ArrayList<CompactStringIdMap>();
 	}
 	
 	public static ScenarioDictionary getInstance () {
@@ -86,6 +92,8 @@ public class ScenarioDictionary {
 		this.sourceSchema = source;
 		this.targetSchema = target;
 		totalAttrCount = -1;
+		relAttrStarts = null;
+		globalAttrRelIds = null;
 		rels = new ArrayList<RelationType> ();
 		for(RelationType rel: sourceSchema.getRelationArray())
 			rels.add(rel);
@@ -273,10 +281,70 @@ public class ScenarioDictionary {
 	}
 	
 	public int getTotalAttrCount ()  {
-		if (totalAttrCount == -1)
-			totalAttrCount = getAttrCount(rels);
+		int count = totalAttrCount;
 		
-		return totalAttrCount;
+		if (count == -1) {
+			count = getAttrCount(rels);
+			totalAttrCount = count;
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Attributes of all source and target relations numbered consecutively
+	 * (relation order first, then attribute order). Used as bit positions by
+	 * {@link MarkerSummary}.
+	 */
+	public int getGlobalAttrId (int relId, int attrId) {
+		return getGlobalAttrStart(relId) + attrId;
+	}
+	
+	public int getGlobalAttrStart (int relId) {
+		int[] starts = relAttrStarts;
+		
+		if (starts == null)
+			starts = createGlobalAttrIds()[0];
+		return starts[relId];
+	}
+	
+	public int getRelIdForGlobalAttr (int globalId) {
+		int[] relIds = globalAttrRelIds;
+		
+		if (relIds == null)
+			relIds = createGlobalAttrIds()[1];
+		return relIds[globalId];
+	}
+	
+	public int getAttrIdForGlobalAttr (int globalId) {
+		return globalId - getGlobalAttrStart(getRelIdForGlobalAttr(globalId));
+	}
+	
+	/**
+	 * @return the relation starts and the relation ids of the global
+	 * 		attribute ids
+	 */
+	private synchronized int[][] createGlobalAttrIds () {
+		int pos = 0;
+		int[] starts = relAttrStarts, relIds = globalAttrRelIds;
+		
+		if (starts != null && relIds != null)
+			return new int[][] { starts, relIds };
+		
+		// fill before publishing, other threads read the volatile fields
+		// without locking
+		starts = new int[rels.size() + 1];
+		relIds = new int[getTotalAttrCount()];
+		for(int i = 0; i < rels.size(); i++) {
+			starts[i] = pos;
+			for(int j = 0; j < getAttrCount(i); j++)
+				relIds[pos++] = i;
+		}
+		starts[rels.size()] = pos;
+		globalAttrRelIds = relIds;
+		relAttrStarts = starts;
+		
+		return new int[][] { starts, relIds };
 	}
 	
 	public int getTotalVarCount () {
@@ -305,62 +373,113 @@ public class ScenarioDictionary {
 			singleTableTidGenerating(i);
 	}
 	
-	public void singleTableTidGenerating(int relId) throws SQLException, ClassNotFoundException {
-		ResultSet rs;
+	public void singleTableTidGenerating(int relId) throws Exception {
 		String fullRelName = getSchemaPlusRelName(relId);
-		String query = "SELECT tid FROM " + fullRelName;
-		TidMapping.add(new IdMap<String>());
-		
-		if (log.isDebugEnabled()) {log.debug("get tids for <" + fullRelName + "> using query:\n" + query);};
-		
-		rs = ConnectionManager.getInstance().execQuery(query);
-		while(rs.next()) {
-			TidMapping.get(relId).put(rs.getString("tid"));
-		}
-		ConnectionManager.getInstance().closeRs(rs);
+		TidMapping.add(new CompactStringIdMap());
 		
+		tidSource.addTids(fullRelName, TidMapping.get(relId));
+	}
+	
+	public ITidSource getTidSource () {
+		return tidSource;
+	}
+	
+	/**
+	 * Set where the tids of relations are read from. Defaults to the 
+	 * database. Takes effect with the next {@link #initTidMappingGenerating()}.
+	 */
+	public void setTidSource (ITidSource tidSource) {
+		this.tidSource = tidSource;
 	}
 	
 	public void createOffsetsMapping () {
 		int curOffset = 0;
+		int numSegs = 0;
+		int seg = 0;
 		
 		offsets = new int[rels.size()][];
 		
+		for(int i = 0; i < rels.size(); i++)
+			numSegs += rels.get(i).getAttrArray().length;
+		
+		segStarts = new int[numSegs + 1];
+		segRelIds = new int[numSegs];
+		segAttrIds = new int[numSegs];
+		
 		for(int i = 0; i < rels.size(); i++) {
 			RelationType rel = rels.get(i);
 			offsets[i] = new int[rel.getAttrArray().length];
 			for(int j = 0; j < rel.getAttrArray().length; j++) {
 				offsets[i][j] = curOffset;
+				segStarts[seg] = curOffset;
+				segRelIds[seg] = i;
+				segAttrIds[seg] = j;
+				seg++;
 				curOffset += TidMapping.get(i).size();
 			}
 		}
+		segStarts[numSegs] = curOffset;
+	}
+	
+	/**
+	 * Find the (relation, attribute) segment of the bit position. Segments are
+	 * ordered by their start offset, so this is a binary search over the
+	 * prefix sums of the relation sizes. Empty segments share their start with
+	 * the following segment and are skipped by searching for the last segment
+	 * starting at or before bitpos.
+	 * 
+	 * @return segment number or -1 if bitpos is outside of all segments
+	 */
+	public int getSegmentForBitPos (int bitpos) {
+		int low = 0;
+		int high = segRelIds.length - 1;
+		
+		if (bitpos < 0 || bitpos >= segStarts[segRelIds.length])
+			return -1;
+		
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (segStarts[mid] <= bitpos)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		
+		return low;
 	}
 	
-	public AttrValueMarker getAttrValueMarkerByIBitSet(int bitpos) throws Exception{
-		int relId= 0;
-		int attrId = 0;
-		int rowIndex = 0;
-		int columnIndex = 0;
-		for (rowIndex = 0; rowIndex < offsets.length; rowIndex++){
-			int[] row  = offsets[rowIndex];
-			if(row != null){
-				for(columnIndex = 0; columnIndex < row.length; columnIndex++){
-					if(offsets[rowIndex][columnIndex]<bitpos){
-						relId = rowIndex;
-						attrId = columnIndex;
-					}
-					
-					else if (offsets[rowIndex][columnIndex] >= bitpos){
-						int tidId = bitpos - offsets[relId][attrId];
-						return new AttrValueMarker(relId, getTidString(tidId, getRelName(relId)), attrId);
-						
-					}
-				}
-				
-			}
-			
-		}
-		return null;
+	public int getSegmentCount () {
+		return segRelIds.length;
+	}
+	
+	public int getSegmentStart (int segment) {
+		return segStarts[segment];
+	}
+	
+	public int getSegmentEnd (int segment) {
+		return segStarts[segment + 1];
+	}
+	
+	public int getSegmentRelId (int segment) {
+		return segRelIds[segment];
+	}
+	
+	public int getSegmentAttrId (int segment) {
+		return segAttrIds[segment];
+	}
+	
+	public AttrValueMarker getAttrValueMarkerByIBitSet(int bitpos) {
+		int seg = getSegmentForBitPos(bitpos);
+		
+		if (seg == -1)
+			return null;
+		
+		return getAttrValueMarkerForSegment(seg, bitpos);
+	}
+	
+	public AttrValueMarker getAttrValueMarkerForSegment (int segment, int bitpos) {
+		return new AttrValueMarker(segRelIds[segment], bitpos - segStarts[segment], 
+				segAttrIds[segment]);
 	}
 	
 	public int attrMarkerToBitPos (IAttributeValueMarker m) {
@@ -398,6 +517,47 @@ public class ScenarioDictionary {
 		return TidMapping.get(relId).getId(tidString);	
 	}
 	
+	/**
+	 * Like {@link #getTidInt(String, int)}, but fails for tids that are not
+	 * in the dictionary instead of returning -1.
+	 * 
+	 * @throws Exception if tidString is not a tid of relation relId
+	 */
+	public int getKnownTidInt(String tidString, int relId) throws Exception {
+		int tidId = TidMapping.get(relId).getId(tidString);
+		
+		if (tidId == -1)
+			throw new Exception ("Did not find tid <" + tidString 
+					+ "> for relation <" + getRelName(relId) + ">");
+		return tidId;
+	}
+	
+	/**
+	 * Read the tids in the first column of all rows of rs and translate them
+	 * into tid ids of relation relId. Does not close rs.
+	 * 
+	 * @throws Exception if one of the tids is not a tid of relation relId
+	 */
+	public int[] getTidInts(ResultSet rs, int relId) throws Exception {
+		CompactStringIdMap tids = TidMapping.get(relId);
+		int[] result = new int[16];
+		int numTids = 0;
+		
+		while(rs.next()) {
+			String tid = rs.getString(1);
+			int tidId = tids.getId(tid);
+			
+			if (tidId == -1)
+				throw new Exception ("Did not find tid <" + tid 
+						+ "> for relation <" + getRelName(relId) + ">");
+			if (numTids == result.length)
+				result = Arrays.copyOf(result, numTids * 2);
+			result[numTids++] = tidId;
+		}
+		
+		return Arrays.copyOf(result, numTids);
+	}
+	
 	public String getTidString(int tidInt, String relation) throws Exception{
 		return TidMapping.get(getRelId(relation)).get(tidInt);
 		
@@ -407,6 +567,14 @@ public class ScenarioDictionary {
 		return TidMapping.get(relation).get(tidInt);	
 	}
 	
+	/**
+	 * @return number of tids of relation relId, tid ids range from 0 to
+	 * 		this number - 1
+	 */
+	public int getTidCount (int relId) {
+		return TidMapping.get(relId).size();
+	}
+	
 	public int getTotalTidCount(){
 		int totaltid = 0;
 		for (int i = 0; i < TidMapping.size(); i++ ){
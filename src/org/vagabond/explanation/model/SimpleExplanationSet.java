@@ -56,12 +56,15 @@ public class SimpleExplanationSet implements IExplanationSet {
 
 	@Override
 	public boolean addExplanation (IBasicExplanation expl) {
-		if (!expl.getRealExplains().isEmpty())
-			targetSideEffects.union(expl.getRealTargetSideEffects());
-		else
-			targetSideEffects.union(expl.getTargetSideEffects());
+		targetSideEffects = targetSideEffects.union(getSideEffects(expl));
 		return expls.add(expl);
 	}
+	
+	private IMarkerSet getSideEffects (IBasicExplanation expl) {
+		if (!expl.getRealExplains().isEmpty())
+			return expl.getRealTargetSideEffects();
+		return expl.getTargetSideEffects();
+	}
 
 	@Override
 	public int getSize() {
@@ -151,7 +154,7 @@ public class SimpleExplanationSet implements IExplanationSet {
 		if (other == null)
 			return this;
 		this.expls.addAll(other.getExplanationsSet());
-		this.targetSideEffects.union(other.getSideEffects());
+		this.targetSideEffects = this.targetSideEffects.union(other.getSideEffects());
 		return this;
 	}
 	
@@ -195,8 +198,18 @@ public class SimpleExplanationSet implements IExplanationSet {
 		return add(e);
 	}
 
+	/**
+	 * Adds the side effects of all new explanations with a single n-way
+	 * union.
+	 */
 	@Override
 	public boolean addAll(Collection<? extends IBasicExplanation> c) {
+		List<IMarkerSet> sideEffects = new ArrayList<IMarkerSet> (c.size());
+		
+		for(IBasicExplanation expl: c)
+			sideEffects.add(getSideEffects(expl));
+		targetSideEffects = targetSideEffects.unionAll(sideEffects);
+		
 		return expls.addAll(c);
 	}
 
@@ -15,6 +15,7 @@ import org.vagabond.explanation.marker.IMarkerSet;
 import org.vagabond.explanation.marker.ISingleMarker;
 import org.vagabond.explanation.marker.MarkerComparators;
 import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.explanation.marker.MarkerSetUtil;
 import org.vagabond.explanation.model.ExplanationCollection;
 import org.vagabond.explanation.model.ExplanationFactory;
 import org.vagabond.explanation.model.IExplanationSet;
@@ -351,6 +352,7 @@ public class AStarExplanationRanker implements IExplanationRanker {
 	private BitMatrix sameExplanations;
 	private Set<IBasicExplanation> confirmedExplanations;
 	private Set<ISingleMarker> confirmedMarkers;
+	private long sizeRecountsAtInit = 0L;
 
 	public AStarExplanationRanker(IScoringFunction function) {
 		initializeListsAndSets();
@@ -379,6 +381,7 @@ public class AStarExplanationRanker implements IExplanationRanker {
 	public void initializeCollection(ExplanationCollection collection) {
 		int j, numberOfExplanations;
 
+		sizeRecountsAtInit = MarkerSetUtil.getNumSizeRecounts();
 		numberOfSets = 1;
 		explCollection = collection;
 		
@@ -817,9 +820,20 @@ public class AStarExplanationRanker implements IExplanationRanker {
 				log.debug("ranking done");
 			}
 		}
+		if (log.isDebugEnabled())
+			log.debug("full marker set size recounts during ranking: " 
+					+ getNumSizeRecounts());
 		resetIter();
 	}
 
+	/**
+	 * @return number of marker set sizes that had to be recounted from
+	 *         scratch since the collection was initialized
+	 */
+	public long getNumSizeRecounts() {
+		return MarkerSetUtil.getNumSizeRecounts() - sizeRecountsAtInit;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
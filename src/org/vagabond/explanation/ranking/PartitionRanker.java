@@ -7,6 +7,7 @@ import java.util.NoSuchElementException;
 import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
+import org.vagabond.explanation.marker.MarkerSetUtil;
 import org.vagabond.explanation.model.ExplPartition;
 import org.vagabond.explanation.model.ExplanationCollection;
 import org.vagabond.explanation.model.ExplanationFactory;
@@ -186,6 +187,7 @@ public class PartitionRanker implements IPartitionRanker {
 	private ExplPartition part;
 	private IExplanationRanker[] rankers;
 	private IScoringFunction scoreF;
+	private long sizeRecountsAtInit = 0L;
 	
 	public PartitionRanker (IScoringFunction scoreF) {
 		rankedExpls = new ArrayList<FullExplSummary> ();
@@ -292,6 +294,17 @@ public class PartitionRanker implements IPartitionRanker {
 			s.computeScore();
 			s = ranking.lower(s);
 		}
+		if (log.isDebugEnabled())
+			log.debug("full marker set size recounts during ranking: " 
+					+ getNumSizeRecounts());
+	}
+
+	/**
+	 * @return number of marker set sizes that had to be recounted from
+	 *         scratch since the partition was initialized
+	 */
+	public long getNumSizeRecounts () {
+		return MarkerSetUtil.getNumSizeRecounts() - sizeRecountsAtInit;
 	}
 	
 	private boolean addExtended (FullExplSummary elem) {
@@ -352,6 +365,7 @@ public class PartitionRanker implements IPartitionRanker {
 	public void initialize(ExplPartition part, BitsetType type) {
 		int numParts;
 		
+		sizeRecountsAtInit = MarkerSetUtil.getNumSizeRecounts();
 		this.part = part;
 		numParts = part.size();
 		
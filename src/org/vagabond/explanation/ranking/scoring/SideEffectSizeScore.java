@@ -1,9 +1,11 @@
 package org.vagabond.explanation.ranking.scoring;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.vagabond.explanation.marker.IMarkerSet;
-import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.explanation.marker.MarkerSetUtil;
 import org.vagabond.explanation.model.IExplanationSet;
 import org.vagabond.explanation.model.basic.IBasicExplanation;
 
@@ -26,14 +28,18 @@ public class SideEffectSizeScore implements IScoringFunction {
 		return Monotonicity.unionMonotone;
 	}
 
+	/**
+	 * Size of the union of the side effects computed without building the
+	 * union.
+	 */
 	@Override
 	public int getScore(Collection<IBasicExplanation> expls) {
-		IMarkerSet sideEff = MarkerFactory.newMarkerSet();
+		List<IMarkerSet> sideEffs = new ArrayList<IMarkerSet> (expls.size());
 		
 		for(IBasicExplanation expl: expls)
-			sideEff.union(expl.getRealTargetSideEffects());
+			sideEffs.add(expl.getRealTargetSideEffects());
 		
-		return sideEff.getSize();
+		return MarkerSetUtil.unionSize(sideEffs);
 	}
 
 
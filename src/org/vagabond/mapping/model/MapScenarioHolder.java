@@ -253,7 +253,7 @@ public class MapScenarioHolder {
 		return false;
 	}
 	
-	public RelationType getRelCreateByTrans (TransformationType t) throws Exception {
+	public synchronized RelationType getRelCreateByTrans (TransformationType t) throws Exception {
 		if (!transToTarget.containsKey(t)) {
 			String relId = t.getCreates();
 			transToTarget.put(t, getRelForName(relId, true));
@@ -261,7 +261,7 @@ public class MapScenarioHolder {
 		return transToTarget.get(t);
 	}
 	
-	public RelationType[] getRelsAccessedByTrans (TransformationType t) throws Exception {		
+	public synchronized RelationType[] getRelsAccessedByTrans (TransformationType t) throws Exception {		
 		if (!transToSource.containsKey(t)) {
 			List<String> relNames;
 			RelationType [] rels;
@@ -377,7 +377,7 @@ public class MapScenarioHolder {
 		throw new Exception ("Did not find mapping with name <" + name + ">");
 	}
 	
-	public MappingGraph getGraphForMapping (MappingType map) throws Exception {
+	public synchronized MappingGraph getGraphForMapping (MappingType map) throws Exception {
 		if (!graphsForMaps.containsKey(map)) {
 			graphsForMaps.put(map,  new MappingGraph(map));
 		}
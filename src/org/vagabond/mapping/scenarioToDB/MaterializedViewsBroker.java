@@ -1,54 +1,384 @@
 package org.vagabond.mapping.scenarioToDB;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.vagabond.explanation.marker.MarkerSetFlattenedView;
+import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.LogProviderHolder;
+import org.vagabond.util.LoggerUtil;
 
+/**
+ * Manages the tables that materialize {@link MarkerSetFlattenedView}s.
+ * Views with the same query (ignoring case and whitespace outside of string
+ * literals) share one table. Each table counts the views that use it. Tables
+ * no longer used by any view stay cached for reuse until the number of
+ * cached tables or rows exceeds the budget, then the least recently used
+ * ones are dropped. A view that modifies a shared table first gets its own
+ * copy.
+ */
 public class MaterializedViewsBroker {
 
 	static Logger log = LogProviderHolder.getInstance().getLogger(MaterializedViewsBroker.class);
-	
+
+	public enum TableType {
+		Regular,
+		Unlogged,
+		Temp
+	}
+
+	public static final int DEFAULT_MAX_TABLES = 256;
+	public static final long DEFAULT_MAX_ROWS = 10000000L;
+	public static final String TABLE_PREFIX = "errmarkers";
+
 	private static MaterializedViewsBroker instance;
 	private static int maxViewId = 0;
-		
-	private HashMap<MarkerSetFlattenedView, Integer> vm = new HashMap<MarkerSetFlattenedView, Integer>();
-	
+
+	private class ViewTable {
+		String tableName;
+		String normQuery;
+		long numRows;
+		List<MarkerSetFlattenedView> users = new ArrayList<MarkerSetFlattenedView> ();
+	}
+
+	/** tables by normalized query in LRU order */
+	private LinkedHashMap<String, ViewTable> tables =
+			new LinkedHashMap<String, ViewTable> (16, 0.75f, true);
+	private Map<String, ViewTable> tablesByName = new HashMap<String, ViewTable> ();
+	private TableType tableType = TableType.Unlogged;
+	private int maxTables = DEFAULT_MAX_TABLES;
+	private long maxRows = DEFAULT_MAX_ROWS;
+	private long numRows = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
 	private MaterializedViewsBroker () {
 	}
-	
+
 	public static synchronized MaterializedViewsBroker getInstance() {
 		if (instance == null) {
 			instance = new MaterializedViewsBroker();
 		}
-		
+
 		return instance;
 	}
-	
+
 	public Object clone() throws CloneNotSupportedException {
 		throw new CloneNotSupportedException();
 	}
-	
-	public synchronized int getViewHandler(MarkerSetFlattenedView markers) {
-		if (vm.containsKey(markers))
-			return vm.get(markers);
 
-		maxViewId++;
-		vm.put(markers, maxViewId);
-		return maxViewId;
+	/**
+	 * @return the name of a table storing the result of the query of view.
+	 * 		Creates the table unless a table for the same normalized query
+	 * 		exists. Each call has to be matched by a call of
+	 * 		{@link #release(MarkerSetFlattenedView, String)}.
+	 */
+	public synchronized String acquire(MarkerSetFlattenedView view) throws SQLException, ClassNotFoundException {
+		String key = normalizeQuery(view.getQuery());
+		ViewTable t = tables.get(key);
+
+		if (t != null) {
+			hits++;
+			if (log.isDebugEnabled()) {log.debug("reuse table " + t.tableName + " for query:\n" + view.getQuery());};
+		}
+		else {
+			misses++;
+			t = new ViewTable();
+			t.tableName = TABLE_PREFIX + (++maxViewId);
+			t.normQuery = key;
+			t.numRows = createTable(t.tableName, view.getQuery());
+			numRows += t.numRows;
+			tables.put(key, t);
+			tablesByName.put(t.tableName, t);
+		}
+		t.users.add(view);
+		evictCold();
+
+		return t.tableName;
+	}
+
+	/**
+	 * The view no longer uses the table. The table stays cached until it is
+	 * evicted.
+	 */
+	public synchronized void release(MarkerSetFlattenedView view, String tableName) {
+		ViewTable t = tablesByName.get(tableName);
+
+		if (t == null)
+			return;
+		removeUser(t, view);
+		// tables that are not cached under their query cannot be reused
+		if (t.users.isEmpty() && tables.get(t.normQuery) != t)
+			dropTableOnly(t);
+		evictCold();
+	}
+
+	/**
+	 * Called before view modifies its table. If the table is shared with
+	 * other views, the view gets its own copy. The table is then registered
+	 * under the current (already modified) query of the view.
+	 *
+	 * @return the table the view has to modify
+	 */
+	public synchronized String prepareUpdate(MarkerSetFlattenedView view, String tableName) throws SQLException, ClassNotFoundException {
+		ViewTable t = tablesByName.get(tableName);
+		String key = normalizeQuery(view.getQuery());
+		ViewTable other;
+
+		if (t == null)
+			return tableName;
+
+		if (t.users.size() > 1) {
+			ViewTable copy = new ViewTable();
+
+			removeUser(t, view);
+			copy.tableName = TABLE_PREFIX + (++maxViewId);
+			copy.numRows = createTable(copy.tableName,
+					"SELECT * FROM " + t.tableName);
+			copy.users.add(view);
+			numRows += copy.numRows;
+			tablesByName.put(copy.tableName, copy);
+			t = copy;
+		}
+		// another table may be cached under the old query of the view
+		else if (tables.get(t.normQuery) == t)
+			tables.remove(t.normQuery);
+
+		// the new query may match a cached table that nobody uses anymore
+		other = tables.get(key);
+		if (other != null && other.users.isEmpty())
+			dropTable(other);
+		t.normQuery = key;
+		if (!tables.containsKey(key))
+			tables.put(key, t);
+
+		return t.tableName;
+	}
+
+	/**
+	 * Called after view added or removed rows from its table.
+	 */
+	public synchronized void updateNumRows(String tableName, long delta) {
+		ViewTable t = tablesByName.get(tableName);
+
+		if (t != null) {
+			t.numRows += delta;
+			numRows += delta;
+		}
+	}
+
+	private void removeUser(ViewTable t, MarkerSetFlattenedView view) {
+		for(Iterator<MarkerSetFlattenedView> i = t.users.iterator(); i.hasNext();)
+			if (i.next() == view) {
+				i.remove();
+				return;
+			}
+	}
+
+	private long createTable(String tableName, String query) throws SQLException, ClassNotFoundException {
+		ConnectionManager con = ConnectionManager.getInstance();
+		long rows;
+
+		con.execUpdate("DROP TABLE IF EXISTS " + tableName);
+		rows = con.execUpdate("CREATE " + getTableTypeKeyword() + "TABLE "
+				+ tableName + " AS " + query);
+		con.execUpdate("CREATE INDEX " + tableName + "_rel_tid ON "
+				+ tableName + " (rel, tid)");
+		con.execUpdate("ANALYZE " + tableName);
+
+		if (log.isDebugEnabled()) {log.debug("created table " + tableName + " with " + rows + " rows for query:\n" + query);};
+
+		return rows;
+	}
+
+	private String getTableTypeKeyword() {
+		switch(tableType) {
+		case Unlogged:
+			return "UNLOGGED ";
+		case Temp:
+			return "TEMP ";
+		default:
+			return "";
+		}
+	}
+
+	/**
+	 * Drop least recently used tables that are not used by any view until
+	 * the budget is met.
+	 */
+	private void evictCold() {
+		Iterator<ViewTable> i = tables.values().iterator();
+
+		while (i.hasNext() && (tablesByName.size() > maxTables || numRows > maxRows)) {
+			ViewTable t = i.next();
+
+			if (t.users.isEmpty()) {
+				i.remove();
+				dropTableOnly(t);
+				evictions++;
+			}
+		}
+	}
+
+	private void dropTable(ViewTable t) {
+		tables.remove(t.normQuery);
+		dropTableOnly(t);
 	}
-	
-	public synchronized int getNextViewId() {
-		return maxViewId+1;
+
+	private void dropTableOnly(ViewTable t) {
+		tablesByName.remove(t.tableName);
+		numRows -= t.numRows;
+		try {
+			ConnectionManager.getInstance().execUpdate("DROP TABLE IF EXISTS " + t.tableName);
+		}
+		catch (Exception e) {
+			LoggerUtil.logException(e, log);
+		}
+		if (log.isDebugEnabled()) {log.debug("dropped table " + t.tableName);};
+	}
+
+	/**
+	 * @return query with whitespace runs collapsed to a single space and
+	 * 		lower case characters outside of string literals
+	 */
+	public static String normalizeQuery(String query) {
+		StringBuilder result = new StringBuilder(query.length());
+		boolean inLiteral = false;
+		boolean lastSpace = true;
+
+		for(int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+
+			if (c == '\'') {
+				inLiteral = !inLiteral;
+				result.append(c);
+				lastSpace = false;
+			}
+			else if (inLiteral)
+				result.append(c);
+			else if (Character.isWhitespace(c)) {
+				if (!lastSpace)
+					result.append(' ');
+				lastSpace = true;
+			}
+			else {
+				result.append(Character.toLowerCase(c));
+				lastSpace = false;
+			}
+		}
+
+		if (result.length() > 0 && result.charAt(result.length() - 1) == ' ')
+			result.deleteCharAt(result.length() - 1);
+
+		return result.toString();
+	}
+
+	/**
+	 * Drop all cached tables that are not used by any view, e.g., because
+	 * the data they were computed from has changed.
+	 */
+	public synchronized void dropUnused() {
+		Iterator<ViewTable> i = tables.values().iterator();
+
+		while (i.hasNext()) {
+			ViewTable t = i.next();
+
+			if (t.users.isEmpty()) {
+				i.remove();
+				dropTableOnly(t);
+			}
+		}
 	}
-	
-	public void decompose() {
-		for (MarkerSetFlattenedView o : vm.keySet()) {
-			o.decompose();
+
+	/**
+	 * Drop all tables. Views using them are decomposed.
+	 */
+	public synchronized void decompose() {
+		List<ViewTable> all = new ArrayList<ViewTable> (tablesByName.values());
+
+		tables.clear();
+		tablesByName.clear();
+		for (ViewTable t: all) {
+			for (MarkerSetFlattenedView v: t.users)
+				v.decompose();
+			dropTableOnly(t);
 		}
-		vm.clear();
+		numRows = 0;
 		maxViewId = 0;
 	}
-	
+
+	public TableType getTableType() {
+		return tableType;
+	}
+
+	/**
+	 * Temp tables are only visible to the connection that created them.
+	 */
+	public void setTableType(TableType tableType) {
+		this.tableType = tableType;
+	}
+
+	public int getMaxTables() {
+		return maxTables;
+	}
+
+	public synchronized void setMaxTables(int maxTables) {
+		this.maxTables = maxTables;
+		evictCold();
+	}
+
+	public long getMaxRows() {
+		return maxRows;
+	}
+
+	public synchronized void setMaxRows(long maxRows) {
+		this.maxRows = maxRows;
+		evictCold();
+	}
+
+	public synchronized int getNumTables() {
+		return tablesByName.size();
+	}
+
+	public synchronized long getNumRows() {
+		return numRows;
+	}
+
+	public synchronized int getRefCount(String tableName) {
+		ViewTable t = tablesByName.get(tableName);
+
+		return t == null ? 0 : t.users.size();
+	}
+
+	public long getNumHits() {
+		return hits;
+	}
+
+	public long getNumMisses() {
+		return misses;
+	}
+
+	public long getNumEvictions() {
+		return evictions;
+	}
+
+	public synchronized void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	public synchronized String getStatistics() {
+		return "materialized views: " + tablesByName.size() + " tables with "
+				+ numRows + " rows, " + hits + " hits, " + misses + " misses, "
+				+ evictions + " evictions";
+	}
+
 }
@@ -74,7 +74,7 @@ public class BitMatrix {
 		int count = 0;
 		
 		for(;iter.hasNext(); iter.next())
-			return count++;
+			count++;
 		return count;
 	}
 	
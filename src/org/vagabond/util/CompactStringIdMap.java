@@ -0,0 +1,236 @@
+package org.vagabond.util;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Compact bidirectional mapping between strings and dense integer ids
+ * (0, 1, 2, ...). Used as a replacement for {@link IdMap} where the values are
+ * strings and the number of entries is large (e.g., tids of relations).
+ *
+ * Strings are stored UTF-8 encoded back-to-back in a single byte array with an
+ * int array of start offsets (id -> string). The reverse direction (string ->
+ * id) uses an open-addressing hash table that stores ids as primitive ints.
+ * There are no per-entry objects, so an entry costs the encoded string plus
+ * roughly 12 bytes.
+ */
+public class CompactStringIdMap {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final int EMPTY = -1;
+
+	/** encoded strings stored back-to-back */
+	private byte[] data;
+	private int dataLen;
+	/** starts[id] is the first byte of string id, starts[size] == dataLen */
+	private int[] starts;
+	/** open addressing hash table storing ids, EMPTY for unused slots */
+	private int[] table;
+	private int size;
+
+	public CompactStringIdMap () {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public CompactStringIdMap (int expectedSize) {
+		int cap = Math.max(expectedSize, DEFAULT_CAPACITY);
+		data = new byte[cap * 8];
+		starts = new int[cap + 1];
+		table = new int[tableSizeFor(cap)];
+		Arrays.fill(table, EMPTY);
+		dataLen = 0;
+		size = 0;
+	}
+
+	/**
+	 * Add a string and assign it the next free id. If the string is already
+	 * present its existing id is returned.
+	 *
+	 * @return the id of the string
+	 */
+	public int put (String value) {
+		int hash = hash(value);
+		int slot = findSlot(value, hash);
+		byte[] encoded;
+
+		if (table[slot] != EMPTY)
+			return table[slot];
+
+		encoded = value.getBytes(UTF8);
+		ensureDataCapacity(dataLen + encoded.length);
+		if (size + 2 > starts.length)
+			starts = Arrays.copyOf(starts, starts.length * 2);
+
+		System.arraycopy(encoded, 0, data, dataLen, encoded.length);
+		starts[size] = dataLen;
+		dataLen += encoded.length;
+		starts[size + 1] = dataLen;
+		table[slot] = size;
+		size++;
+
+		if (size * 2 > table.length)
+			rehash(table.length * 2);
+
+		return size - 1;
+	}
+
+	/**
+	 * @return the string with this id or null if there is no such id
+	 */
+	public String get (int id) {
+		if (!containsKey(id))
+			return null;
+		return new String(data, starts[id], starts[id + 1] - starts[id], UTF8);
+	}
+
+	/**
+	 * @return the id of the string or -1 if the string is not present
+	 */
+	public int getId (String value) {
+		return table[findSlot(value, hash(value))];
+	}
+
+	public boolean containsKey (int id) {
+		return id >= 0 && id < size;
+	}
+
+	public boolean containsVal (String value) {
+		return getId(value) != EMPTY;
+	}
+
+	public int size () {
+		return size;
+	}
+
+	public int getMaxId () {
+		return size - 1;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	public void clear () {
+		Arrays.fill(table, EMPTY);
+		dataLen = 0;
+		size = 0;
+	}
+
+	/**
+	 * @return approximate number of bytes used by the arrays of this map
+	 */
+	public long getByteSize () {
+		return data.length + 4L * starts.length + 4L * table.length;
+	}
+
+	private int findSlot (String value, int hash) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+
+		while (table[slot] != EMPTY && !equalsAt(table[slot], value))
+			slot = (slot + 1) & mask;
+
+		return slot;
+	}
+
+	private void rehash (int newSize) {
+		int[] newTable = new int[newSize];
+		int mask = newSize - 1;
+
+		Arrays.fill(newTable, EMPTY);
+		for(int id = 0; id < size; id++) {
+			int slot = hashAt(id) & mask;
+			while (newTable[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			newTable[slot] = id;
+		}
+
+		table = newTable;
+	}
+
+	private void ensureDataCapacity (int minCap) {
+		if (minCap > data.length)
+			data = Arrays.copyOf(data, Math.max(minCap, data.length * 2));
+	}
+
+	/**
+	 * Compare the stored string id with value without decoding the stored
+	 * bytes. Falls back to decoding for non-ASCII strings.
+	 */
+	private boolean equalsAt (int id, String value) {
+		int start = starts[id];
+		int len = starts[id + 1] - start;
+
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80)
+				return get(id).equals(value);
+			if (i >= len || data[start + i] != (byte) c)
+				return false;
+		}
+
+		return len == value.length();
+	}
+
+	/**
+	 * Hash over the UTF-8 bytes of a string. For ASCII strings this is computed
+	 * directly from the chars to avoid encoding the string.
+	 */
+	private static int hash (String value) {
+		int h = 0;
+
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				byte[] encoded = value.getBytes(UTF8);
+				return hash(encoded, 0, encoded.length);
+			}
+			h = 31 * h + c;
+		}
+
+		return mix(h);
+	}
+
+	private int hashAt (int id) {
+		return hash(data, starts[id], starts[id + 1]);
+	}
+
+	private static int hash (byte[] bytes, int start, int end) {
+		int h = 0;
+
+		for(int i = start; i < end; i++)
+			h = 31 * h + (bytes[i] & 0xFF);
+
+		return mix(h);
+	}
+
+	private static int mix (int h) {
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+
+	private static int tableSizeFor (int cap) {
+		int n = 1;
+		while (n < cap * 2)
+			n <<= 1;
+		return n;
+	}
+
+	@Override
+	public String toString () {
+		StringBuilder result = new StringBuilder();
+
+		result.append('{');
+		for(int i = 0; i < size; i++) {
+			result.append(i + "=" + get(i));
+			if (i < size - 1)
+				result.append(", ");
+		}
+		result.append('}');
+
+		return result.toString();
+	}
+}
@@ -2,16 +2,44 @@ package org.vagabond.util;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.postgresql.PGStatement;
 import org.vagabond.mapping.model.MapScenarioHolder;
 import org.vagabond.xmlmodel.ConnectionInfoType;
 
 /**
- * Singleton for conveniently creating database connections.
+ * Singleton for conveniently creating database connections. Besides the 
+ * main connection it keeps a pool of connections to the same database. A 
+ * thread can bind a pooled connection to itself, which is then used by all
+ * methods that do not take a connection as a parameter.
+ * 
+ * Queries with bind parameters are executed as prepared statements that are
+ * cached per connection. The server prepares a statement once it has been 
+ * executed prepareThreshold times.
+ * 
+ * Queries with large results can be executed in streaming mode. The result
+ * is then fetched fetchSize rows at a time through a cursor which requires
+ * a transaction. The transaction is committed once the last streaming 
+ * result of the connection is closed with {@link #closeRs(ResultSet)}.
+ * 
+ * If {@link QueryStatistics} is enabled, the execution of each query is 
+ * recorded for the query template that produced it.
  * 
  * @author Boris Glavic
  *
@@ -20,15 +48,46 @@ public class ConnectionManager {
 
 	static Logger log = LogProviderHolder.getInstance().getLogger(ConnectionManager.class);
 	
+	public static final int DEFAULT_PREPARE_THRESHOLD = 3;
+	public static final int DEFAULT_MAX_CACHED_STATEMENTS = 128;
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	
 	private static ConnectionManager instance;
 	
 	private Connection con = null;
+	private String conURL = null;
+	private String conUser;
+	private String conPassword;
+	private LinkedList<Connection> idleCons = new LinkedList<Connection> ();
+	private List<Connection> pooledCons = new ArrayList<Connection> ();
+	private ThreadLocal<Connection> threadCon = new ThreadLocal<Connection> ();
+	/** prepared statements per connection by SQL in LRU order */
+	private Map<Connection, LinkedHashMap<String, PreparedStatement>> stmtCache = 
+			new IdentityHashMap<Connection, LinkedHashMap<String, PreparedStatement>> ();
+	private Set<Statement> cachedSts = 
+			Collections.newSetFromMap(new IdentityHashMap<Statement, Boolean> ());
+	private int prepareThreshold = DEFAULT_PREPARE_THRESHOLD;
+	private int maxCachedStatements = DEFAULT_MAX_CACHED_STATEMENTS;
+	private long stmtHits = 0;
+	private long stmtMisses = 0;
+	/** connections with open streaming results */
+	private Map<Connection, CursorTransaction> cursorTrans = 
+			new IdentityHashMap<Connection, CursorTransaction> ();
+	private Set<Statement> cursorSts = 
+			Collections.newSetFromMap(new IdentityHashMap<Statement, Boolean> ());
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+	
+	private class CursorTransaction {
+		int numOpen = 0;
+		/** true if the transaction was started for the cursors */
+		boolean ownTrans;
+	}
 	
 	private ConnectionManager () throws ClassNotFoundException {
 		Class.forName("org.postgresql.Driver");
 	}
 	
-	public static ConnectionManager getInstance () throws ClassNotFoundException {
+	public static synchronized ConnectionManager getInstance () throws ClassNotFoundException {
 		if (instance == null) {
 			instance = new ConnectionManager ();
 		}
@@ -44,61 +103,544 @@ public class ConnectionManager {
 	public Connection getConnection (String URL, String dbName, 
 			String user, String password, int port) throws SQLException {
 		closeCon();
-		con =  DriverManager.getConnection(
-				"jdbc:postgresql://" + URL + ":" + port + "/" + dbName, user, password);
+		conURL = "jdbc:postgresql://" + URL + ":" + port + "/" + dbName;
+		conUser = user;
+		conPassword = password;
+		con =  DriverManager.getConnection(conURL, user, password);
 		return con;
 	}
 	
+	/**
+	 * @return the connection bound to the current thread or the main 
+	 * 		connection
+	 */
 	public Connection getConnection () {
-		return con;
+		Connection tCon = threadCon.get();
+		
+		return (tCon != null) ? tCon : con;
 	}
 	
 	public void setConnection (Connection con) {
 		this.con = con;
 	}
 	
+	/**
+	 * Bind a connection from the pool to the current thread. A new connection
+	 * is opened if the pool has no idle connections. If the main connection
+	 * was not opened by this class, no pooled connections can be created and
+	 * the thread keeps using the main connection.
+	 * 
+	 * @return the connection bound to the current thread
+	 */
+	public Connection acquireThreadConnection () throws SQLException {
+		Connection tCon;
+		
+		if (threadCon.get() != null)
+			return threadCon.get();
+		
+		synchronized (this) {
+			if (conURL == null)
+				return con;
+			tCon = idleCons.poll();
+			if (tCon == null || tCon.isClosed()) {
+				tCon = DriverManager.getConnection(conURL, conUser, conPassword);
+				pooledCons.add(tCon);
+				if (log.isDebugEnabled()) {log.debug("opened pooled connection " + pooledCons.size());};
+			}
+		}
+		threadCon.set(tCon);
+		
+		return tCon;
+	}
+	
+	/**
+	 * Return the connection bound to the current thread to the pool.
+	 */
+	public void releaseThreadConnection () {
+		Connection tCon = threadCon.get();
+		
+		if (tCon == null)
+			return;
+		threadCon.remove();
+		synchronized (this) {
+			idleCons.add(tCon);
+		}
+	}
+	
+	public synchronized int getNumPooledConnections () {
+		return pooledCons.size();
+	}
+	
+	public synchronized void closePool () throws SQLException {
+		for(Connection pCon: pooledCons) {
+			clearStatementCache(pCon);
+			cursorTrans.remove(pCon);
+			if (!pCon.isClosed())
+				pCon.close();
+		}
+		pooledCons.clear();
+		idleCons.clear();
+	}
+	
 	public void closeCon () throws SQLException {
+		closePool();
 		if (con != null && !con.isClosed()) {
+			clearStatementCache(con);
+			synchronized (this) {
+				cursorTrans.remove(con);
+			}
 			con.close();
 			con = null;
 		}
 	}
 	
 	public Statement getSt () throws SQLException {
-		return con.createStatement();
+		return getConnection().createStatement();
 	}
 	
+	/**
+	 * Close the result set and its statement unless the statement is a cached
+	 * prepared statement. Streaming results should be closed in a finally 
+	 * block, otherwise the transaction of the cursor stays open if reading
+	 * the result fails.
+	 */
 	public void closeRs (ResultSet rs) throws SQLException {
-		rs.getStatement().close();
+		Statement st = rs.getStatement();
+		boolean cached, cursor;
+		
+		synchronized (this) {
+			cached = cachedSts.contains(st);
+			cursor = cursorSts.remove(st);
+		}
+		if (cursor) {
+			Connection stCon = st.getConnection();
+			
+			try {
+				rs.close();
+				st.close();
+			}
+			finally {
+				endCursor(stCon);
+			}
+			return;
+		}
+		if (!cached)
+			st.close();
 		rs.close();
 	}
 	
+	/**
+	 * Execute a query and fetch the result incrementally (fetchSize rows at a
+	 * time). The result has to be closed with {@link #closeRs(ResultSet)} to
+	 * finish the transaction of the cursor. 
+	 */
+	public ResultSet execQueryStreaming (String query) throws SQLException {
+		return execQueryStreaming(getConnection(), query);
+	}
+	
+	public ResultSet execQueryStreaming (Connection userCon, String query) 
+			throws SQLException {
+		Statement st;
+		ResultSet rs;
+		
+		long start = System.nanoTime();
+		
+		beginCursor(userCon);
+		try {
+			st = userCon.createStatement(ResultSet.TYPE_FORWARD_ONLY, 
+					ResultSet.CONCUR_READ_ONLY);
+			st.setFetchSize(fetchSize);
+			rs = st.executeQuery(query);
+		}
+		catch (SQLException e) {
+			abortCursor(userCon);
+			throw e;
+		}
+		
+		synchronized (this) {
+			cursorSts.add(st);
+		}
+		
+		return instrument(userCon, null, query, null, start, rs);
+	}
+	
+	/**
+	 * Streaming execution of a query with <code>?</code> placeholders that 
+	 * are bound to params. The statement is not cached.
+	 */
+	public ResultSet execPreparedStreaming (String query, Object ... params) 
+			throws SQLException {
+		Connection userCon = getConnection();
+		PreparedStatement st;
+		ResultSet rs;
+		long start = System.nanoTime();
+		
+		if (params.length == 0)
+			return execQueryStreaming(userCon, query);
+		
+		beginCursor(userCon);
+		try {
+			st = userCon.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, 
+					ResultSet.CONCUR_READ_ONLY);
+			st.setFetchSize(fetchSize);
+			for(int i = 0; i < params.length; i++)
+				setParameter(st, i + 1, params[i]);
+			rs = st.executeQuery();
+		}
+		catch (SQLException e) {
+			abortCursor(userCon);
+			throw e;
+		}
+		
+		synchronized (this) {
+			cursorSts.add(st);
+		}
+		
+		return instrument(userCon, null, query, params, start, rs);
+	}
+	
+	private synchronized void beginCursor (Connection userCon) throws SQLException {
+		CursorTransaction trans = cursorTrans.get(userCon);
+		
+		if (trans == null) {
+			trans = new CursorTransaction();
+			trans.ownTrans = userCon.getAutoCommit();
+			if (trans.ownTrans)
+				userCon.setAutoCommit(false);
+			cursorTrans.put(userCon, trans);
+		}
+		trans.numOpen++;
+	}
+	
+	private synchronized void endCursor (Connection userCon) throws SQLException {
+		CursorTransaction trans = cursorTrans.get(userCon);
+		
+		if (trans == null || --trans.numOpen > 0)
+			return;
+		cursorTrans.remove(userCon);
+		if (trans.ownTrans) {
+			try {
+				userCon.commit();
+			}
+			catch (SQLException e) {
+				userCon.rollback();
+				throw e;
+			}
+			finally {
+				userCon.setAutoCommit(true);
+			}
+		}
+	}
+	
+	/**
+	 * The query failed and the transaction is unusable. Roll it back if it 
+	 * was started for the cursor and no other cursor is open. 
+	 */
+	private synchronized void abortCursor (Connection userCon) throws SQLException {
+		CursorTransaction trans = cursorTrans.get(userCon);
+		
+		if (trans == null || --trans.numOpen > 0)
+			return;
+		cursorTrans.remove(userCon);
+		if (trans.ownTrans) {
+			userCon.rollback();
+			userCon.setAutoCommit(true);
+		}
+	}
+	
+	public int getFetchSize() {
+		return fetchSize;
+	}
+	
+	/**
+	 * Number of rows fetched at a time for streaming results.
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+	
+	/**
+	 * Execute a query template as a prepared statement on the connection of 
+	 * the current thread. Text parameters of the template are replaced by the
+	 * string value of the corresponding parameter, bind parameters are set
+	 * according to the type of the parameter.
+	 */
+	public ResultSet execPrepared (QueryTemplate query, Object ... params) 
+			throws SQLException {
+		return execPrepared(getConnection(), query, params);
+	}
+	
+	public ResultSet execPrepared (Connection userCon, QueryTemplate query, 
+			Object ... params) throws SQLException {
+		PreparedStatement st;
+		int[] bindParams = query.getBindParams();
+		String sql = query.getPreparedSQL(params);
+		long start = System.nanoTime();
+		
+		st = getPreparedStatement(userCon, sql);
+		for(int i = 0; i < bindParams.length; i++)
+			setParameter(st, i + 1, params[bindParams[i]]);
+		
+		return instrument(userCon, query.getName(), sql, 
+				getBindValues(query, params), start, st.executeQuery());
+	}
+	
+	public int execPreparedUpdate (QueryTemplate query, Object ... params) 
+			throws SQLException {
+		PreparedStatement st;
+		int[] bindParams = query.getBindParams();
+		String sql = query.getPreparedSQL(params);
+		long start = System.nanoTime();
+		int numRowsAff;
+		
+		st = getPreparedStatement(getConnection(), sql);
+		for(int i = 0; i < bindParams.length; i++)
+			setParameter(st, i + 1, params[bindParams[i]]);
+		
+		numRowsAff = st.executeUpdate();
+		if (QueryStatistics.getInstance().isEnabled())
+			QueryStatistics.getInstance().recordUpdate(getConnection(), 
+					query.getName(), sql, getBindValues(query, params), start, 
+					numRowsAff);
+		
+		return numRowsAff;
+	}
+	
+	/**
+	 * @return the values bound to the placeholders of the prepared SQL
+	 */
+	private Object[] getBindValues (QueryTemplate query, Object[] params) {
+		int[] bindParams = query.getBindParams();
+		Object[] result = new Object[bindParams.length];
+		
+		for(int i = 0; i < bindParams.length; i++)
+			result[i] = params[bindParams[i]];
+		
+		return result;
+	}
+	
+	/**
+	 * Record the execution of a query with {@link QueryStatistics}.
+	 * 
+	 * @return the result set, wrapped to count the rows fetched if 
+	 * 		statistics are enabled
+	 */
+	private ResultSet instrument (Connection userCon, String name, String sql,
+			Object[] bindValues, long start, ResultSet rs) {
+		QueryStatistics stats = QueryStatistics.getInstance();
+		
+		if (!stats.isEnabled())
+			return rs;
+		
+		return stats.recordQuery(userCon, name, sql, bindValues, start, rs);
+	}
+	
+	/**
+	 * @return the plan of a query with <code>?</code> placeholders bound to 
+	 * 		params. Within a transaction, a failing EXPLAIN is rolled back to
+	 * 		a savepoint to keep the transaction usable.
+	 */
+	public String explain (Connection userCon, String sql, Object ... params)
+			throws SQLException {
+		StringBuilder result = new StringBuilder();
+		Savepoint save = userCon.getAutoCommit() ? null : userCon.setSavepoint();
+		PreparedStatement st = null;
+		ResultSet rs;
+		
+		try {
+			st = userCon.prepareStatement("EXPLAIN " + sql);
+			for(int i = 0; params != null && i < params.length; i++)
+				setParameter(st, i + 1, params[i]);
+			rs = st.executeQuery();
+			while(rs.next())
+				result.append(rs.getString(1)).append('\n');
+			rs.close();
+		}
+		catch (SQLException e) {
+			if (save != null)
+				userCon.rollback(save);
+			save = null;
+			throw e;
+		}
+		finally {
+			if (st != null)
+				st.close();
+			if (save != null)
+				userCon.releaseSavepoint(save);
+		}
+		
+		return result.toString();
+	}
+	
+	/**
+	 * Strings are passed with unspecified type to let the server infer the 
+	 * type as for a quoted literal, e.g., to compare them with INT8 tids.
+	 * Arrays of longs are passed as INT8 arrays.
+	 */
+	private void setParameter (PreparedStatement st, int pos, Object value) 
+			throws SQLException {
+		if (value == null)
+			st.setNull(pos, Types.OTHER);
+		else if (value instanceof String)
+			st.setObject(pos, value, Types.OTHER);
+		else if (value instanceof Integer)
+			st.setInt(pos, (Integer) value);
+		else if (value instanceof Long)
+			st.setLong(pos, (Long) value);
+		else if (value instanceof Boolean)
+			st.setBoolean(pos, (Boolean) value);
+		else if (value instanceof long[]) {
+			long[] vals = (long[]) value;
+			Long[] boxed = new Long[vals.length];
+			
+			for(int i = 0; i < vals.length; i++)
+				boxed[i] = vals[i];
+			st.setArray(pos, st.getConnection().createArrayOf("int8", boxed));
+		}
+		else
+			st.setObject(pos, value);
+	}
+	
+	/**
+	 * @return a cached prepared statement for the query or a newly created 
+	 * 		one that is added to the cache of the connection
+	 */
+	public PreparedStatement getPreparedStatement (Connection userCon, 
+			String sql) throws SQLException {
+		LinkedHashMap<String, PreparedStatement> cache;
+		PreparedStatement st;
+		
+		synchronized (this) {
+			cache = stmtCache.get(userCon);
+			if (cache == null) {
+				cache = new LinkedHashMap<String, PreparedStatement> (16, 0.75f, true);
+				stmtCache.put(userCon, cache);
+			}
+			st = cache.get(sql);
+			if (st != null) {
+				stmtHits++;
+				return st;
+			}
+			stmtMisses++;
+		}
+		
+		st = userCon.prepareStatement(sql);
+		if (st instanceof PGStatement)
+			((PGStatement) st).setPrepareThreshold(prepareThreshold);
+		if (log.isDebugEnabled()) {log.debug("prepared statement:\n" + sql);};
+		
+		synchronized (this) {
+			cache.put(sql, st);
+			cachedSts.add(st);
+			evictStatements(cache);
+		}
+		
+		return st;
+	}
+	
+	private void evictStatements (LinkedHashMap<String, PreparedStatement> cache) {
+		Iterator<PreparedStatement> i = cache.values().iterator();
+		
+		while (cache.size() > maxCachedStatements && i.hasNext()) {
+			PreparedStatement st = i.next();
+			
+			i.remove();
+			cachedSts.remove(st);
+			try {
+				st.close();
+			}
+			catch (SQLException e) {
+				LoggerUtil.logException(e, log);
+			}
+		}
+	}
+	
+	/**
+	 * Close and forget all cached prepared statements of a connection.
+	 */
+	public synchronized void clearStatementCache (Connection userCon) {
+		LinkedHashMap<String, PreparedStatement> cache = stmtCache.remove(userCon);
+		
+		if (cache == null)
+			return;
+		for(PreparedStatement st: cache.values()) {
+			cachedSts.remove(st);
+			try {
+				st.close();
+			}
+			catch (SQLException e) {
+				LoggerUtil.logException(e, log);
+			}
+		}
+	}
+	
+	public int getPrepareThreshold() {
+		return prepareThreshold;
+	}
+	
+	/**
+	 * Number of executions of a statement before it is prepared on the 
+	 * server. Applies to statements prepared afterwards.
+	 */
+	public void setPrepareThreshold(int prepareThreshold) {
+		this.prepareThreshold = prepareThreshold;
+	}
+	
+	public int getMaxCachedStatements() {
+		return maxCachedStatements;
+	}
+	
+	public synchronized void setMaxCachedStatements(int maxCachedStatements) {
+		this.maxCachedStatements = maxCachedStatements;
+		for(LinkedHashMap<String, PreparedStatement> cache: stmtCache.values())
+			evictStatements(cache);
+	}
+	
+	public synchronized int getNumCachedStatements (Connection userCon) {
+		LinkedHashMap<String, PreparedStatement> cache = stmtCache.get(userCon);
+		
+		return cache == null ? 0 : cache.size();
+	}
+	
+	public long getNumStatementHits() {
+		return stmtHits;
+	}
+	
+	public long getNumStatementMisses() {
+		return stmtMisses;
+	}
+	
 	public ResultSet execQuery (String query) throws SQLException {
-		return execQuery(con, query);
+		return execQuery(getConnection(), query);
 	}
 	
 	public ResultSet execQuery (Connection userCon, String query) throws SQLException {
 		ResultSet rs;
 		Statement st;
+		long start = System.nanoTime();
 		
 		st = userCon.createStatement();
 		
 		rs = st.executeQuery(query);
 		
-		return rs;
+		return instrument(userCon, null, query, null, start, rs);
 	}
 	
 	public int execUpdate(String query) throws SQLException {
-		return execUpdate(con, query);
+		return execUpdate(getConnection(), query);
 	}
 	
 	public int execUpdate (Connection userCon, String query) throws SQLException {
 		Statement st;
 		int numRowsAff;
+		long start = System.nanoTime();
 		
 		st = userCon.createStatement();
 		
 		numRowsAff = st.executeUpdate(query);
+		if (QueryStatistics.getInstance().isEnabled())
+			QueryStatistics.getInstance().recordUpdate(userCon, null, query, 
+					null, start, numRowsAff);
 		return numRowsAff;
 	}
 	
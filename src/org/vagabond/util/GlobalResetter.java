@@ -2,8 +2,10 @@ package org.vagabond.util;
 
 import org.apache.log4j.Logger;
 import org.vagabond.explanation.generation.prov.ProvenanceGenerator;
+import org.vagabond.explanation.generation.prov.ProvenanceMaterializer;
 import org.vagabond.explanation.generation.prov.SideEffectGenerator;
 import org.vagabond.mapping.model.MapScenarioHolder;
+import org.vagabond.mapping.scenarioToDB.MaterializedViewsBroker;
 
 /**
  * Global access to reset various cached data structures. Should be used before setting
@@ -34,6 +36,8 @@ public class GlobalResetter {
 	public void reset () {
 		MapScenarioHolder.getInstance().reset();
 		ProvenanceGenerator.getInstance().reset();
+		ProvenanceMaterializer.getInstance().reset();
 		SideEffectGenerator.getInstance().reset();
+		MaterializedViewsBroker.getInstance().dropUnused();
 	}
 }
@@ -326,7 +326,7 @@ public class PropertyWrapper extends Properties {
 	}
 	
 	public QueryTemplate getQueryTemplate (String key) {
-		return new QueryTemplate(this.getProperty(key));
+		return new QueryTemplate(key, this.getProperty(key));
 	}
 	
 	public int getSubPropertiesNum () {
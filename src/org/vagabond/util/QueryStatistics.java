@@ -0,0 +1,495 @@
+package org.vagabond.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Execution statistics of queries per query template (e.g.,
+ * <code>ProvSE.GetSideEffect</code>). For each template the number of
+ * executions, a histogram of execution latencies, the number of rows fetched,
+ * the length of the SQL text and the time spent fetching and parsing the
+ * results (from execution until the result set is closed) are recorded.
+ *
+ * Templates register each SQL string they produce for the current thread
+ * (see {@link QueryTemplate#parameterize(String...)}).
+ * {@link ConnectionManager} attributes an executed query to the template
+ * that produced the SQL string. Queries not produced by a template are
+ * recorded as {@value #UNNAMED}.
+ *
+ * Queries taking longer than the slow query threshold are logged together
+ * with their SQL text. The query plan of a slow query is logged right away
+ * if explainSlowQueries is set or can be requested later through
+ * {@link #explainSlowQuery(String)}. The statistics are available over JMX as
+ * {@value #MBEAN_NAME}.
+ *
+ * @author lord_pretzel
+ *
+ */
+public class QueryStatistics implements QueryStatisticsMBean {
+
+	static Logger log = LogProviderHolder.getInstance().getLogger(QueryStatistics.class);
+
+	public static final String UNNAMED = "unnamed";
+	public static final String MBEAN_NAME = "org.vagabond:type=QueryStatistics";
+	/** upper bounds in ms of the latency histogram buckets. The last bucket
+	 * has no upper bound */
+	public static final long[] BUCKET_BOUNDS_MS = { 1, 2, 5, 10, 20, 50, 100,
+			200, 500, 1000, 2000, 5000, 10000 };
+
+	private static final int NUM_RECENT = 8;
+	private static final long NANOS_PER_MS = 1000000L;
+
+	private static QueryStatistics instance = new QueryStatistics();
+
+	private volatile boolean enabled = false;
+	private volatile long slowQueryThresholdMs = -1;
+	private volatile boolean explainSlowQueries = false;
+	private Map<String, TemplateStats> stats = new TreeMap<String, TemplateStats> ();
+	private ThreadLocal<RecentInstances> recent = new ThreadLocal<RecentInstances> () {
+		@Override
+		protected RecentInstances initialValue () {
+			return new RecentInstances();
+		}
+	};
+
+	/**
+	 * Statistics of one query template.
+	 */
+	public static class TemplateStats {
+		private long calls = 0;
+		private long totalNanos = 0;
+		private long maxNanos = 0;
+		private long[] histogram = new long[BUCKET_BOUNDS_MS.length + 1];
+		private long rows = 0;
+		private long sqlBytes = 0;
+		private long resultNanos = 0;
+		private long slowCalls = 0;
+		private String slowSQL;
+		private Object[] slowParams;
+
+		private synchronized void addCall (long nanos, int sqlLength) {
+			int bucket = 0;
+
+			calls++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+			sqlBytes += sqlLength;
+			while(bucket < BUCKET_BOUNDS_MS.length
+					&& nanos > BUCKET_BOUNDS_MS[bucket] * NANOS_PER_MS)
+				bucket++;
+			histogram[bucket]++;
+		}
+
+		private synchronized void addResult (long numRows, long nanos) {
+			rows += numRows;
+			resultNanos += nanos;
+		}
+
+		private synchronized void addSlow (String sql, Object[] params) {
+			slowCalls++;
+			slowSQL = sql;
+			slowParams = params;
+		}
+
+		public synchronized long getCalls () {
+			return calls;
+		}
+
+		public synchronized long getTotalNanos () {
+			return totalNanos;
+		}
+
+		public synchronized long getMaxNanos () {
+			return maxNanos;
+		}
+
+		/**
+		 * @return number of executions per latency bucket (see
+		 * 		{@link QueryStatistics#BUCKET_BOUNDS_MS})
+		 */
+		public synchronized long[] getHistogram () {
+			return histogram.clone();
+		}
+
+		public synchronized long getRows () {
+			return rows;
+		}
+
+		/**
+		 * @return summed length of the executed SQL text (queries are ASCII)
+		 */
+		public synchronized long getSqlBytes () {
+			return sqlBytes;
+		}
+
+		public synchronized long getResultNanos () {
+			return resultNanos;
+		}
+
+		public synchronized long getSlowCalls () {
+			return slowCalls;
+		}
+
+		public synchronized String getSlowSQL () {
+			return slowSQL;
+		}
+
+		public synchronized Object[] getSlowParams () {
+			return slowParams;
+		}
+	}
+
+	/**
+	 * The SQL strings last produced by templates in a thread.
+	 */
+	private static class RecentInstances {
+		String[] sqls = new String[NUM_RECENT];
+		String[] names = new String[NUM_RECENT];
+		int next = 0;
+	}
+
+	/**
+	 * Counts the rows read from a result set and records them together with
+	 * the time until the result set is closed.
+	 */
+	private static class ResultSetRecorder implements InvocationHandler {
+		private ResultSet rs;
+		private TemplateStats entry;
+		private long start = System.nanoTime();
+		private long rows = 0;
+		private boolean closed = false;
+
+		public ResultSetRecorder (ResultSet rs, TemplateStats entry) {
+			this.rs = rs;
+			this.entry = entry;
+		}
+
+		@Override
+		public Object invoke (Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			Object result;
+
+			try {
+				result = method.invoke(rs, args);
+			}
+			catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+
+			if (name.equals("next")) {
+				if ((Boolean) result)
+					rows++;
+			}
+			else if (name.equals("close") && !closed) {
+				closed = true;
+				entry.addResult(rows, System.nanoTime() - start);
+			}
+
+			return result;
+		}
+	}
+
+	private QueryStatistics () {
+	}
+
+	public static QueryStatistics getInstance () {
+		return instance;
+	}
+
+	/**
+	 * Make the statistics available over JMX.
+	 */
+	public void registerMBean () {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName(MBEAN_NAME));
+		}
+		catch (InstanceAlreadyExistsException e) {
+			// already registered
+		}
+		catch (Exception e) {
+			LoggerUtil.logException(e, log);
+		}
+	}
+
+	/**
+	 * Remember that the template name has produced sql in the current thread.
+	 */
+	public void registerInstance (String name, String sql) {
+		RecentInstances r = recent.get();
+
+		r.sqls[r.next] = sql;
+		r.names[r.next] = name;
+		r.next = (r.next + 1) % NUM_RECENT;
+	}
+
+	/**
+	 * @return the name of the template that has recently produced sql in the
+	 * 		current thread or {@value #UNNAMED}
+	 */
+	public String getTemplateName (String sql) {
+		RecentInstances r = recent.get();
+
+		for(int i = 1; i <= NUM_RECENT; i++) {
+			int pos = (r.next - i + NUM_RECENT) % NUM_RECENT;
+
+			if (r.sqls[pos] != null && r.sqls[pos].equals(sql))
+				return r.names[pos];
+		}
+
+		return UNNAMED;
+	}
+
+	/**
+	 * Record the execution of a query that started at startNanos.
+	 *
+	 * @param name name of the template of the query or null to look it up
+	 * @param bindValues values of the bind parameters of the query or null
+	 * @return the result set wrapped to record the rows fetched from it
+	 */
+	public ResultSet recordQuery (Connection con, String name, String sql,
+			Object[] bindValues, long startNanos, ResultSet rs) {
+		TemplateStats entry;
+
+		entry = record(con, name, sql, bindValues, startNanos);
+
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, new ResultSetRecorder(rs, entry));
+	}
+
+	/**
+	 * Record the execution of an update statement that started at startNanos
+	 * and affected numRows rows.
+	 */
+	public void recordUpdate (Connection con, String name, String sql,
+			Object[] bindValues, long startNanos, int numRows) {
+		record(con, name, sql, bindValues, startNanos).addResult(numRows, 0L);
+	}
+
+	private TemplateStats record (Connection con, String name, String sql,
+			Object[] bindValues, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		TemplateStats entry;
+
+		if (name == null)
+			name = getTemplateName(sql);
+		entry = getOrCreateStats(name);
+		entry.addCall(nanos, sql.length());
+
+		if (slowQueryThresholdMs >= 0 && nanos >= slowQueryThresholdMs * NANOS_PER_MS)
+			logSlowQuery(con, name, sql, bindValues, nanos, entry);
+
+		return entry;
+	}
+
+	private void logSlowQuery (Connection con, String name, String sql,
+			Object[] bindValues, long nanos, TemplateStats entry) {
+		entry.addSlow(sql, bindValues);
+		log.warn("slow query <" + name + "> took " + (nanos / NANOS_PER_MS)
+				+ " ms:\n" + sql + (bindValues == null || bindValues.length == 0 ? ""
+						: "\nwith parameters " + Arrays.deepToString(bindValues)));
+
+		if (explainSlowQueries && con != null) {
+			try {
+				log.warn("plan of slow query <" + name + ">:\n"
+						+ ConnectionManager.getInstance().explain(con, sql, bindValues));
+			}
+			catch (Exception e) {
+				LoggerUtil.logException(e, log);
+			}
+		}
+	}
+
+	private synchronized TemplateStats getOrCreateStats (String name) {
+		TemplateStats entry = stats.get(name);
+
+		if (entry == null) {
+			entry = new TemplateStats();
+			stats.put(name, entry);
+		}
+
+		return entry;
+	}
+
+	/**
+	 * @return the statistics of a template or null if none of its queries
+	 * 		has been executed
+	 */
+	public synchronized TemplateStats getStats (String template) {
+		return stats.get(template);
+	}
+
+	@Override
+	public synchronized String[] getTemplateNames () {
+		return stats.keySet().toArray(new String[stats.size()]);
+	}
+
+	@Override
+	public synchronized long getTotalCalls () {
+		long result = 0;
+
+		for(TemplateStats entry: stats.values())
+			result += entry.getCalls();
+
+		return result;
+	}
+
+	@Override
+	public synchronized double getTotalTimeMs () {
+		long result = 0;
+
+		for(TemplateStats entry: stats.values())
+			result += entry.getTotalNanos();
+
+		return toMs(result);
+	}
+
+	/**
+	 * @return the SQL of the last slow query of the template or null
+	 */
+	@Override
+	public String getSlowQuery (String template) {
+		TemplateStats entry = getStats(template);
+
+		return entry == null ? null : entry.getSlowSQL();
+	}
+
+	/**
+	 * @return the query plan of the last slow query of the template or null
+	 * 		if there has been no slow query
+	 */
+	@Override
+	public String explainSlowQuery (String template) throws Exception {
+		TemplateStats entry = getStats(template);
+		ConnectionManager conMan = ConnectionManager.getInstance();
+		String sql;
+		Object[] params;
+
+		if (entry == null)
+			return null;
+		synchronized (entry) {
+			sql = entry.getSlowSQL();
+			params = entry.getSlowParams();
+		}
+		if (sql == null)
+			return null;
+
+		try {
+			return conMan.explain(conMan.acquireThreadConnection(), sql, params);
+		}
+		finally {
+			conMan.releaseThreadConnection();
+		}
+	}
+
+	/**
+	 * @return the statistics of all templates as a JSON object
+	 */
+	@Override
+	public synchronized String toJSON () {
+		StringBuilder result = new StringBuilder();
+		boolean first = true;
+
+		result.append("{\n  \"totalCalls\": " + getTotalCalls());
+		result.append(",\n  \"totalMs\": " + formatMs(getTotalTimeMs()));
+		result.append(",\n  \"templates\": {");
+		for(String name: stats.keySet()) {
+			TemplateStats entry = stats.get(name);
+			long[] histogram = entry.getHistogram();
+
+			result.append(first ? "\n" : ",\n");
+			first = false;
+			result.append("    \"" + escapeJSON(name) + "\": {");
+			result.append("\"calls\": " + entry.getCalls());
+			result.append(", \"totalMs\": " + formatMs(toMs(entry.getTotalNanos())));
+			result.append(", \"avgMs\": " + formatMs(toMs(entry.getTotalNanos())
+					/ Math.max(1, entry.getCalls())));
+			result.append(", \"maxMs\": " + formatMs(toMs(entry.getMaxNanos())));
+			result.append(", \"rows\": " + entry.getRows());
+			result.append(", \"sqlBytes\": " + entry.getSqlBytes());
+			result.append(", \"resultMs\": " + formatMs(toMs(entry.getResultNanos())));
+			result.append(", \"slowCalls\": " + entry.getSlowCalls());
+			result.append(", \"histogram\": {");
+			for(int i = 0; i < histogram.length; i++) {
+				result.append(i == 0 ? "" : ", ");
+				result.append(i < BUCKET_BOUNDS_MS.length
+						? "\"<=" + BUCKET_BOUNDS_MS[i] + "ms\": "
+						: "\">" + BUCKET_BOUNDS_MS[i - 1] + "ms\": ");
+				result.append(histogram[i]);
+			}
+			result.append("}}");
+		}
+		result.append("\n  }\n}");
+
+		return result.toString();
+	}
+
+	private static double toMs (long nanos) {
+		return ((double) nanos) / NANOS_PER_MS;
+	}
+
+	private static String formatMs (double ms) {
+		return String.format(Locale.US, "%.3f", ms);
+	}
+
+	private static String escapeJSON (String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	/**
+	 * Forget the statistics of all templates.
+	 */
+	@Override
+	public synchronized void reset () {
+		stats.clear();
+	}
+
+	@Override
+	public boolean isEnabled () {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled (boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public long getSlowQueryThresholdMs () {
+		return slowQueryThresholdMs;
+	}
+
+	/**
+	 * Queries running at least this long are logged. Negative values switch
+	 * the slow query log off.
+	 */
+	@Override
+	public void setSlowQueryThresholdMs (long slowQueryThresholdMs) {
+		this.slowQueryThresholdMs = slowQueryThresholdMs;
+	}
+
+	@Override
+	public boolean isExplainSlowQueries () {
+		return explainSlowQueries;
+	}
+
+	@Override
+	public void setExplainSlowQueries (boolean explainSlowQueries) {
+		this.explainSlowQueries = explainSlowQueries;
+	}
+}
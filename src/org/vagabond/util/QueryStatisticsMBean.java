@@ -0,0 +1,26 @@
+package org.vagabond.util;
+
+/**
+ * JMX interface of {@link QueryStatistics}.
+ *
+ * @author lord_pretzel
+ *
+ */
+public interface QueryStatisticsMBean {
+
+	public boolean isEnabled ();
+	public void setEnabled (boolean enabled);
+	public long getSlowQueryThresholdMs ();
+	public void setSlowQueryThresholdMs (long slowQueryThresholdMs);
+	public boolean isExplainSlowQueries ();
+	public void setExplainSlowQueries (boolean explainSlowQueries);
+
+	public String[] getTemplateNames ();
+	public long getTotalCalls ();
+	public double getTotalTimeMs ();
+
+	public String toJSON ();
+	public String getSlowQuery (String template);
+	public String explainSlowQuery (String template) throws Exception;
+	public void reset ();
+}
@@ -1,28 +1,176 @@
 package org.vagabond.util;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.log4j.Logger;
 
+/**
+ * A query with numbered parameters. A parameter <code>${n}</code> is replaced
+ * by the text of the n-th parameter (e.g., for table and attribute names).
+ * A parameter <code>?{n}</code> is a bind parameter. It becomes a
+ * <code>?</code> placeholder in the SQL for a prepared statement (see
+ * {@link ConnectionManager#execPrepared(QueryTemplate, Object...)}) or a
+ * quoted literal if the query is parameterized as text.
+ *
+ * The query text is split into parts once when the template is created.
+ * Templates loaded by name remember the name to let
+ * {@link QueryStatistics} attribute the execution of their instantiations.
+ */
 public class QueryTemplate {
 
 	static Logger log = LogProviderHolder.getInstance().getLogger(QueryTemplate.class);
-	
+
+	private String name;
 	private String queryText;
-	
+	/** text between parameters, one more element than params */
+	private List<String> parts;
+	/** parameter number (starting at 0) of each parameter occurrence */
+	private int[] params;
+	private boolean[] bind;
+	private int[] bindParams;
+
 	public QueryTemplate (String queryText) {
-		this.queryText = queryText;
+		this(null, queryText);
 	}
 	
+	public QueryTemplate (String name, String queryText) {
+		this.name = name;
+		this.queryText = queryText;
+		parse();
+	}
+
+	private void parse () {
+		List<Integer> paramList = new ArrayList<Integer> ();
+		List<Boolean> bindList = new ArrayList<Boolean> ();
+		int pos = 0, start = 0, numBind = 0;
+
+		parts = new ArrayList<String> ();
+		if (queryText == null) {
+			parts.add(null);
+			params = bindParams = new int[0];
+			bind = new boolean[0];
+			return;
+		}
+
+		while (pos < queryText.length() - 2) {
+			char c = queryText.charAt(pos);
+			int end;
+
+			if ((c == '$' || c == '?') && queryText.charAt(pos + 1) == '{'
+					&& (end = queryText.indexOf('}', pos + 2)) != -1
+					&& isNumber(queryText.substring(pos + 2, end))) {
+				parts.add(queryText.substring(start, pos));
+				paramList.add(Integer.parseInt(queryText.substring(pos + 2, end)) - 1);
+				bindList.add(c == '?');
+				if (c == '?')
+					numBind++;
+				pos = start = end + 1;
+			}
+			else
+				pos++;
+		}
+		parts.add(queryText.substring(start));
+
+		params = new int[paramList.size()];
+		bind = new boolean[paramList.size()];
+		bindParams = new int[numBind];
+		for(int i = 0, j = 0; i < params.length; i++) {
+			params[i] = paramList.get(i);
+			bind[i] = bindList.get(i);
+			if (bind[i])
+				bindParams[j++] = params[i];
+		}
+	}
+
+	private boolean isNumber (String text) {
+		if (text.length() == 0)
+			return false;
+		for(int i = 0; i < text.length(); i++)
+			if (!Character.isDigit(text.charAt(i)))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return the query with all parameters replaced by the given text. Bind
+	 * 		parameters are replaced by a quoted string literal.
+	 */
 	public String parameterize (String ... params) {
-		String result = queryText;
-		
 		if (params == null)
-			return result;
-		
-		for(int i = 1; i <= params.length; i++) {
-			result = result.replaceAll("\\$\\{" + i + "\\}", params[i-1]);
+			return register(queryText);
+
+		return register(instantiate(params, false));
+	}
+
+	/**
+	 * @return the query with text parameters replaced and each bind parameter
+	 * 		replaced by a <code>?</code> placeholder
+	 */
+	public String getPreparedSQL (Object ... params) {
+		return register(instantiate(params, true));
+	}
+
+	/**
+	 * @return the number (starting at 0) of the parameter bound to each
+	 * 		<code>?</code> placeholder of the prepared SQL
+	 */
+	public int[] getBindParams () {
+		return bindParams;
+	}
+
+	public boolean hasBindParams () {
+		return bindParams.length > 0;
+	}
+
+	private String instantiate (Object[] values, boolean prepared) {
+		StringBuilder result;
+
+		if (queryText == null)
+			return null;
+		result = new StringBuilder(queryText.length() + 64);
+
+		for(int i = 0; i < params.length; i++) {
+			result.append(parts.get(i));
+
+			// parameters without a value stay as they are
+			if (params[i] >= values.length) {
+				result.append(bind[i] ? "?{" : "${");
+				result.append(params[i] + 1).append('}');
+			}
+			else if (bind[i]) {
+				if (prepared)
+					result.append('?');
+				else
+					result.append('\'').append(String.valueOf(values[params[i]])
+							.replace("'", "''")).append('\'');
+			}
+			else
+				result.append(values[params[i]]);
 		}
-		
-		return result; 
+		result.append(parts.get(params.length));
+
+		return result.toString();
 	}
-	
+
+	private String register (String sql) {
+		QueryStatistics stats = QueryStatistics.getInstance();
+
+		if (stats.isEnabled() && name != null && sql != null)
+			stats.registerInstance(name, sql);
+
+		return sql;
+	}
+
+	public String getQueryText () {
+		return queryText;
+	}
+
+	/**
+	 * @return the name (file.key) the template was loaded with or null
+	 */
+	public String getName () {
+		return name;
+	}
+
 }
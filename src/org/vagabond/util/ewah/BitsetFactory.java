@@ -10,6 +10,10 @@ public class BitsetFactory {
 			return new JavaUtilBitSet ();
 		case EWAHBitSet:
 			return new EWAHCompressedBitmap();
+		case IndexEWAHBitSet:
+			return new IndexEWAHBitSet();
+		case RoaringBitSet:
+			return new RoaringBitSet();
 		default:
 			return null;
 		}
@@ -39,6 +43,10 @@ public class BitsetFactory {
 			return new JavaUtilBitSet (bufSizeInBits);
 		case EWAHBitSet:
 			return new EWAHCompressedBitmap(bufSizeInBits / EWAHCompressedBitmap.wordinbits);
+		case IndexEWAHBitSet:
+			return new IndexEWAHBitSet(bufSizeInBits / EWAHCompressedBitmap.wordinbits);
+		case RoaringBitSet:
+			return new RoaringBitSet(bufSizeInBits / RoaringBitSet.CHUNK_SIZE + 1);
 		default:
 			return null;
 		}		
@@ -1532,8 +1532,58 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable,
 		return true;
 	}
 
+	/**
+	 * Set all bits in [start, end) to value. Ranges after the last set bit
+	 * are appended as runs of clean words. Otherwise the range is merged
+	 * with a single OR or AND NOT pass over the compressed words.
+	 * 
+	 * @param value
+	 *            set or clear the bits
+	 * @param start
+	 *            first bit of the range
+	 * @param end
+	 *            position after the last bit of the range
+	 */
 	public void setRange(final boolean value, int start, int end) {
-		// TODO
+		EWAHCompressedBitmap range;
+
+		if (start >= end)
+			return;
+
+		if (!value) {
+			if (start >= this.sizeinbits)
+				return;
+			range = new EWAHCompressedBitmap();
+			range.setRange(true, start, Math.min(end, this.sizeinbits));
+			takeBuffer(andNot(range));
+			return;
+		}
+
+		if (start < this.sizeinbits) {
+			range = new EWAHCompressedBitmap();
+			range.setRange(true, start, end);
+			takeBuffer(or(range));
+			return;
+		}
+
+		// append bits until the next word boundary
+		while (start < end && (start % wordinbits) != 0)
+			fastSet(start++);
+		if (end - start >= wordinbits) {
+			// pad with zero words up to start
+			if ((this.sizeinbits % wordinbits) != 0)
+				this.sizeinbits = (this.sizeinbits / wordinbits + 1) * wordinbits;
+			addStreamOfEmptyWords(false, start / wordinbits - this.sizeinbits / wordinbits);
+			addStreamOfEmptyWords(true, (end - start) / wordinbits);
+			start += ((end - start) / wordinbits) * wordinbits;
+		}
+		while (start < end)
+			fastSet(start++);
+	}
+
+	@Override
+	public void setRange(int start, int end) {
+		setRange(true, start, end);
 	}
 
 	/**
@@ -2456,6 +2506,35 @@ public class EWAHCompressedBitmap implements Cloneable, Externalizable,
 		return or((EWAHCompressedBitmap) other);
 	}
 
+	/**
+	 * EWAH cannot merge into its own buffer, so the result is computed into a
+	 * new buffer that then replaces the buffer of this bitmap.
+	 */
+	@Override
+	public void orInPlace(IBitSet other) {
+		if (!(other instanceof EWAHCompressedBitmap))
+			throw new ClassCastException();
+		takeBuffer(or((EWAHCompressedBitmap) other));
+	}
+
+	@Override
+	public void andInPlace(IBitSet other) {
+		if (!(other instanceof EWAHCompressedBitmap))
+			throw new ClassCastException();
+		takeBuffer(and((EWAHCompressedBitmap) other));
+	}
+
+	/**
+	 * Replace the content of this bitmap with the content of other. other
+	 * should not be used afterwards, because both share the same buffer.
+	 */
+	protected void takeBuffer(EWAHCompressedBitmap other) {
+		this.buffer = other.buffer;
+		this.actualsizeinwords = other.actualsizeinwords;
+		this.sizeinbits = other.sizeinbits;
+		this.rlw = new RunningLengthWord(this.buffer, other.rlw.position);
+	}
+
 	@Override
 	public int getByteSize() {
 		return buffer.length * Long.SIZE / 8;
@@ -7,11 +7,16 @@ public interface IBitSet extends Bitmap, Cloneable {
 	public enum BitsetType {
 		JavaBitSet,
 		EWAHBitSet,
-		IndexEWAHBitSet
+		IndexEWAHBitSet,
+		RoaringBitSet
 	}
 	
 	public boolean get (int position);
 	public void set (int position);
+	/**
+	 * Set all bits in [start, end).
+	 */
+	public void setRange (int start, int end);
 	
 	public void clear();
 	
@@ -19,6 +24,14 @@ public interface IBitSet extends Bitmap, Cloneable {
 	public IBitSet and (IBitSet other);
 	public IBitSet or (IBitSet other);
 	public IBitSet andNot (IBitSet other);
+	/**
+	 * Union with other, storing the result in this bitset.
+	 */
+	public void orInPlace (IBitSet other);
+	/**
+	 * Intersection with other, storing the result in this bitset.
+	 */
+	public void andInPlace (IBitSet other);
 	public void not();
 	public Object clone();
 	
@@ -0,0 +1,362 @@
+package org.vagabond.util.ewah;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * EWAH compressed bitmap with a skip index over its running length words
+ * (RLWs). For each RLW the index stores the position of the RLW in the buffer
+ * and the number of uncompressed words that precede it. Random access
+ * ({@link #get(int)}) and range iteration ({@link #intIterator(int, int)})
+ * binary search the index instead of walking all RLWs from the start of the
+ * buffer, so they run in O(log n) in the number of RLWs.
+ *
+ * The index is built lazily on the first read after a modification. Every
+ * public method that changes the compressed buffer invalidates it.
+ *
+ * @author lord_pretzel
+ *
+ */
+public class IndexEWAHBitSet extends EWAHCompressedBitmap {
+
+	private static final long serialVersionUID = -4306931258473219117L;
+	/** buffer position of each RLW */
+	private int[] rlwPos;
+	/** number of uncompressed words before each RLW */
+	private int[] wordStart;
+	/** number of valid entries in the index */
+	private int numRlws;
+	private boolean indexValid = false;
+
+	public IndexEWAHBitSet () {
+		super();
+	}
+
+	public IndexEWAHBitSet (final int buffersize) {
+		super(buffersize);
+	}
+
+	public IndexEWAHBitSet (final String values) {
+		super();
+		readFromBitsString(values);
+	}
+
+	/**
+	 * Build the skip index from the compressed buffer.
+	 */
+	private void buildIndex () {
+		EWAHIterator iter = new EWAHIterator(this.buffer, this.actualsizeinwords);
+		int curWord = 0;
+		int i = 0;
+
+		if (rlwPos == null || rlwPos.length < this.actualsizeinwords) {
+			rlwPos = new int[Math.max(4, this.actualsizeinwords)];
+			wordStart = new int[rlwPos.length];
+		}
+
+		while (iter.hasNext()) {
+			RunningLengthWord localrlw = iter.next();
+			rlwPos[i] = localrlw.position;
+			wordStart[i] = curWord;
+			curWord += localrlw.size();
+			i++;
+		}
+
+		numRlws = i;
+		indexValid = true;
+	}
+
+	private void ensureIndex () {
+		if (!indexValid)
+			buildIndex();
+	}
+
+	private void invalidateIndex () {
+		indexValid = false;
+	}
+
+	/**
+	 * @return position in the index of the RLW covering uncompressed word
+	 *         wordPos. RLWs without any words share the start of their
+	 *         successor and are skipped.
+	 */
+	private int findRlw (int wordPos) {
+		int low = 0;
+		int high = numRlws - 1;
+
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (wordStart[mid] <= wordPos)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+
+		return low;
+	}
+
+	/**
+	 * @return the uncompressed word wordPos
+	 */
+	private long getWord (int wordPos) {
+		int k = findRlw(wordPos);
+		RunningLengthWord localrlw = new RunningLengthWord(this.buffer, rlwPos[k]);
+		long offset = wordPos - wordStart[k];
+		long literalPos;
+
+		if (offset < localrlw.getRunningLength())
+			return localrlw.getRunningBit() ? oneMask : 0L;
+
+		literalPos = offset - localrlw.getRunningLength();
+		if (literalPos >= localrlw.getNumberOfLiteralWords())
+			return 0L;
+
+		return this.buffer[rlwPos[k] + 1 + (int) literalPos];
+	}
+
+	@Override
+	public boolean get (int bitpos) {
+		if (bitpos < 0 || bitpos >= this.sizeinbits)
+			return false;
+
+		ensureIndex();
+
+		return (getWord(bitpos >>> 6) & (1L << (bitpos & 63))) != 0L;
+	}
+
+	/**
+	 * Iterate over the set bits in [start, end). Seeks to the RLW containing
+	 * start using the index.
+	 */
+	@Override
+	public IntIterator intIterator (final int start, final int end) {
+		ensureIndex();
+		return new IndexedIntIterator(Math.max(start, 0),
+				Math.min(end, this.sizeinbits));
+	}
+
+	/**
+	 * Iterator over the set bits within a range that walks the compressed
+	 * words starting from the RLW that covers the start position.
+	 */
+	private class IndexedIntIterator implements IntIterator {
+
+		private final int end;
+		private final int endWord;
+		private int k;
+		private int curWord;
+		private long curBits;
+		private int nextVal;
+
+		public IndexedIntIterator (int start, int end) {
+			this.end = end;
+			this.endWord = (end + 63) >>> 6;
+			if (start >= end || numRlws == 0) {
+				nextVal = -1;
+				return;
+			}
+			curWord = start >>> 6;
+			k = findRlw(curWord);
+			curBits = loadWord() & (oneMask << (start & 63));
+			advance();
+		}
+
+		/**
+		 * Load the current word. Skips runs of zeros by moving curWord to
+		 * the last word of the run.
+		 */
+		private long loadWord () {
+			while (k < numRlws) {
+				RunningLengthWord localrlw = new RunningLengthWord(buffer, rlwPos[k]);
+				long offset = curWord - wordStart[k];
+				long runLen = localrlw.getRunningLength();
+
+				if (offset < runLen) {
+					if (localrlw.getRunningBit())
+						return oneMask;
+					curWord = (int) (wordStart[k] + runLen - 1);
+					return 0L;
+				}
+				if (offset - runLen < localrlw.getNumberOfLiteralWords())
+					return buffer[rlwPos[k] + 1 + (int) (offset - runLen)];
+				k++;
+			}
+			curWord = endWord;
+			return 0L;
+		}
+
+		private void advance () {
+			while (curBits == 0L) {
+				curWord++;
+				if (curWord >= endWord) {
+					nextVal = -1;
+					return;
+				}
+				curBits = loadWord();
+			}
+
+			nextVal = curWord * 64 + Long.numberOfTrailingZeros(curBits);
+			curBits &= curBits - 1;
+			if (nextVal >= end)
+				nextVal = -1;
+		}
+
+		@Override
+		public boolean hasNext () {
+			return nextVal != -1;
+		}
+
+		@Override
+		public int next () {
+			int answer = nextVal;
+			advance();
+			return answer;
+		}
+	}
+
+	@Override
+	public EWAHCompressedBitmap xor (final EWAHCompressedBitmap a) {
+		final IndexEWAHBitSet container = new IndexEWAHBitSet();
+		container.reserve(this.actualsizeinwords + a.actualsizeinwords);
+		xor(a, container);
+		return container;
+	}
+
+	@Override
+	public EWAHCompressedBitmap and (final EWAHCompressedBitmap a) {
+		final IndexEWAHBitSet container = new IndexEWAHBitSet();
+		container.reserve(this.actualsizeinwords > a.actualsizeinwords
+				? this.actualsizeinwords : a.actualsizeinwords);
+		and(a, container);
+		return container;
+	}
+
+	@Override
+	public EWAHCompressedBitmap andNot (final EWAHCompressedBitmap a) {
+		final IndexEWAHBitSet container = new IndexEWAHBitSet();
+		container.reserve(this.actualsizeinwords > a.actualsizeinwords
+				? this.actualsizeinwords : a.actualsizeinwords);
+		andNot(a, container);
+		return container;
+	}
+
+	@Override
+	public EWAHCompressedBitmap or (final EWAHCompressedBitmap a) {
+		final IndexEWAHBitSet container = new IndexEWAHBitSet();
+		container.reserve(this.actualsizeinwords + a.actualsizeinwords);
+		or(a, container);
+		return container;
+	}
+
+	// methods that modify the compressed buffer invalidate the index
+
+	@Override
+	public boolean fastSet (final int i) {
+		invalidateIndex();
+		return super.fastSet(i);
+	}
+
+	@Override
+	public void set (final int i) {
+		invalidateIndex();
+		super.set(i);
+	}
+
+	@Override
+	public void setRange (final boolean value, int start, int end) {
+		invalidateIndex();
+		super.setRange(value, start, end);
+	}
+
+	@Override
+	public void not () {
+		invalidateIndex();
+		super.not();
+	}
+
+	@Override
+	public void clear () {
+		invalidateIndex();
+		super.clear();
+	}
+
+	@Override
+	public int add (final long newdata) {
+		invalidateIndex();
+		return super.add(newdata);
+	}
+
+	@Override
+	public int add (final long newdata, final int bitsthatmatter) {
+		invalidateIndex();
+		return super.add(newdata, bitsthatmatter);
+	}
+
+	@Override
+	public int addStreamOfEmptyWords (final boolean v, final long number) {
+		invalidateIndex();
+		return super.addStreamOfEmptyWords(v, number);
+	}
+
+	@Override
+	public long addStreamOfDirtyWords (final long[] data, final long start,
+			final long number) {
+		invalidateIndex();
+		return super.addStreamOfDirtyWords(data, start, number);
+	}
+
+	@Override
+	public long addStreamOfNegatedDirtyWords (final long[] data,
+			final long start, final long number) {
+		invalidateIndex();
+		return super.addStreamOfNegatedDirtyWords(data, start, number);
+	}
+
+	@Override
+	public void setSizeInBits (final int size) {
+		invalidateIndex();
+		super.setSizeInBits(size);
+	}
+
+	@Override
+	public boolean setSizeInBits (final int size, final boolean defaultvalue) {
+		invalidateIndex();
+		return super.setSizeInBits(size, defaultvalue);
+	}
+
+	@Override
+	public void shiftCompressedWordsLeft (final int startWord, final int shift) {
+		invalidateIndex();
+		super.shiftCompressedWordsLeft(startWord, shift);
+	}
+
+	@Override
+	public void shiftCompressedWordsRight (final int startWord, final int shift) {
+		invalidateIndex();
+		super.shiftCompressedWordsRight(startWord, shift);
+	}
+
+	@Override
+	public void deserialize (DataInput in) throws IOException {
+		invalidateIndex();
+		super.deserialize(in);
+	}
+
+	@Override
+	protected void takeBuffer (EWAHCompressedBitmap other) {
+		invalidateIndex();
+		super.takeBuffer(other);
+	}
+
+	@Override
+	public Object clone () {
+		IndexEWAHBitSet clone = (IndexEWAHBitSet) super.clone();
+
+		clone.rlwPos = null;
+		clone.wordStart = null;
+		clone.numRlws = 0;
+		clone.indexValid = false;
+
+		return clone;
+	}
+}
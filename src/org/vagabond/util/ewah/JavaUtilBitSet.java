@@ -79,6 +79,25 @@ public class JavaUtilBitSet extends BitSet implements IBitSet {
 		return (JavaUtilBitSet) newSet;
 	}
 
+	@Override
+	public void orInPlace(IBitSet other) {
+		if (!(other instanceof BitSet))
+			throw new ClassCastException();
+		super.or((BitSet) other);
+	}
+	
+	@Override
+	public void andInPlace(IBitSet other) {
+		if (!(other instanceof BitSet))
+			throw new ClassCastException();
+		super.and((BitSet) other);
+	}
+
+	@Override
+	public void setRange(int start, int end) {
+		super.set(start, end);
+	}
+
 	@Override
 	public void not() {
 		for(int i = 0; i < this.size(); i++)
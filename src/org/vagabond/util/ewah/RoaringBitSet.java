@@ -0,0 +1,1189 @@
+package org.vagabond.util.ewah;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bitset that splits the bit positions into chunks of 2^16 bits (the upper 16
+ * bits of a position are the chunk key). Each non-empty chunk is stored in a
+ * container that is either a sorted array of positions (sparse chunks), an
+ * uncompressed bitmap (dense chunks), or a list of runs (chunks with long
+ * stretches of ones like a whole attribute of a relation). Binary operations
+ * merge the sorted chunk keys and only combine containers with the same key.
+ *
+ * Containers are converted to the smallest representation when they are
+ * produced by binary operations or by {@link #runOptimize()}. Setting bits
+ * one at a time switches from array to bitmap containers once a chunk holds
+ * more than {@link #ARRAY_MAX} positions.
+ *
+ * @author lord_pretzel
+ *
+ */
+public class RoaringBitSet implements IBitSet {
+
+	public static final int CHUNK_SIZE = 1 << 16;
+	public static final int ARRAY_MAX = 4096;
+
+	private static final int BITMAP_WORDS = CHUNK_SIZE / 64;
+	private static final int BITMAP_BYTES = CHUNK_SIZE / 8;
+	private static final int DEFAULT_CHUNKS = 4;
+
+	private char[] keys;
+	private Container[] containers;
+	private int numChunks;
+
+	public RoaringBitSet () {
+		this(DEFAULT_CHUNKS);
+	}
+
+	public RoaringBitSet (int initialChunks) {
+		initialChunks = Math.max(initialChunks, 1);
+		keys = new char[initialChunks];
+		containers = new Container[initialChunks];
+		numChunks = 0;
+	}
+
+	public RoaringBitSet (String values) {
+		this();
+		readFromBitsString(values);
+	}
+
+	/**
+	 * @return position of the chunk key or (-(insertion point) - 1)
+	 */
+	private int findChunk (int key) {
+		int low = 0;
+		int high = numChunks - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midKey = keys[mid];
+			if (midKey < key)
+				low = mid + 1;
+			else if (midKey > key)
+				high = mid - 1;
+			else
+				return mid;
+		}
+
+		return -(low + 1);
+	}
+
+	/**
+	 * @return position of the first chunk with a key >= key
+	 */
+	private int lowerBound (int key) {
+		int pos = findChunk(key);
+		return pos >= 0 ? pos : -pos - 1;
+	}
+
+	private void insertChunk (int pos, int key, Container c) {
+		if (numChunks == keys.length) {
+			keys = Arrays.copyOf(keys, numChunks * 2);
+			containers = Arrays.copyOf(containers, numChunks * 2);
+		}
+		System.arraycopy(keys, pos, keys, pos + 1, numChunks - pos);
+		System.arraycopy(containers, pos, containers, pos + 1, numChunks - pos);
+		keys[pos] = (char) key;
+		containers[pos] = c;
+		numChunks++;
+	}
+
+	private void appendChunk (int key, Container c) {
+		if (c == null || c.cardinality() == 0)
+			return;
+		insertChunk(numChunks, key, c);
+	}
+
+	@Override
+	public boolean get (int position) {
+		int pos;
+
+		if (position < 0)
+			return false;
+
+		pos = findChunk(position >>> 16);
+		if (pos < 0)
+			return false;
+
+		return containers[pos].contains(position & 0xFFFF);
+	}
+
+	@Override
+	public void set (int position) {
+		int key = position >>> 16;
+		int pos = findChunk(key);
+
+		if (pos < 0) {
+			pos = -pos - 1;
+			insertChunk(pos, key, new ArrayContainer());
+		}
+
+		containers[pos] = containers[pos].add(position & 0xFFFF);
+	}
+
+	/**
+	 * Set all bits in [start, end). Every chunk touched by the range is
+	 * written word-wise and converted to its smallest representation, so
+	 * chunks that are completely covered become single runs.
+	 */
+	@Override
+	public void setRange (int start, int end) {
+		for(int key = start >>> 16; start < end; key++) {
+			int chunkEnd = Math.min(end, (key + 1) << 16);
+			int pos = findChunk(key);
+			BitmapContainer b;
+
+			if (pos < 0) {
+				pos = -pos - 1;
+				b = new BitmapContainer();
+				insertChunk(pos, key, b);
+			}
+			else
+				b = containers[pos].toBitmap();
+
+			b.setRange(start & 0xFFFF, chunkEnd - (key << 16));
+			containers[pos] = optimize(b);
+			start = chunkEnd;
+		}
+	}
+
+	@Override
+	public void clear () {
+		Arrays.fill(containers, 0, numChunks, null);
+		numChunks = 0;
+	}
+
+	/**
+	 * Convert each container into its smallest representation. Call after
+	 * setting many bits individually.
+	 */
+	public void runOptimize () {
+		for(int i = 0; i < numChunks; i++)
+			containers[i] = optimize(containers[i]);
+	}
+
+	@Override
+	public boolean intersects (IBitSet other) {
+		RoaringBitSet o = cast(other);
+		int i = 0, j = 0;
+
+		while (i < numChunks && j < o.numChunks) {
+			if (keys[i] < o.keys[j])
+				i++;
+			else if (keys[i] > o.keys[j])
+				j++;
+			else {
+				if (intersects(containers[i], o.containers[j]))
+					return true;
+				i++;
+				j++;
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public IBitSet and (IBitSet other) {
+		RoaringBitSet o = cast(other);
+		RoaringBitSet result = new RoaringBitSet(Math.min(numChunks,
+				o.numChunks));
+		int i = 0, j = 0;
+
+		while (i < numChunks && j < o.numChunks) {
+			if (keys[i] < o.keys[j])
+				i++;
+			else if (keys[i] > o.keys[j])
+				j++;
+			else {
+				result.appendChunk(keys[i],
+						and(containers[i], o.containers[j]));
+				i++;
+				j++;
+			}
+		}
+
+		return result;
+	}
+
+	@Override
+	public IBitSet or (IBitSet other) {
+		RoaringBitSet o = cast(other);
+		RoaringBitSet result = new RoaringBitSet(numChunks + o.numChunks);
+		int i = 0, j = 0;
+
+		while (i < numChunks || j < o.numChunks) {
+			if (j == o.numChunks || (i < numChunks && keys[i] < o.keys[j])) {
+				result.appendChunk(keys[i], containers[i].copy());
+				i++;
+			}
+			else if (i == numChunks || keys[i] > o.keys[j]) {
+				result.appendChunk(o.keys[j], o.containers[j].copy());
+				j++;
+			}
+			else {
+				result.appendChunk(keys[i], or(containers[i], o.containers[j]));
+				i++;
+				j++;
+			}
+		}
+
+		return result;
+	}
+
+	@Override
+	public IBitSet andNot (IBitSet other) {
+		RoaringBitSet o = cast(other);
+		RoaringBitSet result = new RoaringBitSet(numChunks);
+		int i = 0, j = 0;
+
+		while (i < numChunks) {
+			if (j == o.numChunks || keys[i] < o.keys[j]) {
+				result.appendChunk(keys[i], containers[i].copy());
+				i++;
+			}
+			else if (keys[i] > o.keys[j])
+				j++;
+			else {
+				result.appendChunk(keys[i],
+						andNot(containers[i], o.containers[j]));
+				i++;
+				j++;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Union with other. Bitmap containers of this bitset are updated in
+	 * place, chunks only present in other are copied.
+	 */
+	@Override
+	public void orInPlace (IBitSet other) {
+		RoaringBitSet o = cast(other);
+		int pos = 0;
+
+		for(int j = 0; j < o.numChunks; j++) {
+			int key = o.keys[j];
+
+			while (pos < numChunks && keys[pos] < key)
+				pos++;
+			if (pos < numChunks && keys[pos] == key) {
+				if (containers[pos] instanceof BitmapContainer)
+					((BitmapContainer) containers[pos]).orAll(o.containers[j]);
+				else
+					containers[pos] = or(containers[pos], o.containers[j]);
+			}
+			else
+				insertChunk(pos, key, o.containers[j].copy());
+			pos++;
+		}
+	}
+
+	@Override
+	public void andInPlace (IBitSet other) {
+		RoaringBitSet o = cast(other);
+		int newNum = 0;
+		int j = 0;
+
+		for(int i = 0; i < numChunks; i++) {
+			Container c;
+
+			while (j < o.numChunks && o.keys[j] < keys[i])
+				j++;
+			if (j == o.numChunks || o.keys[j] != keys[i])
+				continue;
+
+			c = and(containers[i], o.containers[j]);
+			if (c.cardinality() > 0) {
+				keys[newNum] = keys[i];
+				containers[newNum++] = c;
+			}
+		}
+
+		Arrays.fill(containers, newNum, numChunks, null);
+		numChunks = newNum;
+	}
+
+	/**
+	 * Flip all bits in [0, sizeInBits()).
+	 */
+	@Override
+	public void not () {
+		int size = sizeInBits();
+		RoaringBitSet result;
+
+		if (size == 0)
+			return;
+
+		result = new RoaringBitSet(numChunks);
+		for(int key = 0; key <= (size - 1) >>> 16; key++) {
+			int chunkEnd = Math.min(CHUNK_SIZE, size - (key << 16));
+			int pos = findChunk(key);
+			BitmapContainer flipped = new BitmapContainer();
+
+			flipped.setRange(0, chunkEnd);
+			if (pos >= 0)
+				flipped.clearAll(containers[pos]);
+			result.appendChunk(key, optimize(flipped));
+		}
+
+		this.keys = result.keys;
+		this.containers = result.containers;
+		this.numChunks = result.numChunks;
+	}
+
+	@Override
+	public Object clone () {
+		RoaringBitSet clone = new RoaringBitSet(numChunks);
+
+		for(int i = 0; i < numChunks; i++)
+			clone.appendChunk(keys[i], containers[i].copy());
+
+		return clone;
+	}
+
+	@Override
+	public int cardinality () {
+		int card = 0;
+
+		for(int i = 0; i < numChunks; i++)
+			card += containers[i].cardinality();
+
+		return card;
+	}
+
+	/**
+	 * @return position of the last set bit + 1
+	 */
+	@Override
+	public int sizeInBits () {
+		if (numChunks == 0)
+			return 0;
+		return (keys[numChunks - 1] << 16)
+				+ containers[numChunks - 1].last() + 1;
+	}
+
+	@Override
+	public int getByteSize () {
+		int size = keys.length * 2 + containers.length * 4;
+
+		for(int i = 0; i < numChunks; i++)
+			size += containers[i].getByteSize();
+
+		return size;
+	}
+
+	/**
+	 * @return number of chunks stored as array, bitmap, and run containers
+	 */
+	public int[] getContainerStats () {
+		int[] result = new int[3];
+
+		for(int i = 0; i < numChunks; i++) {
+			if (containers[i] instanceof ArrayContainer)
+				result[0]++;
+			else if (containers[i] instanceof BitmapContainer)
+				result[1]++;
+			else
+				result[2]++;
+		}
+
+		return result;
+	}
+
+	@Override
+	public String toBitsString () {
+		StringBuffer result = new StringBuffer();
+		int size = sizeInBits();
+
+		for(int i = 0; i < size; i++) {
+			if (get(i))
+				result.append('1');
+			else
+				result.append('0');
+			if (i != 0 && i % 8 == 0)
+				result.append(' ');
+		}
+
+		return result.toString();
+	}
+
+	@Override
+	public void readFromBitsString (String values) {
+		int pos = 0;
+
+		this.clear();
+		for(char c: values.toCharArray()) {
+			switch(c) {
+			case '0':
+				pos++;
+				break;
+			case '1':
+				set(pos++);
+				break;
+			default:
+				break;
+			}
+		}
+		runOptimize();
+	}
+
+	@Override
+	public IntIterator intIterator () {
+		return new RoaringIntIterator(0, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public IntIterator intIterator (int start, int end) {
+		return new RoaringIntIterator(start, end);
+	}
+
+	@Override
+	public Iterator<Integer> iterator () {
+		return new WrappedIntIterator(intIterator());
+	}
+
+	@Override
+	public Iterator<Integer> iterator (int start, int end) {
+		return new WrappedIntIterator(intIterator(start, end));
+	}
+
+	@Override
+	public List<Integer> getPositions () {
+		List<Integer> result = new ArrayList<Integer> ();
+		IntIterator iter = intIterator();
+
+		while(iter.hasNext())
+			result.add(iter.next());
+
+		return result;
+	}
+
+	@Override
+	public boolean equals (Object o) {
+		if (o == null)
+			return false;
+		if (this == o)
+			return true;
+		if (o instanceof IBitSet) {
+			IBitSet b = (IBitSet) o;
+			if (this.sizeInBits() != b.sizeInBits())
+				return false;
+			IntIterator i = intIterator();
+			IntIterator j = b.intIterator();
+
+			while(i.hasNext())
+				if (!j.hasNext() || i.next() != j.next())
+					return false;
+			return !j.hasNext();
+		}
+
+		return false;
+	}
+
+	@Override
+	public int hashCode () {
+		int hash = 0;
+		IntIterator iter = intIterator();
+
+		while(iter.hasNext())
+			hash = 31 * hash + iter.next();
+
+		return hash;
+	}
+
+	@Override
+	public String toString () {
+		StringBuffer result = new StringBuffer();
+		IntIterator iter = intIterator();
+
+		result.append('{');
+		while(iter.hasNext()) {
+			result.append(iter.next());
+			if (iter.hasNext())
+				result.append(',');
+		}
+		result.append('}');
+
+		return result.toString();
+	}
+
+	private static RoaringBitSet cast (IBitSet other) {
+		if (!(other instanceof RoaringBitSet))
+			throw new ClassCastException();
+		return (RoaringBitSet) other;
+	}
+
+	/**
+	 * Iterates over the set bits in [start, end) in increasing order.
+	 */
+	private class RoaringIntIterator implements IntIterator {
+
+		private final int end;
+		private int chunk;
+		private int nextVal;
+
+		public RoaringIntIterator (int start, int end) {
+			start = Math.max(start, 0);
+			this.end = end;
+			this.chunk = lowerBound(start >>> 16);
+			this.nextVal = (start < end) ? find(start) : -1;
+		}
+
+		private int find (int from) {
+			while (chunk < numChunks) {
+				int base = keys[chunk] << 16;
+				int low = from > base ? from - base : 0;
+
+				if (low < CHUNK_SIZE) {
+					int val = containers[chunk].nextSetBit(low);
+					if (val != -1)
+						return (base + val < end) ? base + val : -1;
+				}
+				chunk++;
+			}
+
+			return -1;
+		}
+
+		@Override
+		public boolean hasNext () {
+			return nextVal != -1;
+		}
+
+		@Override
+		public int next () {
+			int answer = nextVal;
+			nextVal = (answer == Integer.MAX_VALUE) ? -1 : find(answer + 1);
+			return answer;
+		}
+	}
+
+	// ********************************************************************
+	// container operations
+
+	private static boolean intersects (Container a, Container b) {
+		if (b instanceof ArrayContainer && !(a instanceof ArrayContainer)) {
+			Container temp = a;
+			a = b;
+			b = temp;
+		}
+		if (a instanceof ArrayContainer) {
+			ArrayContainer arr = (ArrayContainer) a;
+			for(int i = 0; i < arr.card; i++)
+				if (b.contains(arr.content[i]))
+					return true;
+			return false;
+		}
+
+		return a.toBitmap().intersects(b.toBitmap());
+	}
+
+	private static Container and (Container a, Container b) {
+		if (b instanceof ArrayContainer && !(a instanceof ArrayContainer)) {
+			Container temp = a;
+			a = b;
+			b = temp;
+		}
+		if (a instanceof ArrayContainer && b instanceof ArrayContainer)
+			return ((ArrayContainer) a).mergeFilter((ArrayContainer) b, true);
+		if (a instanceof ArrayContainer)
+			return ((ArrayContainer) a).filter(b, true);
+
+		return optimize(a.toBitmap().copy().andAll(b));
+	}
+
+	private static Container or (Container a, Container b) {
+		if (a instanceof ArrayContainer && b instanceof ArrayContainer)
+			return optimize(((ArrayContainer) a).merge((ArrayContainer) b));
+
+		return optimize(a.toBitmap().copy().orAll(b));
+	}
+
+	private static Container andNot (Container a, Container b) {
+		if (a instanceof ArrayContainer && b instanceof ArrayContainer)
+			return ((ArrayContainer) a).mergeFilter((ArrayContainer) b, false);
+		if (a instanceof ArrayContainer)
+			return ((ArrayContainer) a).filter(b, false);
+
+		return optimize(a.toBitmap().copy().clearAll(b));
+	}
+
+	/**
+	 * @return the container in its smallest representation
+	 */
+	private static Container optimize (Container c) {
+		int card = c.cardinality();
+		int runs = c.numberOfRuns();
+		int arraySize = (card <= ARRAY_MAX) ? card * 2 : Integer.MAX_VALUE;
+		int runSize = runs * 4;
+
+		if (runSize < arraySize && runSize < BITMAP_BYTES)
+			return (c instanceof RunContainer) ? c : RunContainer.fromContainer(c, runs);
+		if (arraySize <= BITMAP_BYTES)
+			return (c instanceof ArrayContainer) ? c : ArrayContainer.fromContainer(c);
+		return c.toBitmap();
+	}
+
+	/**
+	 * Storage for the lower 16 bits of the positions in one chunk.
+	 */
+	abstract static class Container {
+
+		abstract boolean contains (int x);
+
+		/**
+		 * @return the container that stores the result (may be a new
+		 *         container of a different type)
+		 */
+		abstract Container add (int x);
+
+		abstract int cardinality ();
+
+		/**
+		 * @return smallest element >= from or -1 if there is no such element
+		 */
+		abstract int nextSetBit (int from);
+
+		abstract int last ();
+
+		abstract int numberOfRuns ();
+
+		abstract int getByteSize ();
+
+		abstract Container copy ();
+
+		/**
+		 * @return a bitmap representation of this container, the container
+		 *         itself if it is a bitmap
+		 */
+		abstract BitmapContainer toBitmap ();
+	}
+
+	/**
+	 * Sorted array of positions for sparse chunks.
+	 */
+	static class ArrayContainer extends Container {
+
+		char[] content;
+		int card;
+
+		ArrayContainer () {
+			this(4);
+		}
+
+		ArrayContainer (int capacity) {
+			content = new char[Math.max(capacity, 1)];
+			card = 0;
+		}
+
+		static ArrayContainer fromContainer (Container c) {
+			ArrayContainer result = new ArrayContainer(c.cardinality());
+
+			for(int x = c.nextSetBit(0); x != -1; x = c.nextSetBit(x + 1))
+				result.content[result.card++] = (char) x;
+
+			return result;
+		}
+
+		private int find (int x) {
+			return Arrays.binarySearch(content, 0, card, (char) x);
+		}
+
+		@Override
+		boolean contains (int x) {
+			return find(x) >= 0;
+		}
+
+		@Override
+		Container add (int x) {
+			int pos = find(x);
+
+			if (pos >= 0)
+				return this;
+			if (card == ARRAY_MAX)
+				return toBitmap().add(x);
+
+			pos = -pos - 1;
+			if (card == content.length)
+				content = Arrays.copyOf(content, Math.min(card * 2, ARRAY_MAX));
+			System.arraycopy(content, pos, content, pos + 1, card - pos);
+			content[pos] = (char) x;
+			card++;
+
+			return this;
+		}
+
+		/**
+		 * @return positions of this container that are (keep = true) or are
+		 *         not (keep = false) in other
+		 */
+		ArrayContainer filter (Container other, boolean keep) {
+			ArrayContainer result = new ArrayContainer(card);
+
+			for(int i = 0; i < card; i++)
+				if (other.contains(content[i]) == keep)
+					result.content[result.card++] = content[i];
+
+			return result;
+		}
+
+		/**
+		 * Same as {@link #filter(Container, boolean)} for two arrays, but
+		 * walks both arrays in a single pass instead of searching other.
+		 */
+		ArrayContainer mergeFilter (ArrayContainer other, boolean keep) {
+			ArrayContainer result = new ArrayContainer(card);
+			int j = 0;
+
+			for(int i = 0; i < card; i++) {
+				char x = content[i];
+				while (j < other.card && other.content[j] < x)
+					j++;
+				if ((j < other.card && other.content[j] == x) == keep)
+					result.content[result.card++] = x;
+			}
+
+			return result;
+		}
+
+		/**
+		 * @return union of the two arrays, a bitmap if the result is too
+		 *         large for an array
+		 */
+		Container merge (ArrayContainer other) {
+			char[] merged = new char[card + other.card];
+			int i = 0, j = 0, k = 0;
+			ArrayContainer result;
+
+			while (i < card && j < other.card) {
+				if (content[i] < other.content[j])
+					merged[k++] = content[i++];
+				else if (content[i] > other.content[j])
+					merged[k++] = other.content[j++];
+				else {
+					merged[k++] = content[i++];
+					j++;
+				}
+			}
+			while (i < card)
+				merged[k++] = content[i++];
+			while (j < other.card)
+				merged[k++] = other.content[j++];
+
+			result = new ArrayContainer(0);
+			result.content = merged;
+			result.card = k;
+
+			return (k > ARRAY_MAX) ? result.toBitmap() : result;
+		}
+
+		@Override
+		int cardinality () {
+			return card;
+		}
+
+		@Override
+		int nextSetBit (int from) {
+			int pos = find(from);
+
+			if (pos < 0)
+				pos = -pos - 1;
+			return (pos < card) ? content[pos] : -1;
+		}
+
+		@Override
+		int last () {
+			return content[card - 1];
+		}
+
+		@Override
+		int numberOfRuns () {
+			int runs = 0;
+
+			for(int i = 0; i < card; i++)
+				if (i == 0 || content[i] != content[i - 1] + 1)
+					runs++;
+
+			return runs;
+		}
+
+		@Override
+		int getByteSize () {
+			return content.length * 2 + 8;
+		}
+
+		@Override
+		Container copy () {
+			ArrayContainer result = new ArrayContainer(0);
+			result.content = Arrays.copyOf(content, Math.max(card, 1));
+			result.card = card;
+			return result;
+		}
+
+		@Override
+		BitmapContainer toBitmap () {
+			BitmapContainer result = new BitmapContainer();
+
+			for(int i = 0; i < card; i++)
+				result.add(content[i]);
+
+			return result;
+		}
+	}
+
+	/**
+	 * Uncompressed bitmap of 2^16 bits for dense chunks.
+	 */
+	static class BitmapContainer extends Container {
+
+		final long[] words;
+		int card;
+
+		BitmapContainer () {
+			words = new long[BITMAP_WORDS];
+			card = 0;
+		}
+
+		BitmapContainer (long[] words, int card) {
+			this.words = words;
+			this.card = card;
+		}
+
+		@Override
+		boolean contains (int x) {
+			return (words[x >>> 6] & (1L << x)) != 0;
+		}
+
+		@Override
+		Container add (int x) {
+			long before = words[x >>> 6];
+			long after = before | (1L << x);
+
+			words[x >>> 6] = after;
+			if (before != after)
+				card++;
+
+			return this;
+		}
+
+		/**
+		 * Set all bits in [start, end).
+		 */
+		void setRange (int start, int end) {
+			for(int x = start; x < end;) {
+				int word = x >>> 6;
+				int wordEnd = Math.min(end, (word + 1) << 6);
+				long mask = (wordEnd - x == 64) ? ~0L
+						: ((1L << (wordEnd - x)) - 1) << (x & 63);
+				card += Long.bitCount(mask & ~words[word]);
+				words[word] |= mask;
+				x = wordEnd;
+			}
+		}
+
+		/**
+		 * Clear all bits in [start, end).
+		 */
+		void clearRange (int start, int end) {
+			for(int x = start; x < end;) {
+				int word = x >>> 6;
+				int wordEnd = Math.min(end, (word + 1) << 6);
+				long mask = (wordEnd - x == 64) ? ~0L
+						: ((1L << (wordEnd - x)) - 1) << (x & 63);
+				card -= Long.bitCount(mask & words[word]);
+				words[word] &= ~mask;
+				x = wordEnd;
+			}
+		}
+
+		BitmapContainer orAll (Container other) {
+			if (other instanceof BitmapContainer) {
+				long[] o = ((BitmapContainer) other).words;
+				card = 0;
+				for(int i = 0; i < BITMAP_WORDS; i++) {
+					words[i] |= o[i];
+					card += Long.bitCount(words[i]);
+				}
+			}
+			else if (other instanceof RunContainer) {
+				RunContainer r = (RunContainer) other;
+				for(int i = 0; i < r.nbruns; i++)
+					setRange(r.start(i), r.end(i));
+			}
+			else {
+				ArrayContainer a = (ArrayContainer) other;
+				for(int i = 0; i < a.card; i++)
+					add(a.content[i]);
+			}
+			return this;
+		}
+
+		BitmapContainer andAll (Container other) {
+			long[] o = other.toBitmap().words;
+
+			card = 0;
+			for(int i = 0; i < BITMAP_WORDS; i++) {
+				words[i] &= o[i];
+				card += Long.bitCount(words[i]);
+			}
+
+			return this;
+		}
+
+		BitmapContainer clearAll (Container other) {
+			if (other instanceof BitmapContainer) {
+				long[] o = ((BitmapContainer) other).words;
+				card = 0;
+				for(int i = 0; i < BITMAP_WORDS; i++) {
+					words[i] &= ~o[i];
+					card += Long.bitCount(words[i]);
+				}
+			}
+			else if (other instanceof RunContainer) {
+				RunContainer r = (RunContainer) other;
+				for(int i = 0; i < r.nbruns; i++)
+					clearRange(r.start(i), r.end(i));
+			}
+			else {
+				ArrayContainer a = (ArrayContainer) other;
+				for(int i = 0; i < a.card; i++) {
+					int x = a.content[i];
+					if (contains(x)) {
+						words[x >>> 6] &= ~(1L << x);
+						card--;
+					}
+				}
+			}
+			return this;
+		}
+
+		boolean intersects (BitmapContainer other) {
+			for(int i = 0; i < BITMAP_WORDS; i++)
+				if ((words[i] & other.words[i]) != 0)
+					return true;
+			return false;
+		}
+
+		@Override
+		int cardinality () {
+			return card;
+		}
+
+		@Override
+		int nextSetBit (int from) {
+			int word = from >>> 6;
+			long bits;
+
+			if (word >= BITMAP_WORDS)
+				return -1;
+
+			bits = words[word] & (~0L << from);
+			while (bits == 0) {
+				if (++word == BITMAP_WORDS)
+					return -1;
+				bits = words[word];
+			}
+
+			return (word << 6) + Long.numberOfTrailingZeros(bits);
+		}
+
+		/**
+		 * @return smallest unset position >= from or CHUNK_SIZE
+		 */
+		int nextClearBit (int from) {
+			int word = from >>> 6;
+			long bits;
+
+			if (word >= BITMAP_WORDS)
+				return CHUNK_SIZE;
+
+			bits = ~words[word] & (~0L << from);
+			while (bits == 0) {
+				if (++word == BITMAP_WORDS)
+					return CHUNK_SIZE;
+				bits = ~words[word];
+			}
+
+			return (word << 6) + Long.numberOfTrailingZeros(bits);
+		}
+
+		@Override
+		int last () {
+			for(int i = BITMAP_WORDS - 1; i >= 0; i--)
+				if (words[i] != 0)
+					return (i << 6) + 63 - Long.numberOfLeadingZeros(words[i]);
+			return -1;
+		}
+
+		@Override
+		int numberOfRuns () {
+			int runs = 0;
+			long prevHigh = 0;
+
+			for(int i = 0; i < BITMAP_WORDS; i++) {
+				long w = words[i];
+				runs += Long.bitCount(w & ~((w << 1) | prevHigh));
+				prevHigh = w >>> 63;
+			}
+
+			return runs;
+		}
+
+		@Override
+		int getByteSize () {
+			return BITMAP_BYTES + 8;
+		}
+
+		@Override
+		BitmapContainer copy () {
+			return new BitmapContainer(words.clone(), card);
+		}
+
+		@Override
+		BitmapContainer toBitmap () {
+			return this;
+		}
+	}
+
+	/**
+	 * Sorted list of runs of ones for chunks with long stretches of set bits.
+	 * Run i covers [runs[2i], runs[2i] + runs[2i+1]].
+	 */
+	static class RunContainer extends Container {
+
+		char[] runs;
+		int nbruns;
+
+		RunContainer (int capacity) {
+			runs = new char[Math.max(capacity, 1) * 2];
+			nbruns = 0;
+		}
+
+		static RunContainer fromContainer (Container c, int numRuns) {
+			RunContainer result = new RunContainer(numRuns);
+			BitmapContainer b = (c instanceof BitmapContainer)
+					? (BitmapContainer) c : null;
+			int x = c.nextSetBit(0);
+
+			while (x != -1) {
+				int end = x;
+				if (b != null)
+					end = b.nextClearBit(x) - 1;
+				else
+					while (end + 1 < CHUNK_SIZE && c.contains(end + 1))
+						end++;
+				result.runs[2 * result.nbruns] = (char) x;
+				result.runs[2 * result.nbruns + 1] = (char) (end - x);
+				result.nbruns++;
+				x = (end + 1 < CHUNK_SIZE) ? c.nextSetBit(end + 1) : -1;
+			}
+
+			return result;
+		}
+
+		int start (int i) {
+			return runs[2 * i];
+		}
+
+		/**
+		 * @return position after the last position of run i
+		 */
+		int end (int i) {
+			return runs[2 * i] + runs[2 * i + 1] + 1;
+		}
+
+		/**
+		 * @return index of the last run starting at or before x, -1 if none
+		 */
+		private int findRun (int x) {
+			int low = 0;
+			int high = nbruns - 1;
+
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (start(mid) <= x)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+
+			return high;
+		}
+
+		@Override
+		boolean contains (int x) {
+			int run = findRun(x);
+			return run != -1 && x < end(run);
+		}
+
+		@Override
+		Container add (int x) {
+			Container result;
+
+			if (contains(x))
+				return this;
+
+			result = (cardinality() < ARRAY_MAX)
+					? ArrayContainer.fromContainer(this) : toBitmap();
+			return result.add(x);
+		}
+
+		@Override
+		int cardinality () {
+			int card = 0;
+
+			for(int i = 0; i < nbruns; i++)
+				card += runs[2 * i + 1] + 1;
+
+			return card;
+		}
+
+		@Override
+		int nextSetBit (int from) {
+			int run = findRun(from);
+
+			if (run != -1 && from < end(run))
+				return from;
+			return (run + 1 < nbruns) ? start(run + 1) : -1;
+		}
+
+		@Override
+		int last () {
+			return end(nbruns - 1) - 1;
+		}
+
+		@Override
+		int numberOfRuns () {
+			return nbruns;
+		}
+
+		@Override
+		int getByteSize () {
+			return runs.length * 2 + 8;
+		}
+
+		@Override
+		Container copy () {
+			RunContainer result = new RunContainer(nbruns);
+			System.arraycopy(runs, 0, result.runs, 0, 2 * nbruns);
+			result.nbruns = nbruns;
+			return result;
+		}
+
+		@Override
+		BitmapContainer toBitmap () {
+			BitmapContainer result = new BitmapContainer();
+
+			for(int i = 0; i < nbruns; i++)
+				result.setRange(start(i), end(i));
+
+			return result;
+		}
+	}
+}
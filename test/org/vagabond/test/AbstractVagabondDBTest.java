@@ -29,9 +29,9 @@ import org.vagabond.explanation.marker.ScenarioDictionary;
 import org.vagabond.mapping.model.ModelLoader;
 import org.vagabond.mapping.model.ValidationException;
 import org.vagabond.mapping.scenarioToDB.DatabaseScenarioLoader;
+import org.vagabond.util.CompactStringIdMap;
 import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.GlobalResetter;
-import org.vagabond.util.IdMap;
 
 public abstract class AbstractVagabondDBTest extends DBTestCase  {
 
@@ -239,12 +239,12 @@ public abstract class AbstractVagabondDBTest extends DBTestCase  {
 	
 	public static void setTids(String rel, String[] tids) throws Exception {
 		int relId = ScenarioDictionary.getInstance().getRelId(rel);
-		List<IdMap<String>> tidMaps;
-		IdMap<String> tidMap;
+		List<CompactStringIdMap> tidMaps;
+		CompactStringIdMap tidMap;
 		Field tidMapField = ScenarioDictionary.class.getDeclaredField("TidMapping");
 		
 		tidMapField.setAccessible(true);
-		tidMaps = (List<IdMap<String>>) tidMapField.get(ScenarioDictionary.getInstance());
+		tidMaps = (List<CompactStringIdMap>) tidMapField.get(ScenarioDictionary.getInstance());
 		tidMap = tidMaps.get(relId);
 		tidMap.clear();
 		
@@ -1,5 +1,6 @@
 package org.vagabond.test.batchjobs;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -274,6 +275,42 @@ public class TestMarkerSetFlattenedView extends AbstractVagabondTest {
 		assertTrue(mv.intersect(markers).getSize() == 2);
 	}
 	
+	@Test
+	public void testMarkerSetViewSetOpsReturnViews () throws Exception {
+		String query1 = 
+			"SELECT 'person'::text AS rel, person.tid, B'10'::bit varying AS att " +
+			"FROM target.person " +
+			"WHERE person.livesin IS NULL";
+		MarkerSetFlattenedView mv1 = new MarkerSetFlattenedView(query1);
+		IMarkerSet res;
+		
+		res = mv.diff(mv1);
+		assertTrue(res instanceof MarkerSetFlattenedView);
+		assertTrue(res.getSize() == 3);
+		assertTrue(mv.getSize() == 6);
+		
+		res = mv1.union(mv);
+		assertTrue(res instanceof MarkerSetFlattenedView);
+		assertTrue(res.getSize() == 6);
+		assertTrue(res.equals(mv));
+		
+		res = mv.intersect(new MarkerSet());
+		assertTrue(res.isEmpty());
+		assertTrue(mv.diff(new MarkerSet()).equals(mv));
+	}
+	
+	@Test
+	public void testMarkerSetViewToBitMarkerSet () throws Exception {
+		ISingleMarker m0 = new AttrValueMarker("person", "1M", "name");
+		ISingleMarker m1 = new AttrValueMarker("person", "1|3|2", "livesin");
+		IMarkerSet b = mv.toBitMarkerSet();
+		
+		assertTrue(b.getSize() == 6);
+		assertTrue(b.contains(m0));
+		assertTrue(b.contains(m1));
+		assertTrue(b.getElems().equals(mv.getElems()));
+	}
+	
 	@Test
 	public void testMarkerSetViewGetSummary () throws Exception {
 		MarkerSetFlattenedView fl = new MarkerSetFlattenedView("SELECT * FROM " +
@@ -291,4 +328,83 @@ public class TestMarkerSetFlattenedView extends AbstractVagabondTest {
 		assertTrue(ms.size() == 1);
 		assertTrue(ms.contains(sm1));
 	}
+	
+	@Test
+	public void testBrokerNormalizeQuery () throws Exception {
+		assertEquals("select * from r where a = 'A  b'", 
+				MaterializedViewsBroker.normalizeQuery(
+				" SELECT *\n  FROM r\tWHERE a = 'A  b'  "));
+	}
+	
+	@Test
+	public void testBrokerSharesTables () throws Exception {
+		MaterializedViewsBroker broker = MaterializedViewsBroker.getInstance();
+		MarkerSetFlattenedView mv1 = new MarkerSetFlattenedView(
+				query.toLowerCase().replace(" FROM", "\n FROM"));
+		MarkerSetFlattenedView mv2;
+		ISingleMarker m0 = new AttrValueMarker("person", "1M", "name");
+		long hits;
+		
+		broker.decompose();
+		broker.resetStatistics();
+		mv.materialize();
+		mv1.materialize();
+		assertEquals(1, broker.getNumMisses());
+		assertEquals(1, broker.getNumHits());
+		assertEquals(mv.getRelName(), mv1.getRelName());
+		assertEquals(2, broker.getRefCount(mv.getRelName()));
+		assertTrue(mv1.getSize() == 6);
+		
+		// copy on write
+		mv1.remove(m0);
+		assertFalse(mv.getRelName().equals(mv1.getRelName()));
+		assertEquals(1, broker.getRefCount(mv.getRelName()));
+		assertTrue(mv.getSize() == 6);
+		assertTrue(mv1.getSize() == 5);
+		assertEquals(2, broker.getNumTables());
+		
+		// released tables stay cached
+		mv2 = (MarkerSetFlattenedView) mv.cloneSet();
+		mv.decompose();
+		hits = broker.getNumHits();
+		mv2.decompose();
+		assertEquals(2, broker.getNumTables());
+		mv2 = new MarkerSetFlattenedView(query, true);
+		assertEquals(hits + 1, broker.getNumHits());
+		assertTrue(mv2.getSize() == 6);
+		
+		// evict cold tables
+		mv2.decompose();
+		broker.setMaxTables(1);
+		assertEquals(1, broker.getNumTables());
+		assertEquals(1, broker.getNumEvictions());
+		broker.setMaxTables(MaterializedViewsBroker.DEFAULT_MAX_TABLES);
+	}
+	
+	@Test
+	public void testBrokerUpdateToSameQuery () throws Exception {
+		MaterializedViewsBroker broker = MaterializedViewsBroker.getInstance();
+		MarkerSetFlattenedView mv1, mv2;
+		ISingleMarker m0 = new AttrValueMarker("person", "1M", "name");
+		ISingleMarker m1 = new AttrValueMarker("person", "1|3|2", "livesin");
+		
+		broker.decompose();
+		mv.materialize();
+		mv1 = new MarkerSetFlattenedView(query, true);
+		
+		// both views end up with the same query, but use their own tables
+		mv1.remove(m0);
+		mv.remove(m0);
+		assertEquals(mv1.getQuery(), mv.getQuery());
+		assertFalse(mv.getRelName().equals(mv1.getRelName()));
+		
+		// must not unregister the table of mv1
+		mv.remove(m1);
+		broker.resetStatistics();
+		mv2 = new MarkerSetFlattenedView(mv1.getQuery(), true);
+		assertEquals(1, broker.getNumHits());
+		assertEquals(mv1.getRelName(), mv2.getRelName());
+		assertTrue(mv2.getSize() == 5);
+		assertTrue(mv.getSize() == 4);
+	}
 }
@@ -2,6 +2,7 @@ package org.vagabond.test.explanation.ranking;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
 import java.util.Comparator;
 
 import org.junit.Test;
@@ -9,6 +10,7 @@ import org.vagabond.explanation.marker.MarkerParser;
 import org.vagabond.explanation.model.ExplanationFactory;
 import org.vagabond.explanation.model.IExplanationSet;
 import org.vagabond.explanation.model.basic.CopySourceError;
+import org.vagabond.explanation.model.basic.IBasicExplanation;
 import org.vagabond.explanation.ranking.scoring.ExplanationSizeScore;
 import org.vagabond.explanation.ranking.scoring.IScoringFunction;
 import org.vagabond.explanation.ranking.scoring.ScoreExplSetComparator;
@@ -55,6 +57,30 @@ public class TestScoringFunctions extends AbstractVagabondTest {
 		assertEquals(0, comp.compare(e2, e2));
 	}
 	
+	@Test
+	public void testSideEffScoringCollection () throws Exception {
+		IScoringFunction f = SideEffectSizeScore.inst;
+		
+		setUp ("resource/exampleScenarios/homelessDebugged.xml");
+		
+		CopySourceError c1 = new CopySourceError();
+		c1.setExplains(MarkerParser.getInstance().parseMarker("A(person,2,name)"));
+		c1.setRealTargetSideEffects(MarkerParser.getInstance().parseSet("{}"));
+		
+		CopySourceError c2 = new CopySourceError();
+		c2.setExplains(MarkerParser.getInstance().parseMarker("A(person,1,name)"));
+		c2.setRealTargetSideEffects(MarkerParser.getInstance().parseSet("{A(person,3,name)}"));
+		
+		CopySourceError c3 = new CopySourceError();
+		c3.setExplains(MarkerParser.getInstance().parseMarker("A(person,2|1|1,name)"));
+		c3.setRealTargetSideEffects(MarkerParser.getInstance().parseSet("{A(person,3,name),A(person,1|3|2,name)}"));
+		
+		assertEquals(0, f.getScore(Arrays.<IBasicExplanation>asList(c1)));
+		assertEquals(1, f.getScore(Arrays.<IBasicExplanation>asList(c1, c2)));
+		assertEquals(2, f.getScore(Arrays.<IBasicExplanation>asList(c1, c2, c3)));
+		assertEquals(2, f.getScore(Arrays.<IBasicExplanation>asList(c3, c2)));
+	}
+	
 	@Test
 	public void testExplSizeScoring () throws Exception {
 		IScoringFunction f = ExplanationSizeScore.inst;
@@ -21,6 +21,7 @@ import org.vagabond.test.explanations.model.AllTestExplanationsModel;
 		TestProvAndSideEffect.class,
 		TestProvAndSideEffectQueries.class,
 		TestProvParsers.class,
+		TestInMemoryProv.class,
 		AllTestExplanationsModel.class,
 		AllTestRanking.class
         })
@@ -1,7 +1,9 @@
 package org.vagabond.test.explanations;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -11,6 +13,7 @@ import org.junit.Test;
 import org.vagabond.explanation.generation.CorrespondencExplanationGenerator;
 import org.vagabond.explanation.marker.IAttributeValueMarker;
 import org.vagabond.explanation.marker.IMarkerSet;
+import org.vagabond.explanation.marker.ISingleMarker;
 import org.vagabond.explanation.marker.MarkerFactory;
 import org.vagabond.explanation.marker.MarkerParser;
 import org.vagabond.explanation.model.ExplanationFactory;
@@ -134,4 +137,27 @@ public class TestCorrExplGen extends AbstractVagabondTest {
 		assertEquals(expect, err);
 	}
 	
+	@Test
+	public void testRegisteredErrorIsExplained () throws Exception {
+		CorrespondencExplanationGenerator corrGen = 
+				new CorrespondencExplanationGenerator();
+		ISingleMarker first, second;
+		CorrespondenceError expl;
+		
+		loadToDB("resource/test/simpleTest.xml");
+		first = MarkerFactory.newAttrMarker("employee", "2|2", "city");
+		second = MarkerFactory.newAttrMarker("employee", "4|2", "city");
+		
+		// the worker of the second error creates the shared explanation
+		corrGen.registerErrors(Arrays.asList(first, second));
+		expl = (CorrespondenceError) corrGen.findExplanations(second)
+				.getExplanations().get(0);
+		
+		assertEquals(first, expl.explains());
+		assertEquals(MarkerParser.getInstance().parseSet(
+				"{A(employee,1|1,city),A(employee,4|2,city)}"), 
+				expl.getTargetSideEffects());
+		assertSame(expl, corrGen.findExplanations(first).getExplanations().get(0));
+	}
+	
 }
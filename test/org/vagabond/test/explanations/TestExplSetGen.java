@@ -560,4 +560,23 @@ public class TestExplSetGen extends AbstractVagabondTest {
 		assertEquals(ex, col1);
 	}
 	
+	@Test
+	public void testParallelGen () throws Exception {
+		ExplanationSetGenerator parGen = new ExplanationSetGenerator();
+		ExplanationCollection serial, parallel;
+		IMarkerSet errSet;
+		
+		loadToDB("resource/exampleScenarios/homelessDebugged.xml");
+		
+		errSet = MarkerParser.getInstance().parseSet(
+				"{A(person,1,name),A(person,2|1|1,livesin),A(person,1,livesin)}");
+		
+		serial = gen.findExplanations(errSet);
+		parGen.setNumWorkers(3);
+		parallel = parGen.findExplanations(errSet);
+		
+		assertEquals(serial, parallel);
+		assertEquals(serial.toString(), parallel.toString());
+	}
+	
 }
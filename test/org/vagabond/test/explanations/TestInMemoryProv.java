@@ -0,0 +1,183 @@
+package org.vagabond.test.explanations;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vagabond.explanation.generation.prov.InMemoryProvenanceBackend;
+import org.vagabond.explanation.generation.prov.MappingProvenanceBitmaps;
+import org.vagabond.explanation.generation.prov.PermProvenanceBackend;
+import org.vagabond.explanation.generation.prov.ProvenanceGenerator;
+import org.vagabond.explanation.generation.prov.ProvenanceIndex;
+import org.vagabond.explanation.generation.prov.ProvenanceSchemaDeriver;
+import org.vagabond.explanation.marker.ITupleMarker;
+import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.explanation.marker.ScenarioDictionary;
+import org.vagabond.explanation.model.prov.ProvWLRepresentation;
+import org.vagabond.mapping.model.ModelLoader;
+
+/**
+ * Computes the provenance of simpleTest.xml without a database.
+ */
+public class TestInMemoryProv {
+
+	private InMemoryProvenanceBackend backend;
+
+	@BeforeClass
+	public static void setUpLogger () {
+		PropertyConfigurator.configure("resource/test/testLog4jproperties.txt");
+	}
+
+	@Before
+	public void setUp () throws Exception {
+		ModelLoader.getInstance().loadToInst("resource/test/simpleTest.xml");
+		backend = new InMemoryProvenanceBackend();
+		backend.loadScenarioData(null);
+		ProvenanceGenerator.getInstance().setBackend(backend);
+		ScenarioDictionary.getInstance().initFromScenario();
+	}
+
+	@After
+	public void tearDown () {
+		ProvenanceGenerator.getInstance().setBackend(new PermProvenanceBackend());
+	}
+
+	@Test
+	public void testTargetRows () throws Exception {
+		List<String[]> rows = backend.getTargetRows("employee");
+
+		assertEquals(4, rows.size());
+		assertArrayEquals(new String[] {"3|", "Gert", null}, rows.get(0));
+		assertArrayEquals(new String[] {"1|1", "Peter", "Toronto"}, rows.get(1));
+		assertArrayEquals(new String[] {"2|2", "Heinz", "Montreal"}, rows.get(2));
+		assertArrayEquals(new String[] {"4|2", "Gertrud", "Montreal"}, rows.get(3));
+
+		assertSame(backend, ScenarioDictionary.getInstance().getTidSource());
+		assertTrue(ScenarioDictionary.getInstance().getTidInt("4|2", "employee") != -1);
+	}
+
+	@Test
+	public void testCSV () throws Exception {
+		List<String[]> rows;
+
+		backend.loadCSV("person", new File("resource/test/person.csv"), "|");
+		rows = backend.getTargetRows("employee");
+
+		assertEquals(3, rows.size());
+		assertArrayEquals(new String[] {"3|", "Gert", null}, rows.get(0));
+		assertArrayEquals(new String[] {"1|1", "Peter", "Toronto"}, rows.get(1));
+	}
+
+	@Test
+	public void testTidFromTransformation () throws Exception {
+		List<String[]> rows;
+
+		ModelLoader.getInstance().loadToInst("resource/test/severalComps.xml");
+		backend = new InMemoryProvenanceBackend();
+		backend.loadScenarioData(null);
+		ProvenanceGenerator.getInstance().setBackend(backend);
+		ScenarioDictionary.getInstance().initFromScenario();
+
+		assertEquals(Arrays.asList(0), ProvenanceSchemaDeriver
+				.getTidExpressions("u").get(0));
+		rows = backend.getTargetRows("u");
+		assertEquals(2, rows.size());
+		assertArrayEquals(new String[] {"1", "1"}, rows.get(0));
+		assertArrayEquals(new String[] {"2", "2"}, rows.get(1));
+	}
+
+	@Test
+	public void testMapProv () throws Exception {
+		assertEquals(new Vector<String> (Arrays.asList("M2")),
+				backend.computeMapProvAsStrings("employee", "2|2"));
+		assertEquals(new Vector<String> (Arrays.asList("M1")),
+				backend.computeMapProvAsStrings("employee", "3|"));
+		assertEquals(0, backend.computeMapProvAsStrings("employee", "5|").size());
+		assertEquals(2, backend.computeMapProvAsStrings("employee",
+				Arrays.asList("1|1", "3|", "5|")).size());
+	}
+
+	@Test
+	public void testProv () throws Exception {
+		ProvWLRepresentation prov;
+		ITupleMarker p1 = MarkerFactory.newTupleMarker("person", "1");
+		ITupleMarker a1 = MarkerFactory.newTupleMarker("address", "1");
+
+		prov = backend.computePIProv("employee", "1|1", "city");
+		assertEquals(Arrays.asList("person", "address"), prov.getRelNames());
+		assertEquals(1, prov.getWitnessLists().size());
+		assertEquals(wl(p1, a1), prov.getWitnessList(0));
+		assertEquals(2, prov.getTuplesInProv().getNumElem());
+
+		prov = backend.computeCopyProvenance("employee", "1|1", "city");
+		assertEquals(wl(null, a1), prov.getWitnessList(0));
+		prov = backend.computeCopyProvenance("employee", "1|1", "name");
+		assertEquals(wl(p1, null), prov.getWitnessList(0));
+
+		prov = backend.computePIProv("employee", "3|", "name");
+		assertEquals(wl(MarkerFactory.newTupleMarker("person", "3"), null),
+				prov.getWitnessList(0));
+
+		assertEquals(0, backend.computePIProv("employee",
+				Arrays.asList("5|"), "name").get("5|").getWitnessLists().size());
+	}
+
+	@Test
+	public void testBitmapsAndIndex () throws Exception {
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		MappingProvenanceBitmaps bitmaps;
+		ProvenanceIndex index;
+
+		bitmaps = ProvenanceGenerator.getInstance().getMapProvBitmaps("employee");
+		assertTrue(bitmaps.getTids("M1").get(dict.getTidInt("3|", "employee")));
+		assertEquals(1, bitmaps.getTids("M1").cardinality());
+		assertEquals(3, bitmaps.getTids("M2").cardinality());
+
+		index = backend.getProvenanceIndex("employee");
+		assertEquals(4, index.getNumTargets());
+		assertEquals(4, index.getNumWitnessLists());
+	}
+
+	@Test
+	public void testUnknownTid () throws Exception {
+		List<String[]> persons = new ArrayList<String[]> ();
+
+		// produces target tuple 5|1 that is not in the tid dictionary
+		persons.add(new String[] {"1", "Peter", "1"});
+		persons.add(new String[] {"5", "Otto", "1"});
+		backend.setRelation("person", persons);
+
+		try {
+			backend.getMapProvBitmaps("employee");
+			fail("unknown tid should be rejected");
+		}
+		catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("5|1"));
+		}
+		try {
+			backend.getProvenanceIndex("employee");
+			fail("unknown tid should be rejected");
+		}
+		catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("5|1"));
+		}
+	}
+
+	private Vector<ITupleMarker> wl (ITupleMarker ... tups) {
+		return new Vector<ITupleMarker> (new ArrayList<ITupleMarker> (
+				Arrays.asList(tups)));
+	}
+}
@@ -57,4 +57,24 @@ public class TestPartExplGen extends AbstractVagabondTest {
 		assertEquals(ex, e);
 	}
 	
+	@Test
+	public void testParallelExplGen () throws Exception {
+		setUp("resource/test/severalComps.xml");
+		
+		IAttributeValueMarker a1 = MarkerFactory.newAttrMarker("u", "2", "u1"); 
+		IAttributeValueMarker a2 = MarkerFactory.newAttrMarker("v", "1", "v1");
+		
+		IMarkerSet m = MarkerFactory.newMarkerSet(a1, a2);
+		
+		ExplPartition ex = explGen.findExplanations(m);
+		
+		explGen.setNumWorkers(2);
+		ExplPartition e = explGen.findExplanations(m);
+		
+		if (log.isDebugEnabled()) {log.debug(e);};
+		
+		assertEquals(ex, e);
+		assertEquals(2, explGen.getPartitionTimes().length);
+	}
+	
 }
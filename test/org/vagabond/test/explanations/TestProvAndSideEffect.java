@@ -1,6 +1,10 @@
 package org.vagabond.test.explanations;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -15,16 +19,27 @@ import org.junit.Before;
 import org.junit.Test;
 import org.vagabond.explanation.generation.prov.AlterSourceProvenanceSideEffectGenerator;
 import org.vagabond.explanation.generation.prov.AttrGranularitySourceProvenanceSideEffectGenerator;
+import org.vagabond.explanation.generation.prov.IndexedSideEffectGenerator;
+import org.vagabond.explanation.generation.prov.MappingProvenanceBitmaps;
+import org.vagabond.explanation.generation.prov.ProvenanceCache;
+import org.vagabond.explanation.generation.prov.ProvenanceCache.Granularity;
 import org.vagabond.explanation.generation.prov.ProvenanceGenerator;
+import org.vagabond.explanation.generation.prov.ProvenanceIndex;
+import org.vagabond.explanation.generation.prov.ProvenanceSchemaDeriver;
 import org.vagabond.explanation.generation.prov.SourceProvenanceSideEffectGenerator;
+import org.vagabond.explanation.generation.prov.SourceProvenanceSideEffectGenerator.SideEffectQueryParams;
 import org.vagabond.explanation.marker.IAttributeValueMarker;
 import org.vagabond.explanation.marker.IMarkerSet;
 import org.vagabond.explanation.marker.MarkerFactory;
 import org.vagabond.explanation.marker.MarkerParser;
+import org.vagabond.explanation.marker.ScenarioDictionary;
 import org.vagabond.explanation.model.prov.MapAndWLProvRepresentation;
+import org.vagabond.explanation.model.prov.ProvWLRepresentation;
 import org.vagabond.mapping.model.MapScenarioHolder;
 import org.vagabond.test.AbstractVagabondTest;
 import org.vagabond.util.CollectionUtils;
+import org.vagabond.util.ConnectionManager;
+import org.vagabond.util.GlobalResetter;
 import org.vagabond.util.Pair;
 import org.vagabond.util.QueryTemplate;
 import org.vagabond.xmlmodel.MappingType;
@@ -104,6 +119,110 @@ public class TestProvAndSideEffect extends AbstractVagabondTest {
 		assertEquals(result, exp);
 	}
 	
+	@Test
+	public void testMapProvBitmaps () throws Exception {
+		MappingProvenanceBitmaps bitmaps;
+		int tid;
+		
+		bitmaps = pGen.getMapProvBitmaps("employee");
+		tid = ScenarioDictionary.getInstance().getTidInt("2|2", "employee");
+		assertTrue(bitmaps.getTids("M2").get(tid));
+		assertTrue(bitmaps.getProducedBy(CollectionUtils.makeSet("M2")).get(tid));
+		assertTrue(bitmaps.getProducedOnlyBy(CollectionUtils.makeSet("M2")).get(tid));
+		
+		bitmaps = new MappingProvenanceBitmaps("employee");
+		bitmaps.setTids("M1", new int[] {1,2,5});
+		bitmaps.setTids("M2", new int[] {2,3,3});
+		bitmaps.setTids("M3", new int[] {5,7});
+		assertArrayEquals(new int[] {1,2,3,5}, MappingProvenanceBitmaps.toTidIds(
+				bitmaps.getProducedBy(CollectionUtils.makeSet("M1","M2"))));
+		assertArrayEquals(new int[] {1,2,3}, MappingProvenanceBitmaps.toTidIds(
+				bitmaps.getProducedOnlyBy(CollectionUtils.makeSet("M1","M2"))));
+		assertArrayEquals(new int[] {}, MappingProvenanceBitmaps.toTidIds(
+				bitmaps.getProducedOnlyBy(CollectionUtils.makeSet("M4"))));
+	}
+	
+	@Test
+	public void testMapProvBitmapsUnknownTid () throws Exception {
+		// produces target tuple 5|1 that is not in the tid dictionary
+		ConnectionManager.getInstance().execUpdate(
+				"INSERT INTO source.person (tid, name, address) VALUES (5, 'Otto', 1)");
+		try {
+			MappingProvenanceBitmaps.load("employee");
+			fail("unknown tid should be rejected");
+		}
+		catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("5|1"));
+			assertTrue(e.getMessage(), e.getMessage().contains("employee"));
+		}
+	}
+	
+	@Test
+	public void testBatchedProv () throws Exception {
+		List<IAttributeValueMarker> errors = new ArrayList<IAttributeValueMarker> ();
+		Map<IAttributeValueMarker, Vector<String>> maps;
+		Map<IAttributeValueMarker, ProvWLRepresentation> prov;
+		
+		errors.add(MarkerFactory.newAttrMarker("employee", "2|2", "city"));
+		errors.add(MarkerFactory.newAttrMarker("employee", "1|1", "city"));
+		errors.add(MarkerFactory.newAttrMarker("employee", "2|2", "name"));
+		pGen.setBatchSize(1);
+		
+		maps = pGen.computeMapProvAsStrings(errors);
+		assertEquals(3, maps.size());
+		prov = pGen.computePIProv(errors);
+		assertEquals(3, prov.size());
+		for(IAttributeValueMarker error: errors) {
+			assertEquals(pGen.computeMapProvAsStrings(error), maps.get(error));
+			assertEquals(pGen.computePIProv(error), prov.get(error));
+		}
+		
+		prov = pGen.computeCopyProvenance(errors);
+		for(IAttributeValueMarker error: errors)
+			assertEquals(pGen.computeCopyProvenance(error), prov.get(error));
+		pGen.setBatchSize(ProvenanceGenerator.DEFAULT_BATCH_SIZE);
+	}
+	
+	@Test
+	public void testProvenanceCache () throws Exception {
+		ProvenanceCache cache = new ProvenanceCache();
+		IAttributeValueMarker e1 = MarkerFactory.newAttrMarker("employee", "2|2", "city");
+		IAttributeValueMarker e2 = MarkerFactory.newAttrMarker("employee", "2|2", "name");
+		IAttributeValueMarker e3 = MarkerFactory.newAttrMarker("employee", "1|1", "city");
+		Vector<String> maps;
+		
+		cache.setMaxWeight(5);
+		cache.put(Granularity.Mapping, e1, "a", 2);
+		assertEquals("a", cache.get(Granularity.Mapping, e2));
+		assertNull(cache.get(Granularity.Influence, e1));
+		cache.put(Granularity.Influence, e1, "b", 2);
+		assertNull(cache.get(Granularity.Influence, e2));
+		assertEquals(1, cache.getNumHits());
+		assertEquals(2, cache.getNumMisses());
+		
+		// e1 mapping is used most recently, influence is evicted
+		cache.get(Granularity.Mapping, e1);
+		cache.put(Granularity.Mapping, e3, "c", 2);
+		assertEquals(1, cache.getNumEvictions());
+		assertEquals(4, cache.getWeight());
+		assertEquals("a", cache.get(Granularity.Mapping, e1));
+		assertNull(cache.get(Granularity.Influence, e1));
+		cache.clear();
+		assertEquals(0, cache.size());
+		
+		// generator reuses cached provenance until reset
+		pGen.reset();
+		pGen.getCache().resetStatistics();
+		maps = pGen.computeMapProvAsStrings(e1);
+		assertEquals(maps, pGen.computeMapProvAsStrings(e1));
+		assertEquals(1, pGen.getCache().getNumHits());
+		pGen.computePIAndMapProv(e1);
+		pGen.computePIAndMapProv(e1);
+		assertEquals(2, pGen.getCache().getNumHits());
+		GlobalResetter.getInstance().reset();
+		assertEquals(0, pGen.getCache().size());
+	}
+	
 	@Test
 	public void testSideEffectQueryGen () throws Exception {
 		Set<String> sourceRels;
@@ -168,6 +287,75 @@ public class TestProvAndSideEffect extends AbstractVagabondTest {
 		if (log.isDebugEnabled()) {log.debug(result);};
 		
 		assertEquals(expect, result);
+		assertEquals(expect, ProvenanceSchemaDeriver.getBaseRelAccessToMapping("employee"));
+	}
+	
+	@Test
+	public void testDerivedProvSchema () throws Exception {
+		String[] expect = new String[] {"tid", "name", "city", 
+				"prov_source_person_tid", "prov_source_person_name",
+				"prov_source_person_address", "prov_source_address_tid",
+				"prov_source_address_id", "prov_source_address_city"};
+		
+		assertArrayEquals(expect, ProvenanceSchemaDeriver.getProvSchemaForTarget("employee"));
+		assertArrayEquals(expect, pGen.getProvSchemaForTarget("employee"));
+	}
+	
+	private void setEmployeeCode (String code) throws Exception {
+		MapScenarioHolder.getInstance().getTransCreatingRel("employee").get(0)
+				.setCode(code);
+		pGen.reset();
+	}
+	
+	@Test
+	public void testDerivedProvSchemaCommentsAndLiterals () throws Exception {
+		String[] expect = ProvenanceSchemaDeriver.getProvSchemaForTarget("employee");
+		
+		setEmployeeCode("SELECT COALESCE(p.tid::text,'') || '|' || " 
+				+ "COALESCE(a.tid::text,'') AS tid, p.name AS name, " 
+				+ "a.city AS city, 'source.address ANNOT(''M1'') x' AS c\n" 
+				+ "FROM -- source.address ANNOT('M1') b,\n" 
+				+ "	source.person ANNOT('M1','M2') p LEFT OUTER JOIN\n" 
+				+ "	/* source.person ANNOT('M2') c, SELECT 1 */\n" 
+				+ "	source.address ANNOT('M2') a ON (p.address = a.id)");
+		
+		assertArrayEquals(expect, ProvenanceSchemaDeriver.getProvSchemaForTarget("employee"));
+		assertEquals(2, ProvenanceSchemaDeriver.getTidExpressions("employee").size());
+	}
+	
+	@Test
+	public void testDerivedProvSchemaQuotedIdentifier () throws Exception {
+		setEmployeeCode("SELECT p.tid AS tid, p.name AS name, a.city AS city\n" 
+				+ "FROM source.person ANNOT('M1','M2') p LEFT OUTER JOIN\n" 
+				+ "	source.\"address\" ANNOT('M2') a ON (p.address = a.id)");
+		
+		assertNull(ProvenanceSchemaDeriver.getBaseRelAccessToMapping("employee"));
+		assertNull(ProvenanceSchemaDeriver.getProvSchemaForTarget("employee"));
+	}
+	
+	@Test
+	public void testDerivedProvSchemaSelfJoin () throws Exception {
+		String[] expect = new String[] {"tid", "name", "city", 
+				"prov_source_person_tid", "prov_source_person_name",
+				"prov_source_person_address", "prov_source_person_1_tid",
+				"prov_source_person_1_name", "prov_source_person_1_address"};
+		String[] dbSchema = ProvenanceSchemaDeriver.getProvSchemaForTarget("employee");
+		
+		// the code in the database still joins with address
+		setEmployeeCode("SELECT p.tid AS tid, p.name AS name, q.name AS city\n" 
+				+ "FROM source.person ANNOT('M1','M2') p LEFT OUTER JOIN\n" 
+				+ "	source.person ANNOT('M2') q ON (p.address = q.address)");
+		assertArrayEquals(expect, ProvenanceSchemaDeriver.getProvSchemaForTarget("employee"));
+		
+		ProvenanceGenerator.setVerifyDerivedSchema(true);
+		try {
+			assertArrayEquals(dbSchema, pGen.getProvSchemaForTarget("employee"));
+			assertEquals("address", pGen.getBaseRelAccessToMapping("employee")
+					.get(1).getKey());
+		}
+		finally {
+			ProvenanceGenerator.setVerifyDerivedSchema(false);
+		}
 	}
 	
 	@Test
@@ -313,4 +501,95 @@ public class TestProvAndSideEffect extends AbstractVagabondTest {
 		
 		assertEquals(targetExpect, targetSE);
 	}
+	
+	@Test
+	public void testIndexedSideEffects () throws Exception {
+		IndexedSideEffectGenerator indexGen = new IndexedSideEffectGenerator();
+		ProvenanceIndex index;
+		IAttributeValueMarker error;
+		IMarkerSet sourceSE, targetExpect;
+		
+		error = (IAttributeValueMarker) MarkerParser.getInstance()
+				.parseMarker("A(employee,2|2,city)");
+		sourceSE = MarkerParser.getInstance().parseSet(
+				"{A(address,2,city)}");
+		targetExpect = MarkerParser.getInstance().parseSet(
+				"{A(employee,4|2,city)}");
+		
+		assertEquals(targetExpect, indexGen.computeTargetSideEffects(sourceSE, error));
+		assertEquals(attrGen.computeTargetSideEffects(sourceSE, error), 
+				indexGen.computeTargetSideEffects(sourceSE, error));
+		
+		index = indexGen.getIndex("employee");
+		assertTrue(index.getNumTargets() > 0);
+		assertTrue(index.getNumWitnessLists() >= index.getNumTargets());
+	}
+	
+	@Test
+	public void testIndexUnknownTid () throws Exception {
+		IndexedSideEffectGenerator indexGen = new IndexedSideEffectGenerator();
+		
+		// produces target tuple 5|1 that is not in the tid dictionary
+		ConnectionManager.getInstance().execUpdate(
+				"INSERT INTO source.person (tid, name, address) VALUES (5, 'Otto', 1)");
+		try {
+			indexGen.getIndex("employee");
+			fail("unknown tid should be rejected");
+		}
+		catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("5|1"));
+			assertTrue(e.getMessage(), e.getMessage().contains("employee"));
+		}
+	}
+	
+	@Test
+	public void testSourceTidSetConditions () throws Exception {
+		IAttributeValueMarker error;
+		IMarkerSet sourceSE, targetExpect;
+		Map<String, IMarkerSet> sourceErr;
+		Set<String> sourceRels;
+		SideEffectQueryParams params;
+		String query;
+		
+		error = (IAttributeValueMarker) MarkerParser.getInstance()
+				.parseMarker("A(employee,2|2,city)");
+		sourceSE = MarkerParser.getInstance().parseSet(
+				"{A(address,2,city)}");
+		targetExpect = MarkerParser.getInstance().parseSet(
+				"{A(employee,4|2,city)}");
+		
+		sourceErr = new HashMap<String, IMarkerSet> ();
+		sourceErr.put("address", MarkerParser.getInstance().parseSet(
+				"{T(address,2),T(address,3)}"));
+		sourceRels = new HashSet<String> ();
+		sourceRels.add("address");
+		sourceRels.add("person");
+		
+		try {
+			// array literal
+			SourceProvenanceSideEffectGenerator.setMaxOrChain(1);
+			query = attrGen.getSideEffectQuery("employee", sourceRels, sourceErr);
+			assertTrue(query.contains("prov_source_address_tid = ANY('{"));
+			
+			// array bind parameter
+			SourceProvenanceSideEffectGenerator.setMaxOrChain(0);
+			params = new SideEffectQueryParams();
+			query = attrGen.getSideEffectQuery("employee", sourceRels, 
+					sourceErr, params);
+			assertTrue(query.contains("prov_source_address_tid = ANY(?::int8[])"));
+			assertEquals(1, params.getBindParams().length);
+			assertTrue(params.getTempTables().isEmpty());
+			assertEquals(targetExpect, attrGen.computeTargetSideEffects(sourceSE, error));
+			
+			// temp table
+			SourceProvenanceSideEffectGenerator.setMaxArray(0);
+			assertEquals(targetExpect, attrGen.computeTargetSideEffects(sourceSE, error));
+		}
+		finally {
+			SourceProvenanceSideEffectGenerator.setMaxOrChain(
+					SourceProvenanceSideEffectGenerator.DEFAULT_MAX_OR_CHAIN);
+			SourceProvenanceSideEffectGenerator.setMaxArray(
+					SourceProvenanceSideEffectGenerator.DEFAULT_MAX_ARRAY);
+		}
+	}
 }
@@ -1,6 +1,8 @@
 package org.vagabond.test.explanations;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.sql.ResultSet;
@@ -73,4 +75,49 @@ public class TestProvParsers extends AbstractVagabondTest {
 		assertEquals(maps, rep.get(1).getValue().getMapProv());
 	}
 	
+	@Test
+	public void incrementalProvAndMapParser () throws Exception {
+		String query;
+		ResultSet rs;
+		Pair<String,MapAndWLProvRepresentation> rep;
+		IMarkerSet set1, set2;
+		Vector<MappingType> maps;
+		int oldFetchSize = ConnectionManager.getInstance().getFetchSize();
+		
+		set1 = MarkerParser.getInstance().parseSet(
+				"{T(address,2),T(person,2)}");
+		set2 = MarkerParser.getInstance().parseSet(
+				"{T(address,2),T(person,4)}");
+		maps = CollectionUtils.makeVec(MapScenarioHolder.getInstance().getMapping("M2"));
+		
+		query = QueryHolder.getQuery
+				("ProvSE.GetSideEffectUsingAggPlusCompleteProv")
+				.parameterize("target.employee",
+						"(prov_source_address_tid = 2 " +
+								"OR prov_source_address_tid = 3 )",
+						"prov_source_person_tid, prov_source_address_tid");
+		
+		// fetch one row at a time
+		ConnectionManager.getInstance().setFetchSize(1);
+		rs = ConnectionManager.getInstance().execQueryStreaming(query);
+		assertFalse(ConnectionManager.getInstance().getConnection().getAutoCommit());
+		
+		parser = new SourceAndMapProvParser(rs, "employee", true);
+		assertEquals(0, parser.getAllProv().size());
+		
+		assertTrue(parser.hasNext());
+		rep = parser.next();
+		assertEquals(set1, rep.getValue().getTuplesInProv());
+		assertEquals(maps, rep.getValue().getMapProv());
+		assertTrue(parser.hasNext());
+		rep = parser.next();
+		assertEquals(set2, rep.getValue().getTuplesInProv());
+		assertEquals(maps, rep.getValue().getMapProv());
+		assertFalse(parser.hasNext());
+		
+		ConnectionManager.getInstance().closeRs(rs);
+		ConnectionManager.getInstance().setFetchSize(oldFetchSize);
+		assertTrue(ConnectionManager.getInstance().getConnection().getAutoCommit());
+	}
+	
 }
@@ -1,5 +1,7 @@
 package org.vagabond.test.explanations;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -9,6 +11,7 @@ import java.io.IOException;
 import org.apache.log4j.Logger;
 import org.junit.Test;
 import org.vagabond.explanation.generation.QueryHolder;
+import org.vagabond.explanation.generation.prov.ProvenanceMaterializer;
 import org.vagabond.test.AbstractVagabondTest;
 
 public class TestQueryHolder extends AbstractVagabondTest {
@@ -23,4 +26,24 @@ public class TestQueryHolder extends AbstractVagabondTest {
 		assertTrue(QueryHolder.hasQuery("CopyCS.GetProv"));
 	}
 	
+	@Test
+	public void testMaterializedProvRewrite () {
+		assertEquals("SELECT * FROM (SELECT * FROM ${1}__prov) AS subprov",
+				ProvenanceMaterializer.rewriteQuery(
+						"SELECT * FROM (SELECT PROVENANCE * FROM ${1}) AS subprov"));
+		assertEquals("(SELECT * FROM ${2}__prov) AS prov",
+				ProvenanceMaterializer.rewriteQuery(
+						"(SELECT PROVENANCE * \nFROM ${2}) AS prov"));
+		assertEquals("FROM (SELECT * FROM ${1}__mapprov) AS mprov",
+				ProvenanceMaterializer.rewriteQuery(
+						"FROM (SELECT MAPPROV * FROM ${1}) AS mprov"));
+		assertEquals("SELECT PROVENANCE ${3} FROM ${1}",
+				ProvenanceMaterializer.rewriteQuery("SELECT PROVENANCE ${3} FROM ${1}"));
+		
+		assertTrue(ProvenanceMaterializer.rewritesQuery("ProvSE.GetSideEffect"));
+		assertTrue(ProvenanceMaterializer.rewritesQuery("MapAndTransProv.GetMapProv"));
+		assertFalse(ProvenanceMaterializer.rewritesQuery("CopyCS.GetProv"));
+		assertFalse(ProvenanceMaterializer.rewritesQuery("InfluenceCS.GetProv"));
+	}
+	
 }
@@ -1,7 +1,11 @@
 package org.vagabond.test.explanations;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -93,4 +97,24 @@ public class TestSuperMapExplGen extends AbstractVagabondTest {
 		assertEquals(expec, result);
 	}
 	
+	@Test
+	public void testRegisteredErrorIsExplained () throws Exception {
+		ISingleMarker first, second;
+		SuperflousMappingError expl;
+		
+		loadToDB("resource/test/simpleTest.xml");
+		first = MarkerFactory.newAttrMarker("employee", "2|2", "city");
+		second = MarkerFactory.newAttrMarker("employee", "4|2", "city");
+		
+		// the worker of the second error creates the shared explanation
+		gen.registerErrors(Arrays.asList(first, second));
+		expl = (SuperflousMappingError) gen.findExplanations(second)
+				.getExplanations().get(0);
+		
+		assertEquals(first, expl.explains());
+		assertFalse(expl.getTargetSideEffects().contains(first));
+		assertTrue(expl.getTargetSideEffects().contains(second));
+		assertSame(expl, gen.findExplanations(first).getExplanations().get(0));
+	}
+	
 }
@@ -0,0 +1,119 @@
+package org.vagabond.test.explanations.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vagabond.explanation.marker.IAttributeValueMarker;
+import org.vagabond.explanation.marker.IMarkerSet;
+import org.vagabond.explanation.marker.ITupleMarker;
+import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.test.AbstractVagabondTest;
+
+/**
+ * Checks that are shared by the tests of the {@link IMarkerSet}
+ * implementations. Subclasses provide the set implementation under test and
+ * the set it has to agree with.
+ *
+ * @author lord_pretzel
+ *
+ */
+public abstract class AbstractMarkerSetTest extends AbstractVagabondTest {
+
+	protected IAttributeValueMarker attr;
+	protected IAttributeValueMarker attr2;
+	protected IAttributeValueMarker attr3;
+	protected ITupleMarker tup;
+
+	/**
+	 * @return a new empty set of the implementation under test
+	 */
+	protected abstract IMarkerSet newSet () throws Exception;
+
+	/**
+	 * @return a new empty set of the implementation that the tested sets
+	 * 		have to have the same elements as
+	 */
+	protected abstract IMarkerSet newReferenceSet () throws Exception;
+
+	@Before
+	public void setUp () throws Exception {
+		loadToDB("resource/exampleScenarios/homeless.xml");
+		attr = MarkerFactory.newAttrMarker("tramp","1","name");
+		attr2 = MarkerFactory.newAttrMarker(1, "2", 0);
+		attr3 = MarkerFactory.newAttrMarker(1, "3", 1);
+		tup = MarkerFactory.newTupleMarker("soupkitchen", "1");
+	}
+
+	@Test
+	public void testAddRemove () throws Exception {
+		IMarkerSet s = newSet();
+		IMarkerSet ref = newReferenceSet();
+
+		assertTrue(s.isEmpty());
+		assertTrue(s.add(attr));
+		assertFalse(s.add(MarkerFactory.newAttrMarker("tramp","1","name")));
+		assertTrue(s.add(tup));
+		assertTrue(s.add(1, 1, attr3.getTidId()));
+		assertFalse(s.isEmpty());
+		assertTrue(s.contains(attr));
+		assertTrue(s.contains(attr3));
+		assertTrue(s.contains(tup));
+		assertTrue(s.contains("soupkitchen", "1"));
+		assertFalse(s.contains(attr2));
+		assertEquals(5, s.getSize());
+
+		ref.add(attr);
+		ref.add(tup);
+		ref.add(attr3);
+		assertEquals(ref.getElems(), s.getElems());
+		assertEquals(ref.getSummary(), s.getSummary());
+
+		assertTrue(s.remove(tup));
+		assertFalse(s.remove(tup));
+		assertEquals(2, s.getSize());
+		assertFalse(s.contains(tup));
+		assertTrue(s.contains(attr3));
+	}
+
+	@Test
+	public void testSetOperations () throws Exception {
+		IMarkerSet s1 = newSet();
+		IMarkerSet s2 = newSet();
+		IMarkerSet s;
+
+		s1.add(attr);
+		s1.add(attr2);
+		s2.add(attr2);
+		s2.add(attr3);
+
+		s = s1.cloneSet().union(s2);
+		assertEquals(MarkerFactory.newMarkerSet(attr, attr2, attr3).getElems(),
+				s.getElems());
+		s = s1.cloneSet().intersect(s2);
+		assertEquals(MarkerFactory.newMarkerSet(attr2).getElems(), s.getElems());
+		s = s1.cloneSet().diff(s2);
+		assertEquals(MarkerFactory.newMarkerSet(attr).getElems(), s.getElems());
+		s = s1.cloneSet().diff(MarkerFactory.newMarkerSet(attr2));
+		assertEquals(MarkerFactory.newMarkerSet(attr).getElems(), s.getElems());
+		assertEquals(2, s1.getSize());
+
+		s = s1.cloneSet().union(MarkerFactory.newMarkerSet(attr2, tup));
+		assertEquals(5, s.getSize());
+		s.intersect(s2);
+		assertEquals(MarkerFactory.newMarkerSet(attr2).getElems(), s.getElems());
+
+		s = s1.cloneSet().union(s2);
+		s.retainAll(MarkerFactory.newMarkerSet(attr, attr3));
+		assertEquals(2, s.getSize());
+		assertEquals(MarkerFactory.newMarkerSet(attr, attr3).getElems(), s.getElems());
+
+		s = s2.cloneSet();
+		s.add(tup);
+		assertEquals(2, s2.getSize());
+		assertEquals(5, s.getSize());
+		assertFalse(s2.contains(tup));
+	}
+}
@@ -12,6 +12,8 @@ import org.vagabond.test.explanations.model.query.AllTestExplanationsModelQuery;
 		TestMarkerParser.class,
 		TestMarkers.class,
 		TestBitMarkerSet.class,
+		TestPackedMarkerSet.class,
+		TestColumnarMarkerSet.class,
 		TestErrorPartitionGraph.class,
 		TestScenarioDictionary.class,
 		TestErrorPartitioning.class,
@@ -1,5 +1,6 @@
 package org.vagabond.test.explanations.model;
 
+import java.sql.ResultSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -13,9 +14,11 @@ import org.vagabond.explanation.marker.IMarkerSet;
 import org.vagabond.explanation.marker.ISingleMarker;
 import org.vagabond.explanation.marker.ITupleMarker;
 import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.explanation.marker.MarkerSetUtil;
 import org.vagabond.explanation.marker.ScenarioDictionary;
 import org.vagabond.test.AbstractVagabondDBTest;
 import org.vagabond.util.CollectionUtils;
+import org.vagabond.util.ConnectionManager;
 import org.vagabond.util.ewah.BitsetFactory;
 import org.vagabond.util.ewah.IBitSet;
 import org.vagabond.util.ewah.IBitSet.BitsetType;
@@ -107,7 +110,45 @@ public class TestBitMarkerSet extends AbstractVagabondDBTest {
 		// convert between bitpos and Markers
 		assertEquals(attr, d.getAttrValueMarkerByIBitSet( d.attrMarkerToBitPos(attr)));
 	}
-	
+
+	@Test
+	public void testBitPosDecoding () throws Exception {
+		initialize();
+		ScenarioDictionary d = ScenarioDictionary.getInstance();
+		IMarkerSet all = MarkerFactory.newBitMarkerSet();
+		Set<ISingleMarker> expected = new HashSet<ISingleMarker> ();
+
+		// first and last tid of every relation attribute decode to themselves
+		for(int rel = 0; rel < d.getRelCount(); rel++) {
+			int numTids = d.maxTidInt(d.getRelName(rel)) + 1;
+			for(int attrId = 0; attrId < d.getTupleSize(rel); attrId++) {
+				if (numTids == 0)
+					continue;
+				ISingleMarker first = MarkerFactory.newAttrMarker(rel, 0, attrId);
+				ISingleMarker last = MarkerFactory.newAttrMarker(rel, numTids - 1, attrId);
+				assertEquals(first, d.getAttrValueMarkerByIBitSet(
+						d.getOffset(rel, attrId, 0)));
+				assertEquals(last, d.getAttrValueMarkerByIBitSet(
+						d.getOffset(rel, attrId, numTids - 1)));
+				all.add(first);
+				all.add(last);
+				expected.add(first);
+				expected.add(last);
+			}
+		}
+
+		assertEquals(null, d.getAttrValueMarkerByIBitSet(-1));
+		assertEquals(null, d.getAttrValueMarkerByIBitSet(
+				d.getSegmentEnd(d.getSegmentCount() - 1)));
+
+		// lazy iteration returns the same markers as getElems
+		Set<ISingleMarker> iterated = new HashSet<ISingleMarker> ();
+		for(ISingleMarker m: all)
+			iterated.add(m);
+		assertEquals(expected, iterated);
+		assertEquals(expected, all.getElems());
+	}
+
 	//add, equals, remove, hashcode, getNumElems
 	@Test
 	public void testAddRemoveAndHashcode() throws Exception{
@@ -333,4 +374,208 @@ public class TestBitMarkerSet extends AbstractVagabondDBTest {
 		assertEquals(setTwoElement, set1);
 	}
 	
+	@Test
+	public void testRoaringBackingStore () throws Exception {
+		initialize();
+		IMarkerSet r1 = MarkerFactory.newBitMarkerSet(BitsetType.RoaringBitSet);
+		IMarkerSet r2 = MarkerFactory.newBitMarkerSet(BitsetType.RoaringBitSet);
+		
+		r1.add(attr);
+		r1.add(ThreeElementMarker1);
+		r2.add(attr3);
+		r2.add(attr);
+		set1.add(attr);
+		set1.add(ThreeElementMarker1);
+		
+		assertEquals(4, r1.getSize());
+		assertEquals(set1.getElems(), r1.getElems());
+		assertTrue(r1.contains(attr));
+		assertFalse(r1.contains(attr3));
+		
+		r1.union(r2);
+		assertEquals(5, r1.getSize());
+		assertTrue(r1.contains(attr3));
+		
+		r1.intersect(r2);
+		assertEquals(setTwoElement.getElems(), r1.getElems());
+		
+		r1.diff(setFirstElement);
+		assertEquals(setSecondElement.getElems(), r1.getElems());
+		
+		r1 = r2.cloneSet();
+		assertEquals(BitsetType.RoaringBitSet, ((BitMarkerSet) r1).getBitsetType());
+		r1.remove(attr3);
+		assertEquals(setFirstElement.getElems(), r1.getElems());
+		assertEquals(2, r2.getSize());
+	}
+	
+	@Test
+	public void testMixedBackingStores () throws Exception {
+		initialize();
+		IMarkerSet r1 = MarkerFactory.newBitMarkerSet(BitsetType.RoaringBitSet);
+		IMarkerSet r2 = MarkerFactory.newBitMarkerSet(BitsetType.RoaringBitSet);
+		Set<IMarkerSet> hashed = new HashSet<IMarkerSet> ();
+		
+		r1.add(attr);
+		r1.add(attr3);
+		assertEquals(setTwoElement, r1);
+		assertEquals(r1, setTwoElement);
+		assertEquals(setTwoElement.hashCode(), r1.hashCode());
+		hashed.add(setTwoElement);
+		assertTrue(hashed.contains(r1));
+		
+		// retain EWAH markers contained in a Roaring set and vice versa
+		r2.add(attr3);
+		r2.add(attr5);
+		set1.add(attr);
+		set1.add(attr3);
+		set1.add(ThreeElementMarker1);
+		assertTrue(set1.retainAll(r2));
+		assertEquals(setSecondElement.getElems(), set1.getElems());
+		assertFalse(set1.retainAll(r2));
+		assertTrue(r2.retainAll(setTwoElement));
+		assertEquals(setSecondElement.getElems(), r2.getElems());
+	}
+	
+	@Test
+	public void testUnionAll () throws Exception {
+		initialize();
+		IMarkerSet r = MarkerFactory.newBitMarkerSet(BitsetType.RoaringBitSet);
+		IMarkerSet r2 = MarkerFactory.newBitMarkerSet(BitsetType.RoaringBitSet);
+		
+		r2.add(attr3);
+		set1.add(ThreeElementMarker1);
+		set2.add(attr);
+		
+		assertEquals(5, setFirstElement.unionSize(Arrays.asList(setSecondElement, set1, set2)));
+		assertEquals(1, setFirstElement.getSize());
+		assertEquals(5, otherSet1.unionSize(Arrays.asList(setTwoElement, set1)));
+		
+		setFirstElement.unionAll(Arrays.asList(setSecondElement, set1, set2));
+		assertEquals(5, setFirstElement.getSize());
+		assertTrue(setFirstElement.containsAll(set1));
+		assertTrue(setFirstElement.contains(attr3));
+		
+		r.add(attr);
+		assertEquals(2, r.unionSize(Arrays.asList(r2)));
+		assertEquals(5, r.unionSize(Arrays.asList(r2, set1)));
+		r.unionAll(Arrays.asList(r2, r2));
+		assertEquals(setTwoElement.getElems(), r.getElems());
+	}
+	
+	@Test
+	public void testCachedSize () throws Exception {
+		initialize();
+		long recounts;
+		
+		set1.add(attr);
+		set1.add(ThreeElementMarker1);
+		otherSet1.add(attr);
+		otherSet1.add(ThreeElementMarker1);
+		assertEquals(4, set1.getSize());
+		assertEquals(4, otherSet1.getSize());
+		
+		// single adds and removes do not trigger a recount
+		recounts = MarkerSetUtil.getNumSizeRecounts();
+		set1.add(attr3);
+		set1.add(attr);
+		otherSet1.add(attr3);
+		assertEquals(5, set1.getSize());
+		assertEquals(5, set1.size());
+		assertEquals(5, otherSet1.getSize());
+		set1.remove(attr3);
+		otherSet1.remove(attr3);
+		assertEquals(4, set1.getSize());
+		assertEquals(4, otherSet1.getSize());
+		assertEquals(4, set1.cloneSet().getSize());
+		assertEquals(recounts, MarkerSetUtil.getNumSizeRecounts());
+		
+		// bulk operations recount once
+		set1.union(setSecondElement);
+		assertEquals(5, set1.getSize());
+		assertEquals(5, set1.getSize());
+		assertEquals(recounts + 1, MarkerSetUtil.getNumSizeRecounts());
+		set1.diff(setTwoElement);
+		assertEquals(3, set1.getSize());
+		set1.clear();
+		assertEquals(0, set1.getSize());
+		assertTrue(set1.isEmpty());
+	}
+	
+	@Test
+	public void testBulkInsert () throws Exception {
+		initialize();
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		int relId = dict.getRelId("soupkitchen");
+		int[] tids = new int[] { 
+				dict.getTidInt("2", relId), dict.getTidInt("1", relId) };
+		IMarkerSet[] sets = new IMarkerSet[] { MarkerFactory.newBitMarkerSet(), 
+				MarkerFactory.newBitMarkerSet(BitsetType.RoaringBitSet), 
+				MarkerFactory.newMarkerSet(), MarkerFactory.newPackedMarkerSet() };
+		IMarkerSet exp = MarkerFactory.newMarkerSet();
+		
+		for(int tid: tids)
+			for(int attr = 0; attr < dict.getTupleSize(relId); attr++)
+				exp.add(relId, attr, tid);
+		
+		for(IMarkerSet set: sets) {
+			set.addTuple(relId, tids[1]);
+			set.addTids(relId, 0, tids);
+			set.addTids(relId, 2, tids);
+			set.add(relId, 1, tids[0]);
+			assertEquals(set.toString(), exp.getElems(), set.getElems());
+			assertEquals(exp.getSize(), set.getSize());
+			
+			set.clear();
+			set.addBitRange(dict.getOffset(relId, 0, 0), 
+					dict.getOffset(relId, 0, 0) + 2);
+			assertEquals(2, set.getSize());
+			assertTrue(set.contains(MarkerFactory.newAttrMarker(relId, 0, 0)));
+			assertTrue(set.contains(MarkerFactory.newAttrMarker(relId, 1, 0)));
+		}
+	}
+	
+	@Test
+	public void testBulkInsertUnknownTid () throws Exception {
+		initialize();
+		ScenarioDictionary dict = ScenarioDictionary.getInstance();
+		int relId = dict.getRelId("soupkitchen");
+		IMarkerSet set = MarkerFactory.newBitMarkerSet();
+		ResultSet rs;
+		
+		try {
+			set.addTids(relId, 1, new int[] { 0, dict.getTidInt("-42", relId) });
+			fail("negative tid id should be rejected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+		assertTrue(set.isEmpty());
+		try {
+			set.addTids(relId, 1, new int[] { 0, dict.getTidCount(relId) });
+			fail("tid id of the next attribute should be rejected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+		assertTrue(set.isEmpty());
+		
+		rs = ConnectionManager.getInstance().execQuery(
+				"SELECT tid FROM source.soupkitchen");
+		for(int tidId: dict.getTidInts(rs, relId))
+			assertTrue(tidId >= 0);
+		ConnectionManager.getInstance().closeRs(rs);
+		
+		rs = ConnectionManager.getInstance().execQuery(
+				"SELECT '-42'::text AS tid");
+		try {
+			dict.getTidInts(rs, relId);
+			fail("unknown tid should be rejected");
+		}
+		catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("-42"));
+		}
+		finally {
+			ConnectionManager.getInstance().closeRs(rs);
+		}
+	}
+	
 }
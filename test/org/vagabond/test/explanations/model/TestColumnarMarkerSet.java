@@ -0,0 +1,175 @@
+package org.vagabond.test.explanations.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.vagabond.explanation.marker.ColumnarMarkerSet;
+import org.vagabond.explanation.marker.IAttributeValueMarker;
+import org.vagabond.explanation.marker.IMarkerSet;
+import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.explanation.marker.MarkerSetUtil;
+import org.vagabond.explanation.marker.ScenarioDictionary;
+import org.vagabond.mapping.model.MapScenarioHolder;
+import org.vagabond.util.ewah.IBitSet;
+import org.vagabond.util.ewah.JavaUtilBitSet;
+import org.vagabond.xmlmodel.AttrDefType;
+import org.vagabond.xmlmodel.RelationType;
+
+public class TestColumnarMarkerSet extends AbstractMarkerSetTest {
+
+	static Logger log = Logger.getLogger(TestColumnarMarkerSet.class);
+
+	@Override
+	protected IMarkerSet newSet () {
+		return MarkerFactory.newColumnarMarkerSet();
+	}
+
+	@Override
+	protected IMarkerSet newReferenceSet () {
+		return MarkerFactory.newBitMarkerSet();
+	}
+
+	@Test
+	public void testRemoveTupleAttr () throws Exception {
+		ColumnarMarkerSet c = MarkerFactory.newColumnarMarkerSet();
+		IMarkerSet b = MarkerFactory.newBitMarkerSet();
+
+		c.add(attr);
+		c.add(tup);
+		b.add(attr);
+		b.add(tup);
+		assertEquals(c, MarkerFactory.newColumnarMarkerSet(b));
+
+		assertTrue(c.remove(MarkerFactory.newAttrMarker(tup, 0)));
+		assertFalse(c.contains(tup));
+		assertEquals(3, c.getSize());
+		assertTrue(c.remove(tup));
+		assertEquals(1, c.getSize());
+		assertFalse(c.remove(tup));
+	}
+
+	@Test
+	public void testViews () throws Exception {
+		ColumnarMarkerSet c = MarkerFactory.newColumnarMarkerSet();
+		int skId = tup.getRelId();
+		int skSize = ScenarioDictionary.getInstance().getTupleSize(skId);
+		IMarkerSet rel;
+		Map<String, IMarkerSet> parts;
+
+		c.add(attr);
+		c.add(attr2);
+		c.add(attr3);
+		c.add(tup);
+
+		assertEquals(3, c.getRelIds().length);
+		assertEquals(1, c.getAttrTids(1, 0).cardinality());
+		assertTrue(c.getAttrTids(1, 0).get(attr2.getTidId()));
+		assertEquals(0, c.getAttrTids(1, 2).cardinality());
+		assertEquals(2, c.getTids(1).cardinality());
+		assertEquals(new JavaUtilBitSet("01"), c.getAttrMask(1, attr3.getTidId()));
+		assertEquals(0, c.getAttrMask(1, tup.getTidId() + 100).cardinality());
+		assertEquals(skSize, c.getAttrMask(skId, tup.getTidId()).cardinality());
+
+		// views are backed by the set
+		rel = c.getRelationView(1);
+		assertEquals(2, rel.getSize());
+		assertEquals(MarkerFactory.newMarkerSet(attr2, attr3).getElems(),
+				rel.getElems());
+		c.add(1, 2, attr2.getTidId());
+		assertEquals(3, rel.getSize());
+		assertEquals(2, c.getTupleMarkers(1).size());
+		try {
+			rel.add(attr);
+			assertTrue(false);
+		}
+		catch (UnsupportedOperationException e) {
+		}
+
+		// views of other relations of a view are empty and read-only
+		assertTrue(rel.getRelationView(skId).isEmpty());
+		try {
+			rel.getRelationView(skId).add(tup);
+			assertTrue(false);
+		}
+		catch (UnsupportedOperationException e) {
+		}
+
+		// empty columns are not shared
+		c.getAttrTids(0, 1).set(attr.getTidId());
+		assertEquals(0, c.getAttrTids(0, 1).cardinality());
+		assertEquals(0, MarkerFactory.newColumnarMarkerSet().getAttrTids(0, 1)
+				.cardinality());
+
+		parts = MarkerSetUtil.partitionOnRelation(c);
+		assertEquals(3, parts.size());
+		assertEquals(skSize, parts.get("soupkitchen").getSize());
+		assertEquals(1, parts.get("tramp").getSize());
+		assertEquals(parts.get("tramp").toUserString(),
+				MarkerFactory.newMarkerSet(attr).toUserString());
+	}
+
+	@Test
+	public void testOrderAndSubset () throws Exception {
+		ColumnarMarkerSet c1 = MarkerFactory.newColumnarMarkerSet();
+		List<IAttributeValueMarker> elems = new ArrayList<IAttributeValueMarker> ();
+
+		c1.add(attr3);
+		c1.add(attr2);
+		c1.add(attr);
+		for(Object m: c1)
+			elems.add((IAttributeValueMarker) m);
+		// relation, attribute, tid order
+		assertEquals(attr, elems.get(0));
+		assertEquals(attr2, elems.get(1));
+		assertEquals(attr3, elems.get(2));
+		assertEquals(c1.subset(MarkerFactory.newMarkerSummary(
+				MarkerFactory.newSchemaMarker(1, 0))).getElems(), 
+				MarkerFactory.newMarkerSet(attr2).getElems());
+	}
+
+	@Test
+	public void testWideRelationAttrMask () throws Exception {
+		RelationType wide = MapScenarioHolder.getInstance().getScenario()
+				.getSchemas().getTargetSchema().addNewRelation();
+		ColumnarMarkerSet c;
+		IBitSet mask;
+		int relId;
+
+		wide.setName("wide");
+		for(int i = 0; i < 70; i++) {
+			AttrDefType a = wide.addNewAttr();
+
+			a.setName("a" + i);
+			a.setDataType("TEXT");
+		}
+		ScenarioDictionary.getInstance().setSchemas(MapScenarioHolder
+				.getInstance().getScenario().getSchemas().getSourceSchema(), 
+				MapScenarioHolder.getInstance().getScenario().getSchemas()
+				.getTargetSchema());
+		relId = ScenarioDictionary.getInstance().getRelId("wide");
+
+		c = MarkerFactory.newColumnarMarkerSet();
+		c.add(relId, 3, 0);
+		c.add(relId, 64, 0);
+		c.add(relId, 69, 0);
+		c.add(relId, 65, 1);
+		assertTrue(c.getAttrTids(relId, 64).get(0));
+
+		mask = c.getAttrMask(relId, 0);
+		assertEquals(3, mask.cardinality());
+		assertTrue(mask.get(3));
+		assertTrue(mask.get(64));
+		assertTrue(mask.get(69));
+		assertFalse(mask.get(65));
+
+		c.addTuple(relId, 2);
+		assertEquals(70, c.getAttrMask(relId, 2).cardinality());
+	}
+}
@@ -59,4 +59,31 @@ public class TestErrorPartitioning extends AbstractVagabondTest {
 		assertEquals(ex, m);
 	}
 	
+	@Test
+	public void testPartitionMarkersSinglePass () throws Exception {
+		setUp("resource/test/severalComps.xml");
+		
+		setTids("u", new String[] {"1","2"});
+		setTids("v", new String[] {"4"});
+		
+		IMarkerSet[] sets = new IMarkerSet[] { MarkerFactory.newMarkerSet(),
+				MarkerFactory.newBitMarkerSet(), 
+				MarkerFactory.newPackedMarkerSet() };
+		
+		for(IMarkerSet set: sets) {
+			set.add(MarkerFactory.newAttrMarker(3,"1",0));
+			set.add(MarkerFactory.newTupleMarker(3,"2"));
+			set.add(MarkerFactory.newAttrMarker(4, "4", 0));
+			
+			PartitionedMarkerSet m = partitioner.partitionMarkers(g, set);
+			
+			assertEquals(2, m.getNumParts());
+			for(int i = 0; i < m.getNumParts(); i++) {
+				MarkerSummary sum = m.getAttrPartition(i);
+				assertEquals(set.subset(sum), m.getPartition(i));
+				assertEquals(set.getClass(), m.getPartition(i).getClass());
+			}
+		}
+	}
+	
 }
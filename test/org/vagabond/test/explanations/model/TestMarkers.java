@@ -201,6 +201,49 @@ public class TestMarkers extends AbstractVagabondTest {
 		assertEquals (sum, set.getSummary());
 	}
 	
+	@Test
+	public void testMarkerSummaryOps () throws Exception {
+		ITupleMarker tup = MarkerFactory.newTupleMarker(3, "1");
+		IAttributeValueMarker attr = MarkerFactory.newAttrMarker(3, "1", 0);
+		MarkerSummary sum = MarkerFactory.newMarkerSummary(
+				MarkerFactory.newSchemaMarker(3,0),
+				MarkerFactory.newSchemaMarker(0,2)
+				);
+		MarkerSummary sum2 = MarkerFactory.newMarkerSummary(
+				MarkerFactory.newSchemaMarker(3,0),
+				MarkerFactory.newSchemaMarker(3,1)
+				);
+		List<ISchemaMarker> elems = new ArrayList<ISchemaMarker> ();
+		
+		assertTrue(sum.hasAttr(attr));
+		assertFalse(sum.hasAttr(tup));
+		assertTrue(sum2.hasAttr(tup));
+		assertEquals(sum2, MarkerFactory.newMarkerSummary(
+				MarkerFactory.newMarkerSet(tup)));
+		
+		for(ISchemaMarker m: sum)
+			elems.add(m);
+		assertEquals(CollectionUtils.makeList(MarkerFactory.newSchemaMarker(0,2),
+				MarkerFactory.newSchemaMarker(3,0)), elems);
+		
+		assertFalse(sum.add(MarkerFactory.newSchemaMarker(0,2)));
+		assertTrue(sum.containsAll(CollectionUtils.makeList(
+				MarkerFactory.newSchemaMarker(0,2))));
+		assertFalse(sum.containsAll(sum2));
+		
+		assertTrue(sum.retainAll(sum2));
+		assertEquals(1, sum.size());
+		assertTrue(sum.contains(MarkerFactory.newSchemaMarker(3,0)));
+		assertFalse(sum.retainAll(CollectionUtils.makeList(
+				MarkerFactory.newSchemaMarker(3,0))));
+		
+		assertTrue(sum.addAll(sum2));
+		assertEquals(sum2, sum);
+		assertEquals(sum2.hashCode(), sum.hashCode());
+		assertTrue(sum.removeAll(sum2));
+		assertTrue(sum.isEmpty());
+	}
+	
 	@Test
 	public void testMarkerSetSubset () throws Exception {
 		IAttributeValueMarker attr = MarkerFactory.newAttrMarker(0,"1",0);
@@ -0,0 +1,118 @@
+package org.vagabond.test.explanations.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.vagabond.explanation.marker.IAttributeValueMarker;
+import org.vagabond.explanation.marker.IMarkerSet;
+import org.vagabond.explanation.marker.ISingleMarker;
+import org.vagabond.explanation.marker.MarkerFactory;
+import org.vagabond.explanation.marker.MarkerFactory.MarkerSetType;
+import org.vagabond.explanation.marker.PackedMarkerSet;
+
+public class TestPackedMarkerSet extends AbstractMarkerSetTest {
+
+	static Logger log = Logger.getLogger(TestPackedMarkerSet.class);
+
+	@Override
+	protected IMarkerSet newSet () {
+		return MarkerFactory.newPackedMarkerSet();
+	}
+
+	@Override
+	protected IMarkerSet newReferenceSet () {
+		return MarkerFactory.newMarkerSet();
+	}
+
+	@Test
+	public void testMarkerSetEquivalence () throws Exception {
+		IMarkerSet p = MarkerFactory.newPackedMarkerSet();
+		IMarkerSet m = MarkerFactory.newMarkerSet(attr2, tup);
+
+		p.add(attr);
+		p.add(tup);
+		p.add(1, 1, attr3.getTidId());
+		assertEquals(3, p.getNumElem());
+		assertEquals(MarkerFactory.newMarkerSet(attr, tup, attr3), p);
+		assertEquals(p, MarkerFactory.newMarkerSet(attr, tup, attr3));
+		assertEquals(MarkerFactory.newMarkerSet(attr, tup, attr3).hashCode(),
+				p.hashCode());
+
+		p.add(attr2);
+		p.retainAll(m);
+		assertEquals(m, p);
+		assertEquals(p, m);
+		assertFalse(p.equals(MarkerFactory.newMarkerSet(attr2)));
+		assertFalse(MarkerFactory.newMarkerSet(attr2).equals(p));
+	}
+
+	@Test
+	public void testSummaryAfterAdd () throws Exception {
+		PackedMarkerSet p = new PackedMarkerSet();
+
+		p.add(attr);
+		assertEquals(MarkerFactory.newMarkerSummary(
+				MarkerFactory.newMarkerSet(attr)), p.getSummary());
+		p.add(attr2);
+		assertEquals(MarkerFactory.newMarkerSummary(
+				MarkerFactory.newMarkerSet(attr, attr2)), p.getSummary());
+		p.addTuple(tup.getRelId(), tup.getTidId());
+		assertEquals(MarkerFactory.newMarkerSummary(
+				MarkerFactory.newMarkerSet(attr, attr2, tup)), p.getSummary());
+		p.remove(attr2);
+		assertEquals(MarkerFactory.newMarkerSummary(
+				MarkerFactory.newMarkerSet(attr, tup)), p.getSummary());
+	}
+
+	@Test
+	public void testIteratorAndGrowth () throws Exception {
+		PackedMarkerSet p = new PackedMarkerSet();
+		Iterator<ISingleMarker> iter;
+		int count = 0;
+
+		for(int i = 0; i < 1000; i++)
+			for(int j = 0; j < 4; j++)
+				p.add(0, j, i);
+		assertEquals(4000, p.getSize());
+		assertTrue(p.contains(MarkerFactory.newAttrMarker(0, 999, 3)));
+
+		iter = p.iterator();
+		while(iter.hasNext()) {
+			IAttributeValueMarker m = (IAttributeValueMarker) iter.next();
+			if (m.getAttrId() != 0)
+				iter.remove();
+			count++;
+		}
+		assertEquals(4000, count);
+		assertEquals(1000, p.getNumElem());
+		assertFalse(p.contains(MarkerFactory.newAttrMarker(0, 5, 1)));
+
+		// reuse tombstones
+		for(int i = 0; i < 1000; i++)
+			p.add(0, 1, i);
+		assertEquals(2000, p.getSize());
+		assertEquals(2000, p.getElemList().size());
+
+		p.clear();
+		assertTrue(p.isEmpty());
+		assertFalse(p.iterator().hasNext());
+	}
+
+	@Test
+	public void testFactory () throws Exception {
+		MarkerFactory.setMarkerSetType(MarkerSetType.PackedMarkerSet);
+		try {
+			assertTrue(MarkerFactory.newMarkerSet() instanceof PackedMarkerSet);
+			assertTrue(MarkerFactory.newMarkerSet(attr, tup) instanceof PackedMarkerSet);
+		}
+		finally {
+			MarkerFactory.setMarkerSetType(MarkerSetType.MarkerSet);
+		}
+		assertFalse(MarkerFactory.newMarkerSet() instanceof PackedMarkerSet);
+	}
+}
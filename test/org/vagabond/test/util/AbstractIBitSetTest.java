@@ -0,0 +1,238 @@
+package org.vagabond.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vagabond.util.ewah.BitsetFactory;
+import org.vagabond.util.ewah.IBitSet;
+import org.vagabond.util.ewah.IBitSet.BitsetType;
+import org.vagabond.util.ewah.IntIterator;
+import org.vagabond.util.ewah.JavaUtilBitSet;
+
+/**
+ * Checks an {@link IBitSet} implementation against {@link JavaUtilBitSet}
+ * on random bitsets. Subclasses choose the implementation and the size of
+ * the random bitsets and add the tests specific to their implementation.
+ * 
+ * @author lord_pretzel
+ *
+ */
+public abstract class AbstractIBitSetTest {
+
+	@BeforeClass
+	public static void setUp () {
+		PropertyConfigurator.configure("resource/test/testLog4jproperties.txt");
+	}
+
+	protected abstract BitsetType getType ();
+
+	/**
+	 * @return number of bits random bitsets are filled up to
+	 */
+	protected abstract int getRandomSize ();
+
+	/**
+	 * @return length of the dense regions of random bitsets. Runs of ones
+	 * 		and long gaps are multiples of it.
+	 */
+	protected abstract int getDenseLength ();
+
+	/**
+	 * Called for each random bitset before it is tested, e.g., to change its
+	 * representation.
+	 */
+	protected void prepare (IBitSet b, int round) {
+	}
+
+	protected IBitSet newBitSet () {
+		return BitsetFactory.newBitset(getType());
+	}
+
+	@Test
+	public void testRandom () {
+		Random rand = new Random(0);
+		int limit = getRandomSize() + 5 * getDenseLength();
+
+		for(int round = 0; round < 10; round++) {
+			JavaUtilBitSet exp = new JavaUtilBitSet();
+			IBitSet b = newBitSet();
+
+			fillRandom(rand, exp, b, getRandomSize());
+			prepare(b, round);
+
+			assertEquals(exp.cardinality(), b.cardinality());
+			for(int i = 0; i < limit; i++)
+				assertEquals("bit " + i, exp.get(i), b.get(i));
+
+			for(int i = 0; i < 50; i++) {
+				int start = rand.nextInt(limit);
+				int end = start + rand.nextInt(getRandomSize() / 3);
+				assertEquals(toString(exp.intIterator(start, end)),
+						toString(b.intIterator(start, end)));
+			}
+			assertEquals(toString(exp.intIterator()),
+					toString(b.intIterator()));
+		}
+	}
+
+	@Test
+	public void testBinaryOps () {
+		Random rand = new Random(1);
+
+		for(int round = 0; round < 10; round++) {
+			IBitSet exp1 = new JavaUtilBitSet();
+			IBitSet exp2 = new JavaUtilBitSet();
+			IBitSet b1 = newBitSet();
+			IBitSet b2 = newBitSet();
+			IBitSet res;
+
+			fillRandom(rand, exp1, b1, getRandomSize());
+			fillRandom(rand, exp2, b2, getRandomSize());
+			prepare(b1, round);
+			prepare(b2, round + 1);
+
+			res = b1.or(b2);
+			assertEquals(b1.getClass(), res.getClass());
+			assertEquals(toString(exp1.or(exp2).intIterator()),
+					toString(res.intIterator()));
+			assertEquals(exp1.or(exp2).cardinality(), res.cardinality());
+			res = b1.and(b2);
+			assertEquals(b1.getClass(), res.getClass());
+			assertEquals(toString(exp1.and(exp2).intIterator()),
+					toString(res.intIterator()));
+			res = b1.andNot(b2);
+			assertEquals(b1.getClass(), res.getClass());
+			assertEquals(toString(exp1.andNot(exp2).intIterator()),
+					toString(res.intIterator()));
+			assertEquals(toString(exp2.andNot(exp1).intIterator()),
+					toString(b2.andNot(b1).intIterator()));
+			assertEquals(exp1.intersects(exp2), b1.intersects(b2));
+		}
+	}
+
+	@Test
+	public void testInPlaceOps () {
+		Random rand = new Random(2);
+
+		for(int round = 0; round < 10; round++) {
+			IBitSet exp1 = new JavaUtilBitSet();
+			IBitSet exp2 = new JavaUtilBitSet();
+			IBitSet b1 = newBitSet();
+			IBitSet b2 = newBitSet();
+			IBitSet c;
+			int size = getRandomSize();
+
+			fillRandom(rand, exp1, b1, size);
+			fillRandom(rand, exp2, b2, size);
+			prepare(b1, round);
+
+			// read before the modification, e.g., to build an index
+			c = (IBitSet) b1.clone();
+			assertEquals(exp1.get(size / 2), c.get(size / 2));
+			c.orInPlace(b2);
+			for(int i = 0; i < size; i++)
+				assertEquals("bit " + i, exp1.get(i) || exp2.get(i), c.get(i));
+			assertEquals(toString(exp1.or(exp2).intIterator()),
+					toString(c.intIterator()));
+			assertEquals(toString(exp1.intIterator()),
+					toString(b1.intIterator()));
+
+			c = (IBitSet) b1.clone();
+			assertEquals(exp1.get(size / 2), c.get(size / 2));
+			c.andInPlace(b2);
+			for(int i = 0; i < size; i++)
+				assertEquals("bit " + i, exp1.get(i) && exp2.get(i), c.get(i));
+			assertEquals(toString(exp1.and(exp2).intIterator()),
+					toString(c.intIterator()));
+			assertEquals(toString(exp2.intIterator()),
+					toString(b2.intIterator()));
+		}
+	}
+
+	@Test
+	public void testSetRange () {
+		IBitSet b = newBitSet();
+		JavaUtilBitSet exp = new JavaUtilBitSet();
+		Random rand = new Random(3);
+
+		for(int i = 0; i < 100; i++) {
+			int start = rand.nextInt(getRandomSize());
+			int end = start + rand.nextInt(getDenseLength());
+
+			if (rand.nextBoolean()) {
+				b.set(start);
+				exp.set(start);
+			}
+			else {
+				b.setRange(start, end);
+				exp.setRange(start, end);
+			}
+		}
+		assertEquals(exp.cardinality(), b.cardinality());
+		assertEquals(toString(exp.intIterator()), toString(b.intIterator()));
+	}
+
+	@Test
+	public void testFactory () {
+		IBitSet b = BitsetFactory.newBitset(getType());
+
+		assertEquals(newBitSet().getClass(), b.getClass());
+		assertEquals(b.getClass(), BitsetFactory.newBitset(getType(), 1 << 20)
+				.getClass());
+		b = BitsetFactory.newBitset(getType(), "0101");
+		assertEquals("1,3", toString(b.intIterator()));
+		assertTrue(b.get(3));
+	}
+
+	/**
+	 * Set the same random bits in exp and b: a mix of sparse bits, dense
+	 * regions, long gaps and runs of ones.
+	 */
+	protected void fillRandom (Random rand, IBitSet exp, IBitSet b, int size) {
+		int dense = getDenseLength();
+		int pos = 0;
+
+		while (pos < size) {
+			switch(rand.nextInt(4)) {
+			case 0:
+				pos += rand.nextInt(500);
+				break;
+			case 1:
+				for(int i = 0; i < dense; i++, pos++)
+					if (rand.nextBoolean()) {
+						exp.set(pos);
+						b.set(pos);
+					}
+				break;
+			case 2:
+				int len = rand.nextInt(4 * dense);
+				for(int i = 0; i < len; i++, pos++) {
+					exp.set(pos);
+					b.set(pos);
+				}
+				break;
+			case 3:
+				pos += rand.nextInt(14 * dense);
+				break;
+			}
+			pos++;
+		}
+	}
+
+	protected String toString (IntIterator iter) {
+		StringBuilder result = new StringBuilder();
+
+		while(iter.hasNext()) {
+			result.append(iter.next());
+			if (iter.hasNext())
+				result.append(',');
+		}
+
+		return result.toString();
+	}
+}
@@ -8,9 +8,13 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
 		TestResultSetUtil.class,
 		TestQueryTemplate.class,
+		TestQueryStatistics.class,
 		TestBitMatrixAndBitset.class,
 		TestNewBitMatrixAndBitset.class,
 		TestBloomFilter.class,
+		TestCompactStringIdMap.class,
+		TestIndexEWAHBitSet.class,
+		TestRoaringBitSet.class,
 		TestFNVHash.class,
 		TestGraph.class,
 		TestPropertyWrapper.class
@@ -336,6 +336,42 @@ public class TestBitMatrixAndBitset {
 		}
 	}
 
+	@Test
+	public void testSetRange() {
+		Random rand = new Random(0);
+
+		for (int round = 0; round < 50; round++) {
+			EWAHCompressedBitmap bitset = new EWAHCompressedBitmap();
+			JavaUtilBitSet exp = new JavaUtilBitSet();
+			int pos = 0;
+
+			// ranges appended after the last bit
+			for (int i = 0; i < 20; i++) {
+				int start = pos + rand.nextInt(200);
+				int end = start + rand.nextInt(300);
+				bitset.setRange(start, end);
+				exp.setRange(start, end);
+				pos = end;
+				assertTrue("append " + i, bitset.checkInvariants());
+			}
+			assertEquals(exp.cardinality(), bitset.cardinality());
+			assertEquals(exp.getPositions(), bitset.getPositions());
+
+			// ranges overlapping existing bits
+			for (int i = 0; i < 5; i++) {
+				int start = rand.nextInt(pos + 100);
+				int end = start + rand.nextInt(300);
+				boolean value = rand.nextBoolean();
+				bitset.setRange(value, start, end);
+				if (value)
+					exp.setRange(start, end);
+				else
+					exp.clear(start, end);
+			}
+			assertEquals(exp.getPositions(), bitset.getPositions());
+		}
+	}
+
 	@Test
 	public void testSetMethodBranches() throws SecurityException,
 			IllegalArgumentException, NoSuchFieldException,
@@ -0,0 +1,107 @@
+package org.vagabond.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vagabond.util.CompactStringIdMap;
+import org.vagabond.util.IdMap;
+
+public class TestCompactStringIdMap {
+
+	static Logger log = Logger.getLogger(TestCompactStringIdMap.class);
+
+	@BeforeClass
+	public static void setUp () {
+		PropertyConfigurator.configure("resource/test/testLog4jproperties.txt");
+	}
+
+	@Test
+	public void testPutAndGet () {
+		CompactStringIdMap map = new CompactStringIdMap();
+
+		assertEquals(0, map.put("1"));
+		assertEquals(1, map.put("2"));
+		assertEquals(2, map.put("10"));
+		assertEquals(3, map.put(""));
+
+		assertEquals(4, map.size());
+		assertEquals(3, map.getMaxId());
+		assertEquals("1", map.get(0));
+		assertEquals("2", map.get(1));
+		assertEquals("10", map.get(2));
+		assertEquals("", map.get(3));
+		assertNull(map.get(4));
+		assertNull(map.get(-1));
+
+		assertEquals(0, map.getId("1"));
+		assertEquals(2, map.getId("10"));
+		assertEquals(3, map.getId(""));
+		assertEquals(-1, map.getId("100"));
+		assertEquals(-1, map.getId("0"));
+
+		assertTrue(map.containsVal("2"));
+		assertFalse(map.containsVal("3"));
+		assertTrue(map.containsKey(3));
+		assertFalse(map.containsKey(4));
+	}
+
+	@Test
+	public void testDuplicatesAndClear () {
+		CompactStringIdMap map = new CompactStringIdMap();
+
+		map.put("a");
+		map.put("b");
+		assertEquals(0, map.put("a"));
+		assertEquals(2, map.size());
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertEquals(-1, map.getId("a"));
+		assertEquals(0, map.put("b"));
+		assertEquals("b", map.get(0));
+	}
+
+	@Test
+	public void testNonAscii () {
+		CompactStringIdMap map = new CompactStringIdMap();
+
+		map.put("abc");
+		map.put("\u00e4bc");
+		map.put("\u20ac1");
+
+		assertEquals(1, map.getId("\u00e4bc"));
+		assertEquals(2, map.getId("\u20ac1"));
+		assertEquals("\u00e4bc", map.get(1));
+		assertEquals("\u20ac1", map.get(2));
+		assertEquals(-1, map.getId("\u00e4bd"));
+	}
+
+	@Test
+	public void testAgainstIdMap () {
+		CompactStringIdMap map = new CompactStringIdMap();
+		IdMap<String> idMap = new IdMap<String> ();
+		Random rand = new Random(0);
+
+		for(int i = 0; i < 50000; i++) {
+			String tid = "" + rand.nextInt(1000000);
+			if (!idMap.containsVal(tid)) {
+				idMap.put(tid);
+				map.put(tid);
+			}
+		}
+
+		assertEquals(idMap.size(), map.size());
+		for(int i = 0; i < idMap.size(); i++) {
+			assertEquals(idMap.get(i), map.get(i));
+			assertEquals(idMap.getId(idMap.get(i)), map.getId(map.get(i)));
+		}
+	}
+}
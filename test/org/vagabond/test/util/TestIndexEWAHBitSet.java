@@ -0,0 +1,120 @@
+package org.vagabond.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.vagabond.util.BitMatrix;
+import org.vagabond.util.ewah.IBitSet.BitsetType;
+import org.vagabond.util.ewah.IndexEWAHBitSet;
+import org.vagabond.util.ewah.JavaUtilBitSet;
+
+public class TestIndexEWAHBitSet extends AbstractIBitSetTest {
+
+	static Logger log = Logger.getLogger(TestIndexEWAHBitSet.class);
+
+	@Override
+	protected BitsetType getType () {
+		return BitsetType.IndexEWAHBitSet;
+	}
+
+	@Override
+	protected int getRandomSize () {
+		return 20000;
+	}
+
+	/**
+	 * One literal word.
+	 */
+	@Override
+	protected int getDenseLength () {
+		return 64;
+	}
+
+	@Test
+	public void testGet () {
+		IndexEWAHBitSet b = new IndexEWAHBitSet();
+		int[] bits = { 1, 3, 64, 130, 1000, 1001, 5000 };
+
+		for(int bit: bits)
+			b.set(bit);
+
+		for(int bit: bits)
+			assertTrue(b.get(bit));
+		assertFalse(b.get(0));
+		assertFalse(b.get(2));
+		assertFalse(b.get(999));
+		assertFalse(b.get(4999));
+		assertFalse(b.get(5001));
+		assertFalse(b.get(-1));
+
+		// modification after the index has been built
+		b.set(2000);
+		assertTrue(b.get(2000));
+		b.set(2);
+		assertTrue(b.get(2));
+		assertTrue(b.get(5000));
+	}
+
+	@Test
+	public void testRuns () {
+		IndexEWAHBitSet b = new IndexEWAHBitSet();
+		JavaUtilBitSet exp = new JavaUtilBitSet();
+
+		for(int i = 100; i < 1000; i++) {
+			b.set(i);
+			exp.set(i);
+		}
+		b.set(100000);
+		exp.set(100000);
+
+		for(int i = 0; i < 101000; i += 7)
+			assertEquals("bit " + i, exp.get(i), b.get(i));
+
+		assertEquals(toString(exp.intIterator(500, 700)),
+				toString(b.intIterator(500, 700)));
+		assertEquals(toString(exp.intIterator(990, 100001)),
+				toString(b.intIterator(990, 100001)));
+		assertEquals("", toString(b.intIterator(1000, 100000)));
+	}
+
+	@Test
+	public void testSetRangeValues () {
+		IndexEWAHBitSet b = new IndexEWAHBitSet();
+
+		b.set(3);
+		assertTrue(b.get(3));
+		b.setRange(100, 400);
+		assertTrue(b.get(100));
+		assertTrue(b.get(399));
+		assertFalse(b.get(400));
+		b.setRange(50, 60);
+		assertTrue(b.get(55));
+		assertFalse(b.get(60));
+		b.setRange(false, 200, 300);
+		assertFalse(b.get(250));
+		assertTrue(b.get(300));
+		assertEquals(1 + 10 + 200, b.cardinality());
+	}
+
+	@Test
+	public void testMatrix () {
+		BitMatrix m;
+
+		m = new BitMatrix(10, 100, BitsetType.IndexEWAHBitSet);
+		m.set(0, 5);
+		m.set(3, 17);
+		m.set(3, 99);
+		m.set(9, 0);
+
+		assertTrue(m.getBitmap() instanceof IndexEWAHBitSet);
+		assertTrue(m.get(3, 17));
+		assertFalse(m.get(3, 18));
+		assertEquals(2, m.numOnesInRow(3));
+		assertEquals(17, m.firstOneInRow(3));
+		assertEquals(1, m.numOnesInCol(0));
+		assertEquals("17,99", toString(m.getRowIntIter(3)));
+	}
+}
@@ -0,0 +1,80 @@
+package org.vagabond.test.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vagabond.util.QueryStatistics;
+import org.vagabond.util.QueryStatistics.TemplateStats;
+import org.vagabond.util.QueryTemplate;
+
+public class TestQueryStatistics {
+
+	private QueryStatistics stats = QueryStatistics.getInstance();
+	
+	@Before
+	public void setUp () {
+		stats.reset();
+		stats.setEnabled(true);
+	}
+	
+	@After
+	public void tearDown () {
+		stats.setEnabled(false);
+		stats.reset();
+	}
+	
+	@Test
+	public void testTemplateName () {
+		QueryTemplate temp = new QueryTemplate("Test.Query", "SELECT ${1} FROM R");
+		QueryTemplate other = new QueryTemplate("Test.Other", "SELECT * FROM ${1}");
+		String sql;
+		
+		sql = temp.parameterize("a");
+		other.parameterize("S");
+		assertEquals("Test.Query", stats.getTemplateName(sql));
+		assertEquals("Test.Other", stats.getTemplateName("SELECT * FROM S"));
+		assertEquals(QueryStatistics.UNNAMED, stats.getTemplateName("SELECT 1"));
+		
+		sql = new QueryTemplate("SELECT 2").parameterize();
+		assertEquals(QueryStatistics.UNNAMED, stats.getTemplateName(sql));
+	}
+	
+	@Test
+	public void testRecord () {
+		TemplateStats entry;
+		String sql = new QueryTemplate("Test.Update", "DELETE FROM ${1}").parameterize("R");
+		
+		stats.recordUpdate(null, null, sql, null, System.nanoTime(), 3);
+		stats.recordUpdate(null, "Test.Update", sql, null, 
+				System.nanoTime() - 3000000000L, 2);
+		
+		entry = stats.getStats("Test.Update");
+		assertEquals(2, entry.getCalls());
+		assertEquals(5, entry.getRows());
+		assertEquals(2 * sql.length(), entry.getSqlBytes());
+		assertTrue(entry.getMaxNanos() >= 3000000000L);
+		assertEquals(1, entry.getHistogram()[0]);
+		assertEquals(1, entry.getHistogram()[11]);
+		assertEquals(2, stats.getTotalCalls());
+		assertArrayEquals(new String[] {"Test.Update"}, stats.getTemplateNames());
+		assertTrue(stats.toJSON().contains("\"Test.Update\": {\"calls\": 2"));
+	}
+	
+	@Test
+	public void testSlowQuery () {
+		String sql = "SELECT * FROM R";
+		
+		stats.setSlowQueryThresholdMs(1000);
+		stats.recordUpdate(null, "Test.Slow", sql, new Object[] {1}, 
+				System.nanoTime() - 2000000000L, 0);
+		stats.recordUpdate(null, "Test.Slow", "SELECT 1", null, System.nanoTime(), 0);
+		stats.setSlowQueryThresholdMs(-1);
+		
+		assertEquals(1, stats.getStats("Test.Slow").getSlowCalls());
+		assertEquals(sql, stats.getSlowQuery("Test.Slow"));
+	}
+}
@@ -1,6 +1,9 @@
 package org.vagabond.test.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 import org.vagabond.util.QueryTemplate;
@@ -12,6 +15,21 @@ public class TestQueryTemplate {
 		QueryTemplate temp = new QueryTemplate("SELECT ${1} FROM ${2} WHERE ${1} = 3;");
 		
 		assertEquals(temp.parameterize("a", "R"), "SELECT a FROM R WHERE a = 3;");
+		assertEquals(temp.parameterize("a$1", "R\\"), "SELECT a$1 FROM R\\ WHERE a$1 = 3;");
+		assertEquals(temp.parameterize("a"), "SELECT a FROM ${2} WHERE a = 3;");
+		assertFalse(temp.hasBindParams());
+	}
+	
+	@Test
+	public void testBindParams () {
+		QueryTemplate temp = new QueryTemplate("SELECT ${3} FROM ${1} WHERE tid = ?{2} OR x = ?{4} OR y = ?{2}");
+		
+		assertTrue(temp.hasBindParams());
+		assertArrayEquals(new int[] {1, 3, 1}, temp.getBindParams());
+		assertEquals("SELECT a FROM R WHERE tid = ? OR x = ? OR y = ?", 
+				temp.getPreparedSQL("R", "1|2", "a", 3));
+		assertEquals("SELECT a FROM R WHERE tid = '1|2' OR x = 'it''s' OR y = '1|2'", 
+				temp.parameterize("R", "1|2", "a", "it's"));
 	}
 	
 }
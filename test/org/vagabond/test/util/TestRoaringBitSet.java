@@ -0,0 +1,155 @@
+package org.vagabond.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.vagabond.util.ewah.IBitSet;
+import org.vagabond.util.ewah.IBitSet.BitsetType;
+import org.vagabond.util.ewah.JavaUtilBitSet;
+import org.vagabond.util.ewah.RoaringBitSet;
+
+public class TestRoaringBitSet extends AbstractIBitSetTest {
+
+	static Logger log = Logger.getLogger(TestRoaringBitSet.class);
+
+	@Override
+	protected BitsetType getType () {
+		return BitsetType.RoaringBitSet;
+	}
+
+	@Override
+	protected int getRandomSize () {
+		return 300000;
+	}
+
+	@Override
+	protected int getDenseLength () {
+		return 5000;
+	}
+
+	/**
+	 * Test run containers for every other bitset.
+	 */
+	@Override
+	protected void prepare (IBitSet b, int round) {
+		if (round % 2 == 0)
+			((RoaringBitSet) b).runOptimize();
+	}
+
+	@Test
+	public void testSetAndGet () {
+		RoaringBitSet b = new RoaringBitSet();
+		int[] bits = { 0, 3, 65535, 65536, 70000, 1 << 20, 5000000 };
+
+		for(int bit: bits)
+			b.set(bit);
+
+		for(int bit: bits)
+			assertTrue(b.get(bit));
+		assertFalse(b.get(1));
+		assertFalse(b.get(65537));
+		assertFalse(b.get(4999999));
+		assertFalse(b.get(-1));
+		assertEquals(bits.length, b.cardinality());
+		assertEquals(5000001, b.sizeInBits());
+		assertEquals("0,3,65535,65536,70000,1048576,5000000",
+				toString(b.intIterator()));
+		assertEquals("65535,65536,70000", toString(b.intIterator(4, 1 << 20)));
+	}
+
+	@Test
+	public void testContainerTypes () {
+		RoaringBitSet b = new RoaringBitSet();
+		int[] stats;
+
+		// sparse chunk
+		for(int i = 0; i < 100; i++)
+			b.set(i * 100);
+		// dense chunk without runs
+		for(int i = 0; i < RoaringBitSet.CHUNK_SIZE; i += 2)
+			b.set(RoaringBitSet.CHUNK_SIZE + i);
+		// chunk that is a single run
+		for(int i = 0; i < RoaringBitSet.CHUNK_SIZE; i++)
+			b.set(2 * RoaringBitSet.CHUNK_SIZE + i);
+
+		stats = b.getContainerStats();
+		assertEquals(1, stats[0]);
+		assertEquals(2, stats[1]);
+		assertEquals(0, stats[2]);
+
+		b.runOptimize();
+		stats = b.getContainerStats();
+		assertEquals(1, stats[0]);
+		assertEquals(1, stats[1]);
+		assertEquals(1, stats[2]);
+
+		assertEquals(100 + RoaringBitSet.CHUNK_SIZE / 2 + RoaringBitSet.CHUNK_SIZE,
+				b.cardinality());
+		assertTrue(b.get(2 * RoaringBitSet.CHUNK_SIZE + 12345));
+		assertFalse(b.get(RoaringBitSet.CHUNK_SIZE + 1));
+
+		// adding to a run container
+		b.set(3 * RoaringBitSet.CHUNK_SIZE - 1);
+		b.set(3 * RoaringBitSet.CHUNK_SIZE + 1);
+		assertTrue(b.get(3 * RoaringBitSet.CHUNK_SIZE + 1));
+		assertFalse(b.get(3 * RoaringBitSet.CHUNK_SIZE));
+	}
+
+	@Test
+	public void testSetRangeRuns () {
+		RoaringBitSet b = new RoaringBitSet();
+		JavaUtilBitSet exp = new JavaUtilBitSet();
+		int[] stats;
+
+		// range spanning two complete chunks becomes runs
+		b.setRange(RoaringBitSet.CHUNK_SIZE - 10, 3 * RoaringBitSet.CHUNK_SIZE + 10);
+		exp.setRange(RoaringBitSet.CHUNK_SIZE - 10, 3 * RoaringBitSet.CHUNK_SIZE + 10);
+		stats = b.getContainerStats();
+		assertEquals(4, stats[2]);
+		assertEquals(exp.cardinality(), b.cardinality());
+		assertEquals(toString(exp.intIterator()), toString(b.intIterator()));
+	}
+
+	@Test
+	public void testIntersects () {
+		RoaringBitSet b1 = new RoaringBitSet();
+		RoaringBitSet b2 = new RoaringBitSet();
+
+		b1.set(5);
+		b1.set(100000);
+		b2.set(6);
+		b2.set(100001);
+		assertFalse(b1.intersects(b2));
+		assertTrue(b1.and(b2).cardinality() == 0);
+
+		b2.set(100000);
+		assertTrue(b1.intersects(b2));
+		assertEquals("100000", toString(b1.and(b2).intIterator()));
+	}
+
+	@Test
+	public void testNotCloneEquals () {
+		RoaringBitSet b = new RoaringBitSet("0110 0000 01");
+		RoaringBitSet c;
+
+		assertEquals("1,2,9", toString(b.intIterator()));
+
+		c = (RoaringBitSet) b.clone();
+		c.set(20);
+		assertFalse(b.get(20));
+		assertFalse(b.equals(c));
+		assertEquals(b, new RoaringBitSet("0110000001"));
+		assertEquals(b.hashCode(), new RoaringBitSet("0110000001").hashCode());
+		assertEquals(b, new JavaUtilBitSet("0110000001"));
+
+		b.not();
+		assertEquals("0,3,4,5,6,7,8", toString(b.intIterator()));
+
+		b.clear();
+		assertEquals(0, b.cardinality());
+		assertFalse(b.intIterator().hasNext());
+	}
+}